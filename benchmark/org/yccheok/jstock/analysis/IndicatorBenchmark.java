@@ -0,0 +1,98 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.analysis;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yccheok.jstock.benchmark.Fixtures;
+import org.yccheok.jstock.engine.Code;
+import org.yccheok.jstock.engine.Stock;
+import org.yccheok.jstock.engine.StockHistoryServer;
+
+/**
+ * Indicator evaluation, as being performed on every received quote of every
+ * alerted or scanned stock.
+ *
+ * @author yccheok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndicatorBenchmark {
+
+    // Trading days of history.
+    @Param({"250", "2500"})
+    public int days;
+
+    // Trading days being looked back by history operator.
+    @Param({"20", "200"})
+    public int period;
+
+    @Setup
+    public void setup() {
+        final Code code = Code.newInstance("C0000.KL");
+        stockHistoryServer = Fixtures.newStockHistoryServer(code, days);
+
+        final Stock latest = stockHistoryServer.getStockAt(days - 1);
+        indicator = (OperatorIndicator)org.yccheok.jstock.gui.Utils.getLastPriceRiseAboveIndicator(latest.getLastPrice());
+        stocks = new Stock[] { latest, stockHistoryServer.getStockAt(0) };
+
+        stockHistoryOperator = new StockHistoryOperator();
+        stockHistoryOperator.setFunction(StockHistoryOperator.Function.EMA);
+        stockHistoryOperator.setType(StockHistoryOperator.Type.LastPrice);
+        final long end = stockHistoryServer.getTimestamp(days - 1);
+        final long start = stockHistoryServer.getTimestamp(Math.max(0, days - period));
+        stockHistoryOperator.setStartDate(new Date(start));
+        stockHistoryOperator.setEndDate(new Date(end));
+    }
+
+    @Benchmark
+    public boolean operatorIndicatorIsTriggered() {
+        // Alternate, so that the result is not constant.
+        indicator.setStock(stocks[(int)(count++ & 1)]);
+        return indicator.isTriggered();
+    }
+
+    @Benchmark
+    public Object stockHistoryOperatorCalculate() {
+        stockHistoryOperator.calculate(stockHistoryServer);
+        return stockHistoryOperator.calculate();
+    }
+
+    private StockHistoryServer stockHistoryServer;
+    private OperatorIndicator indicator;
+    private Stock[] stocks;
+    private long count = 0;
+    private StockHistoryOperator stockHistoryOperator;
+}
@@ -0,0 +1,205 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import org.yccheok.jstock.engine.ArrayStockHistoryServer;
+import org.yccheok.jstock.engine.Code;
+import org.yccheok.jstock.engine.StockHistoryServer;
+import org.yccheok.jstock.engine.StockInfo;
+import org.yccheok.jstock.file.Statements;
+
+/**
+ * Generates benchmark fixtures locally, so that benchmarks need neither
+ * network nor user data. Every fixture is generated from a fixed seed. Hence,
+ * runs are comparable.
+ *
+ * @author yccheok
+ */
+public class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns codes such as "C0001.KL".
+     *
+     * @param size number of codes
+     * @return codes
+     */
+    public static List<Code> newCodes(int size) {
+        final List<Code> codes = new ArrayList<Code>(size);
+        for (int i = 0; i < size; i++) {
+            codes.add(Code.newInstance(String.format("C%04d.KL", i)));
+        }
+        return codes;
+    }
+
+    /**
+     * Returns stock infos with random upper case names, which share common
+     * prefixes, as real stock names do.
+     *
+     * @param size number of stock infos
+     * @return stock infos
+     */
+    public static List<StockInfo> newStockInfos(int size) {
+        final Random random = new Random(SEED);
+        final List<StockInfo> stockInfos = new ArrayList<StockInfo>(size);
+        final List<Code> codes = newCodes(size);
+        for (int i = 0; i < size; i++) {
+            stockInfos.add(StockInfo.newInstance(codes.get(i), newName(random)));
+        }
+        return stockInfos;
+    }
+
+    private static String newName(Random random) {
+        final int length = 3 + random.nextInt(10);
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // Small alphabet, so that prefixes are shared.
+            builder.append((char)('A' + random.nextInt(8)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns a Yahoo! CSV quote respond of the given codes. Every field is
+     * quoted. Date and time are N/A, as most of the time they are. A valid
+     * timestamp would make the parser ask Google server for current time.
+     *
+     * @param codes the codes
+     * @return a Yahoo! CSV quote respond
+     */
+    public static String newYahooQuotes(List<Code> codes) {
+        final Random random = new Random(SEED);
+        final StringBuilder builder = new StringBuilder();
+        for (Code code : codes) {
+            final double prev = 1.0 + random.nextInt(10000) / 100.0;
+            final double last = prev + (random.nextInt(200) - 100) / 100.0;
+            builder.append('"').append(code).append("\",\"Name of ").append(code).append('"');
+            for (int i = 2; i < 30; i++) {
+                final String value;
+                switch (i) {
+                case 4: value = Double.toString(prev); break;
+                case 8: value = Double.toString(last); break;
+                case 14: value = Integer.toString(random.nextInt(10000000)); break;
+                case 16: value = Double.toString(last - prev); break;
+                case 18: value = ((last - prev) / prev * 100.0) + "%"; break;
+                default: value = (i % 2 == 0) ? Double.toString(last) : ""; break;
+                }
+                builder.append(",\"").append(value).append('"');
+            }
+            builder.append(",\"N/A\",\"N/A\"\r\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns a Google Finance quote respond of the given codes.
+     *
+     * @param codes the codes
+     * @return a Google Finance quote respond
+     */
+    public static String newGoogleQuotes(List<Code> codes) {
+        final Random random = new Random(SEED);
+        final StringBuilder builder = new StringBuilder("\n// [\n");
+        for (int i = 0, size = codes.size(); i < size; i++) {
+            final double last = 1.0 + random.nextInt(10000) / 100.0;
+            final double change = (random.nextInt(200) - 100) / 100.0;
+            if (i > 0) {
+                builder.append(",");
+            }
+            builder.append("{\n\"id\": \"").append(i)
+                .append("\"\n,\"t\" : \"").append(codes.get(i))
+                .append("\"\n,\"e\" : \"KLSE\"\n,\"name\" : \"Name \\x26 Co\"\n,\"l\" : \"").append(last)
+                .append("\"\n,\"c\" : \"").append(change)
+                .append("\"\n,\"cp\" : \"").append(change / last * 100.0)
+                .append("\"\n,\"op\" : \"").append(last)
+                .append("\"\n,\"hi\" : \"").append(last + 1)
+                .append("\"\n,\"lo\" : \"").append(last - 1)
+                .append("\"\n,\"vo\" : \"").append(random.nextInt(100000))
+                .append("\"\n}\n");
+        }
+        builder.append("]\n");
+        return builder.toString();
+    }
+
+    /**
+     * Returns daily history of the given code, as a random walk on weekdays,
+     * ending today.
+     *
+     * @param code the code
+     * @param days number of trading days
+     * @return daily history of the given code
+     */
+    public static StockHistoryServer newStockHistoryServer(Code code, int days) {
+        final Random random = new Random(SEED);
+        final Calendar calendar = Calendar.getInstance();
+        org.yccheok.jstock.engine.Utils.resetCalendarTime(calendar);
+
+        final List<Long> timestamps = new ArrayList<Long>(days);
+        while (timestamps.size() < days) {
+            final int day = calendar.get(Calendar.DAY_OF_WEEK);
+            if (day != Calendar.SATURDAY && day != Calendar.SUNDAY) {
+                timestamps.add(0, calendar.getTimeInMillis());
+            }
+            calendar.add(Calendar.DATE, -1);
+        }
+
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(code);
+        double prev = 10.0;
+        for (Long timestamp : timestamps) {
+            final double open = Math.max(0.01, prev + random.nextGaussian() * 0.1);
+            final double last = Math.max(0.01, open + random.nextGaussian() * 0.2);
+            final double high = Math.max(open, last) + random.nextDouble() * 0.1;
+            final double low = Math.max(0.01, Math.min(open, last) - random.nextDouble() * 0.1);
+            final long volume = random.nextInt(10000000);
+            builder.add(timestamp, open, high, low, last, volume);
+            prev = last;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Writes daily history of the given code, into a temporary CSV file, in
+     * the same format as the history cache.
+     *
+     * @param code the code
+     * @param days number of trading days
+     * @return the CSV file, which is deleted on exit
+     * @throws IOException if fail to write
+     */
+    public static File newStockHistoryCSVFile(Code code, int days) throws IOException {
+        final File file = File.createTempFile("jstock-benchmark-history", ".csv");
+        file.deleteOnExit();
+        final Statements statements = Statements.newInstanceFromStockHistoryServer(newStockHistoryServer(code, days), true);
+        if (statements.saveAsCSVFile(file) == false) {
+            throw new IOException("Fail to write " + file);
+        }
+        return file;
+    }
+
+    public static final long SEED = 20120101L;
+}
@@ -0,0 +1,85 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.charting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yccheok.jstock.benchmark.Fixtures;
+import org.yccheok.jstock.engine.Code;
+import org.yccheok.jstock.engine.StockHistoryServer;
+
+/**
+ * Latest value of technical indicators, over close prices.
+ *
+ * @author yccheok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TechnicalAnalysisBenchmark {
+
+    // Number of close prices.
+    @Param({"100", "2500"})
+    public int size;
+
+    @Setup
+    public void setup() {
+        final StockHistoryServer stockHistoryServer = Fixtures.newStockHistoryServer(Code.newInstance("C0000.KL"), size);
+        values = new ArrayList<Double>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(stockHistoryServer.getStockAt(i).getLastPrice());
+        }
+    }
+
+    @Benchmark
+    public Double createEMA() {
+        return TechnicalAnalysis.createEMA(values, PERIOD);
+    }
+
+    @Benchmark
+    public Double createRSI() {
+        return TechnicalAnalysis.createRSI(values, PERIOD);
+    }
+
+    @Benchmark
+    public MACD.Result createMACDFix() {
+        return TechnicalAnalysis.createMACDFix(values, MACD_PERIOD);
+    }
+
+    private static final int PERIOD = 14;
+    private static final int MACD_PERIOD = 9;
+
+    private List<Double> values;
+}
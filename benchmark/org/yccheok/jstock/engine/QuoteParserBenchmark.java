@@ -0,0 +1,138 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import au.com.bytecode.opencsv.CSVParser;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.yccheok.jstock.benchmark.Fixtures;
+
+/**
+ * Parsing of Yahoo! CSV and Google JSON quote responds, of a single scan.
+ * yahooStockFormatParseLegacy is the baseline, which parses the way
+ * YahooStockFormat did before CSVTokenizer : whole body split into line
+ * strings, regular expression and CSVParser per line, and parseDouble per
+ * field. Allocation is as important as time here. Run with the GC profiler
+ * to see bytes allocated per parse (gc.alloc.rate.norm).
+ *
+ *     ant benchmark -Dbenchmark.args="QuoteParserBenchmark -prof gc"
+ *
+ * @author yccheok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuoteParserBenchmark {
+
+    // Codes per request.
+    @Param({"20", "200", "1000"})
+    public int size;
+
+    @Setup
+    public void setup() {
+        final List<Code> codes = Fixtures.newCodes(size);
+        yahooQuotes = Fixtures.newYahooQuotes(codes);
+        googleQuotes = Fixtures.newGoogleQuotes(codes);
+        if (YahooStockFormat.getInstance().parse(yahooQuotes).size() != size) {
+            throw new IllegalStateException("Bad Yahoo! fixture");
+        }
+    }
+
+    @Benchmark
+    public List<Stock> yahooStockFormatParse() {
+        return YahooStockFormat.getInstance().parse(yahooQuotes);
+    }
+
+    @Benchmark
+    public List<Stock> yahooStockFormatParseLegacy() throws IOException {
+        final List<Stock> stocks = new ArrayList<Stock>();
+        final String[] strings = yahooQuotes.split("\r\n|\r|\n");
+        for (String string : strings) {
+            final String stringDigitWithoutComma = commaNotBetweenQuotes.matcher(string).replaceAll("");
+            final String[] fields = new CSVParser().parseLine(stringDigitWithoutComma);
+            if (fields.length < 32) {
+                continue;
+            }
+            final Code code = Code.newInstance(quotePattern.matcher(fields[0]).replaceAll("").trim());
+            double prevPrice = 0.0;
+            double lastPrice = 0.0;
+            long volume = 0;
+            double changePrice = 0.0;
+            double changePricePercentage = 0.0;
+            long timestamp = 0;
+            try { prevPrice = Double.parseDouble(fields[4]); } catch (NumberFormatException exp) {}
+            try { lastPrice = Double.parseDouble(fields[8]); } catch (NumberFormatException exp) {}
+            try { volume = Long.parseLong(fields[14]); } catch (NumberFormatException exp) {}
+            try { changePrice = Double.parseDouble(quotePattern.matcher(fields[16]).replaceAll("").trim()); } catch (NumberFormatException exp) {}
+            final String _changePricePercentage = percentagePattern.matcher(quotePattern.matcher(fields[18]).replaceAll("")).replaceAll("");
+            try { changePricePercentage = Double.parseDouble(_changePricePercentage); } catch (NumberFormatException exp) {}
+            final SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy hh:mmaa");
+            try {
+                timestamp = dateFormat.parse(quotePattern.matcher(fields[30]).replaceAll("").trim() + " " + quotePattern.matcher(fields[31]).replaceAll("").trim()).getTime();
+            } catch (ParseException exp) {
+                // Most of the time, we just obtain "N/A"
+            }
+            stocks.add(new Stock.Builder(code).prevPrice(prevPrice).lastPrice(lastPrice).volume(volume).
+                    changePrice(changePrice).changePricePercentage(changePricePercentage).timestamp(timestamp).build());
+        }
+        return stocks;
+    }
+
+    @Benchmark
+    public void googleQuoteParser(Blackhole blackhole) throws IOException {
+        parser.reset(new StringReader(googleQuotes));
+        while (parser.next()) {
+            blackhole.consume(parser.getString(GoogleQuoteParser.TICKER));
+            blackhole.consume(parser.getDouble(GoogleQuoteParser.LAST, false, 0));
+            blackhole.consume(parser.getDouble(GoogleQuoteParser.CHANGE, true, 0));
+            blackhole.consume(parser.getDouble(GoogleQuoteParser.VOLUME, false, 0));
+        }
+        parser.reset(null);
+    }
+
+    private String yahooQuotes;
+    private String googleQuotes;
+    private final GoogleQuoteParser parser = new GoogleQuoteParser();
+
+    private static final Pattern commaNotBetweenQuotes = Pattern.compile("(?<!\"),(?!\")");
+    private static final Pattern quotePattern = Pattern.compile("\"");
+    private static final Pattern percentagePattern = Pattern.compile("%");
+}
@@ -0,0 +1,84 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yccheok.jstock.benchmark.Fixtures;
+
+/**
+ * Prefix search, as being performed on every key stroke in the stock combo
+ * box.
+ *
+ * @author yccheok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    // Number of stocks in the database. Roughly KLSE and NYSE.
+    @Param({"1000", "10000"})
+    public int size;
+
+    // Codes all start with "C". Hence, these prefixes go through name
+    // search. Short prefix matches many, long prefix matches few.
+    @Param({"A", "ABC"})
+    public String prefix;
+
+    @Setup
+    public void setup() {
+        final List<StockInfo> stockInfos = Fixtures.newStockInfos(size);
+        final List<String> names = new ArrayList<String>(size);
+        for (StockInfo stockInfo : stockInfos) {
+            names.add(stockInfo.getName());
+        }
+        tstSearchEngine = new TSTSearchEngine<String>(names);
+        stockInfoDatabase = new StockInfoDatabase(stockInfos);
+    }
+
+    @Benchmark
+    public List<String> tstSearchEngineSearchAll() {
+        return tstSearchEngine.searchAll(prefix);
+    }
+
+    @Benchmark
+    public List<StockInfo> stockInfoDatabaseSearchStockInfos() {
+        return stockInfoDatabase.searchStockInfos(prefix);
+    }
+
+    private TSTSearchEngine<String> tstSearchEngine;
+    private StockInfoDatabase stockInfoDatabase;
+}
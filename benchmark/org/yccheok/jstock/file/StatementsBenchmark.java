@@ -0,0 +1,78 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.file;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yccheok.jstock.benchmark.Fixtures;
+import org.yccheok.jstock.engine.Code;
+import org.yccheok.jstock.engine.StatementsStockHistoryServer;
+
+/**
+ * Loading of a cached history CSV file, as being performed for every code
+ * which is charted or scanned.
+ *
+ * @author yccheok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatementsBenchmark {
+
+    // Trading days. Roughly 1 year and 10 years.
+    @Param({"250", "2500"})
+    public int days;
+
+    @Setup
+    public void setup() throws Exception {
+        file = Fixtures.newStockHistoryCSVFile(Code.newInstance("C0000.KL"), days);
+        statements = Statements.newInstanceFromCSVFile(file);
+        if (statements.size() != days) {
+            throw new IllegalStateException("Bad history fixture");
+        }
+    }
+
+    @Benchmark
+    public Statements newInstanceFromCSVFile() {
+        return Statements.newInstanceFromCSVFile(file);
+    }
+
+    @Benchmark
+    public StatementsStockHistoryServer newStatementsStockHistoryServer() {
+        return StatementsStockHistoryServer.newInstance(statements);
+    }
+
+    private File file;
+    private Statements statements;
+}
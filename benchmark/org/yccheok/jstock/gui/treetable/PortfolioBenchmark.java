@@ -0,0 +1,87 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.gui.treetable;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.yccheok.jstock.benchmark.Fixtures;
+import org.yccheok.jstock.engine.Code;
+import org.yccheok.jstock.engine.SimpleDate;
+import org.yccheok.jstock.portfolio.Contract;
+import org.yccheok.jstock.portfolio.Transaction;
+
+/**
+ * Last price update of a buy portfolio, as being performed on every received
+ * quote of every owned stock.
+ *
+ * @author yccheok
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortfolioBenchmark {
+
+    // Number of owned stocks.
+    @Param({"10", "500"})
+    public int size;
+
+    // Transactions per owned stock.
+    @Param({"1", "20"})
+    public int transactions;
+
+    @Setup
+    public void setup() {
+        codes = Fixtures.newCodes(size);
+        model = new BuyPortfolioTreeTableModelEx();
+        final SimpleDate date = new SimpleDate();
+        for (Code code : codes) {
+            for (int i = 0; i < transactions; i++) {
+                final Contract contract = new Contract.ContractBuilder(code, date).type(Contract.Type.Buy).quantity(100).price(1.0 + i).build();
+                model.addTransaction(new Transaction(contract, 0.0, 0.0, 0.0));
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean updateStockLastPrice() {
+        // Walk through every owned stock. The last one is the worst case of
+        // the lookup.
+        final int i = (int)(count++ % size);
+        return model.updateStockLastPrice(codes.get(i), 1.0 + (count & 7));
+    }
+
+    private List<Code> codes;
+    private BuyPortfolioTreeTableModelEx model;
+    private long count = 0;
+}
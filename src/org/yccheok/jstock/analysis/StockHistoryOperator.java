@@ -73,16 +73,39 @@ public class StockHistoryOperator extends AbstractOperator {
         return value;
     }
 
-    private double average(java.util.List<Double> values) {
-        final int size = values.size();
+    private double average(double[] values) {
+        final int size = values.length;
         assert (size >= 0);
         double sum = 0.0;
-        for (Double v : values) {
+        for (double v : values) {
             sum = sum + v;
         }
         return sum / size;
     }
     
+    private static double getValue(Stock stock, Type type) {
+        switch (type) {
+            case PrevPrice:
+                return stock.getPrevPrice();
+            case OpenPrice:
+                return stock.getOpenPrice();
+            case HighPrice:
+                return stock.getHighPrice();
+            case LowPrice:
+                return stock.getLowPrice();
+            case LastPrice:
+                return stock.getLastPrice();
+            case TypicalPrice:
+                return TechnicalAnalysis.getTypicalPrice(stock);
+            case Volume:
+                // ???
+                return stock.getVolume();
+            default:
+                assert(false);
+                return 0.0;
+        }
+    }
+    
     /**
      * Returns minimum history size which is required by this operator based on
      * given day duration.
@@ -143,18 +166,6 @@ public class StockHistoryOperator extends AbstractOperator {
             return;
         }
 
-        java.util.List<Stock> stocks = new java.util.ArrayList<Stock>();
-        // To be added to end of "stocks" later.
-        java.util.List<Stock> tmpStocks = new java.util.ArrayList<Stock>();
-        java.util.List<Double> values = new java.util.ArrayList<Double>();
-
-        // For MFI usage.
-        java.util.List<Double> highs = new java.util.ArrayList<Double>();
-        java.util.List<Double> lows = new java.util.ArrayList<Double>();
-        java.util.List<Double> closes = new java.util.ArrayList<Double>();
-        // TODO: CRITICAL LONG BUG REVISED NEEDED.
-        java.util.List<Long> volumes = new java.util.ArrayList<Long>();
-
         final Calendar startCalendar = Calendar.getInstance();  
         final Calendar endCalendar = Calendar.getInstance();  
         startCalendar.setTime(startDate);
@@ -163,30 +174,14 @@ public class StockHistoryOperator extends AbstractOperator {
         // Not sure why there is time information in startDate. Reset it.
         org.yccheok.jstock.engine.Utils.resetCalendarTime(startCalendar);
         org.yccheok.jstock.engine.Utils.resetCalendarTime(endCalendar);
+        // Till the end of endDate.
+        endCalendar.add(Calendar.DATE, 1);
         
-        int day = 0;
-
-        /* Fill up stocks. */
-        while(true) {
-            final long startTimestamp = startCalendar.getTimeInMillis();
-            Stock stock = stockHistoryServer.getStock(startTimestamp);
-            if (stock != null) {
-                tmpStocks.add(stock);
-                day++;
-            }
-            
-            if(
-                    startCalendar.get(Calendar.YEAR) == endCalendar.get(Calendar.YEAR) && 
-                    startCalendar.get(Calendar.MONTH) == endCalendar.get(Calendar.MONTH) && 
-                    startCalendar.get(Calendar.DATE) == endCalendar.get(Calendar.DATE)
-                )
-            {
-                break;
-            }
-            startCalendar.add(Calendar.DAY_OF_MONTH, 1);
-        }
+        // Stocks within [startDate, endDate], by binary search on timestamps.
+        final int from = stockHistoryServer.ceilingIndex(startCalendar.getTimeInMillis());
+        final int to = stockHistoryServer.floorIndex(endCalendar.getTimeInMillis() - 1);
         
-        if (day == 0) {
+        if (from < 0 || to < from) {
             Object oldValue = this.value;
             this.value = null;
             if (Utils.equals(oldValue, value) == false) {
@@ -195,98 +190,62 @@ public class StockHistoryOperator extends AbstractOperator {
             return;
         }
         
-        // We have correct "day" right now.
-        
-        // Reset.
-        startCalendar.setTime(startDate);
-        org.yccheok.jstock.engine.Utils.resetCalendarTime(startCalendar);
+        final int day = to - from + 1;
         
-        int remainingHistorySize = Math.max(0, getRequiredHistorySize(day) - day);
+        // Earlier stocks, which are required for look back.
+        final int remainingHistorySize = Math.max(0, getRequiredHistorySize(day) - day);
+        final int first = Math.max(0, from - remainingHistorySize);
+        final int size = to + 1 - first;
         
-        long oldestHistoryTimestamp = stockHistoryServer.getTimestamp(0);
-        Calendar oldestHistoryCalendar = Calendar.getInstance();
-        oldestHistoryCalendar.setTimeInMillis(oldestHistoryTimestamp);
-        while (remainingHistorySize > 0) {
-            startCalendar.add(Calendar.DAY_OF_MONTH, -1);
-
-            if (startCalendar.before(oldestHistoryCalendar)) {
-                break;
-            }
-            
-            final long startTimestamp = startCalendar.getTimeInMillis();                
-            Stock stock = stockHistoryServer.getStock(startTimestamp);
-            if (stock != null) {
-                stocks.add(stock);
-                remainingHistorySize--;
-            }
-        }
-
         // Oldest comes first.
-        java.util.Collections.reverse(stocks);
-        // Stocks fill up completely!
-        stocks.addAll(tmpStocks);
+        double[] values = null;
+        // For MFI usage.
+        double[] highs = null;
+        double[] lows = null;
+        double[] closes = null;
+        // TODO: CRITICAL LONG BUG REVISED NEEDED.
+        double[] volumes = null;
 
         if (this.function == Function.MFI) {
-            for (Stock stock : stocks) {
-                values.add(TechnicalAnalysis.getTypicalPrice(stock));
-                highs.add(stock.getHighPrice());
-                lows.add(stock.getLowPrice());
-                closes.add(stock.getLastPrice());
-                volumes.add(stock.getVolume());
+            values = new double[size];
+            highs = new double[size];
+            lows = new double[size];
+            closes = new double[size];
+            volumes = new double[size];
+            for (int i = 0; i < size; i++) {
+                final Stock stock = stockHistoryServer.getStockAt(first + i);
+                values[i] = TechnicalAnalysis.getTypicalPrice(stock);
+                highs[i] = stock.getHighPrice();
+                lows[i] = stock.getLowPrice();
+                closes[i] = stock.getLastPrice();
+                volumes[i] = stock.getVolume();
             }
         }
         else {
             switch(this.type)
             {
-                case PrevPrice:
-                    for (Stock stock : stocks) {
-                        values.add(stock.getPrevPrice());
-                    }
+                case LastPrice:
+                    values = stockHistoryServer.closes(first, to + 1);
                     break;
-
+                    
+                case PrevPrice:
                 case OpenPrice:
-                    for (Stock stock : stocks) {
-                        values.add(stock.getOpenPrice());
-                    }
-                    break;
-
                 case HighPrice:
-                    for (Stock stock : stocks) {
-                        values.add(stock.getHighPrice());
-                    }
-                    break;
-
                 case LowPrice:
-                    for (Stock stock : stocks) {
-                        values.add(stock.getLowPrice());
-                    }
-                    break;
-
-                case LastPrice:
-                    for (Stock stock : stocks) {
-                        values.add(stock.getLastPrice());
-                    }
-                    break;
-
                 case TypicalPrice:
-                    for (Stock stock : stocks) {
-                        values.add(TechnicalAnalysis.getTypicalPrice(stock));
-                    }
-                    break;
-
                 case Volume:
-                    // ???
-                    for (Stock stock : stocks) {
-                        values.add(new Double(stock.getVolume()));
+                    values = new double[size];
+                    for (int i = 0; i < size; i++) {
+                        values[i] = getValue(stockHistoryServer.getStockAt(first + i), this.type);
                     }
                     break;
 
                 case MarketCapital:
-                    values.add(new Double(stockHistoryServer.getMarketCapital()));
+                    values = new double[] { stockHistoryServer.getMarketCapital() };
                     break;
 
                 case SharesIssued:
-                    values.add(new Double(stockHistoryServer.getSharesIssued()));
+                    values = new double[] { stockHistoryServer.getSharesIssued() };
                     break;
 
                 default:
@@ -294,7 +253,7 @@ public class StockHistoryOperator extends AbstractOperator {
             }
         } // if (this.function == Function.MFI)
         
-        final int dataSize = values.size();
+        final int dataSize = values == null ? 0 : values.length;
         
         if (dataSize == 0) {
             Object oldValue = this.value;
@@ -314,14 +273,14 @@ public class StockHistoryOperator extends AbstractOperator {
         switch(function)
         {
             case Max:
-                for (Double _value : values) {
+                for (double _value : values) {
                     tmp_v = Math.max(tmp_v, _value);
                 }
                 v = tmp_v;
                 break;
                 
             case Min:
-                for (Double _value : values) {
+                for (double _value : values) {
                     tmp_v = Math.min(tmp_v, _value);
                 }
                 v = tmp_v;
@@ -333,11 +292,11 @@ public class StockHistoryOperator extends AbstractOperator {
 
             case MeanDeviation:
                 double average = 0;
-                for (Double _value : values) {
+                for (double _value : values) {
                     average = average + _value;
                 }
                 average = average / (double)dataSize;
-                for (Double _value : values) {
+                for (double _value : values) {
                     tmp_v = tmp_v + Math.abs(_value - average);
                 }
                 tmp_v = tmp_v / (double)dataSize;
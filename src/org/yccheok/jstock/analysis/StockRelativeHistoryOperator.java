@@ -203,9 +203,7 @@ public class StockRelativeHistoryOperator extends AbstractOperator {
         final int start = Math.max(0, size - getRequiredHistorySize());
 
         for (int i = Math.max(0, start - skipDay), ei = Math.max(0, size - skipDay); i < ei; i++) {
-            final long timestamp = stockHistoryServer.getTimestamp(i);
-            final Stock stock = stockHistoryServer.getStock(timestamp);
-            stocks.add(stock);
+            stocks.add(stockHistoryServer.getStockAt(i));
         }
 
         if (this.function == Function.MFI) {
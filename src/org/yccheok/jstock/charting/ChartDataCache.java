@@ -0,0 +1,357 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.charting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import org.yccheok.jstock.engine.Code;
+import org.yccheok.jstock.engine.Stock;
+import org.yccheok.jstock.engine.StockHistoryServer;
+
+/**
+ * Weekly and monthly chart data of recently charted stock histories. Both are
+ * built together, in a single pass over daily stocks. Weeks and months are
+ * determined by epoch day arithmetic, instead of a Calendar per day. If a
+ * stock history of the same code is charted again, with days dropped from the
+ * start, as a duration view which has moved on, or new days appended, only
+ * the first and last week and month are rebuilt. Days are matched by
+ * timestamp, so a history freshly loaded from disk reuses what was built from
+ * the previous one.
+ *
+ * @author yccheok
+ */
+public enum ChartDataCache {
+    INSTANCE;
+
+    /**
+     * Returns weekly chart data based on given stock history server. Every
+     * week's last price and volume are the averages of its days.
+     *
+     * @param stockHistoryServer the stock history server
+     * @return list of weekly chart data, which is unmodifiable
+     */
+    public List<ChartData> getWeeklyChartData(StockHistoryServer stockHistoryServer) {
+        final Record record = getRecord(stockHistoryServer);
+        return record == null ? Collections.<ChartData>emptyList() : record.weekly.chartDatas;
+    }
+
+    /**
+     * Returns monthly chart data based on given stock history server. Every
+     * month's last price and volume are the averages of its days.
+     *
+     * @param stockHistoryServer the stock history server
+     * @return list of monthly chart data, which is unmodifiable
+     */
+    public List<ChartData> getMonthlyChartData(StockHistoryServer stockHistoryServer) {
+        final Record record = getRecord(stockHistoryServer);
+        return record == null ? Collections.<ChartData>emptyList() : record.monthly.chartDatas;
+    }
+
+    public synchronized void clear() {
+        records.clear();
+    }
+
+    private synchronized Record getRecord(StockHistoryServer stockHistoryServer) {
+        final int size = stockHistoryServer.size();
+        if (size == 0) {
+            return null;
+        }
+
+        final Code code = stockHistoryServer.getStockAt(0).code;
+        final Record record = records.get(code);
+        if (record != null && record.stockHistoryServer == stockHistoryServer) {
+            return record;
+        }
+
+        final TimeZone timeZone = TimeZone.getDefault();
+        final int firstDayOfWeek = Calendar.getInstance().getFirstDayOfWeek();
+        final int offset = record == null ? -1 : record.getOffset(stockHistoryServer, timeZone, firstDayOfWeek);
+        final Record newRecord;
+        if (offset >= 0) {
+            // Days between the first and last week and month are unchanged.
+            newRecord = new Record(stockHistoryServer, timeZone, firstDayOfWeek, record, offset);
+        } else {
+            newRecord = new Record(stockHistoryServer, timeZone, firstDayOfWeek, null, 0);
+        }
+        records.put(code, newRecord);
+        return newRecord;
+    }
+
+    // Days since 1970-01-01, of the local date of the given time.
+    private static long toEpochDay(long timestamp, TimeZone timeZone) {
+        final long local = timestamp + timeZone.getOffset(timestamp);
+        return (local >= 0) ? local / DAY : ((local + 1) / DAY) - 1;
+    }
+
+    // Weeks since the week of 1970-01-01, which was a Thursday.
+    private static long toEpochWeek(long epochDay, int firstDayOfWeek) {
+        final long days = epochDay + (Calendar.THURSDAY - firstDayOfWeek);
+        return (days >= 0) ? days / 7 : ((days + 1) / 7) - 1;
+    }
+
+    // Months since 1970-01. Based on civil from days algorithm of Howard
+    // Hinnant.
+    private static long toEpochMonth(long epochDay) {
+        final long z = epochDay + 719468;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        // March based.
+        final long mp = (5 * doy + 2) / 153;
+        final long month = mp < 10 ? mp + 2 : mp - 10;
+        final long year = yoe + era * 400 + (month <= 1 ? 1 : 0);
+        return (year - 1970) * 12 + month;
+    }
+
+    private static class Record {
+        // Builds from the given stock history. If previous is not null, the
+        // given stock history must be previous's from offset, with new days
+        // appended.
+        public Record(StockHistoryServer stockHistoryServer, TimeZone timeZone, int firstDayOfWeek, Record previous, int offset) {
+            this.stockHistoryServer = stockHistoryServer;
+            this.timeZone = timeZone;
+            this.firstDayOfWeek = firstDayOfWeek;
+            this.size = stockHistoryServer.size();
+            this.firstTimestamp = stockHistoryServer.getTimestamp(0);
+            this.lastTimestamp = stockHistoryServer.getTimestamp(size - 1);
+
+            final Bars weeklyBars = previous == null ? new Bars() : new Bars(previous.weekly, offset);
+            final Bars monthlyBars = previous == null ? new Bars() : new Bars(previous.monthly, offset);
+
+            // Single pass for both, over days which either of them needs.
+            int i = Math.min(weeklyBars.getNextIndex(0), monthlyBars.getNextIndex(0));
+            while (i < size) {
+                final long epochDay = toEpochDay(stockHistoryServer.getTimestamp(i), timeZone);
+                final Stock stock = stockHistoryServer.getStockAt(i);
+                weeklyBars.add(i, toEpochWeek(epochDay, firstDayOfWeek), stock);
+                monthlyBars.add(i, toEpochMonth(epochDay), stock);
+                i = Math.min(weeklyBars.getNextIndex(i + 1), monthlyBars.getNextIndex(i + 1));
+            }
+
+            this.weekly = weeklyBars.build();
+            this.monthly = monthlyBars.build();
+        }
+
+        // Returns offset of our day, from which the given stock history has
+        // the same days as ours, with new days appended. Stocks of our last
+        // day might be revised. -1 if there is no such day.
+        public int getOffset(StockHistoryServer stockHistoryServer, TimeZone timeZone, int firstDayOfWeek) {
+            if (this.timeZone.equals(timeZone) == false || this.firstDayOfWeek != firstDayOfWeek) {
+                return -1;
+            }
+            final long timestamp = stockHistoryServer.getTimestamp(0);
+            if (timestamp < firstTimestamp || timestamp > lastTimestamp) {
+                return -1;
+            }
+            final int offset = this.stockHistoryServer.floorIndex(timestamp);
+            if (offset < 0 || this.stockHistoryServer.getTimestamp(offset) != timestamp) {
+                return -1;
+            }
+            final int remaining = size - offset;
+            if (stockHistoryServer.size() < remaining || stockHistoryServer.getTimestamp(remaining - 1) != lastTimestamp) {
+                return -1;
+            }
+            return offset;
+        }
+
+        public final StockHistoryServer stockHistoryServer;
+        public final TimeZone timeZone;
+        public final int firstDayOfWeek;
+        public final int size;
+        public final long firstTimestamp;
+        public final long lastTimestamp;
+        public final Aggregation weekly;
+        public final Aggregation monthly;
+    }
+
+    // Aggregated chart data. The last chart data is still open, as more days
+    // might come.
+    private static class Aggregation {
+        public Aggregation(List<ChartData> chartDatas, int[] starts) {
+            this.chartDatas = chartDatas;
+            this.starts = starts;
+        }
+        public final List<ChartData> chartDatas;
+        // Index of the first day of every chart data.
+        public final int[] starts;
+    }
+
+    // Aggregates consecutive days of the same period into a chart data.
+    private static class Bars {
+        public Bars() {
+            this.chartDatas = new ArrayList<ChartData>();
+            this.starts = new int[INITIAL_CAPACITY];
+            this.kept = Collections.emptyList();
+            this.keptStarts = new int[0];
+            this.skipFrom = 0;
+            this.skipTo = 0;
+        }
+
+        // Continues from the given aggregation, whose days start from offset.
+        // Its chart data of the given stock history's first and last day are
+        // rebuilt. Those in between are kept.
+        public Bars(Aggregation aggregation, int offset) {
+            final int[] previousStarts = aggregation.starts;
+            // Chart data of the first day.
+            int first = 0;
+            while (first + 1 < previousStarts.length && previousStarts[first + 1] <= offset) {
+                first++;
+            }
+            final int last = previousStarts.length - 1;
+
+            this.chartDatas = new ArrayList<ChartData>();
+            this.starts = new int[Math.max(INITIAL_CAPACITY, previousStarts.length)];
+            if (first + 1 < last) {
+                this.kept = aggregation.chartDatas.subList(first + 1, last);
+                this.keptStarts = new int[last - first - 1];
+                for (int i = 0; i < keptStarts.length; i++) {
+                    keptStarts[i] = previousStarts[first + 1 + i] - offset;
+                }
+                this.skipFrom = previousStarts[first + 1] - offset;
+                this.skipTo = previousStarts[last] - offset;
+            } else {
+                this.kept = Collections.emptyList();
+                this.keptStarts = new int[0];
+                this.skipFrom = 0;
+                this.skipTo = 0;
+            }
+        }
+
+        // Index of the first day to be added, from the given index.
+        public int getNextIndex(int index) {
+            return (index >= skipFrom && index < skipTo) ? skipTo : index;
+        }
+
+        public void add(int index, long period, Stock stock) {
+            if (index >= skipFrom && index < skipTo) {
+                return;
+            }
+            if (index >= skipTo && isKeptAdded == false) {
+                flush();
+                addKept();
+            }
+
+            if (count == 0 || period != this.period) {
+                flush();
+                // First day of the period.
+                this.period = period;
+                this.lastIndex = index;
+                prevPrice = stock.getPrevPrice();
+                openPrice = stock.getOpenPrice();
+                lastPrice = stock.getLastPrice();
+                highPrice = stock.getHighPrice();
+                lowPrice = stock.getLowPrice();
+                volume = stock.getVolume();
+                timestamp = stock.getTimestamp();
+                count = 1;
+            } else {
+                // We will not update prevPrice and openPrice. They will remain
+                // as the first day of the period's.
+                lastPrice += stock.getLastPrice();
+                highPrice = Math.max(highPrice, stock.getHighPrice());
+                lowPrice = Math.min(lowPrice, stock.getLowPrice());
+                volume += stock.getVolume();
+                timestamp = stock.getTimestamp();
+                count++;
+            }
+        }
+
+        public Aggregation build() {
+            flush();
+            if (isKeptAdded == false) {
+                addKept();
+            }
+            return new Aggregation(Collections.unmodifiableList(chartDatas), Arrays.copyOf(starts, chartDatas.size()));
+        }
+
+        private void addKept() {
+            for (int i = 0; i < keptStarts.length; i++) {
+                add(kept.get(i), keptStarts[i]);
+            }
+            isKeptAdded = true;
+        }
+
+        private void add(ChartData chartData, int start) {
+            final int size = chartDatas.size();
+            if (size >= starts.length) {
+                starts = Arrays.copyOf(starts, starts.length << 1);
+            }
+            starts[size] = start;
+            chartDatas.add(chartData);
+        }
+
+        private void flush() {
+            if (count == 0) {
+                return;
+            }
+            add(ChartData.newInstance(
+                    prevPrice,
+                    openPrice,
+                    lastPrice / count,  // Average last price.
+                    highPrice,
+                    lowPrice,
+                    volume / count,     // Average volume.
+                    timestamp), lastIndex);
+            count = 0;
+        }
+
+        // Roughly 5 years of weeks.
+        private static final int INITIAL_CAPACITY = 256;
+
+        private final List<ChartData> chartDatas;
+        private int[] starts;
+        // Chart data between the first and last, which are kept as they are,
+        // for days from skipFrom to skipTo.
+        private final List<ChartData> kept;
+        private final int[] keptStarts;
+        private final int skipFrom;
+        private final int skipTo;
+        private boolean isKeptAdded = false;
+        private int lastIndex = 0;
+        private long period = 0;
+        private double prevPrice = 0;
+        private double openPrice = 0;
+        private double lastPrice = 0;
+        private double highPrice = 0;
+        private double lowPrice = 0;
+        private long volume = 0;
+        private long timestamp = 0;
+        private int count = 0;
+    }
+
+    // Least recently charted codes are evicted.
+    @SuppressWarnings("serial")
+    private final Map<Code, Record> records = new LinkedHashMap<Code, Record>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Code, Record> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static final int MAX_ENTRIES = 8;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+}
@@ -44,10 +44,21 @@ public class TechnicalAnalysis {
      * @return the latest EMA
      */
     public static Double createEMA(java.util.List<Double> values, int period) {
+        return createEMA(ArrayUtils.toPrimitive(values.toArray(new Double[0])), period);
+    }
+
+    /**
+     * Returns the latest EMA.
+     *
+     * @param values raw data input
+     * @param period the duration period
+     * @return the latest EMA
+     */
+    public static Double createEMA(double[] values, int period) {
         if (period <= 0) {
             throw new java.lang.IllegalArgumentException("period must be greater than 0");
         }
-        final int size = values.size();
+        final int size = values.length;
         final Core core = new Core();
         final int allocationSize = size - core.emaLookback(period);
         if (allocationSize <= 0) {
@@ -57,8 +68,7 @@ public class TechnicalAnalysis {
         final double[] output = new double[allocationSize];
         final MInteger outBegIdx = new MInteger();
         final MInteger outNbElement = new MInteger();
-        double[] _values = ArrayUtils.toPrimitive(values.toArray(new Double[0]));
-        core.ema(0, values.size() - 1, _values, period, outBegIdx, outNbElement, output);
+        core.ema(0, size - 1, values, period, outBegIdx, outNbElement, output);
 
         return output[outNbElement.value - 1];
     }
@@ -78,22 +88,10 @@ public class TechnicalAnalysis {
             java.util.List<Double> closes,
             // TODO: CRITICAL LONG BUG REVISED NEEDED.
             java.util.List<Long> volumes, int period) {
-        if (period <= 0) {
-            throw new java.lang.IllegalArgumentException("period must be greater than 0");
-        }
         if (highs.size() != lows.size() || highs.size() != closes.size() || highs.size() != volumes.size()) {
             throw new java.lang.IllegalArgumentException("input list must be same size");
         }
 
-        final int size = highs.size();
-        final Core core = new Core();
-        final int allocationSize = size - core.mfiLookback(period);
-        if (allocationSize <= 0) {
-            return null;
-        }
-        final double[] output = new double[allocationSize];
-        final MInteger outBegIdx = new MInteger();
-        final MInteger outNbElement = new MInteger();
         double[] _highs = ArrayUtils.toPrimitive(highs.toArray(new Double[0]));
         double[] _lows = ArrayUtils.toPrimitive(lows.toArray(new Double[0]));
         double[] _closes = ArrayUtils.toPrimitive(closes.toArray(new Double[0]));
@@ -105,7 +103,37 @@ public class TechnicalAnalysis {
         for (int i = 0; i < dv.length; i++) {
             dv[i] = _volumes[i];
         }
-        core.mfi(0, _highs.length - 1, _highs, _lows, _closes, dv,  period, outBegIdx, outNbElement, output);
+        return createMFI(_highs, _lows, _closes, dv, period);
+    }
+
+    /**
+     * Returns the latest MFI.
+     *
+     * @param highs high price
+     * @param lows low price
+     * @param closes close price
+     * @param volumes volume
+     * @param period the duration period
+     * @return the latest MFI
+     */
+    public static Double createMFI(double[] highs, double[] lows, double[] closes, double[] volumes, int period) {
+        if (period <= 0) {
+            throw new java.lang.IllegalArgumentException("period must be greater than 0");
+        }
+        if (highs.length != lows.length || highs.length != closes.length || highs.length != volumes.length) {
+            throw new java.lang.IllegalArgumentException("input array must be same size");
+        }
+
+        final int size = highs.length;
+        final Core core = new Core();
+        final int allocationSize = size - core.mfiLookback(period);
+        if (allocationSize <= 0) {
+            return null;
+        }
+        final double[] output = new double[allocationSize];
+        final MInteger outBegIdx = new MInteger();
+        final MInteger outNbElement = new MInteger();
+        core.mfi(0, size - 1, highs, lows, closes, volumes,  period, outBegIdx, outNbElement, output);
 
         return output[outNbElement.value - 1];
     }
@@ -118,10 +146,21 @@ public class TechnicalAnalysis {
      * @return the latest RSI
      */
     public static Double createRSI(java.util.List<Double> values, int period) {
+        return createRSI(ArrayUtils.toPrimitive(values.toArray(new Double[0])), period);
+    }
+
+    /**
+     * Returns the latest RSI.
+     *
+     * @param values raw data input
+     * @param period the duration period
+     * @return the latest RSI
+     */
+    public static Double createRSI(double[] values, int period) {
         if (period <= 0) {
             throw new java.lang.IllegalArgumentException("period must be greater than 0");
         }
-        final int size = values.size();
+        final int size = values.length;
         final Core core = new Core();
         final int allocationSize = size - core.rsiLookback(period);
         if (allocationSize <= 0) {
@@ -131,18 +170,22 @@ public class TechnicalAnalysis {
         final double[] output = new double[allocationSize];
         final MInteger outBegIdx = new MInteger();
         final MInteger outNbElement = new MInteger();
-        double[] _values = ArrayUtils.toPrimitive(values.toArray(new Double[0]));
-        core.rsi(0, values.size() - 1, _values, period, outBegIdx, outNbElement, output);
+        core.rsi(0, size - 1, values, period, outBegIdx, outNbElement, output);
 
         return output[outNbElement.value - 1];
     }
 
     // Moving Average Convergence/Divergence Fix 12/26
     public static MACD.Result createMACDFix(List<Double> values, int period) {
+        return createMACDFix(ArrayUtils.toPrimitive(values.toArray(new Double[0])), period);
+    }
+    
+    // Moving Average Convergence/Divergence Fix 12/26
+    public static MACD.Result createMACDFix(double[] values, int period) {
         if (period <= 0) {
             throw new java.lang.IllegalArgumentException("period must be greater than 0");
         }
-        final int size = values.size();
+        final int size = values.length;
         final Core core = new Core();
         final int allocationSize = size - core.macdFixLookback(period);
         if (allocationSize <= 0) {
@@ -154,9 +197,8 @@ public class TechnicalAnalysis {
         final double[] outMACDHist = new double[allocationSize];
         final MInteger outBegIdx = new MInteger();
         final MInteger outNbElement = new MInteger();
-        double[] _values = ArrayUtils.toPrimitive(values.toArray(new Double[0]));
         
-        core.macdFix(0, values.size() - 1, _values, period, outBegIdx, outNbElement, outMACD, outMACDSignal, outMACDHist);
+        core.macdFix(0, size - 1, values, period, outBegIdx, outNbElement, outMACD, outMACDSignal, outMACDHist);
         
         return MACD.Result.newInstance(outMACD[outNbElement.value - 1], outMACDSignal[outNbElement.value - 1], outMACDHist[outNbElement.value - 1]);
     }
@@ -22,7 +22,6 @@ package org.yccheok.jstock.charting;
 import java.awt.Color;
 import java.awt.Font;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
 import org.jfree.chart.JFreeChart;
@@ -122,8 +121,7 @@ public class Utils {
         // Just perform simple one to one copy, without performing any
         // filtering.
         for (int i = 0; i < days; i++) {
-            final long t = stockHistoryServer.getTimestamp(i);
-            Stock stock = stockHistoryServer.getStock(t);
+            Stock stock = stockHistoryServer.getStockAt(i);
             prevPrice = stock.getPrevPrice();
             openPrice = stock.getOpenPrice();
             lastPrice = stock.getLastPrice();
@@ -145,193 +143,27 @@ public class Utils {
     }
 
     /**
-     * Returns weekly chart data based on given stock history server.
+     * Returns weekly chart data based on given stock history server. Chart
+     * data is cached, and only the last week is rebuilt when new days are
+     * appended to the stock history.
      * 
      * @param stockHistoryServer the stock history server
      * @return list of weekly chart data
      */
     public static List<ChartData> getWeeklyChartData(StockHistoryServer stockHistoryServer) {
-        final int days = stockHistoryServer.size();
-        Calendar prevCalendar = null;
-
-        List<ChartData> chartDatas = new ArrayList<ChartData>();
-
-        double prevPrice = 0;
-        double openPrice = 0;
-        double lastPrice = 0;
-        double highPrice = Double.MIN_VALUE;
-        double lowPrice = Double.MAX_VALUE;
-        long volume = 0;
-        long timestamp = 0;
-        int count = 0;
-
-        for (int i = 0; i < days; i++) {
-            // First, determine the current data is same week as the previous
-            // data.
-            boolean isSameWeek = false;
-            final long t = stockHistoryServer.getTimestamp(i);
-            Stock stock = stockHistoryServer.getStock(t);
-            
-            final Calendar calendar = Calendar.getInstance();
-            calendar.setTimeInMillis(t);
-            
-            if (prevCalendar != null) {
-                int weekOfYear = calendar.get(Calendar.WEEK_OF_YEAR);
-                int prevWeekOfYear = prevCalendar.get(Calendar.WEEK_OF_YEAR);
-                // Is this the same week?
-                isSameWeek = (weekOfYear == prevWeekOfYear);
-            } else {
-                // First time for us to enter this for loop.
-                isSameWeek = true;
-                openPrice = stock.getOpenPrice();
-                prevPrice = stock.getPrevPrice();
-            }
-            
-            if (isSameWeek == false) {
-                // This is a new week. There must be data for previous week.
-                assert(count > 0);
-                ChartData chartData = ChartData.newInstance(
-                        prevPrice,
-                        openPrice,
-                        lastPrice / count,  // Average last price.
-                        highPrice,
-                        lowPrice,
-                        volume / count,     // Average volume.
-                        timestamp);
-                chartDatas.add(chartData);
-
-                // First day of the week.
-                prevPrice = stock.getPrevPrice();
-                openPrice = stock.getOpenPrice();
-                lastPrice = stock.getLastPrice();
-                highPrice = stock.getHighPrice();
-                lowPrice = stock.getLowPrice();
-                volume = stock.getVolume();
-                timestamp = stock.getTimestamp();
-                count = 1;
-            } else {
-                // We will not update prevPrice and openPrice. They will remain
-                // as the first day of the week's.
-                lastPrice += stock.getLastPrice();
-                highPrice = Math.max(highPrice, stock.getHighPrice());
-                lowPrice = Math.min(lowPrice, stock.getLowPrice());
-                volume += stock.getVolume();
-                timestamp = stock.getTimestamp();
-                count++;
-            }
-
-            prevCalendar = calendar;
-        }
-
-        // Is there any data which is not being inserted yet?
-        if (count > 0) {
-            ChartData chartData = ChartData.newInstance(
-                    prevPrice,
-                    openPrice,
-                    lastPrice / count,
-                    highPrice,
-                    lowPrice,
-                    volume / count,
-                    timestamp);
-            chartDatas.add(chartData);
-        }
-
-        return chartDatas;
+        return ChartDataCache.INSTANCE.getWeeklyChartData(stockHistoryServer);
     }
 
     /**
-     * Returns monthly chart data based on given stock history server.
+     * Returns monthly chart data based on given stock history server. Chart
+     * data is cached, and only the last month is rebuilt when new days are
+     * appended to the stock history.
      *
      * @param stockHistoryServer the stock history server
      * @return list of monthly chart data
      */
     public static List<ChartData> getMonthlyChartData(StockHistoryServer stockHistoryServer) {
-        final int days = stockHistoryServer.size();
-        Calendar prevCalendar = null;
-
-        List<ChartData> chartDatas = new ArrayList<ChartData>();
-
-        double prevPrice = 0;
-        double openPrice = 0;
-        double lastPrice = 0;
-        double highPrice = Double.MIN_VALUE;
-        double lowPrice = Double.MAX_VALUE;
-        long volume = 0;
-        long timestamp = 0;
-        int count = 0;
-
-        for (int i = 0; i < days; i++) {
-            // First, determine the current data is same month as the previous
-            // data.
-            boolean isSameMonth = false;
-            final long t = stockHistoryServer.getTimestamp(i);
-            Stock stock = stockHistoryServer.getStock(t);
-
-            final Calendar calendar = Calendar.getInstance();
-            calendar.setTimeInMillis(t);
-            
-            if (prevCalendar != null) {
-                int month = calendar.get(Calendar.MONTH);
-                int prevMonth = prevCalendar.get(Calendar.MONTH);
-                // Is this the same month?
-                isSameMonth = (month == prevMonth);
-            } else {
-                // First time for us to enter this for loop.
-                isSameMonth = true;
-                openPrice = stock.getOpenPrice();
-                prevPrice = stock.getPrevPrice();
-            }
-
-            if (isSameMonth == false) {
-                // This is a new month. There must be data for previous month.
-                assert(count > 0);
-                ChartData chartData = ChartData.newInstance(
-                        prevPrice,
-                        openPrice,
-                        lastPrice / count,  // Average last price.
-                        highPrice,
-                        lowPrice,
-                        volume / count,     // Average volume.
-                        timestamp);
-                chartDatas.add(chartData);
-
-                // First day of the month.
-                prevPrice = stock.getPrevPrice();
-                openPrice = stock.getOpenPrice();
-                lastPrice = stock.getLastPrice();
-                highPrice = stock.getHighPrice();
-                lowPrice = stock.getLowPrice();
-                volume = stock.getVolume();
-                timestamp = stock.getTimestamp();
-                count = 1;
-            } else {
-                // We will not update prevPrice and openPrice. They will remain
-                // as the first day of the month's.
-                lastPrice += stock.getLastPrice();
-                highPrice = Math.max(highPrice, stock.getHighPrice());
-                lowPrice = Math.min(lowPrice, stock.getLowPrice());
-                volume += stock.getVolume();
-                timestamp = stock.getTimestamp();
-                count++;
-            }
-
-            prevCalendar = calendar;
-        }
-
-        // Is there any data which is not being inserted yet?
-        if (count > 0) {
-            ChartData chartData = ChartData.newInstance(
-                    prevPrice,
-                    openPrice,
-                    lastPrice / count,
-                    highPrice,
-                    lowPrice,
-                    volume / count,
-                    timestamp);
-            chartDatas.add(chartData);
-        }
-
-        return chartDatas;
+        return ChartDataCache.INSTANCE.getMonthlyChartData(stockHistoryServer);
     }
 
     /**
@@ -19,11 +19,9 @@
 
 package org.yccheok.jstock.engine;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.HashMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -32,13 +30,6 @@ import org.apache.commons.logging.LogFactory;
  * @author yccheok
  */
 public abstract class AbstractYahooStockHistoryServer implements StockHistoryServer {        
-    // Use ThreadLocal to ensure thread safety.
-    private static final ThreadLocal <SimpleDateFormat> simpleDateFormatThreadLocal = new ThreadLocal <SimpleDateFormat>() {
-        @Override protected SimpleDateFormat initialValue() {
-            return new java.text.SimpleDateFormat("yyyy-MM-dd");
-        }
-    };
-    
     protected abstract StockServer getStockServer();
     
     public AbstractYahooStockHistoryServer(Code code) throws StockHistoryNotFoundException
@@ -59,105 +50,26 @@ public abstract class AbstractYahooStockHistoryServer implements StockHistorySer
             buildHistory(this.code);
         }
         catch (java.lang.OutOfMemoryError exp) {
-            // Thrown from method.getResponseBodyAsString
+            // Thrown while parsing the response
             log.error(null, exp);
             throw new StockHistoryNotFoundException("Out of memory", exp);
         }
     }
 
-    private boolean parse(String respond)
+    // Parses history straight from the response stream, without buffering the
+    // whole response.
+    private boolean parse(Reader reader) throws IOException
     {
-        historyDatabase.clear();
-        timestamps.clear();
-
-        long timestamp = 0;
-
-        String[] stockDatas = respond.split("\r\n|\r|\n");
-
-        // There must be at least two lines : header information and history information.
-        final int length = stockDatas.length;
+        // Latest history comes first. Builder sorts them, and derives previous
+        // close price from the following line.
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(code);
 
-        if (length <= 1) {
+        if (CSVStockHistoryParser.parse(reader, builder) == 0) {
             return false;
         }
-
-        double previousClosePrice = Double.MAX_VALUE;
-
-        for (int i = length - 1; i > 0; i--)
-        {
-            // Use > instead of >=, to avoid header information (Date,Open,High,Low,Close,Volume,Adj Close)
-            String[] fields = stockDatas[i].split(",");
-
-            // Date,Open,High,Low,Close,Volume,Adj Close
-            if (fields.length < 7) {
-                continue;
-            }
-
-            try {
-                timestamp = simpleDateFormatThreadLocal.get().parse(fields[0]).getTime();
-            } catch (ParseException ex) {
-                log.error(null, ex);
-                continue;
-            }
-
-            double prevPrice = 0.0;
-            double openPrice = 0.0;
-            double highPrice = 0.0;
-            double lowPrice = 0.0;
-            double closePrice = 0.0;
-            // TODO: CRITICAL LONG BUG REVISED NEEDED.
-            long volume = 0;
-            //double adjustedClosePrice = 0.0;
-
-            try {
-                prevPrice = (previousClosePrice == Double.MAX_VALUE) ? 0 : previousClosePrice;
-                openPrice = Double.parseDouble(fields[1]);
-                highPrice = Double.parseDouble(fields[2]);
-                lowPrice = Double.parseDouble(fields[3]);
-                closePrice = Double.parseDouble(fields[4]);
-                // TODO: CRITICAL LONG BUG REVISED NEEDED.
-                volume = Long.parseLong(fields[5]);
-                //adjustedClosePrice = Double.parseDouble(fields[6]);
-            }
-            catch (NumberFormatException exp) {
-                log.error(null, exp);
-            }
-
-            double changePrice = (previousClosePrice == Double.MAX_VALUE) ? 0 : closePrice - previousClosePrice;
-            double changePricePercentage = ((previousClosePrice == Double.MAX_VALUE) || (previousClosePrice == 0.0)) ? 0 : changePrice / previousClosePrice * 100.0;
-
-            Stock stock = new Stock(
-                    code,
-                    prevPrice,
-                    openPrice,
-                    closePrice, /* Last Price. */
-                    highPrice,
-                    lowPrice,
-                    volume,
-                    changePrice,
-                    changePricePercentage,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    timestamp
-                    );
-
-            historyDatabase.put(timestamp, stock);
-            timestamps.add(timestamp);
-            previousClosePrice = closePrice;
-        }
-
-        return (historyDatabase.size() > 0);
+        
+        history = builder.build();
+        return true;
     }
 
     private void buildHistory(Code code) throws StockHistoryNotFoundException
@@ -188,13 +100,20 @@ public abstract class AbstractYahooStockHistoryServer implements StockHistorySer
         boolean success = false;
 
         for (int retry = 0; retry < NUM_OF_RETRY; retry++) {
-            final String respond = org.yccheok.jstock.gui.Utils.getResponseBodyAsStringBasedOnProxyAuthOption(location);
+            final Reader reader = HttpTransport.INSTANCE.getResponseBodyAsReader(location);
 
-            if (respond == null) {
+            if (reader == null) {
                 continue;
             }
 
-            success = parse(respond);
+            try {
+                success = parse(reader);
+            } catch (IOException exp) {
+                log.error(null, exp);
+                success = false;
+            } finally {
+                org.yccheok.jstock.gui.Utils.close(reader);
+            }
 
             if (success) {
                 break;
@@ -208,17 +127,37 @@ public abstract class AbstractYahooStockHistoryServer implements StockHistorySer
 
     @Override
     public Stock getStock(long timestamp) {
-        return historyDatabase.get(timestamp);
+        return history.getStock(timestamp);
+    }
+
+    @Override
+    public Stock getStockAt(int index) {
+        return history.getStockAt(index);
     }
 
     @Override
     public long getTimestamp(int index) {
-        return timestamps.get(index);
+        return history.getTimestamp(index);
     }
 
     @Override
     public int size() {
-        return timestamps.size();
+        return history.size();
+    }
+
+    @Override
+    public int floorIndex(long timestamp) {
+        return history.floorIndex(timestamp);
+    }
+
+    @Override
+    public int ceilingIndex(long timestamp) {
+        return history.ceilingIndex(timestamp);
+    }
+
+    @Override
+    public double[] closes(int from, int to) {
+        return history.closes(from, to);
     }
 
     @Override
@@ -253,8 +192,7 @@ public abstract class AbstractYahooStockHistoryServer implements StockHistorySer
     private static final Duration DEFAULT_HISTORY_DURATION =  Duration.getTodayDurationByYears(10);
     private static final String YAHOO_ICHART_BASED_URL = "http://ichart.yahoo.com/table.csv?s=";
 
-    private final java.util.Map<Long, Stock> historyDatabase = new HashMap<Long, Stock>();
-    private final java.util.List<Long> timestamps = new ArrayList<Long>();
+    private ArrayStockHistoryServer history;
 
     private final Code code;
     private final Duration duration;
@@ -19,11 +19,15 @@
 
 package org.yccheok.jstock.engine;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  *
@@ -108,13 +112,12 @@ public abstract class AbstractYahooStockServer implements StockServer {
             boolean success = false;
 
             for (int retry = 0; retry < NUM_OF_RETRY; retry++) {
-                final String respond = org.yccheok.jstock.gui.Utils.getResponseBodyAsStringBasedOnProxyAuthOption(location);
-            
-                if (respond == null) {
+                final List<Stock> tmpStocks = getStocks(location);
+
+                if (tmpStocks == null) {
                     continue;
                 }
 
-                final List<Stock> tmpStocks = YahooStockFormat.getInstance().parse(respond);
                 if (tmpStocks.size() != MAX_STOCK_PER_ITERATION) {
                     if (retry == (NUM_OF_RETRY - 1)) {
                         assert(expectedCodes.size() == MAX_STOCK_PER_ITERATION);
@@ -199,11 +202,10 @@ public abstract class AbstractYahooStockServer implements StockServer {
         final String location = stringBuilder.toString();
 
         for (int retry = 0; retry < NUM_OF_RETRY; retry++) {
-            final String respond = org.yccheok.jstock.gui.Utils.getResponseBodyAsStringBasedOnProxyAuthOption(location);
-            if (respond == null) {
+            final List<Stock> tmpStocks = getStocks(location);
+            if (tmpStocks == null) {
                 continue;
             }
-            final List<Stock> tmpStocks = YahooStockFormat.getInstance().parse(respond);
             if (tmpStocks.size() != remainder) {
                 if (retry == (NUM_OF_RETRY - 1)) {
                     final int currSize = tmpStocks.size();
@@ -248,6 +250,23 @@ public abstract class AbstractYahooStockServer implements StockServer {
         return stocks;
     }
 
+    // Parses stocks straight from the response stream, without buffering the
+    // whole response. Returns null if fail.
+    private static List<Stock> getStocks(String location) {
+        final Reader reader = HttpTransport.INSTANCE.getResponseBodyAsReader(location);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            return YahooStockFormat.getInstance().parse(reader);
+        } catch (IOException exp) {
+            log.error(null, exp);
+            return null;
+        } finally {
+            org.yccheok.jstock.gui.Utils.close(reader);
+        }
+    }
+
     private Stock _getStock(Code code) throws StockNotFoundException {
         final StringBuilder stringBuilder = new StringBuilder(getYahooCSVBasedURL());
 
@@ -263,11 +282,10 @@ public abstract class AbstractYahooStockServer implements StockServer {
         final String location = stringBuilder.toString();
 
         for (int retry = 0; retry < NUM_OF_RETRY; retry++) {
-            final String respond = org.yccheok.jstock.gui.Utils.getResponseBodyAsStringBasedOnProxyAuthOption(location);
-            if (respond == null) {
+            final List<Stock> stocks = getStocks(location);
+            if (stocks == null) {
                 continue;
             }
-            final List<Stock> stocks = YahooStockFormat.getInstance().parse(respond);
 
             if (stocks.size() == 1) {
                 return stocks.get(0);
@@ -351,4 +369,6 @@ public abstract class AbstractYahooStockServer implements StockServer {
     //
     // "MAERSKB.CO","AP MOELLER-MAERS-","Copenhagen",32500.00,33700.00,34200.00,33400.00,660,"+1200.00","N/A - +3.69%",33,33500.00,54,33700.00,96,"11/10/2008","10:53am"
     private static final String YAHOO_STOCK_FORMAT = "&f=snxspsosl1shsgsvsc1sp2sk3sb3sb6sb2sa5sd1t1";
+
+    private static final Log log = LogFactory.getLog(AbstractYahooStockServer.class);
 }
@@ -0,0 +1,308 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Arrays;
+
+/**
+ * Stock history, which is stored in primitive arrays, one per column. Stocks
+ * are built on demand. Previous and change price are derived from the
+ * previous day's close price.
+ *
+ * @author yccheok
+ */
+public class ArrayStockHistoryServer implements StockHistoryServer {
+
+    // Builder pattern.
+    // Rows may be added in any order. They are sorted by timestamp during
+    // build. If there are rows with same timestamp, the last added wins.
+    public static class Builder {
+        public Builder(Code code) {
+            if (code == null) {
+                throw new IllegalArgumentException("Code cannot be null");
+            }
+            this.code = code;
+        }
+
+        public Builder add(long timestamp, double openPrice, double highPrice, double lowPrice, double closePrice, long volume) {
+            ensureCapacity(size + 1);
+            timestamps[size] = timestamp;
+            openPrices[size] = openPrice;
+            highPrices[size] = highPrice;
+            lowPrices[size] = lowPrice;
+            closePrices[size] = closePrice;
+            volumes[size] = volume;
+            size++;
+            return this;
+        }
+
+        // Appends all rows of the given builder, in the order they were added.
+        Builder addAll(Builder builder) {
+            ensureCapacity(size + builder.size);
+            System.arraycopy(builder.timestamps, 0, timestamps, size, builder.size);
+            System.arraycopy(builder.openPrices, 0, openPrices, size, builder.size);
+            System.arraycopy(builder.highPrices, 0, highPrices, size, builder.size);
+            System.arraycopy(builder.lowPrices, 0, lowPrices, size, builder.size);
+            System.arraycopy(builder.closePrices, 0, closePrices, size, builder.size);
+            System.arraycopy(builder.volumes, 0, volumes, size, builder.size);
+            size += builder.size;
+            return this;
+        }
+
+        private void ensureCapacity(int minCapacity) {
+            if (minCapacity <= timestamps.length) {
+                return;
+            }
+            final int capacity = Math.max(timestamps.length << 1, minCapacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            openPrices = Arrays.copyOf(openPrices, capacity);
+            highPrices = Arrays.copyOf(highPrices, capacity);
+            lowPrices = Arrays.copyOf(lowPrices, capacity);
+            closePrices = Arrays.copyOf(closePrices, capacity);
+            volumes = Arrays.copyOf(volumes, capacity);
+        }
+
+        Code getCode() {
+            return code;
+        }
+
+        public Builder sharesIssued(long sharesIssued) {
+            this.sharesIssued = sharesIssued;
+            return this;
+        }
+
+        public Builder marketCapital(long marketCapital) {
+            this.marketCapital = marketCapital;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public ArrayStockHistoryServer build() {
+            boolean isAscending = true;
+            boolean isDescending = true;
+            for (int i = 1; i < size && (isAscending || isDescending); i++) {
+                isAscending = isAscending && timestamps[i - 1] < timestamps[i];
+                isDescending = isDescending && timestamps[i - 1] > timestamps[i];
+            }
+
+            if (isAscending) {
+                return new ArrayStockHistoryServer(this, null);
+            }
+
+            final int[] indices = new int[size];
+            if (isDescending) {
+                // Latest first, which is common among history servers.
+                for (int i = 0; i < size; i++) {
+                    indices[i] = size - 1 - i;
+                }
+                return new ArrayStockHistoryServer(this, indices);
+            }
+
+            final Integer[] sorted = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = i;
+            }
+            // Stable, so that the last added row comes last among rows with
+            // same timestamp.
+            Arrays.sort(sorted, new java.util.Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    final long t1 = timestamps[o1];
+                    final long t2 = timestamps[o2];
+                    return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+                }
+            });
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (count > 0 && timestamps[indices[count - 1]] == timestamps[sorted[i]]) {
+                    indices[count - 1] = sorted[i];
+                } else {
+                    indices[count++] = sorted[i];
+                }
+            }
+            return new ArrayStockHistoryServer(this, Arrays.copyOf(indices, count));
+        }
+
+        // Roughly 1 year of trading days.
+        private static final int INITIAL_CAPACITY = 256;
+
+        private final Code code;
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private double[] openPrices = new double[INITIAL_CAPACITY];
+        private double[] highPrices = new double[INITIAL_CAPACITY];
+        private double[] lowPrices = new double[INITIAL_CAPACITY];
+        private double[] closePrices = new double[INITIAL_CAPACITY];
+        private long[] volumes = new long[INITIAL_CAPACITY];
+        private int size = 0;
+        private long sharesIssued = 0;
+        private long marketCapital = 0;
+    }
+
+    // indices is the order of builder's rows. null if rows are already in
+    // order.
+    private ArrayStockHistoryServer(Builder builder, int[] indices) {
+        this.code = builder.code;
+        this.sharesIssued = builder.sharesIssued;
+        this.marketCapital = builder.marketCapital;
+
+        if (indices == null) {
+            this.size = builder.size;
+            this.timestamps = Arrays.copyOf(builder.timestamps, size);
+            this.openPrices = Arrays.copyOf(builder.openPrices, size);
+            this.highPrices = Arrays.copyOf(builder.highPrices, size);
+            this.lowPrices = Arrays.copyOf(builder.lowPrices, size);
+            this.closePrices = Arrays.copyOf(builder.closePrices, size);
+            this.volumes = Arrays.copyOf(builder.volumes, size);
+            return;
+        }
+
+        this.size = indices.length;
+        this.timestamps = new long[size];
+        this.openPrices = new double[size];
+        this.highPrices = new double[size];
+        this.lowPrices = new double[size];
+        this.closePrices = new double[size];
+        this.volumes = new long[size];
+        for (int i = 0; i < size; i++) {
+            final int index = indices[i];
+            timestamps[i] = builder.timestamps[index];
+            openPrices[i] = builder.openPrices[index];
+            highPrices[i] = builder.highPrices[index];
+            lowPrices[i] = builder.lowPrices[index];
+            closePrices[i] = builder.closePrices[index];
+            volumes[i] = builder.volumes[index];
+        }
+    }
+
+    @Override
+    public Stock getStock(long timestamp) {
+        final int index = Arrays.binarySearch(timestamps, timestamp);
+        if (index < 0) {
+            return null;
+        }
+        return getStockAt(index);
+    }
+
+    @Override
+    public Stock getStockAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        }
+        final double closePrice = closePrices[index];
+        final boolean hasPrevious = index > 0;
+        final double previousClosePrice = hasPrevious ? closePrices[index - 1] : 0.0;
+        final double changePrice = hasPrevious ? closePrice - previousClosePrice : 0.0;
+        final double changePricePercentage = (hasPrevious && previousClosePrice != 0.0) ? changePrice / previousClosePrice * 100.0 : 0.0;
+        return new Stock(
+                code,
+                previousClosePrice,
+                openPrices[index],
+                closePrice, /* Last Price. */
+                highPrices[index],
+                lowPrices[index],
+                volumes[index],
+                changePrice,
+                changePricePercentage,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                timestamps[index]
+                );
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        }
+        return timestamps[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int floorIndex(long timestamp) {
+        return floorIndex(timestamps, timestamp);
+    }
+
+    @Override
+    public int ceilingIndex(long timestamp) {
+        return ceilingIndex(timestamps, timestamp);
+    }
+
+    static int floorIndex(long[] timestamps, long timestamp) {
+        final int index = Arrays.binarySearch(timestamps, timestamp);
+        return index >= 0 ? index : -(index + 1) - 1;
+    }
+
+    static int ceilingIndex(long[] timestamps, long timestamp) {
+        final int index = Arrays.binarySearch(timestamps, timestamp);
+        if (index >= 0) {
+            return index;
+        }
+        final int insertionPoint = -(index + 1);
+        return insertionPoint < timestamps.length ? insertionPoint : -1;
+    }
+
+    @Override
+    public double[] closes(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("from=" + from + ", to=" + to + ", size=" + size);
+        }
+        return Arrays.copyOfRange(closePrices, from, to);
+    }
+
+    @Override
+    public long getSharesIssued() {
+        return sharesIssued;
+    }
+
+    @Override
+    public long getMarketCapital() {
+        return marketCapital;
+    }
+
+    private final Code code;
+    private final int size;
+    private final long[] timestamps;
+    private final double[] openPrices;
+    private final double[] highPrices;
+    private final double[] lowPrices;
+    private final double[] closePrices;
+    private final long[] volumes;
+    private final long sharesIssued;
+    private final long marketCapital;
+}
@@ -0,0 +1,269 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Parses stock history in Yahoo's CSV format, which is also used by KLSE Info,
+ * into primitive columns. No per line string is created. Lines may come in
+ * any order. Previous and change price are derived by the builder, once all
+ * lines are read.
+ *
+ * Response is read into a reused buffer. One which does not fit the buffer is
+ * read as a whole, split at line boundaries, and parsed in chunks on a small
+ * pool. Columns of the chunks are then concatenated in order.
+ *
+ * Date,Open,High,Low,Close,Volume,Adj Close
+ * 2008-11-07,4.32,4.41,4.12,4.20,10882100,4.20
+ *
+ * @author yccheok
+ */
+final class CSVStockHistoryParser {
+
+    private CSVStockHistoryParser() {
+    }
+
+    // Use ThreadLocal to ensure thread safety. Tokenizer, together with its
+    // buffers, is reused by every parse within the same thread.
+    private static final ThreadLocal <CSVTokenizer> csvTokenizerThreadLocal = new ThreadLocal <CSVTokenizer>() {
+        @Override protected CSVTokenizer initialValue() {
+            return new CSVTokenizer(false);
+        }
+    };
+
+    private static final ThreadLocal <char[]> charsThreadLocal = new ThreadLocal <char[]>() {
+        @Override protected char[] initialValue() {
+            return new char[CHUNKED_PARSE_THRESHOLD];
+        }
+    };
+
+    /**
+     * Parses stock history from the given reader, into the given builder.
+     *
+     * @param reader the reader
+     * @param builder the builder
+     * @return number of stocks being added to the builder
+     * @throws IOException if fail to read
+     */
+    public static int parse(Reader reader, ArrayStockHistoryServer.Builder builder) throws IOException
+    {
+        char[] chars = charsThreadLocal.get();
+        int length = read(reader, chars, 0);
+        if (length < chars.length) {
+            return parse(chars, length, builder, 1);
+        }
+
+        // Large history. Do not hold its buffer after parsing.
+        do {
+            chars = Arrays.copyOf(chars, chars.length << 1);
+            length = read(reader, chars, length);
+        } while (length == chars.length);
+        return parse(chars, length, builder, NUM_OF_CHUNKS);
+    }
+
+    // Reads till chars is full, or end of stream. Returns the new length.
+    private static int read(Reader reader, char[] chars, int length) throws IOException
+    {
+        while (length < chars.length) {
+            final int n = reader.read(chars, length, chars.length - length);
+            if (n == -1) {
+                break;
+            }
+            length += n;
+        }
+        return length;
+    }
+
+    /**
+     * Parses stock history from the given characters, into the given
+     * builder. Lines after the header are split into the given number of
+     * chunks, which are parsed concurrently.
+     *
+     * @param chars the characters
+     * @param length number of characters
+     * @param builder the builder
+     * @param numOfChunks number of chunks
+     * @return number of stocks being added to the builder
+     * @throws IOException if fail to parse
+     */
+    static int parse(final char[] chars, int length, final ArrayStockHistoryServer.Builder builder, int numOfChunks) throws IOException
+    {
+        // There must be at least two lines : header information and history information.
+        // Skip header information (Date,Open,High,Low,Close,Volume,Adj Close).
+        int start = 0;
+        while (start < length && (chars[start] == '\r' || chars[start] == '\n')) {
+            start++;
+        }
+        start = nextLine(chars, start, length);
+
+        // Chunk i is from boundaries[i] to boundaries[i + 1]. Every boundary is
+        // at the start of a line.
+        final int[] boundaries = new int[numOfChunks + 1];
+        boundaries[0] = start;
+        for (int i = 1; i < numOfChunks; i++) {
+            final int from = (int)(start + (long)(length - start) * i / numOfChunks);
+            boundaries[i] = nextLine(chars, Math.max(from, boundaries[i - 1]), length);
+        }
+        boundaries[numOfChunks] = length;
+
+        final List<Future<ArrayStockHistoryServer.Builder>> futures = new ArrayList<Future<ArrayStockHistoryServer.Builder>>();
+        try {
+            for (int i = 1; i < numOfChunks; i++) {
+                final int from = boundaries[i];
+                final int to = boundaries[i + 1];
+                if (from == to) {
+                    continue;
+                }
+                futures.add(executor.submit(new Callable<ArrayStockHistoryServer.Builder>() {
+                    @Override
+                    public ArrayStockHistoryServer.Builder call() throws IOException {
+                        final ArrayStockHistoryServer.Builder chunk = new ArrayStockHistoryServer.Builder(builder.getCode());
+                        parse(chars, from, to, chunk);
+                        return chunk;
+                    }
+                }));
+            }
+
+            // Parse the first chunk while waiting for the others.
+            int count = parse(chars, boundaries[0], boundaries[1], builder);
+            for (Future<ArrayStockHistoryServer.Builder> future : futures) {
+                final ArrayStockHistoryServer.Builder chunk = future.get();
+                builder.addAll(chunk);
+                count += chunk.size();
+            }
+            return count;
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException exp) {
+            final Throwable cause = exp.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<ArrayStockHistoryServer.Builder> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    // Returns the start of the line after the one which from is in, or length.
+    private static int nextLine(char[] chars, int from, int length)
+    {
+        for (int i = from; i < length; i++) {
+            if (chars[i] == '\n') {
+                return i + 1;
+            }
+            if (chars[i] == '\r') {
+                return (i + 1 < length && chars[i + 1] == '\n') ? i + 2 : i + 1;
+            }
+        }
+        return length;
+    }
+
+    // Parses lines from index from, inclusive, to index to, exclusive.
+    private static int parse(char[] chars, int from, int to, ArrayStockHistoryServer.Builder builder) throws IOException
+    {
+        final CSVTokenizer tokenizer = csvTokenizerThreadLocal.get();
+        tokenizer.reset(new CharArrayReader(chars, from, to - from));
+
+        try {
+            return parse(tokenizer, builder);
+        } finally {
+            // Do not hold the characters.
+            tokenizer.reset(null);
+        }
+    }
+
+    private static int parse(CSVTokenizer tokenizer, ArrayStockHistoryServer.Builder builder) throws IOException
+    {
+        int count = 0;
+        while (tokenizer.next())
+        {
+            // Date,Open,High,Low,Close,Volume,Adj Close
+            if (tokenizer.size() < 7) {
+                continue;
+            }
+
+            final long timestamp = tokenizer.getDate(0);
+            if (timestamp == Long.MIN_VALUE) {
+                log.error("Unparseable date: \"" + tokenizer.get(0) + "\"");
+                continue;
+            }
+
+            final double openPrice = tokenizer.getDouble(1, 0.0);
+            final double highPrice = tokenizer.getDouble(2, 0.0);
+            final double lowPrice = tokenizer.getDouble(3, 0.0);
+            final double closePrice = tokenizer.getDouble(4, 0.0);
+            // TODO: CRITICAL LONG BUG REVISED NEEDED.
+            final long volume = tokenizer.getLong(5, 0);
+            //final double adjustedClosePrice = tokenizer.getDouble(6, 0.0);
+
+            builder.add(timestamp, openPrice, highPrice, lowPrice, closePrice, volume);
+            count++;
+        }
+
+        return count;
+    }
+
+    // Roughly 10 years of daily history. Smaller one is not worth the hand
+    // off to other threads.
+    private static final int CHUNKED_PARSE_THRESHOLD = 128 * 1024;
+    private static final int NUM_OF_CHUNKS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // Parses all chunks but the first, which is parsed by the caller.
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(NUM_OF_CHUNKS, NUM_OF_CHUNKS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CSVStockHistoryParser");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Log log = LogFactory.getLog(CSVStockHistoryParser.class);
+}
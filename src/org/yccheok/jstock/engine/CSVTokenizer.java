@@ -0,0 +1,381 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Tokenizes CSV directly from a reader, one line at a time. The line and field
+ * buffers are reused for every line, and for every reader, so that there is no
+ * intermediate whole body string, line array or per line parser. Numbers and
+ * dates are parsed directly from the line buffer. Double quotes are stripped
+ * from fields. Blank lines are skipped.
+ *
+ * This class is not thread safe. Every thread should have its own instance.
+ *
+ * @author yccheok
+ */
+class CSVTokenizer {
+
+    /**
+     * Creates a new instance of CSVTokenizer.
+     *
+     * @param isDigitGroupingCommaRemoved if true, a comma which has no double
+     * quote on its left and right is treated as digit grouping, and removed.
+     * Yahoo quotes every field next to a number, so that "123,456" can be
+     * read as 123456
+     */
+    public CSVTokenizer(boolean isDigitGroupingCommaRemoved) {
+        this.isDigitGroupingCommaRemoved = isDigitGroupingCommaRemoved;
+    }
+
+    /**
+     * Starts tokenizing the given reader. Buffers are kept for reuse. Pass
+     * null, once done, so that the reader is not being referenced any more.
+     *
+     * @param reader the reader
+     */
+    public void reset(Reader reader) {
+        this.reader = reader;
+        this.position = 0;
+        this.limit = 0;
+        this.skipLineFeed = false;
+        this.lineLength = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Advances to the next non-blank line.
+     *
+     * @return false if there is no more line
+     * @throws IOException if fail to read
+     */
+    public boolean next() throws IOException {
+        while (readLine()) {
+            if (lineLength > 0) {
+                tokenize();
+                return true;
+            }
+        }
+        size = 0;
+        return false;
+    }
+
+    /**
+     * Returns number of fields in current line.
+     *
+     * @return number of fields in current line
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the field at given index of current line.
+     *
+     * @param index index of the field
+     * @return the field at given index of current line
+     */
+    public String get(int index) {
+        return new String(line, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * Returns true if the field at given index of current line equals to the
+     * given string, ignoring case.
+     *
+     * @param index index of the field
+     * @param string the string
+     * @return true if the field equals to the given string, ignoring case
+     */
+    public boolean equalsIgnoreCase(int index, String string) {
+        final int start = starts[index];
+        final int length = ends[index] - start;
+        if (length != string.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char c0 = line[start + i];
+            final char c1 = string.charAt(i);
+            if (c0 != c1 && Character.toUpperCase(c0) != Character.toUpperCase(c1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as Double.parseDouble on the field at given index of current line.
+     *
+     * @param index index of the field
+     * @param defaultValue value to be returned, if the field is not a number
+     * @return the number, or default value if the field is not a number
+     */
+    public double getDouble(int index, double defaultValue) {
+        return CharParser.parseDouble(line, starts[index], ends[index], defaultValue);
+    }
+
+    /**
+     * Same as getDouble, except trailing percent signs are ignored.
+     *
+     * @param index index of the field
+     * @param defaultValue value to be returned, if the field is not a number
+     * @return the number, or default value if the field is not a number
+     */
+    public double getPercentage(int index, double defaultValue) {
+        final int start = starts[index];
+        int end = ends[index];
+        while (end > start && (line[end - 1] == '%' || line[end - 1] <= ' ')) {
+            end--;
+        }
+        return CharParser.parseDouble(line, start, end, defaultValue);
+    }
+
+    /**
+     * Same as Long.parseLong on the field at given index of current line.
+     *
+     * @param index index of the field
+     * @param defaultValue value to be returned, if the field is not a number
+     * @return the number, or default value if the field is not a number
+     */
+    public long getLong(int index, long defaultValue) {
+        return CharParser.parseLong(line, starts[index], ends[index], defaultValue);
+    }
+
+    /**
+     * Same as Integer.parseInt on the field at given index of current line.
+     *
+     * @param index index of the field
+     * @param defaultValue value to be returned, if the field is not a number
+     * @return the number, or default value if the field is not a number
+     */
+    public int getInt(int index, int defaultValue) {
+        return CharParser.parseInt(line, starts[index], ends[index], defaultValue);
+    }
+
+    /**
+     * Returns the time of the date field in M/d/yyyy, and the time field in
+     * h:mma (for instance, 10:53am), in default time zone. Same as
+     * SimpleDateFormat("MM/dd/yyyy hh:mmaa").
+     *
+     * @param dateIndex index of the date field
+     * @param timeIndex index of the time field
+     * @return the time in ms, or 0 if the fields are not valid (N/A)
+     */
+    public long getTimestamp(int dateIndex, int timeIndex) {
+        cursor = skipWhitespace(starts[dateIndex], ends[dateIndex]);
+        final int month = readNumber(ends[dateIndex], '/');
+        final int date = readNumber(ends[dateIndex], '/');
+        final int year = readNumber(ends[dateIndex], -1);
+
+        final int end = ends[timeIndex];
+        cursor = skipWhitespace(starts[timeIndex], end);
+        final int hour = readNumber(end, ':');
+        final int minute = readNumber(end, -1);
+
+        if (month < 0 || date < 0 || year < 0 || hour < 0 || minute < 0 || cursor + 1 >= end) {
+            return 0;
+        }
+
+        final char a = Character.toLowerCase(line[cursor]);
+        final char m = Character.toLowerCase(line[cursor + 1]);
+        if ((a != 'a' && a != 'p') || m != 'm') {
+            return 0;
+        }
+
+        final Calendar calendar = getCalendar();
+        calendar.set(year, month - 1, date, (hour % 12) + (a == 'p' ? 12 : 0), minute, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Returns the time of the date field in yyyy-MM-dd, in default time zone.
+     * Same as SimpleDateFormat("yyyy-MM-dd").
+     *
+     * @param index index of the date field
+     * @return the time in ms, or Long.MIN_VALUE if the field is not a valid
+     * date
+     */
+    public long getDate(int index) {
+        final int end = ends[index];
+        cursor = skipWhitespace(starts[index], end);
+        final int year = readNumber(end, '-');
+        final int month = readNumber(end, '-');
+        final int date = readNumber(end, -1);
+        if (year < 0 || month < 0 || date < 0) {
+            return Long.MIN_VALUE;
+        }
+
+        final Calendar calendar = getCalendar();
+        calendar.set(year, month - 1, date, 0, 0, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    private int skipWhitespace(int start, int end) {
+        while (start < end && line[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    // Reads digits from cursor, followed by the separator (if it is not -1).
+    // Returns -1 if there is no digit, or the separator is missing.
+    private int readNumber(int end, int separator) {
+        if (cursor < 0) {
+            return -1;
+        }
+        int value = 0;
+        int digits = 0;
+        while (cursor < end && line[cursor] >= '0' && line[cursor] <= '9' && digits < 9) {
+            value = value * 10 + (line[cursor] - '0');
+            cursor++;
+            digits++;
+        }
+        if (digits == 0) {
+            cursor = -1;
+            return -1;
+        }
+        if (separator != -1) {
+            if (cursor >= end || line[cursor] != separator) {
+                cursor = -1;
+                return -1;
+            }
+            cursor++;
+        }
+        return value;
+    }
+
+    private Calendar getCalendar() {
+        // Lenient, same as SimpleDateFormat. Default time zone is looked up
+        // once only, as this tokenizer is reused.
+        if (calendar == null) {
+            calendar = Calendar.getInstance();
+        }
+        calendar.clear();
+        return calendar;
+    }
+
+    // Returns false if end of stream is reached, without any character.
+    private boolean readLine() throws IOException {
+        lineLength = 0;
+        boolean any = false;
+        while (true) {
+            if (position >= limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return any;
+                }
+            }
+
+            final char c = buffer[position++];
+
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+
+            any = true;
+
+            if (c == '\n') {
+                return true;
+            }
+            if (c == '\r') {
+                // \r\n is a single line terminator.
+                skipLineFeed = true;
+                return true;
+            }
+
+            if (lineLength >= line.length) {
+                line = Arrays.copyOf(line, line.length << 1);
+            }
+            line[lineLength++] = c;
+        }
+    }
+
+    // Splits the line into fields, in place. Characters which are dropped
+    // (quotes and digit grouping commas) are squeezed out, by writing behind
+    // the read position. As the write position never passes the read
+    // position, look behind and look ahead still see the original characters.
+    private void tokenize() {
+        size = 0;
+        boolean inQuotes = false;
+        int start = 0;
+        int w = 0;
+        for (int r = 0; r < lineLength; r++) {
+            final char c = line[r];
+            if (c == '"') {
+                inQuotes = !inQuotes;
+                continue;
+            }
+            if (c == ',') {
+                // ",123,456,"   -> ",123456,"
+                // ","abc,def"," -> ","abcdef","
+                // If a comma doesn't have double quote on its left AND on its
+                // right, it is not a separator.
+                if (isDigitGroupingCommaRemoved && (r == 0 || line[r - 1] != '"') && (r + 1 >= lineLength || line[r + 1] != '"')) {
+                    continue;
+                }
+                if (inQuotes == false) {
+                    addField(start, w);
+                    start = w;
+                    continue;
+                }
+            }
+            line[w++] = c;
+        }
+        addField(start, w);
+    }
+
+    private void addField(int start, int end) {
+        if (size >= starts.length) {
+            starts = Arrays.copyOf(starts, starts.length << 1);
+            ends = Arrays.copyOf(ends, ends.length << 1);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    private final boolean isDigitGroupingCommaRemoved;
+    private Reader reader = null;
+
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+    private boolean skipLineFeed = false;
+
+    private char[] line = new char[256];
+    private int lineLength = 0;
+
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int size = 0;
+
+    // Scratch state for date parsing.
+    private Calendar calendar = null;
+    private int cursor = 0;
+}
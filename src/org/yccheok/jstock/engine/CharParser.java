@@ -0,0 +1,182 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+/**
+ * Parses numbers directly from a range of char buffer, without creating any
+ * intermediate string in common case. The results are the same as
+ * Double.parseDouble, Long.parseLong and Integer.parseInt, except a default
+ * value is returned instead of throwing NumberFormatException.
+ *
+ * @author yccheok
+ */
+final class CharParser {
+    private CharParser() {
+    }
+
+    /**
+     * Same as Double.parseDouble, on the given range.
+     *
+     * @param chars the chars
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     * @param defaultValue value to be returned, if the range is not a number
+     * @return the parsed number, or default value if the range is not a number
+     */
+    public static double parseDouble(char[] chars, int start, int end, double defaultValue) {
+        // Double.parseDouble ignores leading and trailing whitespace.
+        int s = start;
+        int e = end;
+        while (s < e && chars[s] <= ' ') {
+            s++;
+        }
+        while (e > s && chars[e - 1] <= ' ') {
+            e--;
+        }
+        if (s >= e) {
+            return defaultValue;
+        }
+
+        int i = s;
+        boolean negative = false;
+        if (chars[i] == '-' || chars[i] == '+') {
+            negative = (chars[i] == '-');
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean dot = false;
+        boolean any = false;
+
+        for (; i < e; i++) {
+            final char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                if (digits > MAX_FAST_DIGITS) {
+                    return slowParseDouble(chars, s, e, defaultValue);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (dot) {
+                    scale++;
+                }
+            } else if (c == '.' && dot == false) {
+                dot = true;
+            } else {
+                // Exponent, NaN, Infinity, hex or type suffix. Rare. Let
+                // Double.parseDouble decide.
+                return slowParseDouble(chars, s, e, defaultValue);
+            }
+        }
+
+        if (any == false) {
+            return defaultValue;
+        }
+
+        if (scale >= POWERS_OF_TEN.length) {
+            return slowParseDouble(chars, s, e, defaultValue);
+        }
+
+        // Both mantissa (less than 2^53) and power of ten (up to 10^22) are
+        // exact doubles. A single division is correctly rounded, which gives
+        // the same result as Double.parseDouble.
+        final double value = (double)mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Same as Long.parseLong, on the given range.
+     *
+     * @param chars the chars
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     * @param defaultValue value to be returned, if the range is not a number
+     * @return the parsed number, or default value if the range is not a number
+     */
+    public static long parseLong(char[] chars, int start, int end, long defaultValue) {
+        if (start >= end) {
+            return defaultValue;
+        }
+        int i = start;
+        boolean negative = false;
+        if (chars[i] == '-' || chars[i] == '+') {
+            negative = (chars[i] == '-');
+            i++;
+        }
+        if (i >= end) {
+            return defaultValue;
+        }
+        if (end - i > MAX_FAST_DIGITS) {
+            // Might overflow. Let Long.parseLong decide.
+            try {
+                return Long.parseLong(new String(chars, start, end - start));
+            } catch (NumberFormatException exp) {
+                return defaultValue;
+            }
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final char c = chars[i];
+            if (c < '0' || c > '9') {
+                return defaultValue;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Same as Integer.parseInt, on the given range.
+     *
+     * @param chars the chars
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     * @param defaultValue value to be returned, if the range is not a number
+     * @return the parsed number, or default value if the range is not a number
+     */
+    public static int parseInt(char[] chars, int start, int end, int defaultValue) {
+        final long value = parseLong(chars, start, end, Long.MIN_VALUE);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return defaultValue;
+        }
+        return (int)value;
+    }
+
+    private static double slowParseDouble(char[] chars, int start, int end, double defaultValue) {
+        try {
+            return Double.parseDouble(new String(chars, start, end - start));
+        } catch (NumberFormatException exp) {
+            return defaultValue;
+        }
+    }
+
+    // 10^15 < 2^53. Any mantissa up to 15 digits is an exact double.
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22
+    };
+}
@@ -20,6 +20,12 @@
 package org.yccheok.jstock.engine;
 
 /**
+ * Stock code. Instances are canonical. Code.newInstance returns the same
+ * instance for the same string, as long as the instance is still being
+ * referenced, so that millions of quotes and history rows of the same code
+ * share a single instance. The pool only holds weak references, and is
+ * bounded. When the pool is full, a non canonical instance is returned, which
+ * is still equal to the canonical one.
  *
  * @author yccheok
  */
@@ -33,15 +39,65 @@ public class Code {
             throw new java.lang.IllegalArgumentException("code cannot be null");
         }
         
-        return new Code(code);
+        purge();
+        
+        CodeReference reference = pool.get(code);
+        if (reference != null) {
+            final Code c = reference.get();
+            if (c != null) {
+                return c;
+            }
+        }
+        
+        final Code c = new Code(code);
+        
+        if (pool.size() >= MAX_POOL_SIZE) {
+            return c;
+        }
+        
+        final CodeReference newReference = new CodeReference(c, referenceQueue);
+        while (true) {
+            reference = pool.putIfAbsent(code, newReference);
+            if (reference == null) {
+                return c;
+            }
+            final Code existing = reference.get();
+            if (existing != null) {
+                return existing;
+            }
+            // Cleared, but not purged yet.
+            if (pool.replace(code, reference, newReference)) {
+                return c;
+            }
+        }
     }
 
+    // Removes entries, whose code has been garbage collected.
+    private static void purge() {
+        java.lang.ref.Reference<? extends Code> reference;
+        while ((reference = referenceQueue.poll()) != null) {
+            final CodeReference codeReference = (CodeReference)reference;
+            pool.remove(codeReference.key, codeReference);
+        }
+    }
+    
+    // Instance which is deserialized by XStream, is replaced by the canonical
+    // one.
+    private Object readResolve() {
+        return newInstance(code);
+    }
+    
     @Override
     public int hashCode() {
-        int result = 17;
-        result = 31 * result + code.hashCode();
-        
-        return result;
+        // Same as String, 0 means not computed yet. It is not serialized, and
+        // is computed lazily, for instance which is deserialized by XStream.
+        int h = hash;
+        if (h == 0) {
+            h = 17;
+            h = 31 * h + code.hashCode();
+            hash = h;
+        }
+        return h;
     }
     
     @Override
@@ -54,7 +110,14 @@ public class Code {
             return false;
         }
         
-        return this.code.equals(((Code)o).code);
+        final Code c = (Code)o;
+        
+        // Different hash means different code. Cheaper than comparing strings.
+        if (this.hashCode() != c.hashCode()) {
+            return false;
+        }
+        
+        return this.code.equals(c.code);
     }
     
     @Override
@@ -62,5 +125,21 @@ public class Code {
         return code;
     }
     
+    private static class CodeReference extends java.lang.ref.WeakReference<Code> {
+        public CodeReference(Code code, java.lang.ref.ReferenceQueue<Code> referenceQueue) {
+            super(code, referenceQueue);
+            this.key = code.code;
+        }
+        
+        private final String key;
+    }
+    
     private String code;
+    private transient int hash;
+    
+    // Number of distinct codes, which are being referenced at the same time,
+    // is far less than this, even for a full market scan.
+    private static final int MAX_POOL_SIZE = 65536;
+    private static final java.util.concurrent.ConcurrentHashMap<String, CodeReference> pool = new java.util.concurrent.ConcurrentHashMap<String, CodeReference>();
+    private static final java.lang.ref.ReferenceQueue<Code> referenceQueue = new java.lang.ref.ReferenceQueue<Code>();
 }
@@ -165,6 +165,17 @@ public class CurrencyExchangeMonitor extends Subject<CurrencyExchangeMonitor, Do
             interrupt();
         }
 
+        // Currency exchange market is closed during weekend. Slow down to
+        // heartbeat, unless user wants to poll around the clock.
+        private long getDelay() {
+            final org.yccheok.jstock.gui.JStockOptions jStockOptions = org.yccheok.jstock.gui.MainFrame.getInstance().getJStockOptions();
+            final long delay = jStockOptions.getScanningSpeed();
+            if (jStockOptions.isPollingOutsideTradingHours()) {
+                return delay;
+            }
+            return TradingSession.FOREX.getDelay(System.currentTimeMillis(), delay);
+        }
+
         @Override
         public void run() {
             while (isRunnable) {
@@ -208,7 +219,7 @@ public class CurrencyExchangeMonitor extends Subject<CurrencyExchangeMonitor, Do
                         }   // if (successUpdatedCountryToCurrencyCode == false)
 
                         // Let's do the job.
-                        for (StockServerFactory factory : stockServerFactories) {
+                        for (StockServerFactory factory : ServerHealth.INSTANCE.rank(stockServerFactories, ServerHealth.Type.StockServer)) {
                             final StockServer stockServer = factory.getStockServer();
                             
                             if (stockServer == null) {
@@ -216,9 +227,13 @@ public class CurrencyExchangeMonitor extends Subject<CurrencyExchangeMonitor, Do
                             }
                             
                             Stock stock = null;
+                            final long transportFailureCount = HttpTransport.INSTANCE.getTransportFailureCount();
+                            final long start = System.currentTimeMillis();
                             try {
                                 stock = stockServer.getStock(getCode());
+                                ServerHealth.INSTANCE.success(factory, ServerHealth.Type.StockServer, System.currentTimeMillis() - start);
                             } catch (StockNotFoundException ex) {
+                                ServerHealth.INSTANCE.failure(factory, ServerHealth.Type.StockServer, System.currentTimeMillis() - start, transportFailureCount);
                                 log.error(null, ex);
                                 // Try with another server.
                                 continue;
@@ -235,7 +250,7 @@ public class CurrencyExchangeMonitor extends Subject<CurrencyExchangeMonitor, Do
                         }   // for
 
                         try {
-                            Thread.sleep(org.yccheok.jstock.gui.MainFrame.getInstance().getJStockOptions().getScanningSpeed());
+                            Thread.sleep(getDelay());
                         } catch (InterruptedException ex) {
                             log.error(null, ex);
                             if (isRefresh == false) {
@@ -0,0 +1,140 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Calendar;
+
+/**
+ * View of a stock history, which only contains stocks within a duration. No
+ * stock is copied.
+ *
+ * @author yccheok
+ */
+class DurationStockHistoryServer implements StockHistoryServer {
+
+    private DurationStockHistoryServer(StockHistoryServer stockHistoryServer, int from, int to) {
+        this.stockHistoryServer = stockHistoryServer;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Returns view of the given stock history, within the given duration.
+     *
+     * @param stockHistoryServer the stock history
+     * @param duration the duration
+     * @return view of the given stock history, or the stock history itself if
+     * all its stocks are within the duration
+     */
+    public static StockHistoryServer newInstance(StockHistoryServer stockHistoryServer, Duration duration) {
+        final long start = duration.getStartDate().getCalendar().getTimeInMillis();
+        final Calendar calendar = duration.getEndDate().getCalendar();
+        calendar.add(Calendar.DATE, 1);
+        final long end = calendar.getTimeInMillis();
+
+        final int from = lowerBound(stockHistoryServer, start);
+        final int to = lowerBound(stockHistoryServer, end);
+        if (from == 0 && to == stockHistoryServer.size()) {
+            return stockHistoryServer;
+        }
+        return new DurationStockHistoryServer(stockHistoryServer, from, to);
+    }
+
+    // Index of the first timestamp, which is not less than the given timestamp.
+    static int lowerBound(StockHistoryServer stockHistoryServer, long timestamp) {
+        final int index = stockHistoryServer.ceilingIndex(timestamp);
+        return index < 0 ? stockHistoryServer.size() : index;
+    }
+
+    // The viewed stock history.
+    StockHistoryServer getStockHistoryServer() {
+        return stockHistoryServer;
+    }
+
+    @Override
+    public Stock getStock(long timestamp) {
+        if (to <= from || timestamp < stockHistoryServer.getTimestamp(from) || timestamp > stockHistoryServer.getTimestamp(to - 1)) {
+            return null;
+        }
+        return stockHistoryServer.getStock(timestamp);
+    }
+
+    @Override
+    public Stock getStockAt(int index) {
+        if (index < 0 || index >= to - from) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + (to - from));
+        }
+        return stockHistoryServer.getStockAt(from + index);
+    }
+
+    @Override
+    public int floorIndex(long timestamp) {
+        final int index = stockHistoryServer.floorIndex(timestamp);
+        if (index < from || to <= from) {
+            return -1;
+        }
+        return Math.min(index, to - 1) - from;
+    }
+
+    @Override
+    public int ceilingIndex(long timestamp) {
+        final int index = stockHistoryServer.ceilingIndex(timestamp);
+        if (index < 0 || index >= to) {
+            return -1;
+        }
+        return Math.max(index, from) - from;
+    }
+
+    @Override
+    public double[] closes(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("from=" + from + ", to=" + to + ", size=" + size());
+        }
+        return stockHistoryServer.closes(this.from + from, this.from + to);
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        if (index < 0 || index >= to - from) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + (to - from));
+        }
+        return stockHistoryServer.getTimestamp(from + index);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public long getSharesIssued() {
+        return stockHistoryServer.getSharesIssued();
+    }
+
+    @Override
+    public long getMarketCapital() {
+        return stockHistoryServer.getMarketCapital();
+    }
+
+    private final StockHistoryServer stockHistoryServer;
+    // [from, to) of the underlying stock history.
+    private final int from;
+    private final int to;
+}
@@ -32,6 +32,11 @@ public enum Factories {
     INSTANCE;
             
     public List<StockServerFactory> getStockServerFactories(Country country) {
+        final StockServerFactory _replayStockServerFactory = this.replayStockServerFactory;
+        if (_replayStockServerFactory != null) {
+            return java.util.Collections.singletonList(_replayStockServerFactory);
+        }
+
         List<StockServerFactory> list = map.get(country);
         if (list != null) {
             return java.util.Collections.unmodifiableList(list);
@@ -56,12 +61,34 @@ public enum Factories {
         }
     }
 
+    /**
+     * Replaces stock server factories of every country with the given replay
+     * factory, so that no network server is being used. Pass null to restore.
+     * Monitors pick up the change when their factories are being set again.
+     *
+     * @param replayStockServerFactory the replay factory, or null
+     */
+    public void setReplayStockServerFactory(StockServerFactory replayStockServerFactory) {
+        this.replayStockServerFactory = replayStockServerFactory;
+    }
+
+    /**
+     * Returns true if a replay factory is replacing stock server factories.
+     *
+     * @return true if a replay factory is replacing stock server factories
+     */
+    public boolean isReplaying() {
+        return this.replayStockServerFactory != null;
+    }
+
     public void removeKLSEInfoStockServerFactory() {
         synchronized(klseInfoStockServerFactoryMonitor) {
             map.get(Country.Malaysia).remove(klseInfoStockServerFactory);
         }
     }
     
+    private volatile StockServerFactory replayStockServerFactory = null;
+
     private static final Map<Country, List<StockServerFactory>> map = new EnumMap<Country, List<StockServerFactory>>(Country.class);
     private static final StockServerFactory klseInfoStockServerFactory = KLSEInfoStockServerFactory.newInstance();
     private static final Object klseInfoStockServerFactoryMonitor = new Object();
@@ -0,0 +1,369 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Parses Google Finance quote respond, which looks like
+ * "// [ { "id": "...", "t" : "...", ... }, ... ]", directly from a reader. One
+ * quote object is parsed at a time. Values of interested keys are kept in
+ * reusable char buffers, and numbers are parsed directly from them. Google's
+ * \x26 style escape is decoded as well.
+ *
+ * This class is not thread safe. Every thread should have its own instance.
+ *
+ * @author yccheok
+ */
+class GoogleQuoteParser {
+
+    public static final int NAME = 0;
+    public static final int TICKER = 1;
+    public static final int EXCHANGE = 2;
+    public static final int CHANGE = 3;
+    public static final int LAST = 4;
+    public static final int OPEN = 5;
+    public static final int HIGH = 6;
+    public static final int LOW = 7;
+    public static final int VOLUME = 8;
+    public static final int CHANGE_PERCENTAGE = 9;
+
+    // Keys, in the order of above indices.
+    private static final char[][] KEYS = {
+        "name".toCharArray(),
+        "t".toCharArray(),
+        "e".toCharArray(),
+        "c".toCharArray(),
+        "l".toCharArray(),
+        "op".toCharArray(),
+        "hi".toCharArray(),
+        "lo".toCharArray(),
+        "vo".toCharArray(),
+        "cp".toCharArray()
+    };
+
+    public GoogleQuoteParser() {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new char[16];
+        }
+    }
+
+    /**
+     * Starts parsing the given reader. Buffers are kept for reuse. Pass null,
+     * once done, so that the reader is not being referenced any more.
+     *
+     * @param reader the reader
+     */
+    public void reset(Reader reader) {
+        this.reader = reader;
+        this.position = 0;
+        this.limit = 0;
+        this.pushback = -1;
+        this.started = false;
+        this.finished = false;
+        Arrays.fill(lengths, -1);
+    }
+
+    /**
+     * Advances to the next quote object.
+     *
+     * @return false if there is no more quote object
+     * @throws IOException if fail to read
+     */
+    public boolean next() throws IOException {
+        if (finished) {
+            return false;
+        }
+
+        if (started == false) {
+            // Skip "// " prefix.
+            int c;
+            while ((c = read()) != -1 && c != '[') {
+            }
+            if (c == -1) {
+                finished = true;
+                return false;
+            }
+            started = true;
+        }
+
+        while (true) {
+            final int c = readNonWhitespace();
+            if (c == -1 || c == ']') {
+                finished = true;
+                return false;
+            }
+            if (c == '{') {
+                parseObject();
+                return true;
+            }
+            // ',' between objects, or anything unexpected.
+        }
+    }
+
+    /**
+     * Returns true if current quote object has the given key.
+     *
+     * @param key key index, such as NAME
+     * @return true if current quote object has the given key
+     */
+    public boolean has(int key) {
+        return lengths[key] >= 0;
+    }
+
+    /**
+     * Returns string value of the given key.
+     *
+     * @param key key index, such as NAME
+     * @return string value of the given key, or null if there is no such key
+     */
+    public String getString(int key) {
+        if (lengths[key] < 0) {
+            return null;
+        }
+        return new String(values[key], 0, lengths[key]);
+    }
+
+    /**
+     * Returns the last character of the value of the given key.
+     *
+     * @param key key index, such as NAME
+     * @return the last character, or 0 if the value is empty or there is no
+     * such key
+     */
+    public char getLastChar(int key) {
+        final int length = lengths[key];
+        return length > 0 ? values[key][length - 1] : 0;
+    }
+
+    /**
+     * Returns the number of the value of the given key. Characters other than
+     * digits, dot and optionally minus sign, are ignored. For instance,
+     * "1,234.50" gives 1234.5.
+     *
+     * @param key key index, such as NAME
+     * @param isSigned true if minus sign should be kept
+     * @param defaultValue value to be returned, if the value is not a number
+     * @return the number, or default value if the value is not a number
+     */
+    public double getDouble(int key, boolean isSigned, double defaultValue) {
+        final int length = lengths[key];
+        if (length <= 0) {
+            return defaultValue;
+        }
+        final char[] value = values[key];
+        if (scratch.length < length) {
+            scratch = new char[value.length];
+        }
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value[i];
+            if ((c >= '0' && c <= '9') || c == '.' || (isSigned && c == '-')) {
+                scratch[size++] = c;
+            }
+        }
+        return CharParser.parseDouble(scratch, 0, size, defaultValue);
+    }
+
+    private void parseObject() throws IOException {
+        Arrays.fill(lengths, -1);
+        while (true) {
+            int c = readNonWhitespace();
+            if (c == -1) {
+                finished = true;
+                return;
+            }
+            if (c == '}') {
+                return;
+            }
+            if (c != '"') {
+                // ',' between members, or anything unexpected.
+                continue;
+            }
+
+            keyLength = readString(KEY_BUFFER);
+            final int key = findKey();
+
+            c = readNonWhitespace();
+            if (c != ':') {
+                pushback = c;
+                continue;
+            }
+
+            c = readNonWhitespace();
+            if (c == '"') {
+                if (key >= 0) {
+                    lengths[key] = readString(key);
+                } else {
+                    readString(SKIP);
+                }
+            } else {
+                skipValue(c);
+            }
+        }
+    }
+
+    private int findKey() {
+        for (int i = 0; i < KEYS.length; i++) {
+            final char[] k = KEYS[i];
+            if (k.length != keyLength) {
+                continue;
+            }
+            boolean match = true;
+            for (int j = 0; j < keyLength; j++) {
+                if (k[j] != keyBuffer[j]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Reads a string, after its opening quote, into key buffer, value buffer
+    // of the given key, or nowhere. Returns its length.
+    private int readString(int key) throws IOException {
+        int length = 0;
+        while (true) {
+            int c = read();
+            if (c == -1 || c == '"') {
+                return length;
+            }
+            if (c == '\\') {
+                final int e = read();
+                switch (e) {
+                case 'b': c = '\b'; break;
+                case 'f': c = '\f'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                case 't': c = '\t'; break;
+                case 'u': c = readHex(4); break;
+                // http://stackoverflow.com/questions/15518340/json-returned-by-google-maps-query-contains-encoded-characters-like-x26-how-to
+                case 'x': c = readHex(2); break;
+                case -1: return length;
+                // \" \\ \/
+                default: c = e; break;
+                }
+                if (c == -1) {
+                    return length;
+                }
+            }
+            if (key == KEY_BUFFER) {
+                if (length >= keyBuffer.length) {
+                    keyBuffer = Arrays.copyOf(keyBuffer, keyBuffer.length << 1);
+                }
+                keyBuffer[length++] = (char)c;
+            } else if (key >= 0) {
+                if (length >= values[key].length) {
+                    values[key] = Arrays.copyOf(values[key], values[key].length << 1);
+                }
+                values[key][length++] = (char)c;
+            } else {
+                // Not interested. Just skip.
+                length++;
+            }
+        }
+    }
+
+    // Returns -1 if the digits are not hex.
+    private int readHex(int count) throws IOException {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            final int d = Character.digit(read(), 16);
+            if (d < 0) {
+                return -1;
+            }
+            value = (value << 4) | d;
+        }
+        return value;
+    }
+
+    // Skips number, true, false, null, nested array or nested object.
+    private void skipValue(int c) throws IOException {
+        int depth = 0;
+        while (c != -1) {
+            if (c == '"') {
+                readString(SKIP);
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    pushback = c;
+                    return;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                return;
+            }
+            c = read();
+        }
+        finished = true;
+    }
+
+    private int readNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c <= ' ');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pushback != -1) {
+            final int c = pushback;
+            pushback = -1;
+            return c;
+        }
+        if (position >= limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    // Destinations of readString, other than value buffers.
+    private static final int KEY_BUFFER = -1;
+    private static final int SKIP = -2;
+
+    private Reader reader = null;
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+    private int pushback = -1;
+    private boolean started = false;
+    private boolean finished = false;
+
+    private char[] keyBuffer = new char[16];
+    private int keyLength = 0;
+
+    private final char[][] values = new char[KEYS.length][];
+    // -1 if the key is not found in current object.
+    private final int[] lengths = new int[KEYS.length];
+    private char[] scratch = new char[16];
+}
@@ -0,0 +1,325 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sends the same request to a list of stock server factories, in hedged way.
+ * The first factory is tried first. If it has not answered within the given
+ * percentile of its recent latency, the same request will be fired at the
+ * next factory, without cancelling the previous one. The first good answer
+ * wins, and all the losing requests are cancelled. A factory which fails,
+ * causes the next factory to be tried immediately.
+ *
+ * Till a factory has enough successful requests to estimate its percentile,
+ * the default hedge delay is used. Hence, a factory which keeps timing out
+ * since start still gets hedged.
+ *
+ * Every hedger keeps its own latency statistic. Hence, different kinds of
+ * requests (real time stock, stock history, ...) should use different hedger.
+ *
+ * @author yccheok
+ */
+public class Hedger {
+
+    /**
+     * A request, which can be sent to any stock server factory.
+     */
+    public interface Request<T> {
+        /**
+         * Sends this request to the given factory.
+         *
+         * @param factory the stock server factory
+         * @return the answer, or null if the factory is unable to answer
+         * @throws Exception if the factory is unable to answer
+         */
+        public T call(StockServerFactory factory) throws Exception;
+    }
+
+    /**
+     * Creates a new instance of Hedger, with default hedge delay.
+     *
+     * @param percentile percentile of recent latency, in (0, 100], after which
+     * the next factory is tried
+     */
+    public Hedger(double percentile) {
+        this(percentile, DEFAULT_HEDGE_DELAY);
+    }
+
+    /**
+     * Creates a new instance of Hedger.
+     *
+     * @param percentile percentile of recent latency, in (0, 100], after which
+     * the next factory is tried
+     * @param defaultHedgeDelay delay in ms, after which the next factory is
+     * tried, if there isn't enough latency information
+     */
+    public Hedger(double percentile, long defaultHedgeDelay) {
+        if (percentile <= 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("percentile : " + percentile);
+        }
+        if (defaultHedgeDelay <= 0) {
+            throw new IllegalArgumentException("defaultHedgeDelay : " + defaultHedgeDelay);
+        }
+        this.percentile = percentile;
+        this.defaultHedgeDelay = defaultHedgeDelay;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public long getDefaultHedgeDelay() {
+        return defaultHedgeDelay;
+    }
+
+    /**
+     * Sends the request to the factories, in hedged way.
+     *
+     * @param factories the stock server factories, in preferred order
+     * @param request the request
+     * @return the first good answer, or null if none of the factories is able
+     * to answer
+     */
+    public <T> T call(List<StockServerFactory> factories, final Request<T> request) {
+        final List<StockServerFactory> _factories = new ArrayList<StockServerFactory>(factories);
+        final int size = _factories.size();
+        if (size == 0) {
+            return null;
+        }
+
+        final CompletionService<Answer<T>> completionService = new ExecutorCompletionService<Answer<T>>(pool);
+        final List<Future<Answer<T>>> futures = new ArrayList<Future<Answer<T>>>(size);
+        final List<Attempt<T>> attempts = new ArrayList<Attempt<T>>(size);
+
+        try {
+            int next = 0;
+            int outstanding = 0;
+
+            futures.add(submit(completionService, attempts, _factories.get(next++), request));
+            outstanding++;
+
+            while (outstanding > 0) {
+                final Future<Answer<T>> future;
+                if (next < size) {
+                    // Wait for the latest tried factory, up to its percentile
+                    // latency, before hedging.
+                    final long hedgeDelay = getHedgeDelay(_factories.get(next - 1));
+                    future = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+                } else {
+                    future = completionService.take();
+                }
+
+                if (future == null) {
+                    // Time out. Hedge with next factory.
+                    futures.add(submit(completionService, attempts, _factories.get(next++), request));
+                    outstanding++;
+                    continue;
+                }
+
+                outstanding--;
+
+                Answer<T> answer;
+                try {
+                    answer = future.get();
+                } catch (ExecutionException exp) {
+                    log.error(null, exp);
+                    answer = null;
+                }
+
+                if (answer != null && answer.value != null) {
+                    return answer.value;
+                }
+
+                // Failed. Try next factory immediately.
+                if (next < size) {
+                    futures.add(submit(completionService, attempts, _factories.get(next++), request));
+                    outstanding++;
+                }
+            }
+        } catch (InterruptedException exp) {
+            // Preserve interrupted status. The caller may use it to decide
+            // whether it should stop, or refresh.
+            Thread.currentThread().interrupt();
+        } finally {
+            // Cancel all losing requests. Interruption doesn't wake up a
+            // blocking socket read. Abort their HTTP requests as well, so
+            // that they will not pile up in the pool.
+            for (Future<Answer<T>> future : futures) {
+                future.cancel(true);
+            }
+            for (Attempt<T> attempt : attempts) {
+                attempt.abort();
+            }
+        }
+
+        return null;
+    }
+
+    private <T> Future<Answer<T>> submit(CompletionService<Answer<T>> completionService, List<Attempt<T>> attempts, StockServerFactory factory, Request<T> request) {
+        final Attempt<T> attempt = new Attempt<T>(factory, request);
+        attempts.add(attempt);
+        return completionService.submit(attempt);
+    }
+
+    // Default hedge delay, if there isn't enough latency information.
+    private long getHedgeDelay(StockServerFactory factory) {
+        final long latency = getLatencies(factory).getPercentile(percentile);
+        if (latency < 0) {
+            return defaultHedgeDelay;
+        }
+        return Math.max(latency, MIN_HEDGE_DELAY);
+    }
+
+    private Latencies getLatencies(StockServerFactory factory) {
+        Latencies latencies = this.latencies.get(factory);
+        if (latencies == null) {
+            latencies = new Latencies();
+            final Latencies old = this.latencies.putIfAbsent(factory, latencies);
+            if (old != null) {
+                latencies = old;
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * A request to a single factory. It remembers the thread running it, so
+     * that its HTTP request can be aborted.
+     */
+    private class Attempt<T> implements Callable<Answer<T>> {
+        public Attempt(StockServerFactory factory, Request<T> request) {
+            this.factory = factory;
+            this.request = request;
+        }
+
+        @Override
+        public Answer<T> call() throws Exception {
+            synchronized (this) {
+                if (aborted) {
+                    return new Answer<T>(null);
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                final long start = System.currentTimeMillis();
+                final T value = request.call(factory);
+                if (value != null) {
+                    getLatencies(factory).add(System.currentTimeMillis() - start);
+                }
+                return new Answer<T>(value);
+            } finally {
+                synchronized (this) {
+                    // The thread will be reused by others.
+                    thread = null;
+                }
+            }
+        }
+
+        public synchronized void abort() {
+            aborted = true;
+            if (thread != null) {
+                HttpTransport.INSTANCE.abort(thread);
+            }
+        }
+
+        private final StockServerFactory factory;
+        private final Request<T> request;
+        // Guarded by this.
+        private Thread thread = null;
+        private boolean aborted = false;
+    }
+
+    private static class Answer<T> {
+        public Answer(T value) {
+            this.value = value;
+        }
+        public final T value;
+    }
+
+    /**
+     * Latencies of most recent successful requests, in ms.
+     */
+    private static class Latencies {
+        public synchronized void add(long latency) {
+            latencies[index] = latency;
+            index = (index + 1) % latencies.length;
+            if (count < latencies.length) {
+                count++;
+            }
+        }
+
+        // Returns -1 if there isn't enough samples.
+        public long getPercentile(double percentile) {
+            final long[] samples;
+            synchronized (this) {
+                if (count < MIN_SAMPLES) {
+                    return -1;
+                }
+                samples = Arrays.copyOf(latencies, count);
+            }
+            Arrays.sort(samples);
+            final int i = (int)Math.ceil(percentile / 100.0 * samples.length) - 1;
+            return samples[Math.max(0, Math.min(i, samples.length - 1))];
+        }
+
+        private final long[] latencies = new long[MAX_SAMPLES];
+        private int index = 0;
+        private int count = 0;
+    }
+
+    private final double percentile;
+    private final long defaultHedgeDelay;
+    private final ConcurrentHashMap<StockServerFactory, Latencies> latencies = new ConcurrentHashMap<StockServerFactory, Latencies>();
+
+    // Shared by all hedgers. Threads will die, after being idle for a while.
+    private static final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "Hedger");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final int MIN_SAMPLES = 8;
+    private static final int MAX_SAMPLES = 64;
+    private static final long MIN_HEDGE_DELAY = 100;
+    // 5 seconds.
+    private static final long DEFAULT_HEDGE_DELAY = 5000;
+
+    private static final Log log = LogFactory.getLog(Hedger.class);
+}
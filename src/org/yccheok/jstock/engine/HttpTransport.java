@@ -0,0 +1,509 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A process wide HTTP transport, used by every stock server, stock history
+ * server and market server. All requests share a single pool of keep-alive
+ * connections, with per host limit. gzip and deflate responses are
+ * negotiated and decoded transparently.
+ *
+ * Proxy configuration is resolved once, through setProxy, instead of being
+ * re-applied on every request. The caller is responsible to call setProxy
+ * again, whenever proxy options are changed.
+ *
+ * @author yccheok
+ */
+public enum HttpTransport {
+    INSTANCE;
+
+    private HttpTransport() {
+        final HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+        params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        params.setConnectionTimeout(CONNECTION_TIMEOUT);
+        params.setSoTimeout(SO_TIMEOUT);
+        // A pooled connection may have been closed by server, while it is
+        // idle. Check it before reuse, instead of failing the request.
+        params.setStaleCheckingEnabled(true);
+        params.setTcpNoDelay(true);
+
+        httpClient = newHttpClient(connectionManager);
+        httpClientWithAgentInfo = newHttpClient(connectionManager);
+        // Provide agent information, as requested by KLSEInfo owner.
+        httpClientWithAgentInfo.getParams().setParameter(HttpMethodParams.USER_AGENT, "JStock-1.0.6o");
+
+        // Do not keep idle connections forever. Most servers will close them
+        // after a while anyway.
+        idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+        idleConnectionTimeoutThread.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT);
+        idleConnectionTimeoutThread.setTimeoutInterval(IDLE_CONNECTION_TIMEOUT / 2);
+        idleConnectionTimeoutThread.setName("HttpTransport");
+        idleConnectionTimeoutThread.start();
+
+        // Till the first setProxy call.
+        setProxyFromSystemProperties(null);
+    }
+
+    private static HttpClient newHttpClient(MultiThreadedHttpConnectionManager connectionManager) {
+        final HttpClient client = new HttpClient(connectionManager);
+        // To prevent cookie warnings.
+        client.getParams().setParameter("http.protocol.single-cookie-header", true);
+        client.getParams().setCookiePolicy(org.apache.commons.httpclient.cookie.CookiePolicy.BROWSER_COMPATIBILITY);
+        // Do not wait forever, for a free connection from the pool.
+        client.getParams().setConnectionManagerTimeout(CONNECTION_TIMEOUT);
+        return client;
+    }
+
+    /**
+     * Sets the proxy used by all subsequent requests. Requests which are
+     * in progress are not affected.
+     *
+     * @param host proxy host. null or empty if no proxy should be used
+     * @param port proxy port
+     * @param credentials proxy credentials. null if proxy authentication is
+     * not required
+     */
+    public void setProxy(String host, int port, Credentials credentials) {
+        final HostConfiguration hostConfiguration = new HostConfiguration();
+        if (host != null && host.length() > 0 && Utils.isValidPortNumber(port)) {
+            hostConfiguration.setProxy(host, port);
+        }
+        final HttpState httpState = new HttpState();
+        if (credentials != null) {
+            httpState.setProxyCredentials(AuthScope.ANY, credentials);
+        }
+        // Cookies are not worth to be carried over. None of our servers
+        // require them.
+        this.proxy = new Proxy(hostConfiguration, httpState, credentials != null);
+    }
+
+    /**
+     * Sets the proxy used by all subsequent requests, based on http.proxyHost
+     * and http.proxyPort system properties.
+     *
+     * @param credentials proxy credentials. null if proxy authentication is
+     * not required
+     */
+    public void setProxyFromSystemProperties(Credentials credentials) {
+        final String httpproxyHost = System.getProperties().getProperty("http.proxyHost");
+        final String httpproxyPort = System.getProperties().getProperty("http.proxyPort");
+
+        int port = -1;
+        if (httpproxyPort != null) {
+            try {
+                port = Integer.parseInt(httpproxyPort);
+            }
+            catch (NumberFormatException exp) {
+            }
+        }
+
+        setProxy(httpproxyHost, port, credentials);
+    }
+
+    /**
+     * Aborts the request, which is being executed or read by the given
+     * thread. Interrupting a thread doesn't wake it up from a blocking socket
+     * read. Aborting its request does.
+     *
+     * @param thread the thread
+     */
+    public void abort(Thread thread) {
+        final HttpMethod method = methods.get(thread);
+        if (method != null) {
+            method.abort();
+        }
+    }
+
+    /**
+     * Returns number of requests made by the current thread, which failed due
+     * to connection error, time out, or server error (HTTP 5xx). Requests
+     * which are answered normally, including "not found", are not counted.
+     * Caller may compare the number before and after its requests, to find
+     * out whether a failure is server's fault.
+     *
+     * @return number of transport failures of the current thread
+     */
+    public long getTransportFailureCount() {
+        return transportFailureCount.get()[0];
+    }
+
+    private void onTransportFailure() {
+        transportFailureCount.get()[0]++;
+    }
+
+    /**
+     * Request server response without agent info.
+     *
+     * @param request the request
+     * @return server response. null if fail.
+     */
+    public String getResponseBodyAsString(String request) {
+        return getResponseBodyAsString(httpClient, request);
+    }
+
+    /**
+     * Request server response with agent info.
+     *
+     * @param request the request
+     * @return server response. null if fail.
+     */
+    public String getResponseBodyAsStringWithAgentInfo(String request) {
+        return getResponseBodyAsString(httpClientWithAgentInfo, request);
+    }
+
+    /**
+     * Request server response without agent info, as stream. The returned
+     * stream is already decoded, if server responds with gzip or deflate. The
+     * underlying connection is returned to the pool, when the returned stream
+     * is closed. Hence, caller must always close the returned stream.
+     *
+     * @param request the request
+     * @return server response stream. null if fail.
+     */
+    public InputStream getResponseBodyAsStream(String request) {
+        HttpMethod method = null;
+        try {
+            method = execute(httpClient, request);
+            final InputStream inputStream = getDecodedResponseBodyAsStream(method);
+            if (inputStream == null) {
+                release(method, Thread.currentThread());
+                return null;
+            }
+            return new ReleasingInputStream(inputStream, method, Thread.currentThread());
+        }
+        catch (IOException exp) {
+            log.error(null, exp);
+            onTransportFailure();
+            if (method != null) {
+                release(method, Thread.currentThread());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Request server response without agent info, as reader. The response is
+     * decoded according to its charset, as it is being read. The underlying
+     * connection is returned to the pool, when the returned reader is closed.
+     * Hence, caller must always close the returned reader.
+     *
+     * @param request the request
+     * @return server response reader. null if fail.
+     */
+    public Reader getResponseBodyAsReader(String request) {
+        return getResponseBodyAsReader(httpClient, request);
+    }
+
+    /**
+     * Request server response with agent info, as reader. Caller must always
+     * close the returned reader.
+     *
+     * @param request the request
+     * @return server response reader. null if fail.
+     * @see #getResponseBodyAsReader(String)
+     */
+    public Reader getResponseBodyAsReaderWithAgentInfo(String request) {
+        return getResponseBodyAsReader(httpClientWithAgentInfo, request);
+    }
+
+    private Reader getResponseBodyAsReader(HttpClient client, String request) {
+        HttpMethod method = null;
+        try {
+            method = execute(client, request);
+            final InputStream inputStream = getDecodedResponseBodyAsStream(method);
+            if (inputStream == null) {
+                release(method, Thread.currentThread());
+                return null;
+            }
+            return new InputStreamReader(new ReleasingInputStream(inputStream, method, Thread.currentThread()), getResponseCharset(method));
+        }
+        catch (IOException exp) {
+            log.error(null, exp);
+            onTransportFailure();
+            if (method != null) {
+                release(method, Thread.currentThread());
+            }
+            return null;
+        }
+    }
+
+    private String getResponseBodyAsString(HttpClient client, String request) {
+        HttpMethod method = null;
+        try {
+            method = execute(client, request);
+            final InputStream inputStream = getDecodedResponseBodyAsStream(method);
+            if (inputStream == null) {
+                return null;
+            }
+            // Read till the end, so that the connection can be reused.
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(BUFFER_SIZE);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, len);
+            }
+            return toString(outputStream, method);
+        }
+        catch (IOException exp) {
+            log.error(null, exp);
+            onTransportFailure();
+            return null;
+        }
+        finally {
+            if (method != null) {
+                release(method, Thread.currentThread());
+            }
+        }
+    }
+
+    // Releases the connection of the method, which is executed by the given
+    // thread.
+    private void release(HttpMethod method, Thread thread) {
+        methods.remove(thread, method);
+        method.releaseConnection();
+    }
+
+    // Returns the executed method, which must be released by caller.
+    private HttpMethod execute(HttpClient client, String request) throws IOException {
+        // Read once, so that a concurrent setProxy wouldn't give us mixed
+        // configuration.
+        final Proxy _proxy = this.proxy;
+
+        final Thread thread = Thread.currentThread();
+        HttpMethod method = newGetMethod(request);
+        // So that it can be aborted by another thread.
+        methods.put(thread, method);
+        boolean success = false;
+        try {
+            if (_proxy.isAuthEnabled) {
+                // Redirect is followed manually, so that the proxy
+                // credentials will be sent along with the redirected request.
+                method.setFollowRedirects(false);
+                client.executeMethod(_proxy.hostConfiguration, method, _proxy.httpState);
+
+                final int statuscode = method.getStatusCode();
+                if ((statuscode == HttpStatus.SC_MOVED_TEMPORARILY) ||
+                    (statuscode == HttpStatus.SC_MOVED_PERMANENTLY) ||
+                    (statuscode == HttpStatus.SC_SEE_OTHER) ||
+                    (statuscode == HttpStatus.SC_TEMPORARY_REDIRECT)) {
+                    final Header header = method.getResponseHeader("location");
+                    // We shouldn't have an unreleased method, before
+                    // executing another new method.
+                    release(method, thread);
+                    if (header == null) {
+                        throw new IOException("Redirect without location " + request);
+                    }
+                    method = newGetMethod(header.getValue());
+                    methods.put(thread, method);
+                    client.executeMethod(_proxy.hostConfiguration, method, _proxy.httpState);
+                }
+            }
+            else {
+                client.executeMethod(_proxy.hostConfiguration, method, _proxy.httpState);
+            }
+            if (method.getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                // Server has answered, but it is not healthy.
+                onTransportFailure();
+            }
+            success = true;
+            return method;
+        }
+        finally {
+            if (success == false) {
+                release(method, thread);
+            }
+        }
+    }
+
+    private static HttpMethod newGetMethod(String request) {
+        final HttpMethod method = new GetMethod(request);
+        method.setRequestHeader("Accept-Encoding", "gzip,deflate");
+        return method;
+    }
+
+    // Returns null if there is no response body.
+    private static InputStream getDecodedResponseBodyAsStream(HttpMethod method) throws IOException {
+        final InputStream inputStream = method.getResponseBodyAsStream();
+        if (inputStream == null) {
+            return null;
+        }
+        final Header header = method.getResponseHeader("Content-Encoding");
+        if (header == null) {
+            return inputStream;
+        }
+        final String encoding = header.getValue().trim();
+        if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+            return new GZIPInputStream(inputStream, BUFFER_SIZE);
+        }
+        if ("deflate".equalsIgnoreCase(encoding)) {
+            // Some servers send raw deflate stream, without zlib header.
+            // Peek the first byte to find out.
+            final PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 1);
+            final int b = pushbackInputStream.read();
+            if (b == -1) {
+                return pushbackInputStream;
+            }
+            pushbackInputStream.unread(b);
+            final boolean zlib = (b & 0x0f) == 0x08;
+            return new InflaterInputStream(pushbackInputStream, new Inflater(!zlib), BUFFER_SIZE);
+        }
+        return inputStream;
+    }
+
+    private static String toString(ByteArrayOutputStream outputStream, HttpMethod method) {
+        return new String(outputStream.toByteArray(), getResponseCharset(method));
+    }
+
+    private static Charset getResponseCharset(HttpMethod method) {
+        if (method instanceof GetMethod) {
+            final String charset = ((GetMethod)method).getResponseCharSet();
+            if (charset != null) {
+                try {
+                    return Charset.forName(charset);
+                } catch (IllegalArgumentException exp) {
+                    // Illegal or unsupported charset name.
+                    log.error(null, exp);
+                }
+            }
+        }
+        // Same default as HttpMethodBase.getResponseBodyAsString.
+        return ISO_8859_1;
+    }
+
+    /**
+     * Releases the connection back to pool, when the stream is closed.
+     */
+    private class ReleasingInputStream extends FilterInputStream {
+        public ReleasingInputStream(InputStream inputStream, HttpMethod method, Thread thread) {
+            super(inputStream);
+            this.method = method;
+            this.thread = thread;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            }
+            catch (IOException exp) {
+                onTransportFailure();
+                throw exp;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            }
+            catch (IOException exp) {
+                onTransportFailure();
+                throw exp;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            }
+            finally {
+                release(method, thread);
+            }
+        }
+
+        private final HttpMethod method;
+        // The thread which executes the method.
+        private final Thread thread;
+    }
+
+    private static class Proxy {
+        public Proxy(HostConfiguration hostConfiguration, HttpState httpState, boolean isAuthEnabled) {
+            this.hostConfiguration = hostConfiguration;
+            this.httpState = httpState;
+            this.isAuthEnabled = isAuthEnabled;
+        }
+
+        public final HostConfiguration hostConfiguration;
+        public final HttpState httpState;
+        public final boolean isAuthEnabled;
+    }
+
+    private final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+    private final IdleConnectionTimeoutThread idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+    private final HttpClient httpClient;
+    private final HttpClient httpClientWithAgentInfo;
+    private volatile Proxy proxy;
+    // Use ThreadLocal, as health of a server is judged by the thread which
+    // sends the requests.
+    private final ThreadLocal<long[]> transportFailureCount = new ThreadLocal<long[]>() {
+        @Override protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+    // Method being executed or read, by every thread.
+    private final ConcurrentMap<Thread, HttpMethod> methods = new ConcurrentHashMap<Thread, HttpMethod>();
+
+    // Most requests go to a handful of hosts (Yahoo, Google, ...). Allow
+    // enough parallel connections per host for the batched scans, without
+    // letting a single host exhaust the whole pool.
+    private static final int MAX_TOTAL_CONNECTIONS = 64;
+    private static final int MAX_CONNECTIONS_PER_HOST = 16;
+    // 20 seconds.
+    private static final int CONNECTION_TIMEOUT = 20000;
+    // 30 seconds.
+    private static final int SO_TIMEOUT = 30000;
+    // 60 seconds.
+    private static final long IDLE_CONNECTION_TIMEOUT = 60000;
+    private static final int BUFFER_SIZE = 8192;
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final Log log = LogFactory.getLog(HttpTransport.class);
+}
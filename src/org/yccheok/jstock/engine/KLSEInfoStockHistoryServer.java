@@ -19,14 +19,13 @@
 
 package org.yccheok.jstock.engine;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -45,13 +44,6 @@ public class KLSEInfoStockHistoryServer implements StockHistoryServer {
         }
     };
     
-    // Use ThreadLocal to ensure thread safety.
-    private static final ThreadLocal <SimpleDateFormat> simpleDateFormatThreadLocal = new ThreadLocal <SimpleDateFormat>() {
-        @Override protected SimpleDateFormat initialValue() {
-            return new java.text.SimpleDateFormat("yyyy-MM-dd");            
-        }
-    };
-    
     public KLSEInfoStockHistoryServer(Code code) throws StockHistoryNotFoundException
     {
         this(code, DEFAULT_HISTORY_DURATION);
@@ -71,18 +63,20 @@ public class KLSEInfoStockHistoryServer implements StockHistoryServer {
         final List<Duration> durations = this.toSmallerDurationPieces();
         
         try {
+            final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(code);
             boolean flag = false;
             for (Duration d : durations) {
                 // As long as one of the durations returns true will be good
                 // enough. One or more durations may return false, as a stock
                 // may listed in stock market less than 10 years.
-                flag = flag | buildHistory(this.code, d);
+                flag = flag | buildHistory(this.code, d, builder);
             }
             if (flag == false) {
                 throw new StockHistoryNotFoundException(code.toString());
             }
+            history = builder.build();
         } catch (java.lang.OutOfMemoryError exp) {
-            // Thrown from method.getResponseBodyAsString
+            // Thrown while parsing the response
             log.error(null, exp);
             throw new StockHistoryNotFoundException("Out of memory", exp);
         }
@@ -90,17 +84,37 @@ public class KLSEInfoStockHistoryServer implements StockHistoryServer {
     
     @Override
     public Stock getStock(long timestamp) {
-        return historyDatabase.get(timestamp);
+        return history.getStock(timestamp);
+    }
+
+    @Override
+    public Stock getStockAt(int index) {
+        return history.getStockAt(index);
     }
 
     @Override
     public long getTimestamp(int index) {
-        return timestamps.get(index);
+        return history.getTimestamp(index);
     }
 
     @Override
     public int size() {
-        return timestamps.size();
+        return history.size();
+    }
+
+    @Override
+    public int floorIndex(long timestamp) {
+        return history.floorIndex(timestamp);
+    }
+
+    @Override
+    public int ceilingIndex(long timestamp) {
+        return history.ceilingIndex(timestamp);
+    }
+
+    @Override
+    public double[] closes(int from, int to) {
+        return history.closes(from, to);
     }
 
     @Override
@@ -142,7 +156,7 @@ public class KLSEInfoStockHistoryServer implements StockHistoryServer {
         return durations;
     }
     
-    private boolean buildHistory(Code code, Duration theDuration)
+    private boolean buildHistory(Code code, Duration theDuration, ArrayStockHistoryServer.Builder builder)
     {
         final StringBuilder stringBuilder = new StringBuilder(KLSE_INFO_BASED_URL);
 
@@ -172,16 +186,25 @@ public class KLSEInfoStockHistoryServer implements StockHistoryServer {
         boolean success = false;
 
         for (int retry = 0; retry < NUM_OF_RETRY; retry++) {
-            final String respond = org.yccheok.jstock.gui.Utils.getResponseBodyAsStringBasedOnProxyAuthOptionWithAgentInfo(location);
+            final Reader reader = HttpTransport.INSTANCE.getResponseBodyAsReaderWithAgentInfo(location);
 
-            if (respond == null) {
+            if (reader == null) {
                 continue;
             }
 
-            success = parse(respond);
+            try {
+                // Parses history from the response stream, without creating a
+                // string of the whole response.
+                success = CSVStockHistoryParser.parse(reader, builder) > 0;
+            } catch (IOException exp) {
+                log.error(null, exp);
+                success = false;
+            } finally {
+                org.yccheok.jstock.gui.Utils.close(reader);
+            }
 
             // Do not continue even success is false. Just break. As if 
-            // networking (getResponseBodyAsStringBasedOnProxyAuthOptionWithAgentInfo) 
+            // networking (getResponseBodyAsReaderWithAgentInfo) 
             // is OK, parse should be OK too. If not, this is just an outdated stock
             // code. We are just wasting our network resource, by keep trying on
             // an outdated stock code.
@@ -191,108 +214,15 @@ public class KLSEInfoStockHistoryServer implements StockHistoryServer {
         return success;
     }
     
-    private boolean parse(String respond)
-    {
-        long timestamp = System.currentTimeMillis();
-        
-        String[] stockDatas = respond.split("\r\n|\r|\n");
-
-        // There must be at least two lines : header information and history information.
-        final int length = stockDatas.length;
-
-        if (length <= 1) {
-            return false;
-        }
-
-        for (int i = length - 1; i > 0; i--)
-        {
-            // Use > instead of >=, to avoid header information (Date,Open,High,Low,Close,Volume,Adj Close)
-            String[] fields = stockDatas[i].split(",");
-
-            // Date,Open,High,Low,Close,Volume,Adj Close
-            if (fields.length < 7) {
-                continue;
-            }
-
-            try {
-                timestamp = simpleDateFormatThreadLocal.get().parse(fields[0]).getTime();
-            } catch (ParseException ex) {
-                log.error(null, ex);
-                continue;
-            }
-
-            double prevPrice = 0.0;
-            double openPrice = 0.0;
-            double highPrice = 0.0;
-            double lowPrice = 0.0;
-            double closePrice = 0.0;
-            // TODO: CRITICAL LONG BUG REVISED NEEDED.
-            long volume = 0;
-            //double adjustedClosePrice = 0.0;
-
-            try {
-                prevPrice = (previousClosePrice == Double.MAX_VALUE) ? 0 : previousClosePrice;
-                openPrice = Double.parseDouble(fields[1]);
-                highPrice = Double.parseDouble(fields[2]);
-                lowPrice = Double.parseDouble(fields[3]);
-                closePrice = Double.parseDouble(fields[4]);
-                // TODO: CRITICAL LONG BUG REVISED NEEDED.
-                volume = Long.parseLong(fields[5]);
-                //adjustedClosePrice = Double.parseDouble(fields[6]);
-            } catch (NumberFormatException exp) {
-                log.error(null, exp);
-            }
-
-            double changePrice = (previousClosePrice == Double.MAX_VALUE) ? 0 : closePrice - previousClosePrice;
-            double changePricePercentage = ((previousClosePrice == Double.MAX_VALUE) || (previousClosePrice == 0.0)) ? 0 : changePrice / previousClosePrice * 100.0;
-
-            Stock stock = new Stock(
-                    code,
-                    prevPrice,
-                    openPrice,
-                    closePrice, /* Last Price. */
-                    highPrice,
-                    lowPrice,
-                    volume,
-                    changePrice,
-                    changePricePercentage,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    timestamp
-                    );
-
-            historyDatabase.put(timestamp, stock);
-            timestamps.add(timestamp);
-            previousClosePrice = closePrice;
-        }
-
-        return (historyDatabase.size() > 0);
-    }
-    
     private static final int NUM_OF_RETRY = 2;
     private static final Duration DEFAULT_HISTORY_DURATION =  Duration.getTodayDurationByYears(10);
     private static final String KLSE_INFO_BASED_URL = "http://www.klse.info/jstock/historical-prices?s=";
     
-    private final java.util.Map<Long, Stock> historyDatabase = new HashMap<Long, Stock>();
-    private final java.util.List<Long> timestamps = new ArrayList<Long>();
+    private ArrayStockHistoryServer history;
     
     private final Code code;
     private final Duration duration;
 
-    // Use for internal calculation. Do not expose it.
-    private double previousClosePrice = Double.MAX_VALUE;
-        
     private final StockServer stockServer = new YahooStockServer();
     private static final Log log = LogFactory.getLog(KLSEInfoStockHistoryServer.class);    
 }
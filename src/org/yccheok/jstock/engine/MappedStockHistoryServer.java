@@ -0,0 +1,392 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.TimeZone;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Stock history, which is memory mapped from a binary columnar file. Only
+ * dates are decoded when the file is opened. Prices and volumes are read on
+ * demand, when a stock is requested.
+ *
+ * File layout, in big endian :
+ * header  - magic, version, size, code length, shares issued, market capital,
+ *           start and end epoch day of the duration covered by the file
+ * code    - UTF-8, padded to 8 bytes
+ * columns - size longs of epoch day (ascending), followed by size doubles of
+ *           open, high, low and close price, and size longs of volume
+ *
+ * Dates are stored as epoch days of the local date, rather than time in ms.
+ * Hence, a history stays on the same dates, even if the default time zone is
+ * changed. The covered duration is recorded separately from the dates, as
+ * there are no trading days in weekends and holidays.
+ *
+ * @author yccheok
+ */
+public class MappedStockHistoryServer implements StockHistoryServer {
+
+    private MappedStockHistoryServer(Code code, Duration duration, ByteBuffer buffer, int size, long sharesIssued, long marketCapital, int offset) {
+        this.code = code;
+        this.duration = duration;
+        this.buffer = buffer;
+        this.size = size;
+        this.sharesIssued = sharesIssued;
+        this.marketCapital = marketCapital;
+        this.timestamps = new long[size];
+
+        final TimeZone timeZone = TimeZone.getDefault();
+        for (int i = 0; i < size; i++) {
+            timestamps[i] = toTimestamp(buffer.getLong(offset + i * 8), timeZone);
+        }
+        this.openOffset = offset + size * 8;
+        this.highOffset = openOffset + size * 8;
+        this.lowOffset = highOffset + size * 8;
+        this.closeOffset = lowOffset + size * 8;
+        this.volumeOffset = closeOffset + size * 8;
+    }
+
+    /**
+     * Opens the given binary history file.
+     *
+     * @param file the binary history file
+     * @return the stock history server, or null if the file doesn't exist or
+     * is not valid
+     */
+    public static MappedStockHistoryServer newInstance(File file) {
+        if (file.exists() == false) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            final FileChannel channel = randomAccessFile.getChannel();
+            final long length = channel.size();
+            if (length < HEADER_SIZE) {
+                log.error("Corrupted " + file);
+                return null;
+            }
+            final ByteBuffer buffer;
+            if (org.yccheok.jstock.gui.Utils.isWindows()) {
+                // Windows doesn't allow a mapped file to be replaced, until
+                // the mapping is garbage collected.
+                buffer = ByteBuffer.allocate((int)length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        log.error("Corrupted " + file);
+                        return null;
+                    }
+                }
+            } else {
+                // The mapping stays valid after the channel is closed.
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                log.error("Unknown format " + file);
+                return null;
+            }
+            final int size = buffer.getInt(8);
+            final int codeLength = buffer.getInt(12);
+            final long sharesIssued = buffer.getLong(16);
+            final long marketCapital = buffer.getLong(24);
+            final long startDay = buffer.getLong(32);
+            final long endDay = buffer.getLong(40);
+            final int offset = HEADER_SIZE + align(codeLength);
+            if (size <= 0 || codeLength <= 0 || startDay > endDay || length < (long)offset + (long)size * COLUMNS * 8) {
+                log.error("Corrupted " + file);
+                return null;
+            }
+            final byte[] bytes = new byte[codeLength];
+            final ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(HEADER_SIZE);
+            duplicate.get(bytes);
+            final Code code = Code.newInstance(new String(bytes, UTF_8));
+            final Duration duration = new Duration(toSimpleDate(startDay), toSimpleDate(endDay));
+            return new MappedStockHistoryServer(code, duration, buffer, size, sharesIssued, marketCapital, offset);
+        } catch (IOException exp) {
+            log.error(null, exp);
+            return null;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException exp) {
+                    log.error(null, exp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the given stock history into a binary history file. The file is
+     * written aside, and renamed into place once complete.
+     *
+     * @param stockHistoryServer the stock history
+     * @param duration the duration covered by the stock history
+     * @param file the binary history file
+     * @return true if success
+     */
+    public static boolean save(StockHistoryServer stockHistoryServer, Duration duration, File file) {
+        final int size = stockHistoryServer.size();
+        if (size <= 0) {
+            return false;
+        }
+        final Code code = stockHistoryServer.getStockAt(0).code;
+        final byte[] bytes = code.toString().getBytes(UTF_8);
+        final int offset = HEADER_SIZE + align(bytes.length);
+        final ByteBuffer buffer = ByteBuffer.allocate(offset + size * COLUMNS * 8);
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, size);
+        buffer.putInt(12, bytes.length);
+        buffer.putLong(16, stockHistoryServer.getSharesIssued());
+        buffer.putLong(24, stockHistoryServer.getMarketCapital());
+        buffer.putLong(32, toEpochDay(duration.getStartDate()));
+        buffer.putLong(40, toEpochDay(duration.getEndDate()));
+        buffer.position(HEADER_SIZE);
+        buffer.put(bytes);
+
+        final TimeZone timeZone = TimeZone.getDefault();
+        for (int i = 0; i < size; i++) {
+            final Stock stock = stockHistoryServer.getStockAt(i);
+            buffer.putLong(offset + i * 8, toEpochDay(stockHistoryServer.getTimestamp(i), timeZone));
+            buffer.putDouble(offset + (size + i) * 8, stock.getOpenPrice());
+            buffer.putDouble(offset + (size * 2 + i) * 8, stock.getHighPrice());
+            buffer.putDouble(offset + (size * 3 + i) * 8, stock.getLowPrice());
+            buffer.putDouble(offset + (size * 4 + i) * 8, stock.getLastPrice());
+            buffer.putLong(offset + (size * 5 + i) * 8, stock.getVolume());
+        }
+        buffer.clear();
+
+        File tmp = null;
+        RandomAccessFile randomAccessFile = null;
+        try {
+            // Unique, as the same file may be saved by several threads.
+            tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            randomAccessFile = new RandomAccessFile(tmp, "rw");
+            randomAccessFile.setLength(0);
+            final FileChannel channel = randomAccessFile.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            randomAccessFile.close();
+            randomAccessFile = null;
+            // Windows doesn't rename over an existing file.
+            if (org.yccheok.jstock.gui.Utils.isWindows() && file.exists() && file.delete() == false) {
+                log.error("Fail to delete " + file);
+                return false;
+            }
+            if (tmp.renameTo(file) == false) {
+                log.error("Fail to rename " + tmp + " to " + file);
+                return false;
+            }
+            tmp = null;
+            return true;
+        } catch (IOException exp) {
+            log.error(null, exp);
+            return false;
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException exp) {
+                    log.error(null, exp);
+                }
+            }
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the duration covered by this stock history. Dates within the
+     * duration, without any stock, are non trading days.
+     *
+     * @return the duration covered by this stock history
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    @Override
+    public Stock getStock(long timestamp) {
+        final int index = Arrays.binarySearch(timestamps, timestamp);
+        if (index < 0) {
+            return null;
+        }
+        return getStockAt(index);
+    }
+
+    @Override
+    public Stock getStockAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+        }
+        final double closePrice = buffer.getDouble(closeOffset + index * 8);
+        final boolean hasPrevious = index > 0;
+        final double previousClosePrice = hasPrevious ? buffer.getDouble(closeOffset + (index - 1) * 8) : 0.0;
+        // Same as StatementsStockHistoryServer.
+        final double changePrice = hasPrevious ? closePrice - previousClosePrice : 0.0;
+        final double changePricePercentage = (hasPrevious && previousClosePrice != 0.0) ? changePrice / previousClosePrice * 100.0 : 0.0;
+        return new Stock(
+                code,
+                previousClosePrice,
+                buffer.getDouble(openOffset + index * 8),
+                closePrice, /* Last Price. */
+                buffer.getDouble(highOffset + index * 8),
+                buffer.getDouble(lowOffset + index * 8),
+                buffer.getLong(volumeOffset + index * 8),
+                changePrice,
+                changePricePercentage,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                0.0,
+                0,
+                timestamps[index]
+                );
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int floorIndex(long timestamp) {
+        return ArrayStockHistoryServer.floorIndex(timestamps, timestamp);
+    }
+
+    @Override
+    public int ceilingIndex(long timestamp) {
+        return ArrayStockHistoryServer.ceilingIndex(timestamps, timestamp);
+    }
+
+    @Override
+    public double[] closes(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("from=" + from + ", to=" + to + ", size=" + size);
+        }
+        final double[] closes = new double[to - from];
+        for (int i = from; i < to; i++) {
+            closes[i - from] = buffer.getDouble(closeOffset + i * 8);
+        }
+        return closes;
+    }
+
+    @Override
+    public long getSharesIssued() {
+        return sharesIssued;
+    }
+
+    @Override
+    public long getMarketCapital() {
+        return marketCapital;
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    // Days since 1970-01-01, of the local date of the given time.
+    private static long toEpochDay(long timestamp, TimeZone timeZone) {
+        final long local = timestamp + timeZone.getOffset(timestamp);
+        return (local >= 0) ? local / DAY : ((local + 1) / DAY) - 1;
+    }
+
+    private static long toEpochDay(SimpleDate simpleDate) {
+        final Calendar utc = Calendar.getInstance(UTC);
+        utc.clear();
+        utc.set(simpleDate.getYear(), simpleDate.getMonth(), simpleDate.getDate());
+        return utc.getTimeInMillis() / DAY;
+    }
+
+    private static SimpleDate toSimpleDate(long epochDay) {
+        final Calendar utc = Calendar.getInstance(UTC);
+        utc.setTimeInMillis(epochDay * DAY);
+        return new SimpleDate(utc);
+    }
+
+    // Start of the given epoch day, in local time. Same as
+    // Utils.resetCalendarTime.
+    private static long toTimestamp(long epochDay, TimeZone timeZone) {
+        final long local = epochDay * DAY;
+        final long timestamp = local - timeZone.getOffset(local - timeZone.getOffset(local));
+        if (timestamp + timeZone.getOffset(timestamp) == local) {
+            return timestamp;
+        }
+        
+        // Midnight is skipped by daylight saving transition.
+        final Calendar utc = Calendar.getInstance(UTC);
+        utc.setTimeInMillis(local);
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DATE));
+        return calendar.getTimeInMillis();
+    }
+
+    private final Code code;
+    private final Duration duration;
+    private final ByteBuffer buffer;
+    private final int size;
+    private final long sharesIssued;
+    private final long marketCapital;
+    private final long[] timestamps;
+    private final int openOffset;
+    private final int highOffset;
+    private final int lowOffset;
+    private final int closeOffset;
+    private final int volumeOffset;
+
+    private static final int MAGIC = 0x4A534831;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 48;
+    // Epoch day, open, high, low, close and volume.
+    private static final int COLUMNS = 6;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final Log log = LogFactory.getLog(MappedStockHistoryServer.class);
+}
@@ -0,0 +1,184 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.yccheok.jstock.engine.RealTimeStockMonitor.Priority;
+
+/**
+ * Selects codes to be fetched, from tiers of different priority. Every code
+ * in a tier gets fetch slots in proportion to the tier's weight. Tiers are
+ * interleaved through smooth weighted round robin. Codes within a tier are
+ * visited in round robin.
+ *
+ * @author yccheok
+ */
+class PrioritySelector {
+
+    public PrioritySelector() {
+        tiers = new Tier[PRIORITIES.length];
+        for (int i = 0; i < tiers.length; i++) {
+            tiers[i] = new Tier(PRIORITIES[i].weight);
+        }
+    }
+
+    /**
+     * Adds the code to the tier of the given priority. If the code is already
+     * in another tier, it will be moved.
+     *
+     * @param code the code
+     * @param priority the priority
+     */
+    public synchronized void put(Code code, Priority priority) {
+        final Priority oldPriority = priorities.get(code);
+        if (oldPriority == priority) {
+            return;
+        }
+        if (oldPriority != null) {
+            remove(code);
+        }
+        final List<Code> list = tiers[priority.ordinal()].codes;
+        priorities.put(code, priority);
+        positions.put(code, list.size());
+        list.add(code);
+    }
+
+    /**
+     * Removes the code, from whichever tier it belongs to.
+     *
+     * @param code the code
+     */
+    public synchronized void remove(Code code) {
+        final Priority priority = priorities.remove(code);
+        if (priority == null) {
+            return;
+        }
+        final Tier tier = tiers[priority.ordinal()];
+        final List<Code> list = tier.codes;
+        final int position = positions.remove(code);
+        // Swap with the last, so that removal is O(1).
+        final Code last = list.remove(list.size() - 1);
+        if (position < list.size()) {
+            list.set(position, last);
+            positions.put(last, position);
+        }
+        if (list.isEmpty()) {
+            tier.reset();
+        }
+    }
+
+    public synchronized void clear() {
+        for (Tier tier : tiers) {
+            tier.codes.clear();
+            tier.reset();
+        }
+        priorities.clear();
+        positions.clear();
+    }
+
+    /**
+     * Returns true if codes are spread over more than one tier. If not, every
+     * code has equal share of fetch slots.
+     *
+     * @return true if codes are spread over more than one tier
+     */
+    public synchronized boolean isWeighted() {
+        int count = 0;
+        for (Tier tier : tiers) {
+            if (tier.codes.isEmpty() == false) {
+                count++;
+            }
+        }
+        return count > 1;
+    }
+
+    /**
+     * Returns up to the given number of distinct codes, to be fetched in a
+     * single request.
+     *
+     * @param count maximum number of codes
+     * @return distinct codes to be fetched
+     */
+    public synchronized List<Code> next(int count) {
+        final List<Code> result = new ArrayList<Code>(count);
+        // Number of codes taken from every tier. A tier can't contribute more
+        // than its size, to avoid duplicated codes in a single request.
+        final int[] taken = new int[tiers.length];
+        while (result.size() < count) {
+            long total = 0;
+            int best = -1;
+            for (int i = 0; i < tiers.length; i++) {
+                final Tier tier = tiers[i];
+                final int size = tier.codes.size();
+                if (taken[i] >= size) {
+                    continue;
+                }
+                final long weight = (long)tier.weight * size;
+                tier.current += weight;
+                total += weight;
+                if (best == -1 || tier.current > tiers[best].current) {
+                    best = i;
+                }
+            }
+            if (best == -1) {
+                break;
+            }
+
+            final Tier tier = tiers[best];
+            tier.current -= total;
+            if (tier.cursor >= tier.codes.size()) {
+                tier.cursor = 0;
+            }
+            result.add(tier.codes.get(tier.cursor++));
+            taken[best]++;
+        }
+        return result;
+    }
+
+    // Codes of the same priority.
+    private static class Tier {
+        public Tier(int weight) {
+            this.weight = weight;
+        }
+
+        public void reset() {
+            cursor = 0;
+            current = 0;
+        }
+
+        public final int weight;
+        public final List<Code> codes = new ArrayList<Code>();
+        // Round robin position within codes.
+        public int cursor = 0;
+        // Current weight of smooth weighted round robin.
+        public long current = 0;
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    // Indexed by priority's ordinal.
+    private final Tier[] tiers;
+    private final Map<Code, Priority> priorities = new HashMap<Code, Priority>();
+    // Position of every code within its tier.
+    private final Map<Code, Integer> positions = new HashMap<Code, Integer>();
+}
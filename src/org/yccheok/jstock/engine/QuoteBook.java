@@ -0,0 +1,553 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Columnar store of latest quotes. Every code is given a dense index, which
+ * never changes. Fields of a quote are kept in primitive arrays, one array per
+ * field, and are overwritten in place on every update. Hence, the store
+ * doesn't retain any Stock, and doesn't allocate per update, once the code
+ * has its index.
+ *
+ * Every update, which changes a row, bumps the book's version, and stamps the
+ * row with it. Readers may remember a version, and ask for rows which have
+ * changed since. Reads and writes are guarded by a read write lock. Hence, a
+ * row is always read consistently. A row may be copied into a reusable Quote,
+ * so that readers like the GUI don't allocate per update either.
+ *
+ * @author yccheok
+ */
+public class QuoteBook {
+
+    public QuoteBook() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * A copy of a row. It is filled by QuoteBook's read, and may be reused for
+     * every read.
+     */
+    public static class Quote {
+        /**
+         * Returns the copied row as a new stock.
+         *
+         * @return the copied row as a new stock
+         */
+        public Stock toStock() {
+            return new Stock(
+                code,
+                prevPrice,
+                openPrice,
+                lastPrice,
+                highPrice,
+                lowPrice,
+                volume,
+                changePrice,
+                changePricePercentage,
+                lastVolume,
+                buyPrice,
+                buyQuantity,
+                sellPrice,
+                sellQuantity,
+                secondBuyPrice,
+                secondBuyQuantity,
+                secondSellPrice,
+                secondSellQuantity,
+                thirdBuyPrice,
+                thirdBuyQuantity,
+                thirdSellPrice,
+                thirdSellQuantity,
+                timestamp
+            );
+        }
+
+        public Code code;
+        // Version of the book, when the row is last updated. 0 if nothing
+        // has been read yet.
+        public long version;
+        public double prevPrice;
+        public double openPrice;
+        public double lastPrice;
+        public double highPrice;
+        public double lowPrice;
+        public long volume;
+        public double changePrice;
+        public double changePricePercentage;
+        public int lastVolume;
+        public double buyPrice;
+        public int buyQuantity;
+        public double sellPrice;
+        public int sellQuantity;
+        public double secondBuyPrice;
+        public int secondBuyQuantity;
+        public double secondSellPrice;
+        public int secondSellQuantity;
+        public double thirdBuyPrice;
+        public int thirdBuyQuantity;
+        public double thirdSellPrice;
+        public int thirdSellQuantity;
+        public long timestamp;
+    }
+
+    /**
+     * Overwrites the row of the stock's code, with the stock. A new row is
+     * created if the code hasn't been seen before.
+     *
+     * @param stock the stock
+     * @return change mask between the previous quote and the stock. See
+     * StockDelta. StockDelta.ALL if it is a new row
+     */
+    public int update(Stock stock) {
+        writerLock.lock();
+        try {
+            final Integer i = indices.get(stock.code);
+            if (i == null) {
+                put(stock);
+                return StockDelta.ALL;
+            }
+            final int index = i;
+
+            int mask = 0;
+            mask |= set(prevPrice, index, stock.getPrevPrice(), StockDelta.PREV_PRICE);
+            mask |= set(openPrice, index, stock.getOpenPrice(), StockDelta.OPEN_PRICE);
+            mask |= set(lastPrice, index, stock.getLastPrice(), StockDelta.LAST_PRICE);
+            mask |= set(highPrice, index, stock.getHighPrice(), StockDelta.HIGH_PRICE);
+            mask |= set(lowPrice, index, stock.getLowPrice(), StockDelta.LOW_PRICE);
+            mask |= set(volume, index, stock.getVolume(), StockDelta.VOLUME);
+            mask |= set(changePrice, index, stock.getChangePrice(), StockDelta.CHANGE_PRICE);
+            mask |= set(changePricePercentage, index, stock.getChangePricePercentage(), StockDelta.CHANGE_PRICE_PERCENTAGE);
+            mask |= set(lastVolume, index, stock.getLastVolume(), StockDelta.LAST_VOLUME);
+            mask |= set(buyPrice, index, stock.getBuyPrice(), StockDelta.BUY_PRICE);
+            mask |= set(buyQuantity, index, stock.getBuyQuantity(), StockDelta.BUY_QUANTITY);
+            mask |= set(sellPrice, index, stock.getSellPrice(), StockDelta.SELL_PRICE);
+            mask |= set(sellQuantity, index, stock.getSellQuantity(), StockDelta.SELL_QUANTITY);
+            mask |= set(secondBuyPrice, index, stock.getSecondBuyPrice(), StockDelta.SECOND_BUY_PRICE);
+            mask |= set(secondBuyQuantity, index, stock.getSecondBuyQuantity(), StockDelta.SECOND_BUY_QUANTITY);
+            mask |= set(secondSellPrice, index, stock.getSecondSellPrice(), StockDelta.SECOND_SELL_PRICE);
+            mask |= set(secondSellQuantity, index, stock.getSecondSellQuantity(), StockDelta.SECOND_SELL_QUANTITY);
+            mask |= set(thirdBuyPrice, index, stock.getThirdBuyPrice(), StockDelta.THIRD_BUY_PRICE);
+            mask |= set(thirdBuyQuantity, index, stock.getThirdBuyQuantity(), StockDelta.THIRD_BUY_QUANTITY);
+            mask |= set(thirdSellPrice, index, stock.getThirdSellPrice(), StockDelta.THIRD_SELL_PRICE);
+            mask |= set(thirdSellQuantity, index, stock.getThirdSellQuantity(), StockDelta.THIRD_SELL_QUANTITY);
+            // Timestamp is not part of the mask.
+            timestamp[index] = stock.getTimestamp();
+
+            // Readers needn't read the row again, if nothing has changed.
+            if (mask != 0) {
+                changeMasks[index] = mask;
+                versions[index] = ++version;
+            }
+            return mask;
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Creates a new row with the stock, if the stock's code hasn't been seen
+     * before. Else, the existing row is left untouched, as it may be newer
+     * than the stock.
+     *
+     * @param stock the stock
+     * @return the index of the stock's code
+     */
+    public int add(Stock stock) {
+        writerLock.lock();
+        try {
+            final Integer index = indices.get(stock.code);
+            if (index != null) {
+                return index;
+            }
+            return put(stock);
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    // Being called within writer lock.
+    private int put(Stock stock) {
+        final int index = size;
+        if (size >= codes.length) {
+            allocate(codes.length << 1);
+        }
+        codes[index] = stock.code;
+        prevPrice[index] = stock.getPrevPrice();
+        openPrice[index] = stock.getOpenPrice();
+        lastPrice[index] = stock.getLastPrice();
+        highPrice[index] = stock.getHighPrice();
+        lowPrice[index] = stock.getLowPrice();
+        volume[index] = stock.getVolume();
+        changePrice[index] = stock.getChangePrice();
+        changePricePercentage[index] = stock.getChangePricePercentage();
+        lastVolume[index] = stock.getLastVolume();
+        buyPrice[index] = stock.getBuyPrice();
+        buyQuantity[index] = stock.getBuyQuantity();
+        sellPrice[index] = stock.getSellPrice();
+        sellQuantity[index] = stock.getSellQuantity();
+        secondBuyPrice[index] = stock.getSecondBuyPrice();
+        secondBuyQuantity[index] = stock.getSecondBuyQuantity();
+        secondSellPrice[index] = stock.getSecondSellPrice();
+        secondSellQuantity[index] = stock.getSecondSellQuantity();
+        thirdBuyPrice[index] = stock.getThirdBuyPrice();
+        thirdBuyQuantity[index] = stock.getThirdBuyQuantity();
+        thirdSellPrice[index] = stock.getThirdSellPrice();
+        thirdSellQuantity[index] = stock.getThirdSellQuantity();
+        timestamp[index] = stock.getTimestamp();
+        changeMasks[index] = StockDelta.ALL;
+        versions[index] = ++version;
+        // Published last, so that indexOf never returns a partial row.
+        size++;
+        indices.put(stock.code, index);
+        return index;
+    }
+
+    /**
+     * Returns the index of the code.
+     *
+     * @param code the code
+     * @return the index of the code, or -1 if the code hasn't been seen
+     */
+    public int indexOf(Code code) {
+        final Integer index = indices.get(code);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns number of rows.
+     *
+     * @return number of rows
+     */
+    public int size() {
+        readerLock.lock();
+        try {
+            return size;
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the latest version of this book. It is increased by every
+     * update.
+     *
+     * @return the latest version of this book
+     */
+    public long getVersion() {
+        readerLock.lock();
+        try {
+            return version;
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the version of this book, when the row is last updated.
+     *
+     * @param index index of the row
+     * @return the version of this book, when the row is last updated
+     */
+    public long getVersion(int index) {
+        readerLock.lock();
+        try {
+            return versions[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * Returns indices of rows, which are updated after the given version.
+     *
+     * @param version the version, as returned by getVersion
+     * @return indices of rows, which are updated after the given version
+     */
+    public int[] getIndicesUpdatedSince(long version) {
+        readerLock.lock();
+        try {
+            int[] result = new int[16];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (versions[i] > version) {
+                    if (count >= result.length) {
+                        result = Arrays.copyOf(result, result.length << 1);
+                    }
+                    result[count++] = i;
+                }
+            }
+            return Arrays.copyOf(result, count);
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the change mask of the row, during its latest update.
+     *
+     * @param index index of the row
+     * @return the change mask of the row. See StockDelta
+     */
+    public int getChangeMask(int index) {
+        readerLock.lock();
+        try {
+            return changeMasks[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    public Code getCode(int index) {
+        readerLock.lock();
+        try {
+            return codes[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    public double getLastPrice(int index) {
+        readerLock.lock();
+        try {
+            return lastPrice[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    public double getPrevPrice(int index) {
+        readerLock.lock();
+        try {
+            return prevPrice[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    public double getHighPrice(int index) {
+        readerLock.lock();
+        try {
+            return highPrice[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    public double getLowPrice(int index) {
+        readerLock.lock();
+        try {
+            return lowPrice[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    public long getVolume(int index) {
+        readerLock.lock();
+        try {
+            return volume[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    public long getTimestamp(int index) {
+        readerLock.lock();
+        try {
+            return timestamp[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the latest quote of the code, as a new stock.
+     *
+     * @param code the code
+     * @return the latest quote of the code, or null if the code hasn't been
+     * seen
+     */
+    public Stock getStock(Code code) {
+        final int index = indexOf(code);
+        if (index < 0) {
+            return null;
+        }
+        return getStock(index);
+    }
+
+    /**
+     * Returns the row as a new stock. All fields are read consistently.
+     *
+     * @param index index of the row
+     * @return the row as a new stock
+     */
+    public Stock getStock(int index) {
+        final Quote quote = new Quote();
+        read(index, quote);
+        return quote.toStock();
+    }
+
+    /**
+     * Copies the row into the quote. All fields are read consistently.
+     *
+     * @param index index of the row
+     * @param quote the quote to be overwritten
+     */
+    public void read(int index, Quote quote) {
+        readerLock.lock();
+        try {
+            quote.code = codes[index];
+            quote.version = versions[index];
+            quote.prevPrice = prevPrice[index];
+            quote.openPrice = openPrice[index];
+            quote.lastPrice = lastPrice[index];
+            quote.highPrice = highPrice[index];
+            quote.lowPrice = lowPrice[index];
+            quote.volume = volume[index];
+            quote.changePrice = changePrice[index];
+            quote.changePricePercentage = changePricePercentage[index];
+            quote.lastVolume = lastVolume[index];
+            quote.buyPrice = buyPrice[index];
+            quote.buyQuantity = buyQuantity[index];
+            quote.sellPrice = sellPrice[index];
+            quote.sellQuantity = sellQuantity[index];
+            quote.secondBuyPrice = secondBuyPrice[index];
+            quote.secondBuyQuantity = secondBuyQuantity[index];
+            quote.secondSellPrice = secondSellPrice[index];
+            quote.secondSellQuantity = secondSellQuantity[index];
+            quote.thirdBuyPrice = thirdBuyPrice[index];
+            quote.thirdBuyQuantity = thirdBuyQuantity[index];
+            quote.thirdSellPrice = thirdSellPrice[index];
+            quote.thirdSellQuantity = thirdSellQuantity[index];
+            quote.timestamp = timestamp[index];
+        } finally {
+            readerLock.unlock();
+        }
+    }
+
+    private static int set(double[] column, int index, double value, int mask) {
+        if (Double.compare(column[index], value) == 0) {
+            return 0;
+        }
+        column[index] = value;
+        return mask;
+    }
+
+    private static int set(long[] column, int index, long value, int mask) {
+        if (column[index] == value) {
+            return 0;
+        }
+        column[index] = value;
+        return mask;
+    }
+
+    private static int set(int[] column, int index, int value, int mask) {
+        if (column[index] == value) {
+            return 0;
+        }
+        column[index] = value;
+        return mask;
+    }
+
+    // Being called within writer lock, or from constructor.
+    private void allocate(int capacity) {
+        codes = codes == null ? new Code[capacity] : Arrays.copyOf(codes, capacity);
+        versions = grow(versions, capacity);
+        changeMasks = grow(changeMasks, capacity);
+        prevPrice = grow(prevPrice, capacity);
+        openPrice = grow(openPrice, capacity);
+        lastPrice = grow(lastPrice, capacity);
+        highPrice = grow(highPrice, capacity);
+        lowPrice = grow(lowPrice, capacity);
+        volume = grow(volume, capacity);
+        changePrice = grow(changePrice, capacity);
+        changePricePercentage = grow(changePricePercentage, capacity);
+        lastVolume = grow(lastVolume, capacity);
+        buyPrice = grow(buyPrice, capacity);
+        buyQuantity = grow(buyQuantity, capacity);
+        sellPrice = grow(sellPrice, capacity);
+        sellQuantity = grow(sellQuantity, capacity);
+        secondBuyPrice = grow(secondBuyPrice, capacity);
+        secondBuyQuantity = grow(secondBuyQuantity, capacity);
+        secondSellPrice = grow(secondSellPrice, capacity);
+        secondSellQuantity = grow(secondSellQuantity, capacity);
+        thirdBuyPrice = grow(thirdBuyPrice, capacity);
+        thirdBuyQuantity = grow(thirdBuyQuantity, capacity);
+        thirdSellPrice = grow(thirdSellPrice, capacity);
+        thirdSellQuantity = grow(thirdSellQuantity, capacity);
+        timestamp = grow(timestamp, capacity);
+    }
+
+    private static double[] grow(double[] column, int capacity) {
+        return column == null ? new double[capacity] : Arrays.copyOf(column, capacity);
+    }
+
+    private static long[] grow(long[] column, int capacity) {
+        return column == null ? new long[capacity] : Arrays.copyOf(column, capacity);
+    }
+
+    private static int[] grow(int[] column, int capacity) {
+        return column == null ? new int[capacity] : Arrays.copyOf(column, capacity);
+    }
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    private final Lock readerLock = readWriteLock.readLock();
+    private final Lock writerLock = readWriteLock.writeLock();
+
+    // Dense index of every code. Never removed, so that index is stable.
+    private final Map<Code, Integer> indices = new ConcurrentHashMap<Code, Integer>();
+    private int size = 0;
+    private long version = 0;
+
+    // Columns. Guarded by readWriteLock.
+    private Code[] codes;
+    private long[] versions;
+    private int[] changeMasks;
+    private double[] prevPrice;
+    private double[] openPrice;
+    private double[] lastPrice;
+    private double[] highPrice;
+    private double[] lowPrice;
+    private long[] volume;
+    private double[] changePrice;
+    private double[] changePricePercentage;
+    private int[] lastVolume;
+    private double[] buyPrice;
+    private int[] buyQuantity;
+    private double[] sellPrice;
+    private int[] sellQuantity;
+    private double[] secondBuyPrice;
+    private int[] secondBuyQuantity;
+    private double[] secondSellPrice;
+    private int[] secondSellQuantity;
+    private double[] thirdBuyPrice;
+    private int[] thirdBuyQuantity;
+    private double[] thirdSellPrice;
+    private int[] thirdSellQuantity;
+    private long[] timestamp;
+}
@@ -0,0 +1,78 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Spaces out requests to every stock server factory, so that no factory
+ * receives more than one request within the given interval. Different
+ * factories do not affect each other.
+ *
+ * @author yccheok
+ */
+public class RateLimiter {
+
+    /**
+     * Creates a new instance of RateLimiter.
+     *
+     * @param interval minimum interval in ms, between two requests to the
+     * same factory
+     */
+    public RateLimiter(long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval cannot be negative");
+        }
+        this.interval = interval;
+    }
+
+    /**
+     * Blocks till a request can be sent to the given factory.
+     *
+     * @param factory the stock server factory
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(StockServerFactory factory) throws InterruptedException {
+        final long now = System.currentTimeMillis();
+        final long time;
+        synchronized (this) {
+            final Long next = nexts.get(factory);
+            time = (next == null || next < now) ? now : next;
+            // Reserve our slot, before sleeping.
+            nexts.put(factory, time + interval);
+        }
+        if (time > now) {
+            Thread.sleep(time - now);
+        }
+    }
+
+    /**
+     * @return minimum interval in ms, between two requests to the same
+     * factory
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    private final long interval;
+    // Factories are compared by identity, like ServerHealth does.
+    private final Map<StockServerFactory, Long> nexts = new IdentityHashMap<StockServerFactory, Long>();
+}
@@ -22,7 +22,9 @@ package org.yccheok.jstock.engine;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +35,27 @@ import org.apache.commons.logging.LogFactory;
  */
 public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.util.List<Stock>> {
     
+    /**
+     * Priority of a code. Within the same request budget, every code gets
+     * fetch slots in proportion to its priority's weight. Hence, codes of
+     * higher priority are refreshed more frequently.
+     */
+    public enum Priority {
+        // Visible or selected on screen.
+        Visible(8),
+        // Having active alert.
+        Alerting(4),
+        // Owned in portfolio.
+        Portfolio(2),
+        Background(1);
+        
+        Priority(int weight) {
+            this.weight = weight;
+        }
+        
+        final int weight;
+    }
+    
     /** Creates a new instance of RealTimeStockMonitor */
     public RealTimeStockMonitor(int maxThread, int maxStockSizePerScan, long delay) {
         if (maxThread <= 0 || maxStockSizePerScan <= 0 || delay <= 0) {
@@ -44,16 +67,93 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
         this.delay = delay;
         
         this.stockServerFactories = new java.util.concurrent.CopyOnWriteArrayList<StockServerFactory>();
-        this.stockCodes = new java.util.concurrent.CopyOnWriteArrayList<Code>();
+        this.stockCodes = new java.util.ArrayList<Code>();
         this.rowStockCodeMapping = new HashMap<Code, Integer>();
         this.stockMonitors = new java.util.ArrayList<StockMonitor>();
         
+        this.stockBatches = new java.util.ArrayList<StockBatch>();
+        this.scheduler = null;
+        this.hub = null;
+        this.quoteBook = new QuoteBook();
+        
         stockCodesReadWriteLock = new java.util.concurrent.locks.ReentrantReadWriteLock();
         stockCodesReaderLock = stockCodesReadWriteLock.readLock();
         stockCodesWriterLock = stockCodesReadWriteLock.writeLock();        
     }
     
+    /**
+     * Creates a new instance of RealTimeStockMonitor, which runs in scheduler
+     * mode. Instead of owning dedicated threads, every maxStockSizePerScan
+     * codes form a batch task, which is executed by the given scheduler. A
+     * batch is rescheduled as soon as it completes. Hence, the throughput is
+     * bounded by the scheduler's pool size, not by the number of batches. The
+     * scheduler may be shared among several monitors, and will never be shut
+     * down by this monitor.
+     * 
+     * @param scheduler the scheduler used to execute batch tasks
+     * @param maxStockSizePerScan number of stock to be monitored per batch
+     * @param delay delay in ms, after a batch completes
+     */
+    public RealTimeStockMonitor(ScheduledExecutorService scheduler, int maxStockSizePerScan, long delay) {
+        if (scheduler == null || maxStockSizePerScan <= 0 || delay <= 0) {
+            throw new IllegalArgumentException("scheduler : " + scheduler + ", maxStockSizePerScan : " + maxStockSizePerScan + ", delay : " + delay);
+        }
+        
+        // There is no limit on number of batches. The pool size of scheduler
+        // is the actual limit.
+        this.maxThread = Integer.MAX_VALUE;
+        this.maxStockSizePerScan = maxStockSizePerScan;
+        this.delay = delay;
+        
+        this.stockServerFactories = new java.util.concurrent.CopyOnWriteArrayList<StockServerFactory>();
+        this.stockCodes = new java.util.ArrayList<Code>();
+        this.rowStockCodeMapping = new HashMap<Code, Integer>();
+        this.stockMonitors = new java.util.ArrayList<StockMonitor>();
+        this.stockBatches = new java.util.ArrayList<StockBatch>();
+        this.scheduler = scheduler;
+        this.hub = null;
+        this.quoteBook = new QuoteBook();
+        
+        stockCodesReadWriteLock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+        stockCodesReaderLock = stockCodesReadWriteLock.readLock();
+        stockCodesWriterLock = stockCodesReadWriteLock.writeLock();        
+    }
+    
+    /**
+     * Creates a new instance of RealTimeStockMonitor, which runs in hub mode.
+     * It doesn't poll by itself. Its codes are subscribed from the given hub,
+     * and it only notifies its observers on stocks it has subscribed.
+     * 
+     * @param hub the hub which performs the actual polling
+     */
+    RealTimeStockMonitor(RealTimeStockMonitorHub hub) {
+        this.maxThread = Integer.MAX_VALUE;
+        this.maxStockSizePerScan = Integer.MAX_VALUE;
+        this.delay = hub.getDelay();
+        
+        this.stockServerFactories = new java.util.concurrent.CopyOnWriteArrayList<StockServerFactory>();
+        this.stockCodes = new java.util.ArrayList<Code>();
+        this.rowStockCodeMapping = new HashMap<Code, Integer>();
+        this.stockMonitors = new java.util.ArrayList<StockMonitor>();
+        this.stockBatches = new java.util.ArrayList<StockBatch>();
+        this.scheduler = null;
+        this.hub = hub;
+        this.quoteBook = null;
+        
+        stockCodesReadWriteLock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+        stockCodesReaderLock = stockCodesReadWriteLock.readLock();
+        stockCodesWriterLock = stockCodesReadWriteLock.writeLock();
+        
+        hub.register(this);
+    }
+    
     public synchronized void setStockServerFactories(java.util.List<StockServerFactory> factories) {
+        if (hub != null) {
+            // All monitors created by the same hub share the same factories.
+            hub.setStockServerFactories(factories);
+            return;
+        }
+        
         // Do not use deep copy. If not, Factories's removeKLSEInfoStockServerFactory 
         // effect won't propagate to here.
         //stockServerFactories.clear();
@@ -61,19 +161,55 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
         stockServerFactories = factories;
     }
     
+    synchronized java.util.List<StockServerFactory> getStockServerFactories() {
+        return stockServerFactories;
+    }
+    
     // synchronized, to avoid addStockCode and removeStockCode at the same time.
-    // This method will start all the monitoring threads automatically.
     public synchronized boolean addStockCode(Code code) {
-        // Lock isn't required here. This is because increase the size of the 
-        // list is not going to get IndexOutOfBoundException.
-        if (rowStockCodeMapping.containsKey(code)) {
+        return addStockCodes(java.util.Collections.singletonList(code));
+    }
+    
+    /**
+     * Adds the codes, which are not being monitored yet. Codes are appended
+     * in a single pass, so that scanning threads are only blocked briefly,
+     * no matter how many codes are being added. Monitoring threads are not
+     * started, till startNewThreadsIfNecessary is called.
+     * 
+     * @param codes the codes
+     * @return true if at least one code is added
+     */
+    public synchronized boolean addStockCodes(java.util.Collection<Code> codes) {
+        final List<Code> addedCodes = new ArrayList<Code>(codes.size());
+        
+        stockCodesWriterLock.lock();
+        try {
+            for (Code code : codes) {
+                if (rowStockCodeMapping.containsKey(code)) {
+                    continue;
+                }
+                rowStockCodeMapping.put(code, stockCodes.size());
+                stockCodes.add(code);
+                if (hub == null) {
+                    prioritySelector.put(code, getPriority(code));
+                }
+                // Never compare against a stale stock from previous subscription.
+                deltas.remove(code);
+                addedCodes.add(code);
+            }
+        } finally {
+            stockCodesWriterLock.unlock();
+        }
+        
+        if (addedCodes.isEmpty()) {
             return false;
         }
-
-        boolean status = stockCodes.add(code);
-        rowStockCodeMapping.put(code, stockCodes.size() - 1);
         
-        return status;
+        if (hub != null && isHubSubscribed) {
+            subscribeToHub(addedCodes);
+        }
+        
+        return true;
     }
 
     /**
@@ -97,10 +233,18 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
         // This is to ensure we are able to get the correct StockCodes size,
         // and able to retrieve Iterator in a safe way without getting 
         // IndexOutOfBoundException.
+        if (hub != null && isHubSubscribed) {
+            unsubscribeAllFromHub();
+            isHubSubscribed = true;
+        }
+        
         stockCodesWriterLock.lock();
         try {
             stockCodes.clear();
             rowStockCodeMapping.clear();
+            prioritySelector.clear();
+            priorities.clear();
+            deltas.clear();
         } finally {
             stockCodesWriterLock.unlock();
         }
@@ -121,31 +265,62 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
              */           
         }
         
+        while (stockBatches.size() > 0) {
+            StockBatch stockBatch = stockBatches.remove(stockBatches.size() - 1);
+            stockBatch._stop();
+        }
+        
         return true;
     }
     
     // synchronized, to avoid addStockCode and removeStockCode at the same time
     public synchronized boolean removeStockCode(Code code) {
+        return removeStockCodes(java.util.Collections.singletonList(code));
+    }
+    
+    /**
+     * Removes the codes. Every code is removed in constant time, by moving
+     * the last code into its place. Surplus monitoring threads are stopped.
+     * 
+     * @param codes the codes
+     * @return true if at least one code is removed
+     */
+    public synchronized boolean removeStockCodes(java.util.Collection<Code> codes) {
+        final List<Code> removedCodes = new ArrayList<Code>(codes.size());
+        
         // This is to ensure we are able to get the correct StockCodes size,
-        // and able to retrieve Iterator in a safe way without getting 
+        // and able to retrieve codes in a safe way without getting 
         // IndexOutOfBoundException.
         stockCodesWriterLock.lock();
-        boolean status = false;
         try {
-            Integer row = rowStockCodeMapping.get(code);
-            if (row == null) {
-                return status;
-            }
-            
-            status = (null != stockCodes.remove((int)row));            
-            rowStockCodeMapping.remove(code);
-            
-            for (int i = row, ei = stockCodes.size(); i < ei; i++) {
-                rowStockCodeMapping.put(stockCodes.get(i), i);
+            for (Code code : codes) {
+                final Integer row = rowStockCodeMapping.remove(code);
+                if (row == null) {
+                    continue;
+                }
+                final Code last = stockCodes.remove(stockCodes.size() - 1);
+                if (row < stockCodes.size()) {
+                    stockCodes.set(row, last);
+                    rowStockCodeMapping.put(last, row);
+                }
+                prioritySelector.remove(code);
+                deltas.remove(code);
+                removedCodes.add(code);
             }
         } finally {
             stockCodesWriterLock.unlock();
         }
+        
+        if (removedCodes.isEmpty()) {
+            return false;
+        }
+        
+        if (hub != null && isHubSubscribed) {
+            unsubscribeFromHub(removedCodes);
+        }
+        for (Code code : removedCodes) {
+            priorities.remove(code);
+        }
 
         // Do we need to remove any old thread?
         final int numOfMonitorRequired = this.getNumOfRequiredThread();
@@ -153,37 +328,61 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
         if (this.stockMonitors.size() > numOfMonitorRequired) {
             log.info("After removing : current thread size=" + this.stockMonitors.size() + ",numOfMonitorRequired=" + numOfMonitorRequired);
 
-            StockMonitor stockMonitor = stockMonitors.remove(stockMonitors.size() - 1);
-            stockMonitor._stop();
+            while (this.stockMonitors.size() > numOfMonitorRequired) {
+                StockMonitor stockMonitor = stockMonitors.remove(stockMonitors.size() - 1);
+                stockMonitor._stop();
+            }
             
             /*
              * Unlike stop(), no need to explicitly wait for the thread to dead. Let it dead
              * naturally. However, is it safe to do so?
-             * 
-            try {
-                stockMonitor.join();
-            }
-            catch(java.lang.InterruptedException exp) {
-                log.error(null, exp);
-            }
              */
             
             log.info("After removing : current thread size=" + this.stockMonitors.size() + ",numOfMonitorRequired=" + numOfMonitorRequired);
         }
+        
+        // Do we need to remove any old batch?
+        if (this.stockBatches.size() > numOfMonitorRequired) {
+            while (this.stockBatches.size() > numOfMonitorRequired) {
+                StockBatch stockBatch = stockBatches.remove(stockBatches.size() - 1);
+                stockBatch._stop();
+            }
+            
+            log.info("After removing : current batch size=" + this.stockBatches.size() + ",numOfMonitorRequired=" + numOfMonitorRequired);
+        }
 
-        return status;
+        return true;
     }    
     
     public synchronized void resume() {
+        if (hub != null) {
+            isHubSuspended = false;
+            subscribeAllToHub();
+            return;
+        }
+        
         for (StockMonitor stockMonitor : stockMonitors) {
             stockMonitor._resume();
         }
+        for (StockBatch stockBatch : stockBatches) {
+            stockBatch._resume();
+        }
     }
 
     public synchronized void suspend() {
+        if (hub != null) {
+            // Codes of a suspended monitor shouldn't cost the hub anything.
+            isHubSuspended = true;
+            unsubscribeAllFromHub();
+            return;
+        }
+        
         for (StockMonitor stockMonitor : stockMonitors) {
             stockMonitor._suspend();
         }
+        for (StockBatch stockBatch : stockBatches) {
+            stockBatch._suspend();
+        }
     }    
     
     // Previously, this is a private method, and is being called automatically
@@ -206,6 +405,26 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
         
         assert(numOfMonitorRequired <= this.maxThread);
         
+        if (this.hub != null) {
+            if (isHubSuspended == false) {
+                hub.register(this);
+                subscribeAllToHub();
+            }
+            hub.startNewThreadsIfNecessary();
+            return;
+        }
+        
+        if (this.scheduler != null) {
+            for (int i = this.stockBatches.size(); i < numOfMonitorRequired; i++) {
+                StockBatch stockBatch = new StockBatch(i * maxStockSizePerScan);
+                stockBatches.add(stockBatch);
+                stockBatch._schedule(0);
+            }
+            
+            log.info("After adding : current batch size=" + this.stockBatches.size() + ",numOfMonitorRequired=" + numOfMonitorRequired);
+            return;
+        }
+        
         for (int i = this.stockMonitors.size(); i < numOfMonitorRequired; i++) {
             log.info("Before adding : current thread size=" + this.stockMonitors.size() + ",numOfMonitorRequired=" + numOfMonitorRequired);
             
@@ -220,6 +439,12 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
     // Stop all the monitoring thread. Once this had been stopped, all the
     // previous monitoring thread will be removed.
     public synchronized void stop() {
+        if (hub != null) {
+            unsubscribeAllFromHub();
+            hub.unregister(this);
+            return;
+        }
+        
         for (StockMonitor stockMonitor : stockMonitors) {
             stockMonitor._stop();
             
@@ -232,6 +457,14 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
         }
         
         stockMonitors.clear();
+        
+        // Batches are executed by a scheduler which isn't owned by us. There
+        // is no thread to be joined.
+        for (StockBatch stockBatch : stockBatches) {
+            stockBatch._stop();
+        }
+        
+        stockBatches.clear();
     }
     
     // Trigger stock monitor to fetch stock price immediately. Although I am not
@@ -239,17 +472,334 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
     // be no harm to do so. Performance shouldn't be an issue, as this is not a
     // frequent accessed method.
     public synchronized void refresh() {
+        if (hub != null) {
+            // Only our own codes. Codes of other monitors are left alone.
+            hub.refresh(new ArrayList<Code>(hubStockCodes));
+            return;
+        }
+        
         for (StockMonitor stockMonitor : stockMonitors) {
             stockMonitor.refresh();
         }     
+        for (StockBatch stockBatch : stockBatches) {
+            stockBatch.refresh();
+        }
     }
     
     public synchronized long getDelay() {
+        if (hub != null) {
+            return hub.getDelay();
+        }
         return this.delay;
     }
     
     public synchronized void setDelay(int delay) {
         this.delay = delay;
+        if (hub != null) {
+            this.hubDelay = delay;
+            hub.updateDelay();
+        }
+    }
+    
+    // The delay set explicitly in hub mode, or 0 if there isn't any.
+    long getHubDelay() {
+        return hubDelay;
+    }
+    
+    /**
+     * Enables or disables delta mode. In delta mode, observers will only be
+     * notified with stocks which have changed since previous notification,
+     * on the fields specified by delta mask. Observers are still being
+     * notified, with an empty list, when nothing has changed. So that they
+     * know a scan has been completed.
+     * 
+     * @param deltaEnabled true to enable delta mode
+     */
+    public void setDeltaEnabled(boolean deltaEnabled) {
+        this.deltaEnabled = deltaEnabled;
+        if (deltaEnabled == false) {
+            deltas.clear();
+        }
+    }
+    
+    public boolean isDeltaEnabled() {
+        return deltaEnabled;
+    }
+    
+    /**
+     * Sets the fields, which we are interested in delta mode. A stock will
+     * only be notified, when at least one of these fields has changed.
+     * 
+     * @param deltaMask combination of StockDelta's field mask
+     */
+    public void setDeltaMask(int deltaMask) {
+        this.deltaMask = deltaMask;
+    }
+    
+    public int getDeltaMask() {
+        return deltaMask;
+    }
+    
+    /**
+     * Returns the change mask of the code, during its latest notification in
+     * delta mode. It is meaningful only within observer's update.
+     * 
+     * @param code the code
+     * @return the change mask of the code. StockDelta.ALL if delta mode is
+     * not enabled
+     */
+    public int getChangeMask(Code code) {
+        if (deltaEnabled == false) {
+            return StockDelta.ALL;
+        }
+        final Delta delta = deltas.get(code);
+        return delta == null ? StockDelta.ALL : delta.changeMask;
+    }
+    
+    /**
+     * Returns the quote book, which keeps the latest quote of every code
+     * fetched by this monitor. It is updated in place, before observers are
+     * notified. In hub mode, the hub's quote book is returned.
+     * 
+     * @return the quote book
+     */
+    public QuoteBook getQuoteBook() {
+        if (hub != null) {
+            return hub.getQuoteBook();
+        }
+        return quoteBook;
+    }
+    
+    // Lets the hub's underlying monitor write into the hub's quote book.
+    void setQuoteBook(QuoteBook quoteBook) {
+        assert(hub == null);
+        this.quoteBook = quoteBook;
+    }
+    
+    @Override
+    protected void notify(RealTimeStockMonitor subject, java.util.List<Stock> stocks) {
+        // In hub mode, hub's quote book has already been updated by the
+        // polling monitor, before the stocks are fanned out to us.
+        if (hub == null) {
+            final QuoteBook book = this.quoteBook;
+            for (Stock stock : stocks) {
+                book.update(stock);
+            }
+        }
+        
+        if (deltaEnabled == false) {
+            super.notify(subject, stocks);
+            return;
+        }
+        
+        // Every monitor compares against its own previous stock, as hub's
+        // subscribers might have subscribed at different time.
+        final int mask = this.deltaMask;
+        final List<Stock> changedStocks = new ArrayList<Stock>(stocks.size());
+        synchronized (deltas) {
+            for (Stock stock : stocks) {
+                final Delta oldDelta = deltas.get(stock.code);
+                final int changeMask = StockDelta.getChangeMask(oldDelta == null ? null : oldDelta.stock, stock);
+                deltas.put(stock.code, new Delta(stock, changeMask));
+                if (oldDelta == null || (changeMask & mask) != 0) {
+                    changedStocks.add(stock);
+                }
+            }
+        }
+        
+        super.notify(subject, changedStocks);
+    }
+    
+    // Latest received stock and its change mask, in delta mode.
+    private static class Delta {
+        public Delta(Stock stock, int changeMask) {
+            this.stock = stock;
+            this.changeMask = changeMask;
+        }
+        public final Stock stock;
+        public final int changeMask;
+    }
+    
+    /**
+     * Sets the hedger, which is used to send requests to stock server
+     * factories in hedged way. null to try the factories strictly in
+     * sequence.
+     * 
+     * @param hedger the hedger. May be null
+     */
+    public synchronized void setHedger(Hedger hedger) {
+        if (hub != null) {
+            hub.setHedger(hedger);
+            return;
+        }
+        this.hedger = hedger;
+    }
+    
+    /**
+     * @return the hedger. May be null
+     */
+    public Hedger getHedger() {
+        if (hub != null) {
+            return hub.getHedger();
+        }
+        return this.hedger;
+    }
+    
+    /**
+     * Sets the trading session, which is used to slow down to a heartbeat
+     * when the exchange is closed. Polling resumes at normal delay once the
+     * exchange opens. null to poll around the clock.
+     * 
+     * @param tradingSession the trading session. May be null
+     */
+    public synchronized void setTradingSession(TradingSession tradingSession) {
+        if (hub != null) {
+            hub.setTradingSession(tradingSession);
+            return;
+        }
+        this.tradingSession = tradingSession;
+    }
+    
+    TradingSession getTradingSession() {
+        return this.tradingSession;
+    }
+    
+    /**
+     * Sets the priority of the code. It can be set before the code is being
+     * added. The priority is forgotten once the code is removed.
+     * 
+     * @param code the code
+     * @param priority the priority. null to use default priority
+     */
+    public synchronized void setPriority(Code code, Priority priority) {
+        if (priority == null) {
+            priorities.remove(code);
+        } else {
+            priorities.put(code, priority);
+        }
+        
+        if (hub != null) {
+            if (isSubscribed(code)) {
+                hub.updatePriority(code);
+            }
+            return;
+        }
+        
+        if (rowStockCodeMapping.containsKey(code)) {
+            prioritySelector.put(code, getPriority(code));
+        }
+    }
+    
+    /**
+     * Sets the priority of codes, which have no priority set explicitly.
+     * 
+     * @param defaultPriority the default priority
+     */
+    public synchronized void setDefaultPriority(Priority defaultPriority) {
+        if (defaultPriority == null) {
+            throw new IllegalArgumentException("defaultPriority cannot be null");
+        }
+        
+        this.defaultPriority = defaultPriority;
+        
+        for (Code code : stockCodes) {
+            if (priorities.containsKey(code)) {
+                continue;
+            }
+            if (hub != null) {
+                if (isSubscribed(code)) {
+                    hub.updatePriority(code);
+                }
+            } else {
+                prioritySelector.put(code, defaultPriority);
+            }
+        }
+    }
+    
+    // No lock is being acquired, as it is being called by hub, which is
+    // holding its own lock.
+    Priority getPriority(Code code) {
+        final Priority priority = priorities.get(code);
+        return priority != null ? priority : defaultPriority;
+    }
+    
+    // Returns codes to be fetched for the slot at the given index, or null if
+    // the index is beyond number of stock codes. Number of codes per slot is
+    // the same, whether priorities are in use or not. Hence, priorities only
+    // redistribute fetch slots, without sending more requests.
+    private List<Code> getCodes(int index) {
+        stockCodesReaderLock.lock();
+        try {
+            final int stockCodesSize = stockCodes.size();
+            if (index >= stockCodesSize) {
+                return null;
+            }
+            final int count = Math.min(maxStockSizePerScan, stockCodesSize - index);
+            if (prioritySelector.isWeighted()) {
+                return prioritySelector.next(count);
+            }
+            return new ArrayList<Code>(stockCodes.subList(index, index + count));
+        } finally {
+            stockCodesReaderLock.unlock();
+        }
+    }
+    
+    // Returns the given delay, or a longer one if the exchange is closed.
+    private long getDelay(long delay) {
+        final TradingSession _tradingSession = this.tradingSession;
+        if (_tradingSession == null) {
+            return delay;
+        }
+        return _tradingSession.getDelay(System.currentTimeMillis(), delay);
+    }
+    
+    // Returns true if code is being subscribed from hub. Being called by hub's
+    // scanning thread. Hence, no lock on this monitor is being acquired.
+    boolean isSubscribed(Code code) {
+        return hubStockCodes.contains(code);
+    }
+    
+    private void subscribeAllToHub() {
+        if (isHubSubscribed) {
+            return;
+        }
+        isHubSubscribed = true;
+        subscribeToHub(stockCodes);
+    }
+    
+    private void unsubscribeAllFromHub() {
+        if (isHubSubscribed == false) {
+            return;
+        }
+        isHubSubscribed = false;
+        unsubscribeFromHub(stockCodes);
+    }
+    
+    private void subscribeToHub(java.util.Collection<Code> codes) {
+        // Before subscribing, so that quotes replayed by hub are accepted.
+        hubStockCodes.addAll(codes);
+        hub.subscribe(this, codes);
+        // Our subscription can only raise the priority at hub.
+        for (Code code : codes) {
+            if (getPriority(code) != Priority.Background) {
+                hub.updatePriority(code);
+            }
+        }
+    }
+    
+    private void unsubscribeFromHub(java.util.Collection<Code> codes) {
+        for (Code code : codes) {
+            hubStockCodes.remove(code);
+            // Never compare against a stale quote, once subscribed again.
+            deltas.remove(code);
+        }
+        hub.unsubscribe(codes);
+        // Our unsubscription can only lower the priority at hub.
+        for (Code code : codes) {
+            if (getPriority(code) != Priority.Background) {
+                hub.updatePriority(code);
+            }
+        }
     }
     
     private int getNumOfRequiredThread() {
@@ -260,6 +810,228 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
         return Math.min(numOfThreadRequired, maxThread);
     }
     
+    // Try all the stock server factories, in the order ranked by their
+    // health, till one of them is able to return the stocks. Returns null if
+    // all of them fail.
+    private List<Stock> getStocks(final List<Code> codes) {
+        final List<StockServerFactory> factories = ServerHealth.INSTANCE.rank(stockServerFactories, ServerHealth.Type.StockServer);
+        
+        final Hedger _hedger = this.hedger;
+        if (_hedger != null) {
+            return _hedger.call(factories, new Hedger.Request<List<Stock>>() {
+                @Override
+                public List<Stock> call(StockServerFactory factory) {
+                    final StockServer stockServer = factory.getStockServer();
+
+                    if (stockServer == null) {
+                        return null;
+                    }
+
+                    final long transportFailureCount = HttpTransport.INSTANCE.getTransportFailureCount();
+                    final long start = System.currentTimeMillis();
+                    try {
+                        final List<Stock> stocks = stockServer.getStocks(codes);
+                        ServerHealth.INSTANCE.success(factory, ServerHealth.Type.StockServer, System.currentTimeMillis() - start);
+                        return stocks;
+                    } catch (StockNotFoundException exp) {
+                        // Being cancelled by hedger isn't server's fault.
+                        if (Thread.currentThread().isInterrupted() == false) {
+                            ServerHealth.INSTANCE.failure(factory, ServerHealth.Type.StockServer, System.currentTimeMillis() - start, transportFailureCount);
+                        }
+                        log.error(codes, exp);
+                        return null;
+                    }
+                }
+            });
+        }
+        
+        for (StockServerFactory factory : factories) {
+            final StockServer stockServer = factory.getStockServer();
+
+            if (stockServer == null) {
+                continue;
+            }
+
+            final long transportFailureCount = HttpTransport.INSTANCE.getTransportFailureCount();
+            final long start = System.currentTimeMillis();
+            try {
+                final List<Stock> stocks = stockServer.getStocks(codes);
+                ServerHealth.INSTANCE.success(factory, ServerHealth.Type.StockServer, System.currentTimeMillis() - start);
+                return stocks;
+            } catch (StockNotFoundException exp) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+
+                ServerHealth.INSTANCE.failure(factory, ServerHealth.Type.StockServer, System.currentTimeMillis() - start, transportFailureCount);
+                log.error(codes, exp);
+                // Try with another server.
+                continue;
+            }
+        }
+        
+        return null;
+    }
+    
+    // Fetches the given codes immediately, outside the scan cycle, and
+    // notifies observers. Being called by hub, to refresh codes of a single
+    // subscriber.
+    void fetch(List<Code> codes) {
+        final int size = codes.size();
+        for (int i = 0; i < size; i += maxStockSizePerScan) {
+            final List<Stock> stocks = getStocks(new ArrayList<Code>(codes.subList(i, Math.min(size, i + maxStockSizePerScan))));
+            if (stocks != null) {
+                notify(this, stocks);
+            }
+        }
+    }
+    
+    /**
+     * A batch of codes, which is scanned by scheduler. Once a scan completes,
+     * the batch reschedules itself, with same delay strategy as StockMonitor.
+     */
+    private class StockBatch implements Runnable {
+        
+        public StockBatch(int index) {
+            this.index = index;
+        }
+        
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (stop || suspend) {
+                    return;
+                }
+                running = true;
+            }
+            
+            int pass = 0;
+            int fail = 0;
+            
+            // Fail safe. So that middle in the code, if there is a unexpected
+            // exception being thrown, our batch still remain scheduled.
+            try {
+                // Acquire codes in a safe way.
+                final List<Code> codes = getCodes(index);
+                
+                if (codes != null && codes.isEmpty() == false) {
+                    final int size = codes.size();
+                    fail += size;
+                    
+                    final List<Stock> stocks = getStocks(codes);
+                    
+                    if (stocks != null && stop == false) {
+                        pass += size;
+                        fail -= size;
+                        
+                        // Notify all the interested parties.
+                        RealTimeStockMonitor.this.notify(RealTimeStockMonitor.this, stocks);
+                    }
+                }
+            } catch (Exception exp) {
+                log.error("Our batch just recover from unexpected error", exp);
+            }
+            
+            totalScanned = pass + fail;
+            
+            synchronized (this) {
+                running = false;
+                
+                if (isRefresh) {
+                    // User has requested to perform refresh explicitly, while
+                    // we are in the middle of scanning.
+                    isRefresh = false;
+                    _schedule(0);
+                } else if (fail == 0) {
+                    _schedule(getDelay(delay));
+                } else {
+                    if (minDelayCounter < MIN_DELAY_COUNTER) {
+                        // Sleep as little as possible, to get the 1st reading
+                        // as soon as possible. MIN_DELAY_COUNTER is used to avoid
+                        // from getting our CPU and network too busy.
+                        minDelayCounter++;
+                        _schedule(MIN_DELAY);
+                    } else {
+                        _schedule(getDelay(delay));
+                    }
+                }
+            }
+        }
+        
+        private synchronized void _schedule(long ms) {
+            if (stop || suspend) {
+                return;
+            }
+            future = scheduler.schedule(this, ms, TimeUnit.MILLISECONDS);
+        }
+        
+        private synchronized void _cancel(boolean mayInterruptIfRunning) {
+            if (future != null) {
+                future.cancel(mayInterruptIfRunning);
+                future = null;
+            }
+        }
+        
+        public synchronized void _resume() {
+            if (suspend == false) {
+                return;
+            }
+            suspend = false;
+            if (running == false) {
+                _schedule(0);
+            }
+        }
+        
+        public synchronized void _suspend() {
+            suspend = true;
+            // Let the running scan complete. It will not reschedule.
+            _cancel(false);
+        }
+        
+        // Need synchronized, to ensure refresh is mutually exclusive with
+        // rescheduling.
+        public synchronized void refresh() {
+            if (suspend) {
+                // Same as StockMonitor. If this batch is suspended, refresh
+                // will not work, unless resume is being called first.
+                return;
+            }
+            
+            minDelayCounter = 0;
+            totalScanned = 0;
+            
+            if (running) {
+                // Reschedule immediately once the running scan completes.
+                // Never run the same batch concurrently.
+                isRefresh = true;
+            } else {
+                _cancel(false);
+                _schedule(0);
+            }
+        }
+        
+        public synchronized void _stop() {
+            stop = true;
+            // Wake up from network I/O.
+            _cancel(true);
+        }
+        
+        public int getTotalScanned() {
+            return totalScanned;
+        }
+        
+        // Doesn't require volatile, as these variables are being accessed
+        // within synchronized block.
+        private boolean suspend = false;
+        private boolean running = false;
+        private boolean isRefresh = false;
+        private ScheduledFuture<?> future = null;
+        private volatile boolean stop = false;
+        private volatile int minDelayCounter = 0;
+        private volatile int totalScanned = 0;
+        private final int index;
+    }
+    
     private class StockMonitor extends Thread {
         
         public StockMonitor(int index) {
@@ -328,64 +1100,29 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
                         int fail = 0;
                         
                         for (int currIndex = index; thisThread == thread; currIndex += step) {
-                            ListIterator<Code> listIterator = null;
-
-                            // Acquire iterator in a safe way.
-                            stockCodesReaderLock.lock();
-                            try {
-                                final int stockCodesSize = stockCodes.size();
-                                if (currIndex < stockCodesSize) {
-                                    listIterator = stockCodes.listIterator(currIndex);
-                                }
-                            } finally {
-                                stockCodesReaderLock.unlock();
-                            }
-
-                            if (listIterator != null) {
-                                List<Code> codes = new ArrayList<Code>();
-
-                                for (int i = 0; listIterator.hasNext() && i < maxStockSizePerScan && thisThread == thread; i++) {
-                                    codes.add(listIterator.next());
-                                }
+                            // Acquire codes in a safe way.
+                            final List<Code> codes = getCodes(currIndex);
 
+                            if (codes != null) {
                                 final int size = codes.size();
                                 fail += size;
-                                for (StockServerFactory factory : stockServerFactories)
-                                {
-                                    final StockServer stockServer = factory.getStockServer();
-
-                                    if (stockServer == null) {
-                                        continue;
-                                    }
-                                    
-                                    List<Stock> stocks = null;
-                                    try {
-                                        stocks = stockServer.getStocks(codes);
-                                    } catch (StockNotFoundException exp) {
-                                        if (thisThread != thread) {
-                                            break;    
-                                        }
-                                        
-                                        log.error(codes, exp);
-                                        // Try with another server.
-                                        continue;
-                                    }
-
-                                    if (thisThread != thread) {
-                                        break;
-                                    }
-
+                                
+                                final List<Stock> stocks = getStocks(codes);
+                                
+                                if (thisThread != thread) {
+                                    break;
+                                }
+                                
+                                if (stocks != null) {
                                     pass += size;
                                     fail -= size;
                                     totalScanned = pass + fail;
 
                                     // Notify all the interested parties.
                                     RealTimeStockMonitor.this.notify(RealTimeStockMonitor.this, stocks);
+                                }
 
-                                    break;
-                                }   // for
-
-                            }   // if (listIterator != null)
+                            }   // if (codes != null)
                             else {
                                 break;
                             }
@@ -395,7 +1132,7 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
 
                         try {
                             if (fail == 0) {
-                                Thread.sleep(delay);
+                                Thread.sleep(getDelay(delay));
                             } else {
                                 if (minDelayCounter < MIN_DELAY_COUNTER) {
                                     // Sleep as little as possible, to get the 1st reading
@@ -404,7 +1141,7 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
                                     minDelayCounter++;
                                     Thread.sleep(MIN_DELAY);
                                 } else {
-                                    Thread.sleep(delay);
+                                    Thread.sleep(getDelay(delay));
                                 }
                             }
                         } catch (java.lang.InterruptedException exp) {
@@ -477,11 +1214,17 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
         for (StockMonitor stockMonitor : stockMonitors) {
             totalScanned += stockMonitor.getTotalScanned();
         }
+        for (StockBatch stockBatch : stockBatches) {
+            totalScanned += stockBatch.getTotalScanned();
+        }
         return totalScanned;
     }
     
     // Delay in ms
     private volatile long delay;
+    // Delay in ms, which is set explicitly in hub mode. The hub polls as fast
+    // as its fastest subscriber requires.
+    private volatile long hubDelay = 0;
     
     // 5 seconds.
     private static final long MIN_DELAY = 5000;
@@ -491,11 +1234,43 @@ public class RealTimeStockMonitor extends Subject<RealTimeStockMonitor, java.uti
     // Number of stock to be monitored per iteration.
     private final int maxStockSizePerScan;
     private java.util.List<StockServerFactory> stockServerFactories;
+    // Only being modified within synchronized block, while holding writer
+    // lock. Scanning threads read it while holding reader lock.
     private final java.util.List<Code> stockCodes;
-    // Used for duplication check. We avoid using stockCodes.constains, as the
-    // complexity is O(n).
+    // Index of every code in stockCodes. Used for duplication check and
+    // removal, both in O(1).
     private final java.util.HashMap<Code, Integer> rowStockCodeMapping;
     private final java.util.List<StockMonitor> stockMonitors;
+    // Only being used in scheduler mode.
+    private final java.util.List<StockBatch> stockBatches;
+    // null if we are not in scheduler mode.
+    private final ScheduledExecutorService scheduler;
+    // null if we are not in hub mode.
+    private final RealTimeStockMonitorHub hub;
+    // Codes which are currently subscribed from hub. Only being used in hub
+    // mode. It will be accessed by hub's scanning thread.
+    private final java.util.Set<Code> hubStockCodes = java.util.Collections.newSetFromMap(new java.util.concurrent.ConcurrentHashMap<Code, Boolean>());
+    private volatile Hedger hedger = null;
+    // null to poll around the clock.
+    private volatile TradingSession tradingSession = null;
+    // Priorities which are set explicitly. Codes without explicit priority
+    // have default priority.
+    private final java.util.Map<Code, Priority> priorities = new java.util.concurrent.ConcurrentHashMap<Code, Priority>();
+    private volatile Priority defaultPriority = Priority.Background;
+    // Not being used in hub mode.
+    private final PrioritySelector prioritySelector = new PrioritySelector();
+    private volatile boolean deltaEnabled = false;
+    private volatile int deltaMask = StockDelta.ALL;
+    // Delta mode. Latest received stock and its change mask, for every code
+    // received since subscription. Modified while holding its own lock.
+    private final java.util.Map<Code, Delta> deltas = new java.util.concurrent.ConcurrentHashMap<Code, Delta>();
+    // Latest quote of every code fetched. Replaced by the hub's quote book,
+    // if this is the hub's underlying monitor. null in hub mode.
+    private volatile QuoteBook quoteBook;
+    // Doesn't require volatile, as these variables are being accessed within
+    // synchronized block.
+    private boolean isHubSubscribed = true;
+    private boolean isHubSuspended = false;
     private final java.util.concurrent.locks.ReadWriteLock stockCodesReadWriteLock;
     private final java.util.concurrent.locks.Lock stockCodesReaderLock;
     private final java.util.concurrent.locks.Lock stockCodesWriterLock;
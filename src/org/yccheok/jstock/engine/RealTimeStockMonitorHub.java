@@ -0,0 +1,442 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A process wide quote hub. Several real time stock monitors, which are
+ * created through this hub, share a single underlying real time stock monitor.
+ * Codes are reference counted. A code, which is being subscribed by more than
+ * one monitor, will only be fetched once per scan cycle. The result will then
+ * be fanned out to every subscribing monitor's observers.
+ *
+ * A monitor which subscribes to a code, which is already being polled, is
+ * given the latest quote of the code immediately, instead of waiting for the
+ * next scan cycle. A monitor's refresh only fetches its own codes.
+ *
+ * @author yccheok
+ */
+public class RealTimeStockMonitorHub {
+
+    /**
+     * Creates a new instance of RealTimeStockMonitorHub.
+     *
+     * @param realTimeStockMonitor the underlying monitor, which performs the
+     * actual polling. It shouldn't be used by anyone else
+     */
+    public RealTimeStockMonitorHub(RealTimeStockMonitor realTimeStockMonitor) {
+        if (realTimeStockMonitor == null) {
+            throw new IllegalArgumentException("realTimeStockMonitor cannot be null");
+        }
+        this.realTimeStockMonitor = realTimeStockMonitor;
+        this.realTimeStockMonitor.setQuoteBook(quoteBook);
+        this.defaultDelay = realTimeStockMonitor.getDelay();
+        this.realTimeStockMonitor.attach(this.realTimeStockMonitorObserver);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates a new real time stock monitor, which subscribes its codes from
+     * this hub, instead of polling them by itself.
+     *
+     * @return a new real time stock monitor backed by this hub
+     */
+    public RealTimeStockMonitor newRealTimeStockMonitor() {
+        return new RealTimeStockMonitor(this);
+    }
+
+    /**
+     * Replaces the underlying monitor, for example when scheduler mode is
+     * switched. Codes, priorities, factories, hedger, trading session, delay
+     * and observers attached through this hub are moved to the new monitor.
+     * Subscribing monitors are not affected.
+     *
+     * @param realTimeStockMonitor the new underlying monitor. It shouldn't be
+     * used by anyone else
+     * @return the old underlying monitor, which is detached from this hub,
+     * but not stopped yet
+     */
+    public synchronized RealTimeStockMonitor setRealTimeStockMonitor(RealTimeStockMonitor realTimeStockMonitor) {
+        if (realTimeStockMonitor == null) {
+            throw new IllegalArgumentException("realTimeStockMonitor cannot be null");
+        }
+        final RealTimeStockMonitor oldRealTimeStockMonitor = this.realTimeStockMonitor;
+        if (oldRealTimeStockMonitor == realTimeStockMonitor) {
+            return oldRealTimeStockMonitor;
+        }
+        
+        oldRealTimeStockMonitor.dettach(this.realTimeStockMonitorObserver);
+        for (Observer<RealTimeStockMonitor, List<Stock>> observer : observers) {
+            oldRealTimeStockMonitor.dettach(observer);
+        }
+        
+        // Readers of the quote book needn't know the monitor is replaced.
+        realTimeStockMonitor.setQuoteBook(quoteBook);
+        realTimeStockMonitor.setStockServerFactories(oldRealTimeStockMonitor.getStockServerFactories());
+        realTimeStockMonitor.setHedger(oldRealTimeStockMonitor.getHedger());
+        realTimeStockMonitor.setTradingSession(oldRealTimeStockMonitor.getTradingSession());
+        realTimeStockMonitor.setDelay((int)oldRealTimeStockMonitor.getDelay());
+        for (Code code : counts.keySet()) {
+            realTimeStockMonitor.setPriority(code, oldRealTimeStockMonitor.getPriority(code));
+        }
+        realTimeStockMonitor.addStockCodes(new ArrayList<Code>(counts.keySet()));
+        
+        realTimeStockMonitor.attach(this.realTimeStockMonitorObserver);
+        for (Observer<RealTimeStockMonitor, List<Stock>> observer : observers) {
+            realTimeStockMonitor.attach(observer);
+        }
+        
+        this.realTimeStockMonitor = realTimeStockMonitor;
+        realTimeStockMonitor.startNewThreadsIfNecessary();
+        return oldRealTimeStockMonitor;
+    }
+
+    /**
+     * Attaches the observer to the underlying monitor. It sees every quote
+     * received by this hub, no matter which monitor has subscribed it.
+     *
+     * @param observer the observer
+     */
+    public synchronized void attach(Observer<RealTimeStockMonitor, List<Stock>> observer) {
+        observers.add(observer);
+        realTimeStockMonitor.attach(observer);
+    }
+
+    /**
+     * Detaches the observer from the underlying monitor.
+     *
+     * @param observer the observer
+     */
+    public synchronized void dettach(Observer<RealTimeStockMonitor, List<Stock>> observer) {
+        observers.remove(observer);
+        realTimeStockMonitor.dettach(observer);
+    }
+
+    void register(RealTimeStockMonitor subscriber) {
+        subscribers.addIfAbsent(subscriber);
+    }
+
+    void unregister(RealTimeStockMonitor subscriber) {
+        subscribers.remove(subscriber);
+        // Its delay shouldn't hold the hub back any more.
+        updateDelay();
+    }
+
+    synchronized void subscribe(final RealTimeStockMonitor subscriber, Collection<Code> codes) {
+        final List<Code> newCodes = new ArrayList<Code>();
+        final List<Code> polledCodes = new ArrayList<Code>();
+        for (Code code : codes) {
+            final Integer count = counts.get(code);
+            if (count == null) {
+                counts.put(code, 1);
+                newCodes.add(code);
+            } else {
+                counts.put(code, count + 1);
+                polledCodes.add(code);
+            }
+        }
+        if (newCodes.isEmpty() == false) {
+            realTimeStockMonitor.addStockCodes(newCodes);
+        }
+        if (polledCodes.isEmpty() == false) {
+            // Never let the subscriber wait for the next scan cycle, which
+            // might be a long heartbeat outside trading hours.
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    replay(subscriber, polledCodes);
+                }
+            });
+        }
+    }
+
+    synchronized void unsubscribe(Collection<Code> codes) {
+        final List<Code> oldCodes = new ArrayList<Code>();
+        for (Code code : codes) {
+            final Integer count = counts.get(code);
+            if (count == null) {
+                continue;
+            }
+            if (count <= 1) {
+                counts.remove(code);
+                latestStocks.remove(code);
+                oldCodes.add(code);
+            } else {
+                counts.put(code, count - 1);
+            }
+        }
+        if (oldCodes.isEmpty() == false) {
+            realTimeStockMonitor.removeStockCodes(oldCodes);
+        }
+    }
+
+    // The highest priority among subscribers, which subscribe the code.
+    synchronized void updatePriority(Code code) {
+        if (counts.containsKey(code) == false) {
+            return;
+        }
+        RealTimeStockMonitor.Priority priority = RealTimeStockMonitor.Priority.Background;
+        for (RealTimeStockMonitor subscriber : subscribers) {
+            if (subscriber.isSubscribed(code)) {
+                final RealTimeStockMonitor.Priority p = subscriber.getPriority(code);
+                if (p.ordinal() < priority.ordinal()) {
+                    priority = p;
+                }
+            }
+        }
+        realTimeStockMonitor.setPriority(code, priority);
+    }
+
+    synchronized void startNewThreadsIfNecessary() {
+        realTimeStockMonitor.startNewThreadsIfNecessary();
+    }
+
+    // Fetches the given codes immediately, outside the scan cycle. Codes of
+    // other subscribers are left alone. Consecutive refreshes are coalesced.
+    void refresh(Collection<Code> codes) {
+        synchronized (refreshCodes) {
+            final boolean isPending = (refreshCodes.isEmpty() == false);
+            refreshCodes.addAll(codes);
+            if (isPending || refreshCodes.isEmpty()) {
+                return;
+            }
+        }
+        execute(refreshTask);
+    }
+
+    void setStockServerFactories(List<StockServerFactory> factories) {
+        realTimeStockMonitor.setStockServerFactories(factories);
+    }
+
+    /**
+     * Sets the hedger of the underlying monitor.
+     *
+     * @param hedger the hedger. May be null
+     */
+    public void setHedger(Hedger hedger) {
+        realTimeStockMonitor.setHedger(hedger);
+    }
+
+    /**
+     * @return the hedger of the underlying monitor. May be null
+     */
+    public Hedger getHedger() {
+        return realTimeStockMonitor.getHedger();
+    }
+
+    void setTradingSession(TradingSession tradingSession) {
+        realTimeStockMonitor.setTradingSession(tradingSession);
+    }
+
+    long getDelay() {
+        return realTimeStockMonitor.getDelay();
+    }
+
+    /**
+     * Sets the delay, which is used when none of the subscribing monitors has
+     * its own delay.
+     *
+     * @param delay delay in ms
+     */
+    public void setDefaultDelay(int delay) {
+        if (delay <= 0) {
+            throw new IllegalArgumentException("delay : " + delay);
+        }
+        this.defaultDelay = delay;
+        updateDelay();
+    }
+
+    // The hub polls as fast as its fastest subscriber requires.
+    void updateDelay() {
+        long delay = Long.MAX_VALUE;
+        for (RealTimeStockMonitor subscriber : subscribers) {
+            final long d = subscriber.getHubDelay();
+            if (d > 0) {
+                delay = Math.min(delay, d);
+            }
+        }
+        if (delay == Long.MAX_VALUE) {
+            delay = defaultDelay;
+        }
+        realTimeStockMonitor.setDelay((int)delay);
+    }
+
+    /**
+     * Returns the quote book, which keeps the latest quote of every code
+     * polled by this hub. It is shared by every monitor created through this
+     * hub, and survives replacement of the underlying monitor.
+     *
+     * @return the quote book
+     */
+    public QuoteBook getQuoteBook() {
+        return quoteBook;
+    }
+
+    /**
+     * Returns number of distinct codes being polled by this hub.
+     *
+     * @return number of distinct codes being polled by this hub
+     */
+    public synchronized int getNumOfStockCode() {
+        return counts.size();
+    }
+
+    /**
+     * Stops the underlying real time stock monitor. This hub shouldn't be used
+     * any more after this call.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        final RealTimeStockMonitor _realTimeStockMonitor = realTimeStockMonitor;
+        _realTimeStockMonitor.clearStockCodes();
+        _realTimeStockMonitor.dettachAll();
+        _realTimeStockMonitor.stop();
+    }
+
+    private void execute(Runnable runnable) {
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException exp) {
+            // Being stopped.
+            log.info("Hub is stopped");
+        }
+    }
+
+    // Notifies the subscriber with the latest quotes of the codes, if they
+    // have been received.
+    private void replay(RealTimeStockMonitor subscriber, List<Code> codes) {
+        final List<Stock> stocks = new ArrayList<Stock>(codes.size());
+        for (Code code : codes) {
+            if (subscriber.isSubscribed(code) == false) {
+                continue;
+            }
+            final Stock stock = latestStocks.get(code);
+            if (stock != null) {
+                stocks.add(stock);
+            }
+        }
+        if (stocks.isEmpty() == false) {
+            subscriber.notify(subscriber, stocks);
+        }
+    }
+
+    private void refresh() {
+        final List<Code> codes;
+        synchronized (refreshCodes) {
+            codes = new ArrayList<Code>(refreshCodes);
+            refreshCodes.clear();
+        }
+        final List<Code> polledCodes = new ArrayList<Code>(codes.size());
+        synchronized (this) {
+            for (Code code : codes) {
+                if (counts.containsKey(code)) {
+                    polledCodes.add(code);
+                }
+            }
+        }
+        if (polledCodes.isEmpty() == false) {
+            realTimeStockMonitor.fetch(polledCodes);
+        }
+    }
+
+    private void update(List<Stock> stocks) {
+        synchronized (this) {
+            for (Stock stock : stocks) {
+                // A fetch which was in flight, while the code is being
+                // unsubscribed, must not put the code back. Else, its stale
+                // quote would be replayed to the next subscriber.
+                if (counts.containsKey(stock.code)) {
+                    latestStocks.put(stock.code, stock);
+                }
+            }
+        }
+        for (RealTimeStockMonitor subscriber : subscribers) {
+            final List<Stock> subscribedStocks = new ArrayList<Stock>(stocks.size());
+            for (Stock stock : stocks) {
+                if (subscriber.isSubscribed(stock.code)) {
+                    subscribedStocks.add(stock);
+                }
+            }
+            if (subscribedStocks.isEmpty() == false) {
+                subscriber.notify(subscriber, subscribedStocks);
+            }
+        }
+    }
+
+    private final Observer<RealTimeStockMonitor, List<Stock>> realTimeStockMonitorObserver = new Observer<RealTimeStockMonitor, List<Stock>>() {
+        @Override
+        public void update(RealTimeStockMonitor subject, List<Stock> stocks) {
+            RealTimeStockMonitorHub.this.update(stocks);
+        }
+    };
+
+    private final Runnable refreshTask = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    // Only replaced while holding this hub's lock.
+    private volatile RealTimeStockMonitor realTimeStockMonitor;
+    // Number of subscribing monitors, for every code.
+    private final Map<Code, Integer> counts = new HashMap<Code, Integer>();
+    // Latest quote of every code being polled, to be replayed to new
+    // subscribers. Only modified while holding this hub's lock.
+    private final Map<Code, Stock> latestStocks = new ConcurrentHashMap<Code, Stock>();
+    // Written by the underlying monitor, before stocks are fanned out.
+    private final QuoteBook quoteBook = new QuoteBook();
+    private final CopyOnWriteArrayList<RealTimeStockMonitor> subscribers = new CopyOnWriteArrayList<RealTimeStockMonitor>();
+    // Observers attached through this hub, which follow the underlying
+    // monitor when it is replaced.
+    private final List<Observer<RealTimeStockMonitor, List<Stock>>> observers = new CopyOnWriteArrayList<Observer<RealTimeStockMonitor, List<Stock>>>();
+    // Codes waiting to be refreshed. Guarded by itself.
+    private final Set<Code> refreshCodes = new LinkedHashSet<Code>();
+    private volatile long defaultDelay;
+
+    // Runs refreshes and replays, one at a time, outside the scan cycle.
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "RealTimeStockMonitorHub");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Log log = LogFactory.getLog(RealTimeStockMonitorHub.class);
+}
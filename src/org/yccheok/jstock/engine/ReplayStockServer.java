@@ -0,0 +1,210 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.yccheok.jstock.file.GUIBundleWrapper;
+import org.yccheok.jstock.file.Statement;
+import org.yccheok.jstock.file.Statements;
+
+/**
+ * Serves recorded quotes, without any network access. Recorded quotes are
+ * replayed in the order of their timestamps, on a virtual clock. The clock
+ * starts at the first quote's timestamp, during the first request, and runs
+ * at the given speed. At max speed, every request advances the clock to the
+ * next timestamp, so that quotes are served as fast as they are requested.
+ *
+ * A request gets the latest replayed quote of every code. Codes which haven't
+ * been replayed yet get empty stocks.
+ *
+ * @author yccheok
+ */
+public class ReplayStockServer implements StockServer {
+
+    /**
+     * Speed which serves quotes as fast as they are requested.
+     */
+    public static final double MAX_SPEED = 0.0;
+
+    /**
+     * Creates a new instance of ReplayStockServer.
+     *
+     * @param stocks recorded quotes
+     * @param speed 1.0 for real time, larger for accelerated, or MAX_SPEED
+     * @param isLooping true if replay restarts once all quotes are served
+     */
+    public ReplayStockServer(List<Stock> stocks, double speed, boolean isLooping) {
+        final List<Stock> list = new ArrayList<Stock>(stocks);
+        // Stable. Quotes of the same timestamp keep their recorded order.
+        Collections.sort(list, new Comparator<Stock>() {
+            @Override
+            public int compare(Stock o1, Stock o2) {
+                final long t1 = o1.getTimestamp();
+                final long t2 = o2.getTimestamp();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        this.stocks = list.toArray(new Stock[list.size()]);
+        this.speed = speed;
+        this.isLooping = isLooping;
+    }
+
+    /**
+     * Reads recorded quotes from CSV files, such as stockprices.csv or
+     * exported watchlist. Every file is a snapshot. Its time is the
+     * "timestamp" metadata, or the file's last modified time. Columns other
+     * than code and last price are optional.
+     *
+     * @param files the CSV files
+     * @return recorded quotes
+     */
+    public static List<Stock> readCSVFiles(List<File> files) {
+        final List<Stock> result = new ArrayList<Stock>();
+        for (File file : files) {
+            final Statements statements = Statements.newInstanceFromCSVFile(file);
+            if (statements.getType() == Statement.Type.Unknown) {
+                log.error("Unknown CSV " + file);
+                continue;
+            }
+
+            long timestamp = file.lastModified();
+            final String t = statements.getMetadatas().get("timestamp");
+            if (t != null) {
+                try {
+                    timestamp = Long.parseLong(t);
+                } catch (NumberFormatException exp) {
+                    log.error(null, exp);
+                }
+            }
+
+            final GUIBundleWrapper guiBundleWrapper = statements.getGUIBundleWrapper();
+            final String code_string = guiBundleWrapper.getString("MainFrame_Code");
+            final String last_string = guiBundleWrapper.getString("MainFrame_Last");
+            final String prev_string = guiBundleWrapper.getString("MainFrame_Prev");
+            final String open_string = guiBundleWrapper.getString("MainFrame_Open");
+            final String high_string = guiBundleWrapper.getString("MainFrame_High");
+            final String low_string = guiBundleWrapper.getString("MainFrame_Low");
+            final String vol_string = guiBundleWrapper.getString("MainFrame_Vol");
+
+            for (int i = 0, ei = statements.size(); i < ei; i++) {
+                final Statement statement = statements.get(i);
+                final String codeStr = statement.getValueAsString(code_string);
+                final Double last = statement.getValueAsDouble(last_string);
+                if (codeStr == null || last == null) {
+                    continue;
+                }
+                final double prev = getValue(statement, prev_string, last);
+                final double change = last - prev;
+                final double changePercentage = prev == 0.0 ? 0.0 : change / prev * 100.0;
+                result.add(new Stock(
+                    Code.newInstance(codeStr),
+                    prev,
+                    getValue(statement, open_string, last),
+                    last,
+                    getValue(statement, high_string, last),
+                    getValue(statement, low_string, last),
+                    (long)getValue(statement, vol_string, 0.0),
+                    change,
+                    changePercentage,
+                    0,
+                    0.0, 0, 0.0, 0, 0.0, 0, 0.0, 0, 0.0, 0, 0.0, 0,
+                    timestamp
+                ));
+            }
+        }
+        return result;
+    }
+
+    private static double getValue(Statement statement, String type, double defaultValue) {
+        final Double value = statement.getValueAsDouble(type);
+        return value == null ? defaultValue : value;
+    }
+
+    @Override
+    public Stock getStock(Code code) throws StockNotFoundException {
+        advance();
+        final Stock stock = latestStocks.get(code);
+        if (stock == null) {
+            return org.yccheok.jstock.gui.Utils.getEmptyStock(code);
+        }
+        return stock;
+    }
+
+    @Override
+    public List<Stock> getStocks(List<Code> codes) throws StockNotFoundException {
+        advance();
+        final List<Stock> result = new ArrayList<Stock>(codes.size());
+        for (Code code : codes) {
+            final Stock stock = latestStocks.get(code);
+            result.add(stock == null ? org.yccheok.jstock.gui.Utils.getEmptyStock(code) : stock);
+        }
+        return result;
+    }
+
+    // Replays quotes, up to the virtual clock.
+    private synchronized void advance() {
+        if (stocks.length == 0) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        if (cursor >= stocks.length) {
+            if (isLooping == false) {
+                return;
+            }
+            cursor = 0;
+            start = now;
+        }
+        if (cursor == 0 && start == Long.MIN_VALUE) {
+            start = now;
+        }
+
+        final long time;
+        if (speed <= MAX_SPEED) {
+            time = stocks[cursor].getTimestamp();
+        } else {
+            time = stocks[0].getTimestamp() + (long)((now - start) / 1000000.0 * speed);
+        }
+
+        while (cursor < stocks.length && stocks[cursor].getTimestamp() <= time) {
+            final Stock stock = stocks[cursor++];
+            latestStocks.put(stock.code, stock);
+        }
+    }
+
+    private final Stock[] stocks;
+    private final double speed;
+    private final boolean isLooping;
+    // Index of the next quote to be replayed.
+    private int cursor = 0;
+    // Start of the virtual clock, from System.nanoTime.
+    private long start = Long.MIN_VALUE;
+    private final Map<Code, Stock> latestStocks = new ConcurrentHashMap<Code, Stock>();
+
+    private static final Log log = LogFactory.getLog(ReplayStockServer.class);
+}
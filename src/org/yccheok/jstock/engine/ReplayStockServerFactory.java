@@ -0,0 +1,88 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Provides servers which replay recorded quotes, for load testing without
+ * network. Only stock server is supported. Market server is empty. There is
+ * no history and dividend server.
+ *
+ * @author yccheok
+ */
+public class ReplayStockServerFactory implements StockServerFactory {
+
+    private ReplayStockServerFactory(StockServer stockServer) {
+        this.stockServer = stockServer;
+    }
+
+    /**
+     * Returns ReplayStockServerFactory which replays the given quotes.
+     *
+     * @param stocks recorded quotes
+     * @param speed 1.0 for real time, larger for accelerated, or
+     * ReplayStockServer.MAX_SPEED
+     * @param isLooping true if replay restarts once all quotes are served
+     * @return ReplayStockServerFactory which replays the given quotes
+     */
+    public static StockServerFactory newInstance(List<Stock> stocks, double speed, boolean isLooping) {
+        return new ReplayStockServerFactory(new ReplayStockServer(stocks, speed, isLooping));
+    }
+
+    @Override
+    public StockServer getStockServer() {
+        return stockServer;
+    }
+
+    @Override
+    public StockHistoryServer getStockHistoryServer(Code code) {
+        return null;
+    }
+
+    @Override
+    public StockHistoryServer getStockHistoryServer(Code code, Duration duration) {
+        return null;
+    }
+
+    @Override
+    public MarketServer getMarketServer() {
+        return marketServer;
+    }
+
+    @Override
+    public DividendServer getDividendServer() {
+        return null;
+    }
+
+    private final StockServer stockServer;
+    private final MarketServer marketServer = new MarketServer() {
+        @Override
+        public List<Market> getMarkets(List<Index> indices) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Market getMarket(Index index) {
+            return null;
+        }
+    };
+}
@@ -0,0 +1,280 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps track of the health of every stock server, stock history server and
+ * market server provided by stock server factories. Every server has a
+ * rolling success rate and latency. A server which keeps failing is tripped
+ * into open circuit, and will not be tried till its back off period expires.
+ * After that, the circuit is half open. Only the caller which ranks the
+ * factory first is given the probe. Others skip the factory, till the probe
+ * succeeds, fails, or times out. Every failed probe doubles the back off
+ * period.
+ *
+ * Only transport failures (connection error, time out and server error) are
+ * counted as failures. A server which answers "not found" is healthy.
+ *
+ * Monitors should iterate the factories returned by rank, instead of the
+ * static order returned by Factories.
+ *
+ * @author yccheok
+ */
+public enum ServerHealth {
+    INSTANCE;
+
+    public enum Type {
+        StockServer,
+        StockHistoryServer,
+        MarketServer
+    }
+
+    /**
+     * Returns the given factories, ranked by health of their server of the
+     * given type. Factories whose circuit is open are excluded. If all of
+     * them are open, the given factories are returned in original order, as
+     * we need to try something anyway. Factories with similar health keep
+     * their original order, so that user's primary preference is respected.
+     *
+     * @param factories the factories, in preferred order
+     * @param type type of server
+     * @return the ranked factories
+     */
+    public List<StockServerFactory> rank(List<StockServerFactory> factories, final Type type) {
+        final long now = System.currentTimeMillis();
+        final List<StockServerFactory> ranked = new ArrayList<StockServerFactory>(factories.size());
+        for (StockServerFactory factory : factories) {
+            if (getRecord(factory, type).acquire(now)) {
+                ranked.add(factory);
+            }
+        }
+
+        if (ranked.isEmpty()) {
+            return new ArrayList<StockServerFactory>(factories);
+        }
+
+        // Stable sort.
+        Collections.sort(ranked, new Comparator<StockServerFactory>() {
+            @Override
+            public int compare(StockServerFactory o1, StockServerFactory o2) {
+                final Record r1 = getRecord(o1, type);
+                final Record r2 = getRecord(o2, type);
+                final int s1 = r1.getSuccessBucket();
+                final int s2 = r2.getSuccessBucket();
+                if (s1 != s2) {
+                    return s2 - s1;
+                }
+                final long l1 = r1.getLatencyBucket();
+                final long l2 = r2.getLatencyBucket();
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+
+        return ranked;
+    }
+
+    /**
+     * Records a successful request.
+     *
+     * @param factory the factory
+     * @param type type of server
+     * @param latency latency in ms
+     */
+    public void success(StockServerFactory factory, Type type, long latency) {
+        getRecord(factory, type).success(latency);
+    }
+
+    /**
+     * Records a failed request.
+     *
+     * @param factory the factory
+     * @param type type of server
+     * @param latency latency in ms
+     */
+    public void failure(StockServerFactory factory, Type type, long latency) {
+        final Record record = getRecord(factory, type);
+        if (record.failure(latency, System.currentTimeMillis())) {
+            log.info(factory.getClass().getSimpleName() + " " + type + " circuit is opened");
+        }
+    }
+
+    /**
+     * Records a request, which has no answer. It is counted as failure, only
+     * if the current thread has transport failure since the given count. Else,
+     * the server has answered. For instance, the code is unknown, or there is
+     * no history within the requested duration. It is not server's fault, and
+     * is recorded as success.
+     *
+     * @param factory the factory
+     * @param type type of server
+     * @param latency latency in ms
+     * @param transportFailureCount count returned by
+     * HttpTransport.getTransportFailureCount, before the request
+     */
+    public void failure(StockServerFactory factory, Type type, long latency, long transportFailureCount) {
+        if (HttpTransport.INSTANCE.getTransportFailureCount() != transportFailureCount) {
+            failure(factory, type, latency);
+        } else {
+            success(factory, type, latency);
+        }
+    }
+
+    /**
+     * Returns true if the circuit of given factory's server is currently
+     * open, or half open with a probe in progress.
+     *
+     * @param factory the factory
+     * @param type type of server
+     * @return true if the circuit is currently open
+     */
+    public boolean isOpen(StockServerFactory factory, Type type) {
+        return getRecord(factory, type).isAvailable(System.currentTimeMillis()) == false;
+    }
+
+    private Record getRecord(StockServerFactory factory, Type type) {
+        final Key key = new Key(factory, type);
+        Record record = records.get(key);
+        if (record == null) {
+            record = new Record();
+            final Record old = records.putIfAbsent(key, record);
+            if (old != null) {
+                record = old;
+            }
+        }
+        return record;
+    }
+
+    private static class Key {
+        public Key(StockServerFactory factory, Type type) {
+            this.factory = factory;
+            this.type = type;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(factory) * 31 + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)o;
+            return this.factory == key.factory && this.type == key.type;
+        }
+
+        private final StockServerFactory factory;
+        private final Type type;
+    }
+
+    private static class Record {
+        public synchronized void success(long latency) {
+            successRate = successRate * (1.0 - ALPHA) + ALPHA;
+            latencyAverage = latencyAverage < 0 ? latency : (long)(latencyAverage * (1.0 - ALPHA) + latency * ALPHA);
+            consecutiveFailures = 0;
+            trips = 0;
+            openUntil = 0;
+            probeUntil = 0;
+        }
+
+        // Returns true if this failure opens the circuit.
+        public synchronized boolean failure(long latency, long now) {
+            successRate = successRate * (1.0 - ALPHA);
+            latencyAverage = latencyAverage < 0 ? latency : (long)(latencyAverage * (1.0 - ALPHA) + latency * ALPHA);
+            consecutiveFailures++;
+            if (consecutiveFailures >= FAILURE_THRESHOLD) {
+                // Exponential back off. A failed probe will reach here too.
+                final long backOff = Math.min(MAX_BACK_OFF, MIN_BACK_OFF << Math.min(trips, 16));
+                trips++;
+                openUntil = now + backOff;
+                probeUntil = 0;
+                return true;
+            }
+            return false;
+        }
+
+        // Closed circuit, or half open circuit without probe in progress.
+        public synchronized boolean isAvailable(long now) {
+            return now >= openUntil && (isHalfOpen() == false || now >= probeUntil);
+        }
+
+        // Same as isAvailable. If the circuit is half open, the caller is
+        // given the probe, and others will not be, till the probe completes
+        // or times out.
+        public synchronized boolean acquire(long now) {
+            if (isAvailable(now) == false) {
+                return false;
+            }
+            if (isHalfOpen()) {
+                probeUntil = now + PROBE_TIMEOUT;
+            }
+            return true;
+        }
+
+        private boolean isHalfOpen() {
+            return consecutiveFailures >= FAILURE_THRESHOLD;
+        }
+
+        public synchronized int getSuccessBucket() {
+            return (int)(successRate * 10.0);
+        }
+
+        public synchronized long getLatencyBucket() {
+            // Unknown latency is treated as good as the best.
+            return latencyAverage < 0 ? 0 : latencyAverage / LATENCY_BUCKET;
+        }
+
+        private double successRate = 1.0;
+        private long latencyAverage = -1;
+        private int consecutiveFailures = 0;
+        private int trips = 0;
+        private long openUntil = 0;
+        private long probeUntil = 0;
+    }
+
+    private final ConcurrentHashMap<Key, Record> records = new ConcurrentHashMap<Key, Record>();
+
+    // Weight of the latest sample, in rolling success rate and latency.
+    private static final double ALPHA = 0.2;
+    private static final int FAILURE_THRESHOLD = 3;
+    // 10 seconds.
+    private static final long MIN_BACK_OFF = 10000;
+    // 10 minutes.
+    private static final long MAX_BACK_OFF = 600000;
+    // 1 minute. Longer than a request may take, including its time outs.
+    private static final long PROBE_TIMEOUT = 60000;
+    // Servers with latency difference less than this are treated equally.
+    private static final long LATENCY_BUCKET = 500;
+
+    private static final Log log = LogFactory.getLog(ServerHealth.class);
+}
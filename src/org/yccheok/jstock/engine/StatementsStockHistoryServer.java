@@ -6,8 +6,6 @@ package org.yccheok.jstock.engine;
 
 import java.text.DateFormat;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,15 +17,17 @@ import org.yccheok.jstock.file.Statements;
  * @author yccheok
  */
 public class StatementsStockHistoryServer implements StockHistoryServer {
-    private final java.util.Map<Long, Stock> historyDatabase = new HashMap<Long, Stock>();
-    private final java.util.List<Long> timestamps = new ArrayList<Long>();
+    private final ArrayStockHistoryServer history;
     
     private StatementsStockHistoryServer(Statements statements) throws ParseException {
         assert(statements.getType() == Statement.Type.StockHistory);
         
         DateFormat dateFormat = org.yccheok.jstock.gui.Utils.getCommonDateFormat();
         Map<String, String> metadatas = statements.getMetadatas();
-        double previousClosePrice = Double.MAX_VALUE;
+        
+        // Every row shares the same code.
+        final Code code = Code.newInstance(metadatas.get("code"));
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(code);
         
         for (int i = 0, ei = statements.size(); i < ei; i++) {
             Statement statement = statements.get(i);
@@ -37,43 +37,12 @@ public class StatementsStockHistoryServer implements StockHistoryServer {
             double highPrice = Double.parseDouble(statement.getAtom(2).getValue().toString());
             double lowPrice = Double.parseDouble(statement.getAtom(3).getValue().toString());
             double closePrice = Double.parseDouble(statement.getAtom(4).getValue().toString());
-            double prevPrice = (previousClosePrice == Double.MAX_VALUE) ? 0 : previousClosePrice;
             long volume = Long.parseLong(statement.getAtom(5).getValue().toString());
-            double changePrice = (previousClosePrice == Double.MAX_VALUE) ? 0 : closePrice - previousClosePrice;
-            double changePricePercentage = ((previousClosePrice == Double.MAX_VALUE) || (previousClosePrice == 0.0)) ? 0 : changePrice / previousClosePrice * 100.0;
-            
-            Code code = Code.newInstance(metadatas.get("code"));
             
-            Stock stock = new Stock(
-                    code,
-                    prevPrice,
-                    openPrice,
-                    closePrice, /* Last Price. */
-                    highPrice,
-                    lowPrice,
-                    volume,
-                    changePrice,
-                    changePricePercentage,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    0.0,
-                    0,
-                    timestamp
-                    );
-
-            historyDatabase.put(timestamp, stock);
-            timestamps.add(timestamp);
-            previousClosePrice = closePrice;
+            builder.add(timestamp, openPrice, highPrice, lowPrice, closePrice, volume);
         }
+        
+        this.history = builder.build();
     }
     
     public static StatementsStockHistoryServer newInstance(Statements statements) {
@@ -93,17 +62,37 @@ public class StatementsStockHistoryServer implements StockHistoryServer {
     
     @Override
     public Stock getStock(long timestamp) {
-        return historyDatabase.get(timestamp);
+        return history.getStock(timestamp);
+    }
+
+    @Override
+    public Stock getStockAt(int index) {
+        return history.getStockAt(index);
     }
 
     @Override
     public long getTimestamp(int index) {
-        return timestamps.get(index);
+        return history.getTimestamp(index);
     }
 
     @Override
     public int size() {
-        return timestamps.size();
+        return history.size();
+    }
+
+    @Override
+    public int floorIndex(long timestamp) {
+        return history.floorIndex(timestamp);
+    }
+
+    @Override
+    public int ceilingIndex(long timestamp) {
+        return history.ceilingIndex(timestamp);
+    }
+
+    @Override
+    public double[] closes(int from, int to) {
+        return history.closes(from, to);
     }
 
     @Override
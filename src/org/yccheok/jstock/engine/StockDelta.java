@@ -0,0 +1,98 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+/**
+ * Per field change mask between two stocks of the same code. Timestamp is not
+ * part of the mask, as it may change even when nothing else does.
+ *
+ * @author yccheok
+ */
+public class StockDelta {
+    private StockDelta() {
+    }
+
+    public static final int PREV_PRICE = 1 << 0;
+    public static final int OPEN_PRICE = 1 << 1;
+    public static final int LAST_PRICE = 1 << 2;
+    public static final int HIGH_PRICE = 1 << 3;
+    public static final int LOW_PRICE = 1 << 4;
+    public static final int VOLUME = 1 << 5;
+    public static final int CHANGE_PRICE = 1 << 6;
+    public static final int CHANGE_PRICE_PERCENTAGE = 1 << 7;
+    public static final int LAST_VOLUME = 1 << 8;
+    public static final int BUY_PRICE = 1 << 9;
+    public static final int BUY_QUANTITY = 1 << 10;
+    public static final int SELL_PRICE = 1 << 11;
+    public static final int SELL_QUANTITY = 1 << 12;
+    public static final int SECOND_BUY_PRICE = 1 << 13;
+    public static final int SECOND_BUY_QUANTITY = 1 << 14;
+    public static final int SECOND_SELL_PRICE = 1 << 15;
+    public static final int SECOND_SELL_QUANTITY = 1 << 16;
+    public static final int THIRD_BUY_PRICE = 1 << 17;
+    public static final int THIRD_BUY_QUANTITY = 1 << 18;
+    public static final int THIRD_SELL_PRICE = 1 << 19;
+    public static final int THIRD_SELL_QUANTITY = 1 << 20;
+
+    public static final int PRICE = PREV_PRICE | OPEN_PRICE | LAST_PRICE | HIGH_PRICE | LOW_PRICE | CHANGE_PRICE | CHANGE_PRICE_PERCENTAGE;
+    public static final int VOLUME_ALL = VOLUME | LAST_VOLUME;
+    public static final int DEPTH = BUY_PRICE | BUY_QUANTITY | SELL_PRICE | SELL_QUANTITY |
+            SECOND_BUY_PRICE | SECOND_BUY_QUANTITY | SECOND_SELL_PRICE | SECOND_SELL_QUANTITY |
+            THIRD_BUY_PRICE | THIRD_BUY_QUANTITY | THIRD_SELL_PRICE | THIRD_SELL_QUANTITY;
+    public static final int ALL = PRICE | VOLUME_ALL | DEPTH;
+
+    /**
+     * Returns the change mask between old stock and new stock. If old stock
+     * is null, all fields are treated as changed.
+     *
+     * @param oldStock the old stock. May be null
+     * @param newStock the new stock
+     * @return the change mask between old stock and new stock
+     */
+    public static int getChangeMask(Stock oldStock, Stock newStock) {
+        if (oldStock == null) {
+            return ALL;
+        }
+
+        int mask = 0;
+        if (Double.compare(oldStock.getPrevPrice(), newStock.getPrevPrice()) != 0) mask |= PREV_PRICE;
+        if (Double.compare(oldStock.getOpenPrice(), newStock.getOpenPrice()) != 0) mask |= OPEN_PRICE;
+        if (Double.compare(oldStock.getLastPrice(), newStock.getLastPrice()) != 0) mask |= LAST_PRICE;
+        if (Double.compare(oldStock.getHighPrice(), newStock.getHighPrice()) != 0) mask |= HIGH_PRICE;
+        if (Double.compare(oldStock.getLowPrice(), newStock.getLowPrice()) != 0) mask |= LOW_PRICE;
+        if (oldStock.getVolume() != newStock.getVolume()) mask |= VOLUME;
+        if (Double.compare(oldStock.getChangePrice(), newStock.getChangePrice()) != 0) mask |= CHANGE_PRICE;
+        if (Double.compare(oldStock.getChangePricePercentage(), newStock.getChangePricePercentage()) != 0) mask |= CHANGE_PRICE_PERCENTAGE;
+        if (oldStock.getLastVolume() != newStock.getLastVolume()) mask |= LAST_VOLUME;
+        if (Double.compare(oldStock.getBuyPrice(), newStock.getBuyPrice()) != 0) mask |= BUY_PRICE;
+        if (oldStock.getBuyQuantity() != newStock.getBuyQuantity()) mask |= BUY_QUANTITY;
+        if (Double.compare(oldStock.getSellPrice(), newStock.getSellPrice()) != 0) mask |= SELL_PRICE;
+        if (oldStock.getSellQuantity() != newStock.getSellQuantity()) mask |= SELL_QUANTITY;
+        if (Double.compare(oldStock.getSecondBuyPrice(), newStock.getSecondBuyPrice()) != 0) mask |= SECOND_BUY_PRICE;
+        if (oldStock.getSecondBuyQuantity() != newStock.getSecondBuyQuantity()) mask |= SECOND_BUY_QUANTITY;
+        if (Double.compare(oldStock.getSecondSellPrice(), newStock.getSecondSellPrice()) != 0) mask |= SECOND_SELL_PRICE;
+        if (oldStock.getSecondSellQuantity() != newStock.getSecondSellQuantity()) mask |= SECOND_SELL_QUANTITY;
+        if (Double.compare(oldStock.getThirdBuyPrice(), newStock.getThirdBuyPrice()) != 0) mask |= THIRD_BUY_PRICE;
+        if (oldStock.getThirdBuyQuantity() != newStock.getThirdBuyQuantity()) mask |= THIRD_BUY_QUANTITY;
+        if (Double.compare(oldStock.getThirdSellPrice(), newStock.getThirdSellPrice()) != 0) mask |= THIRD_SELL_PRICE;
+        if (oldStock.getThirdSellQuantity() != newStock.getThirdSellQuantity()) mask |= THIRD_SELL_QUANTITY;
+        return mask;
+    }
+}
@@ -28,4 +28,14 @@ package org.yccheok.jstock.engine;
  */
 public interface StockFormat {
     public java.util.List<Stock> parse(String source);
+
+    /**
+     * Parses stocks directly from the given reader, as lines are read. The
+     * reader is not closed.
+     *
+     * @param reader the reader
+     * @return the parsed stocks
+     * @throws java.io.IOException if fail to read from the reader
+     */
+    public java.util.List<Stock> parse(java.io.Reader reader) throws java.io.IOException;
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In memory cache of stock histories, bounded by their estimated heap size.
+ * Least recently used histories are evicted first. Evicted histories are
+ * expected to be reloaded from disk, through StockHistorySerializer.
+ *
+ * @author yccheok
+ */
+public class StockHistoryCache {
+
+    /**
+     * Creates a new instance of StockHistoryCache.
+     *
+     * @param capacity maximum estimated heap size in bytes
+     */
+    public StockHistoryCache(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity cannot be negative");
+        }
+        this.capacity = capacity;
+    }
+
+    public synchronized StockHistoryServer get(Code code) {
+        final Entry entry = entries.get(code);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.stockHistoryServer;
+    }
+
+    public synchronized void put(Code code, StockHistoryServer stockHistoryServer) {
+        final long bytes = estimateBytes(stockHistoryServer);
+        final Entry old = entries.put(code, new Entry(stockHistoryServer, bytes));
+        if (old != null) {
+            size -= old.bytes;
+        }
+        size += bytes;
+
+        // Keep the latest one, even if it alone exceeds capacity.
+        final Iterator<Map.Entry<Code, Entry>> iterator = entries.entrySet().iterator();
+        while (size > capacity && entries.size() > 1) {
+            final Map.Entry<Code, Entry> eldest = iterator.next();
+            size -= eldest.getValue().bytes;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized StockHistoryServer remove(Code code) {
+        final Entry entry = entries.remove(code);
+        if (entry == null) {
+            return null;
+        }
+        size -= entry.bytes;
+        return entry.stockHistoryServer;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the estimated heap size of cached histories in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the maximum estimated heap size in bytes
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of cached histories
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return StockHistoryCache.class.getName() + "[count=" + entries.size() + ",size=" + size + ",capacity=" + capacity + ",hits=" + hits + ",misses=" + misses + ",evictions=" + evictions + "]";
+    }
+
+    // Estimated heap size of the given history. Mapped histories keep only
+    // their timestamps in heap. Views cost as much as the history they view,
+    // as they keep it reachable.
+    static long estimateBytes(StockHistoryServer stockHistoryServer) {
+        if (stockHistoryServer instanceof DurationStockHistoryServer) {
+            return estimateBytes(((DurationStockHistoryServer)stockHistoryServer).getStockHistoryServer());
+        }
+        final long bytesPerStock = (stockHistoryServer instanceof MappedStockHistoryServer) ? MAPPED_BYTES_PER_STOCK : BYTES_PER_STOCK;
+        return OVERHEAD + stockHistoryServer.size() * bytesPerStock;
+    }
+
+    private static class Entry {
+        public Entry(StockHistoryServer stockHistoryServer, long bytes) {
+            this.stockHistoryServer = stockHistoryServer;
+            this.bytes = bytes;
+        }
+        public final StockHistoryServer stockHistoryServer;
+        public final long bytes;
+    }
+
+    // Access ordered. Eldest is the least recently used.
+    private final LinkedHashMap<Code, Entry> entries = new LinkedHashMap<Code, Entry>(16, 0.75f, true);
+    private final long capacity;
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    // Timestamp, open, high, low, close and volume.
+    private static final long BYTES_PER_STOCK = 6 * 8;
+    // Timestamp only.
+    private static final long MAPPED_BYTES_PER_STOCK = 8;
+    // Objects and array headers.
+    private static final long OVERHEAD = 256;
+}
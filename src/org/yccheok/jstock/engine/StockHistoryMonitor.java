@@ -32,20 +32,27 @@ public class StockHistoryMonitor extends Subject<StockHistoryMonitor, StockHisto
     
     /** Creates a new instance of StockHistoryMonitor */
     public StockHistoryMonitor(int nThreads) {
-        // Default database size is 10.
-        this(nThreads, 10);
+        this(nThreads, DEFAULT_CACHE_CAPACITY);
     }
 
-    public StockHistoryMonitor(int nThreads, int databaseSize) {
+    /**
+     * Creates a new instance of StockHistoryMonitor.
+     * 
+     * @param nThreads number of threads to fetch histories
+     * @param cacheCapacity maximum estimated heap size in bytes, of histories
+     * which are kept in memory
+     */
+    public StockHistoryMonitor(int nThreads, long cacheCapacity) {
         pool = Executors.newFixedThreadPool(nThreads);
         
         readWriteLock = new java.util.concurrent.locks.ReentrantReadWriteLock();
         readerLock = readWriteLock.readLock();
         writerLock = readWriteLock.writeLock();
         
-        this.DATABASE_SIZE = databaseSize;
+        this.histories = new StockHistoryCache(cacheCapacity);
         
         this.stockHistorySerializer = null;
+        this.stockHistoryService = new StockHistoryService(null);
     }
     
     public void setStockServerFactories(java.util.List<StockServerFactory> factories) {
@@ -130,77 +137,29 @@ public class StockHistoryMonitor extends Subject<StockHistoryMonitor, StockHisto
         
         @Override
         public void run() {
-            final Thread currentThread = Thread.currentThread();
+            final StockHistoryService _stockHistoryService = stockHistoryService;
             
-            for (StockServerFactory factory : factories) {
-                // Do not apply ExecutorService.isShutDown technique, to quit
-                // from this loop. This is because pool variable isn't final.
-                // We might be referring to the wrong pool. But checking for
-                // Thread.isInterrupted isn't fool proof either, as the
-                // interrupted flag might be cleared by other funtions. Fixing
-                // this might be complicated. Till now, it hasn't gave us any
-                // trouble. Hence, don't fix it if it isn't broken.
-                if (currentThread.isInterrupted()) {
-                    break;
-                }
-
-                StockHistoryServer history = factory.getStockHistoryServer(this.code, duration);
-
-                if (history != null) {
-                    readerLock.lock();
-
-                    try {
-                        // Anyone try to stop us from publishing this history?
-                        if (stockCodes.contains(code)) {
-                            this.historyServer = history;
-
-                            // Concurrent access problem may happen here. Two or more threads may read
-                            // and modify histories. Although we can use new reader/writer lock pair to prevent,
-                            // this will increase complexity.
-                            //
-                            // Hence, We choose to use "Double-Checked Locking", to avoid expensive of synchronized block.
-                            //
-                            // However, "Double-Checked Locking" is not guarantee to work well. Please refer to
-                            // http://www.ibm.com/developerworks/java/library/j-jtp02244.html
-                            // http://www.ibm.com/developerworks/library/j-jtp03304/
-                            //
-                            // Any how, we allow error tolerance here.
-                            // The worst case is that, histories.size() >= StockHistoryMonitor.this.databaseSize.
-                            // But that doesn't really matter.
-                            //
-                            boolean shouldUseSerializer = false;
-
-                            if (histories.size() < StockHistoryMonitor.this.DATABASE_SIZE) {
-                                synchronized (histories) {
-                                    if(histories.size() < StockHistoryMonitor.this.DATABASE_SIZE) {
-                                        histories.put(code, history);
-                                    }
-                                    else {
-                                        shouldUseSerializer = true;
-                                    }
-                                }
-                            }
-                            else {
-                                shouldUseSerializer = true;
-                            }
-
-                            if (shouldUseSerializer) {
-                                if(StockHistoryMonitor.this.stockHistorySerializer != null) {
-                                    StockHistoryMonitor.this.stockHistorySerializer.save(history, duration);
-                                }
-                                else {
-                                    log.error("Fail to perform serialization on stock history due to uninitialized serialization component.");
-                                }
-                            }
-                        }
-                    } finally {
-                        readerLock.unlock();
+            // If the same code is being fetched by another monitor, which
+            // shares the same service, we will wait for its result.
+            final StockHistoryServer history = _stockHistoryService.getStockHistoryServer(this.code, duration, factories, hedger);
+            
+            if (history != null) {
+                readerLock.lock();
+
+                try {
+                    // Anyone try to stop us from publishing this history?
+                    if (stockCodes.contains(code)) {
+                        this.historyServer = history;
+
+                        // Least recently used histories are evicted. They
+                        // will be loaded from disk, which is already up to
+                        // date.
+                        histories.put(code, history);
                     }
-                    
-                    // Break from loop, as we already obtain the history.
-                    break;
-                }   // if (history != null)
-            }   // for
+                } finally {
+                    readerLock.unlock();
+                }
+            }   // if (history != null)
             
             // We need to notify the listener. Whether the history is success or
             // fail.
@@ -294,45 +253,34 @@ public class StockHistoryMonitor extends Subject<StockHistoryMonitor, StockHisto
         readerLock.lock();
 
         try {
-            if (histories.containsKey(code))
-            {
-                final StockHistoryServer stockHistoryServer = histories.get(code);
-
+            final StockHistoryServer stockHistoryServer = histories.get(code);
+            if (stockHistoryServer != null) {
                 return stockHistoryServer;
             }
-            else {
-                final StockHistorySerializer shs = StockHistoryMonitor.this.stockHistorySerializer;
-                if (shs != null) {
-                    StockHistoryServer stockHistoryServer = shs.load(code, duration);
-
-                    /* So that next time we won't read from the disk. */
-                    if (stockHistoryServer != null && (this.DATABASE_SIZE > histories.size())) {
-                        // Concurrent access problem may happen here. Two or more threads may read
-                        // and modify histories. Although we can use new reader/writer lock pair to prevent,
-                        // this will increase complexity.
-                        //
-                        // Hence, We choose to use "Double-Checked Locking", to avoid expensive of synchronized block.
-                        //
-                        // However, "Double-Checked Locking" is not guarantee to work well. Please refer to
-                        // http://www.ibm.com/developerworks/java/library/j-jtp02244.html
-                        // http://www.ibm.com/developerworks/library/j-jtp03304/
-                        //
-                        // Any how, we allow error tolerance here.
-                        // The worst case is that, histories.size() >= StockHistoryMonitor.this.databaseSize.
-                        // But that doesn't really matter.
-                        //
-                        synchronized (histories) {
-                            if(stockHistoryServer != null && (this.DATABASE_SIZE > histories.size())) {
-                                histories.put(code, stockHistoryServer);
-                            }
-                        }
-                    }
-
-                    return stockHistoryServer;
+            
+            final StockHistorySerializer shs = StockHistoryMonitor.this.stockHistorySerializer;
+            if (shs != null) {
+                final MappedStockHistoryServer mapped = shs.load(code);
+                
+                // A cache which lacks recent trading days is a miss. Caller
+                // will then go through addStockCode, which fetches only the
+                // missing days.
+                if (mapped == null || StockHistoryService.isTailMissing(mapped.getDuration(), duration)) {
+                    return null;
                 }
-                else {
-                    log.error("Fail to retrieve stock history due to uninitialized serialization component.");
+                
+                final StockHistoryServer cached = DurationStockHistoryServer.newInstance(mapped, duration);
+                if (cached.size() == 0) {
+                    return null;
                 }
+
+                /* So that next time we won't read from the disk. */
+                histories.put(code, cached);
+
+                return cached;
+            }
+            else {
+                log.error("Fail to retrieve stock history due to uninitialized serialization component.");
             }
 
             return null;
@@ -341,10 +289,53 @@ public class StockHistoryMonitor extends Subject<StockHistoryMonitor, StockHisto
         }
     }
     
+    /**
+     * Returns in memory cache of stock histories. This is for monitoring its
+     * statistics.
+     * 
+     * @return in memory cache of stock histories
+     */
+    public StockHistoryCache getStockHistoryCache() {
+        return histories;
+    }
+    
+    /**
+     * Sets the hedger, which is used to send requests to stock server
+     * factories in hedged way. null to try the factories strictly in
+     * sequence.
+     * 
+     * @param hedger the hedger. May be null
+     */
+    public void setHedger(Hedger hedger) {
+        this.hedger = hedger;
+    }
+    
+    /**
+     * Sets the disk cache of stock histories. Histories will be fetched
+     * through a service, which is private to this monitor.
+     * 
+     * @param stockHistorySerializer the disk cache of stock histories
+     */
     public void setStockHistorySerializer(StockHistorySerializer stockHistorySerializer) {
+        this.stockHistoryService = new StockHistoryService(stockHistorySerializer);
         this.stockHistorySerializer = stockHistorySerializer;
     }
     
+    /**
+     * Sets the stock history service, which may be shared among monitors, so
+     * that the same code is never fetched by more than one monitor at the
+     * same time. Its disk cache becomes the disk cache of this monitor.
+     * 
+     * @param stockHistoryService the stock history service
+     */
+    public void setStockHistoryService(StockHistoryService stockHistoryService) {
+        if (stockHistoryService == null) {
+            throw new IllegalArgumentException("stockHistoryService cannot be null");
+        }
+        this.stockHistoryService = stockHistoryService;
+        this.stockHistorySerializer = stockHistoryService.getStockHistorySerializer();
+    }
+    
     // Never export out stockCodes information. They are being used internally.
     
     public void stop() {
@@ -384,22 +375,27 @@ public class StockHistoryMonitor extends Subject<StockHistoryMonitor, StockHisto
     // The purpose of stockCodes, is to ensure there are no 2 StockHistoryRunnable
     // with same codes in the queue.
     private final java.util.List<Code> stockCodes = new java.util.ArrayList<Code>();
-    private final java.util.Map<Code, StockHistoryServer> histories = new java.util.HashMap<Code, StockHistoryServer>();
+    private final StockHistoryCache histories;
     private final java.util.concurrent.locks.ReadWriteLock readWriteLock;
     private final java.util.concurrent.locks.Lock readerLock;
     private final java.util.concurrent.locks.Lock writerLock;
     
     private Executor pool;
     
-    // Prevent out of memory problem.
-    private final int DATABASE_SIZE;
+    private volatile StockHistorySerializer stockHistorySerializer;
     
-    private StockHistorySerializer stockHistorySerializer;
+    private volatile StockHistoryService stockHistoryService;
+
+    private volatile Hedger hedger = null;
 
     // This one is a mutable member. We just want to make our life easier. We
     // want to avoid stopping and creating a new StockHistoryMonitor, just
     // to make change on duration.
     private volatile Duration duration = Duration.getTodayDurationByYears(10);
 
+    // Prevent out of memory problem. Roughly 200 histories of 10 years, if
+    // they are not memory mapped.
+    private static final long DEFAULT_CACHE_CAPACITY = 32L * 1024 * 1024;
+    
     private static final Log log = LogFactory.getLog(StockHistoryMonitor.class);     
 }
@@ -0,0 +1,255 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Warms the disk cache of stock histories in background, so that the first
+ * chart or indicator simulation of a code needn't wait for a cold download.
+ * Codes are prefetched shortly after start, and again after every market
+ * close. Prefetching runs in a single low priority thread, one code at a
+ * time, with requests to every stock server factory spaced out. It can be
+ * paused, while the user is doing something network intensive.
+ *
+ * Prefetching goes through StockHistoryService. If a monitor requests a code
+ * which is being prefetched, it will join the prefetch instead of downloading
+ * again.
+ *
+ * @author yccheok
+ */
+public class StockHistoryPrefetcher {
+
+    /**
+     * Provides codes to be prefetched. It is called in prefetcher's thread.
+     */
+    public interface Source {
+        /**
+         * @return codes to be prefetched
+         */
+        public List<Code> getCodes();
+    }
+
+    /**
+     * Creates a new instance of StockHistoryPrefetcher.
+     *
+     * @param stockHistoryService the stock history service
+     * @param source provides codes to be prefetched
+     * @param interval minimum interval in ms, between two requests to the
+     * same stock server factory
+     */
+    public StockHistoryPrefetcher(StockHistoryService stockHistoryService, Source source, long interval) {
+        if (stockHistoryService == null || source == null) {
+            throw new IllegalArgumentException("stockHistoryService and source cannot be null");
+        }
+        this.stockHistoryService = stockHistoryService;
+        this.source = source;
+        this.rateLimiter = new RateLimiter(interval);
+    }
+
+    public void setStockServerFactories(List<StockServerFactory> factories) {
+        this.factories = factories;
+    }
+
+    public void setHedger(Hedger hedger) {
+        this.hedger = hedger;
+    }
+
+    /**
+     * Sets number of years of history to be prefetched, till today. Today is
+     * taken when every code is prefetched, so that new days are fetched in a
+     * long running session.
+     *
+     * @param historyDuration number of years of history
+     */
+    public void setHistoryDuration(int historyDuration) {
+        if (historyDuration <= 0) {
+            throw new IllegalArgumentException("historyDuration must be greater than 0");
+        }
+        this.historyDuration = historyDuration;
+    }
+
+    /**
+     * Sets the trading session, whose close triggers the next prefetch. null
+     * to prefetch once a day.
+     *
+     * @param tradingSession the trading session. May be null
+     */
+    public void setTradingSession(TradingSession tradingSession) {
+        this.tradingSession = tradingSession;
+    }
+
+    /**
+     * Starts prefetching after the given delay, and after every market close.
+     *
+     * @param delay delay in ms, before the first prefetch
+     */
+    public void start(long delay) {
+        schedule(delay);
+    }
+
+    /**
+     * Stops prefetching. The code being prefetched will be abandoned. This
+     * prefetcher shouldn't be used any more after this call.
+     */
+    public void stop() {
+        synchronized (lock) {
+            isStopped = true;
+            lock.notifyAll();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Pauses prefetching, after the code being prefetched.
+     */
+    public void pause() {
+        synchronized (lock) {
+            isPaused = true;
+        }
+    }
+
+    /**
+     * Resumes prefetching.
+     */
+    public void resume() {
+        synchronized (lock) {
+            isPaused = false;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (lock) {
+            return isPaused;
+        }
+    }
+
+    /**
+     * @return number of codes which had been prefetched successfully
+     */
+    public long getPrefetchCount() {
+        return prefetched;
+    }
+
+    private void schedule(long delay) {
+        try {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    prefetch();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (java.util.concurrent.RejectedExecutionException exp) {
+            // Being stopped.
+            log.info("Prefetcher is stopped");
+        }
+    }
+
+    // Blocks while being paused. Returns false if being stopped.
+    private boolean awaitResume() {
+        synchronized (lock) {
+            while (isPaused && isStopped == false) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException exp) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return isStopped == false;
+        }
+    }
+
+    private void prefetch() {
+        final Thread currentThread = Thread.currentThread();
+        try {
+            final List<Code> codes = source.getCodes();
+            for (Code code : codes) {
+                if (awaitResume() == false || currentThread.isInterrupted()) {
+                    return;
+                }
+                // Duration is computed every time, as it might be changed
+                // halfway, and today moves on in a long running session.
+                final Duration duration = Duration.getTodayDurationByYears(historyDuration);
+                final StockHistoryServer stockHistoryServer = stockHistoryService.getStockHistoryServer(code, duration, factories, hedger, rateLimiter);
+                if (stockHistoryServer != null) {
+                    prefetched++;
+                }
+            }
+        } catch (Exception exp) {
+            // Never let the exception stop next prefetch.
+            log.error(null, exp);
+        } finally {
+            if (currentThread.isInterrupted() == false) {
+                schedule(getNextDelay(System.currentTimeMillis()));
+            }
+        }
+    }
+
+    // Delay till the next market close. Once a day if the market is unknown.
+    private long getNextDelay(long time) {
+        final TradingSession _tradingSession = tradingSession;
+        if (_tradingSession == null) {
+            return DAY;
+        }
+        final long nextClose = _tradingSession.getNextClose(time);
+        if (nextClose == Long.MAX_VALUE) {
+            return DAY;
+        }
+        return nextClose - time;
+    }
+
+    private final StockHistoryService stockHistoryService;
+    private final Source source;
+    private final RateLimiter rateLimiter;
+    private final Object lock = new Object();
+    private boolean isPaused = false;
+    private boolean isStopped = false;
+    // Only modified by prefetcher's thread.
+    private volatile long prefetched = 0;
+
+    private volatile List<StockServerFactory> factories = new java.util.concurrent.CopyOnWriteArrayList<StockServerFactory>();
+    private volatile Hedger hedger = null;
+    private volatile TradingSession tradingSession = null;
+    private volatile int historyDuration = 10;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "StockHistoryPrefetcher");
+            thread.setDaemon(true);
+            // Never compete with what the user is waiting for.
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static final Log log = LogFactory.getLog(StockHistoryPrefetcher.class);
+}
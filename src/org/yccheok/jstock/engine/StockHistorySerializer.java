@@ -19,13 +19,16 @@
 
 package org.yccheok.jstock.engine;
 
-import java.io.*;
-import java.text.DecimalFormat;
-
-import org.yccheok.jstock.file.Statements;
+import java.io.File;
+import java.util.Calendar;
 
 
 /**
+ * Caches stock histories on disk, one file per code. Histories are saved in
+ * binary columnar format, and memory mapped through MappedStockHistoryServer
+ * when loaded. Every file records the duration it covers, so that only the
+ * missing days need to be fetched and merged, and any duration within can be
+ * served as a view.
  *
  * @author yccheok
  */
@@ -38,6 +41,14 @@ public class StockHistorySerializer {
         this.directory = directory;
     }
 
+    /**
+     * Saves the given stock history, which covers the given duration. Any
+     * previously cached stock history of the same code is replaced.
+     *
+     * @param stockHistoryServer the stock history
+     * @param duration the duration covered by the stock history
+     * @return true if success
+     */
     public boolean save(StockHistoryServer stockHistoryServer, Duration duration)
     {
         // If the history server doesn't contain any information, return early.
@@ -45,37 +56,125 @@ public class StockHistorySerializer {
             return false;
         }
         
-        final long timestamp = stockHistoryServer.getTimestamp(0);
-        final Code code = stockHistoryServer.getStock(timestamp).code;
-        final Statements statements = Statements.newInstanceFromStockHistoryServer(stockHistoryServer, true);
-        final File file = new File(getFileName(code, duration));
-        return statements.saveAsCSVFile(file);
+        final Code code = stockHistoryServer.getStockAt(0).code;
+        return MappedStockHistoryServer.save(stockHistoryServer, duration, getFile(code));
+    }
+
+    /**
+     * Merges the given stock history, which covers the given duration, into
+     * the cached stock history of the same code. Stocks of the given stock
+     * history take precedence.
+     *
+     * @param stockHistoryServer the stock history
+     * @param duration the duration covered by the stock history
+     * @return the merged stock history, or null if fail
+     */
+    public MappedStockHistoryServer merge(StockHistoryServer stockHistoryServer, Duration duration)
+    {
+        if (stockHistoryServer.size() == 0) {
+            return null;
+        }
+        
+        final Code code = stockHistoryServer.getStockAt(0).code;
+        final MappedStockHistoryServer cached = load(code);
+        final File file = getFile(code);
+        
+        if (cached == null || cached.getDuration().getEndDate().compareTo(duration.getStartDate()) < 0 || cached.getDuration().getStartDate().compareTo(duration.getEndDate()) > 0) {
+            // Disjoint durations cannot be merged, as there would be a gap in
+            // between.
+            if (MappedStockHistoryServer.save(stockHistoryServer, duration, file) == false) {
+                return null;
+            }
+            return MappedStockHistoryServer.newInstance(file);
+        }
+        
+        final ArrayStockHistoryServer merged = merge(cached, stockHistoryServer, duration);
+        
+        if (MappedStockHistoryServer.save(merged, cached.getDuration().getUnionDuration(duration), file) == false) {
+            return null;
+        }
+        return MappedStockHistoryServer.newInstance(file);
     }
     
+    /**
+     * Loads the cached stock history of the given code.
+     *
+     * @param code the code
+     * @return the cached stock history, or null if not found
+     */
+    public MappedStockHistoryServer load(Code code)
+    {
+        return MappedStockHistoryServer.newInstance(getFile(code));
+    }
+    
+    /**
+     * Loads the cached stock history of the given code, within the given
+     * duration.
+     *
+     * @param code the code
+     * @param duration the duration
+     * @return the cached stock history within the duration, or null if not
+     * found
+     */
     public StockHistoryServer load(Code code, Duration duration)
     {
-        final File file = new File(getFileName(code, duration));
-        final Statements statements = Statements.newInstanceFromCSVFile(file);
-        return StatementsStockHistoryServer.newInstance(statements);
+        final MappedStockHistoryServer stockHistoryServer = load(code);
+        if (stockHistoryServer == null) {
+            return null;
+        }
+        final StockHistoryServer view = DurationStockHistoryServer.newInstance(stockHistoryServer, duration);
+        if (view.size() == 0) {
+            return null;
+        }
+        return view;
     }
     
-    private String getFileName(Code code, Duration duration) {
-        final int startYear = duration.getStartDate().getYear();
-        // +1, as we prefer based 1 month, for readability.
-        final int startMonth = duration.getStartDate().getMonth() + 1;
-        final int startDay = duration.getStartDate().getDate();
-        final int endYear = duration.getEndDate().getYear();
-        final int endMonth = duration.getEndDate().getMonth() + 1;
-        final int endDay = duration.getEndDate().getDate();
-
-        DecimalFormat decimalFormat = new DecimalFormat("00");
-
-        final String fileName = directory + File.separator + code + 
-                "-start_date=" + startYear + "-" + decimalFormat.format(startMonth) + "-" + decimalFormat.format(startDay) +
-                "-end_date=" + endYear + "-" + decimalFormat.format(endMonth) + "-" + decimalFormat.format(endDay) +
-                ".csv";
-
-        return fileName;
+    /**
+     * @return the directory where stock histories are cached
+     */
+    public String getDirectory() {
+        return directory;
+    }
+    
+    private File getFile(Code code) {
+        return new File(directory + File.separator + code + ".hist");
+    }
+    
+    /**
+     * Merges the given stock history, which covers the given duration, into
+     * the cached stock history in memory. Stocks of the given stock history
+     * take precedence. Both must be of the same code, the stock history must
+     * not be empty, and the duration must
+     * not be disjoint from the cached one. Else, there would be a gap.
+     *
+     * @param cached the cached stock history
+     * @param stockHistoryServer the stock history
+     * @param duration the duration covered by the stock history
+     * @return the merged stock history
+     */
+    static ArrayStockHistoryServer merge(MappedStockHistoryServer cached, StockHistoryServer stockHistoryServer, Duration duration) {
+        // Cached stocks outside the duration, and fetched stocks within the
+        // duration.
+        final int head = DurationStockHistoryServer.lowerBound(cached, duration.getStartDate().getCalendar().getTimeInMillis());
+        final Calendar calendar = duration.getEndDate().getCalendar();
+        calendar.add(Calendar.DATE, 1);
+        final int tail = DurationStockHistoryServer.lowerBound(cached, calendar.getTimeInMillis());
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(stockHistoryServer.getStockAt(0).code);
+        add(builder, cached, 0, head);
+        add(builder, stockHistoryServer, 0, stockHistoryServer.size());
+        add(builder, cached, tail, cached.size());
+        final long sharesIssued = stockHistoryServer.getSharesIssued();
+        final long marketCapital = stockHistoryServer.getMarketCapital();
+        builder.sharesIssued(sharesIssued != 0 ? sharesIssued : cached.getSharesIssued());
+        builder.marketCapital(marketCapital != 0 ? marketCapital : cached.getMarketCapital());
+        return builder.build();
+    }
+    
+    private static void add(ArrayStockHistoryServer.Builder builder, StockHistoryServer stockHistoryServer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            final Stock stock = stockHistoryServer.getStockAt(i);
+            builder.add(stockHistoryServer.getTimestamp(i), stock.getOpenPrice(), stock.getHighPrice(), stock.getLowPrice(), stock.getLastPrice(), stock.getVolume());
+        }
     }
     
     private final String directory;     
@@ -31,6 +31,45 @@ public interface StockHistoryServer {
     public long getTimestamp(int index);
     public int size();
     
+    // Timestamps are in ascending order. Index based accessors avoid looking
+    // up stock by timestamp.
+    
+    /**
+     * Returns stock at the given index.
+     *
+     * @param index index of the stock, from 0 to size() - 1
+     * @return stock at the given index
+     */
+    public Stock getStockAt(int index);
+    
+    /**
+     * Returns index of the latest stock, whose timestamp is less than or
+     * equal to the given timestamp.
+     *
+     * @param timestamp the timestamp
+     * @return index of the stock, or -1 if there is no such stock
+     */
+    public int floorIndex(long timestamp);
+    
+    /**
+     * Returns index of the earliest stock, whose timestamp is greater than or
+     * equal to the given timestamp.
+     *
+     * @param timestamp the timestamp
+     * @return index of the stock, or -1 if there is no such stock
+     */
+    public int ceilingIndex(long timestamp);
+    
+    /**
+     * Returns close prices of stocks from index from (inclusive) to index to
+     * (exclusive).
+     *
+     * @param from index of the first stock, inclusive
+     * @param to index of the last stock, exclusive
+     * @return close prices, oldest first
+     */
+    public double[] closes(int from, int to);
+    
     // Currently, we didn't see the need for sharesIssued and marketCapital to
     // become the member variables of Stock. In order to avoid memory hungry
     // monster and difficulty in constructing Stock, we will move the
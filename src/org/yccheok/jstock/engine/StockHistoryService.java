@@ -0,0 +1,358 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A process wide stock history service, which can be shared by several stock
+ * history monitors. Concurrent requests for the same code are coalesced into
+ * a single in flight fetch. Late callers wait for its result, instead of
+ * starting another identical download. Every fetch covers the widest duration
+ * ever requested for the code. Hence, narrower durations are served as views
+ * of it.
+ *
+ * The fetch runs in the thread of the first caller. No thread is owned by this
+ * service.
+ *
+ * @author yccheok
+ */
+public class StockHistoryService {
+
+    /**
+     * Creates a new instance of StockHistoryService.
+     *
+     * @param stockHistorySerializer the disk cache of stock histories. May be
+     * null, if stock histories shouldn't be cached on disk
+     */
+    public StockHistoryService(StockHistorySerializer stockHistorySerializer) {
+        this.stockHistorySerializer = stockHistorySerializer;
+    }
+
+    /**
+     * Returns stock history of the given code, within the given duration. If
+     * the same code is being fetched, by any caller of this service, and its
+     * duration covers the given duration, this call waits for it instead of
+     * fetching again.
+     *
+     * @param code the code
+     * @param duration the duration
+     * @param factories stock server factories, to be tried in order of their
+     * health
+     * @param hedger the hedger, to send requests in hedged way. May be null
+     * @return stock history within the given duration, or null if fail
+     */
+    public StockHistoryServer getStockHistoryServer(Code code, Duration duration, List<StockServerFactory> factories, Hedger hedger) {
+        return getStockHistoryServer(code, duration, factories, hedger, null);
+    }
+
+    /**
+     * Returns stock history of the given code, within the given duration.
+     * Requests to every factory are spaced out by the given rate limiter, if
+     * the fetch is started by this call.
+     *
+     * @param code the code
+     * @param duration the duration
+     * @param factories stock server factories, to be tried in order of their
+     * health
+     * @param hedger the hedger, to send requests in hedged way. May be null
+     * @param rateLimiter the rate limiter. May be null
+     * @return stock history within the given duration, or null if fail
+     * @see #getStockHistoryServer(Code, Duration, List, Hedger)
+     */
+    public StockHistoryServer getStockHistoryServer(final Code code, Duration duration, final List<StockServerFactory> factories, final Hedger hedger, final RateLimiter rateLimiter) {
+        while (true) {
+            final Flight flight = flights.get(code);
+            if (flight != null) {
+                final StockHistoryServer stockHistoryServer = await(flight);
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                if (flight.isCancelled == false && flight.duration.isContains(duration)) {
+                    coalesced.incrementAndGet();
+                    return getView(stockHistoryServer, duration);
+                }
+                // The in flight fetch is too narrow, or its owner had been
+                // cancelled halfway. Fetch again. It will be fast, as the disk
+                // cache has been topped up.
+                continue;
+            }
+
+            final Duration widestDuration = widestDurations.get(code);
+            final Duration fetchDuration = widestDuration == null ? duration : widestDuration.getUnionDuration(duration);
+            final Flight newFlight = new Flight(fetchDuration, new Callable<StockHistoryServer>() {
+                @Override
+                public StockHistoryServer call() {
+                    return fetch(code, fetchDuration, factories, hedger, rateLimiter);
+                }
+            });
+            if (flights.putIfAbsent(code, newFlight) != null) {
+                // Someone else is faster than us. Join it.
+                continue;
+            }
+
+            try {
+                newFlight.run();
+            } finally {
+                flights.remove(code, newFlight);
+            }
+            final StockHistoryServer stockHistoryServer = await(newFlight);
+            if (stockHistoryServer != null) {
+                widestDurations.put(code, fetchDuration);
+            }
+            fetched.incrementAndGet();
+            return getView(stockHistoryServer, duration);
+        }
+    }
+
+    /**
+     * @return the disk cache of stock histories. May be null
+     */
+    public StockHistorySerializer getStockHistorySerializer() {
+        return stockHistorySerializer;
+    }
+
+    /**
+     * @return number of requests, which started their own fetch
+     */
+    public long getFetchCount() {
+        return fetched.get();
+    }
+
+    /**
+     * @return number of requests, which were served by another request's
+     * fetch
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    @Override
+    public String toString() {
+        return StockHistoryService.class.getName() + "[inFlight=" + flights.size() + ",fetched=" + fetched + ",coalesced=" + coalesced + "]";
+    }
+
+    // Returns the result of the given in flight fetch, or null if it fails,
+    // or if we are interrupted while waiting.
+    private static StockHistoryServer await(Flight flight) {
+        try {
+            return flight.get();
+        } catch (InterruptedException exp) {
+            // Being cancelled. Let the caller know.
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exp) {
+            log.error(null, exp);
+        }
+        return null;
+    }
+
+    private static StockHistoryServer getView(StockHistoryServer stockHistoryServer, Duration duration) {
+        if (stockHistoryServer == null) {
+            return null;
+        }
+        final StockHistoryServer view = DurationStockHistoryServer.newInstance(stockHistoryServer, duration);
+        if (view.size() == 0) {
+            return null;
+        }
+        return view;
+    }
+
+    // Retrieves stock history from the factory, and records the health of its
+    // stock history server.
+    private static StockHistoryServer fetchStockHistoryServer(StockServerFactory factory, Code code, Duration duration, RateLimiter rateLimiter) {
+        if (rateLimiter != null) {
+            try {
+                rateLimiter.acquire(factory);
+            } catch (InterruptedException exp) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        final long transportFailureCount = HttpTransport.INSTANCE.getTransportFailureCount();
+        final long start = System.currentTimeMillis();
+        final StockHistoryServer history = factory.getStockHistoryServer(code, duration);
+        final long latency = System.currentTimeMillis() - start;
+        if (history != null) {
+            ServerHealth.INSTANCE.success(factory, ServerHealth.Type.StockHistoryServer, latency);
+        } else if (Thread.currentThread().isInterrupted() == false) {
+            // Being cancelled isn't server's fault. Neither are unknown codes,
+            // nor durations without any trading day.
+            ServerHealth.INSTANCE.failure(factory, ServerHealth.Type.StockHistoryServer, latency, transportFailureCount);
+        }
+        return history;
+    }
+
+    // Returns the duration which must be fetched, so that the cached history
+    // covers the requested duration, or null if nothing is missing. The last
+    // cached day is fetched again along with the missing tail, as it might
+    // be still in progress. Gaps without any trading day are never fetched,
+    // as servers have nothing to return for them.
+    static Duration getMissingDuration(MappedStockHistoryServer cached, Duration duration) {
+        if (cached == null) {
+            return duration;
+        }
+        final SimpleDate cachedStart = cached.getDuration().getStartDate();
+        final SimpleDate cachedEnd = cached.getDuration().getEndDate();
+        final SimpleDate start = duration.getStartDate();
+        final SimpleDate end = duration.getEndDate();
+
+        if (end.compareTo(cachedStart) < 0 || start.compareTo(cachedEnd) > 0) {
+            return duration;
+        }
+        final boolean isHeadMissing = start.compareTo(cachedStart) < 0 && hasTradingDay(start, addDays(cachedStart, -1));
+        final boolean isTailMissing = isTailMissing(cached.getDuration(), duration);
+        if (isHeadMissing && isTailMissing) {
+            return duration;
+        }
+        if (isHeadMissing) {
+            return new Duration(start, cachedStart);
+        }
+        if (isTailMissing) {
+            return new Duration(cachedEnd, end);
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the cached duration lacks any trading day, at the end
+     * of the given duration. Days after today are never missing.
+     *
+     * @param cachedDuration duration covered by the cached history
+     * @param duration the requested duration
+     * @return true if the cached duration lacks any trading day at the end
+     */
+    static boolean isTailMissing(Duration cachedDuration, Duration duration) {
+        final SimpleDate cachedEnd = cachedDuration.getEndDate();
+        final SimpleDate end = duration.getEndDate();
+        return end.compareTo(cachedEnd) > 0 && hasTradingDay(addDays(cachedEnd, 1), end);
+    }
+
+    // Returns true if there is any week day within the given dates inclusive,
+    // which is not after today. Public holidays are not known here.
+    private static boolean hasTradingDay(SimpleDate start, SimpleDate end) {
+        final SimpleDate today = new SimpleDate();
+        final long last = (end.compareTo(today) < 0 ? end : today).getCalendar().getTimeInMillis();
+        final Calendar calendar = start.getCalendar();
+        while (calendar.getTimeInMillis() <= last) {
+            final int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+            if (dayOfWeek != Calendar.SATURDAY && dayOfWeek != Calendar.SUNDAY) {
+                return true;
+            }
+            calendar.add(Calendar.DATE, 1);
+        }
+        return false;
+    }
+
+    private static SimpleDate addDays(SimpleDate simpleDate, int days) {
+        final Calendar calendar = simpleDate.getCalendar();
+        calendar.add(Calendar.DATE, days);
+        return new SimpleDate(calendar);
+    }
+
+    // Returns stock history, which covers the given duration, or at least part
+    // of it. Only the days which are missing from the disk cache are fetched.
+    private StockHistoryServer fetch(final Code code, Duration duration, List<StockServerFactory> factories, Hedger hedger, final RateLimiter rateLimiter) {
+        final Thread currentThread = Thread.currentThread();
+        final StockHistorySerializer shs = this.stockHistorySerializer;
+        final List<StockServerFactory> rankedFactories = ServerHealth.INSTANCE.rank(factories, ServerHealth.Type.StockHistoryServer);
+
+        final MappedStockHistoryServer cached = shs != null ? shs.load(code) : null;
+        final Duration missingDuration = getMissingDuration(cached, duration);
+
+        StockHistoryServer fetched = null;
+
+        if (missingDuration != null && hedger != null) {
+            // Hedger will try all the factories for us.
+            fetched = hedger.call(rankedFactories, new Hedger.Request<StockHistoryServer>() {
+                @Override
+                public StockHistoryServer call(StockServerFactory factory) {
+                    return fetchStockHistoryServer(factory, code, missingDuration, rateLimiter);
+                }
+            });
+        } else if (missingDuration != null) {
+            for (StockServerFactory factory : rankedFactories) {
+                if (currentThread.isInterrupted()) {
+                    break;
+                }
+
+                fetched = fetchStockHistoryServer(factory, code, missingDuration, rateLimiter);
+
+                if (fetched != null) {
+                    // Break from loop, as we already obtain the history.
+                    break;
+                }
+            }   // for
+        }
+
+        if (fetched != null && fetched.size() > 0) {
+            final MappedStockHistoryServer merged = shs != null ? shs.merge(fetched, missingDuration) : null;
+            if (merged != null) {
+                return merged;
+            }
+            if (missingDuration == duration) {
+                return fetched;
+            }
+            // Only the missing part is fetched, which touches the cached
+            // duration. Don't drop it, just because it can't be cached.
+            log.error("Fail to cache stock history of " + code + " for " + missingDuration);
+            return StockHistorySerializer.merge(cached, fetched, missingDuration);
+        }
+        // Cache is better than nothing, even if it is not up to date.
+        return cached;
+    }
+
+    private static class Flight extends FutureTask<StockHistoryServer> {
+        public Flight(Duration duration, Callable<StockHistoryServer> callable) {
+            super(callable);
+            this.duration = duration;
+        }
+
+        @Override
+        protected void set(StockHistoryServer stockHistoryServer) {
+            // Runs in owner's thread, before waiting callers are woken up. If
+            // the owner had been cancelled, the result might be incomplete.
+            // Don't let others use it.
+            this.isCancelled = Thread.currentThread().isInterrupted();
+            super.set(stockHistoryServer);
+        }
+
+        public final Duration duration;
+        public volatile boolean isCancelled = false;
+    }
+
+    private final StockHistorySerializer stockHistorySerializer;
+    private final ConcurrentMap<Code, Flight> flights = new ConcurrentHashMap<Code, Flight>();
+    // The widest duration which had been fetched, for every code.
+    private final ConcurrentMap<Code, Duration> widestDurations = new ConcurrentHashMap<Code, Duration>();
+    private final AtomicLong fetched = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+
+    private static final Log log = LogFactory.getLog(StockHistoryService.class);
+}
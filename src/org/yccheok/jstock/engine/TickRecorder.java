@@ -0,0 +1,590 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Records every received quote, into per day segment files. A segment is an
+ * append only log of fixed width records, which is memory mapped in chunks.
+ * Hence, appending a tick is a few absolute puts into a mapped buffer.
+ *
+ * Every record links to the previous record of the same code. Together with
+ * the head record of every code, which is kept in a small index file, ticks
+ * of a code can be read back without scanning the whole segment. If the
+ * index file is missing or stale (for instance, after a crash), it is
+ * rebuilt by scanning the segment once.
+ *
+ * Files of a day, in the given directory :
+ * yyyyMMdd.tick  - header, followed by records
+ * yyyyMMdd.codes - one code per line. Line number is the code id
+ * yyyyMMdd.idx   - head record of every code id
+ *
+ * Ticks which have the same last price, volume and timestamp as the previous
+ * tick of the same code, are not recorded. Files of days older than the
+ * retention period are deleted, whenever a new day's segment is started.
+ *
+ * @author yccheok
+ */
+public class TickRecorder implements Observer<RealTimeStockMonitor, List<Stock>> {
+
+    /**
+     * Creates a new instance of TickRecorder.
+     *
+     * @param directory directory of the segment files. It will be created if
+     * it doesn't exist
+     */
+    public TickRecorder(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets number of days, whose files are kept. Files of older days are
+     * deleted, whenever a new day's segment is started.
+     *
+     * @param retentionDays number of days, whose files are kept. 0 to keep
+     * every day
+     */
+    public synchronized void setRetentionDays(int retentionDays) {
+        if (retentionDays < 0) {
+            throw new IllegalArgumentException("retentionDays : " + retentionDays);
+        }
+        this.retentionDays = retentionDays;
+    }
+
+    @Override
+    public void update(RealTimeStockMonitor subject, List<Stock> stocks) {
+        record(stocks, System.currentTimeMillis());
+    }
+
+    /**
+     * Appends the stocks to the segment of the given time's day.
+     *
+     * @param stocks the stocks
+     * @param time time the stocks are received, in ms
+     */
+    public synchronized void record(List<Stock> stocks, long time) {
+        if (closed) {
+            return;
+        }
+        try {
+            final String day = toDay(time);
+            if (segment == null || segment.day.equals(day) == false) {
+                if (segment != null) {
+                    segment.close();
+                    segment = null;
+                }
+                if (directory.exists() == false && directory.mkdirs() == false) {
+                    throw new IOException("Fail to create " + directory);
+                }
+                segment = new Segment(directory, day, true);
+                deleteOldFiles(time);
+            }
+            for (Stock stock : stocks) {
+                segment.append(stock, time);
+            }
+            segment.flushCount();
+        } catch (IOException exp) {
+            log.error(null, exp);
+        }
+    }
+
+    /**
+     * Returns ticks of the code, which are received within the given time
+     * range.
+     *
+     * @param code the code
+     * @param from start time in ms, inclusive
+     * @param to end time in ms, inclusive
+     * @return ticks in ascending order of receive time. Timestamp of a stock
+     * is its quote timestamp, or receive time if the quote has none
+     */
+    public synchronized List<Stock> read(Code code, long from, long to) {
+        return _read(code, from, to);
+    }
+
+    /**
+     * Returns ticks of all codes, which are received within the given time
+     * range. Segments are scanned sequentially.
+     *
+     * @param from start time in ms, inclusive
+     * @param to end time in ms, inclusive
+     * @return ticks in ascending order of receive time. Timestamp of a stock
+     * is its quote timestamp, or receive time if the quote has none
+     */
+    public synchronized List<Stock> read(long from, long to) {
+        return _read(null, from, to);
+    }
+
+    // Reads ticks of the code, or all codes if code is null.
+    private List<Stock> _read(Code code, long from, long to) {
+        final List<Stock> stocks = new ArrayList<Stock>();
+        if (from > to) {
+            return stocks;
+        }
+        final long fromDay = Long.parseLong(toDay(from));
+        final long toDay = Long.parseLong(toDay(to));
+        final String[] names = directory.list();
+        if (names == null) {
+            return stocks;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (name.endsWith(TICK_EXTENSION) == false) {
+                continue;
+            }
+            final String day = name.substring(0, name.length() - TICK_EXTENSION.length());
+            final long d;
+            try {
+                d = Long.parseLong(day);
+            } catch (NumberFormatException exp) {
+                continue;
+            }
+            if (d < fromDay || d > toDay) {
+                continue;
+            }
+            try {
+                if (segment != null && segment.day.equals(day)) {
+                    segment.read(code, from, to, stocks);
+                } else {
+                    final Segment s = new Segment(directory, day, false);
+                    try {
+                        s.read(code, from, to, stocks);
+                    } finally {
+                        s.close();
+                    }
+                }
+            } catch (IOException exp) {
+                log.error(null, exp);
+            }
+        }
+        return stocks;
+    }
+
+    /**
+     * Seals current segment, by writing its index file. No more tick will be
+     * recorded after this.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (segment != null) {
+            try {
+                segment.close();
+            } catch (IOException exp) {
+                log.error(null, exp);
+            }
+            segment = null;
+        }
+    }
+
+    // Deletes files of days, which are older than the retention period.
+    private void deleteOldFiles(long time) {
+        if (retentionDays <= 0) {
+            return;
+        }
+        final long oldestDay = Long.parseLong(toDay(time - retentionDays * DAY));
+        final String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.endsWith(TICK_EXTENSION) == false && name.endsWith(CODES_EXTENSION) == false && name.endsWith(INDEX_EXTENSION) == false) {
+                continue;
+            }
+            final long d;
+            try {
+                d = Long.parseLong(name.substring(0, name.lastIndexOf('.')));
+            } catch (NumberFormatException exp) {
+                continue;
+            }
+            if (d < oldestDay && new File(directory, name).delete() == false) {
+                log.error("Fail to delete " + name);
+            }
+        }
+    }
+
+    private String toDay(long time) {
+        calendar.setTimeInMillis(time);
+        final long day = calendar.get(Calendar.YEAR) * 10000L + (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DATE);
+        return Long.toString(day);
+    }
+
+    private static class Segment {
+        public Segment(File directory, String day, boolean writable) throws IOException {
+            this.day = day;
+            this.writable = writable;
+            this.tickFile = new File(directory, day + TICK_EXTENSION);
+            this.codesFile = new File(directory, day + CODES_EXTENSION);
+            this.indexFile = new File(directory, day + INDEX_EXTENSION);
+
+            final boolean isNew = (tickFile.exists() == false);
+            this.file = new RandomAccessFile(tickFile, writable ? "rw" : "r");
+            this.channel = file.getChannel();
+            try {
+                if (isNew) {
+                    header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                    header.putInt(MAGIC_OFFSET, MAGIC);
+                    header.putInt(VERSION_OFFSET, VERSION);
+                    header.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+                    header.putLong(COUNT_OFFSET, 0);
+                } else {
+                    if (channel.size() < HEADER_SIZE) {
+                        throw new IOException("Corrupted " + tickFile);
+                    }
+                    header = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                    if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION || header.getInt(RECORD_SIZE_OFFSET) != RECORD_SIZE) {
+                        throw new IOException("Unknown format " + tickFile);
+                    }
+                }
+                // Records beyond the recorded count, if any, are leftover
+                // of an interrupted append.
+                count = (int)Math.min(header.getLong(COUNT_OFFSET), (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+
+                readCodes();
+                if (readIndex() == false) {
+                    rebuildIndex();
+                }
+            } catch (IOException exp) {
+                channel.close();
+                file.close();
+                throw exp;
+            }
+        }
+
+        public void append(Stock stock, long time) throws IOException {
+            Integer id = ids.get(stock.code);
+            if (id == null) {
+                id = addCode(stock.code);
+            }
+            final int head = heads[id];
+            if (head >= 0) {
+                final MappedByteBuffer buffer = getChunk(head);
+                final int position = getPosition(head);
+                if (buffer.getDouble(position + LAST_PRICE) == stock.getLastPrice() && buffer.getLong(position + VOLUME) == stock.getVolume() && buffer.getLong(position + TIMESTAMP) == stock.getTimestamp()) {
+                    // Nothing new.
+                    return;
+                }
+            }
+
+            final int index = count;
+            final MappedByteBuffer buffer = getChunk(index);
+            final int position = getPosition(index);
+            buffer.putLong(position + TIME, time);
+            buffer.putLong(position + TIMESTAMP, stock.getTimestamp());
+            buffer.putInt(position + CODE_ID, id);
+            buffer.putInt(position + PREVIOUS, head);
+            buffer.putDouble(position + LAST_PRICE, stock.getLastPrice());
+            buffer.putDouble(position + OPEN_PRICE, stock.getOpenPrice());
+            buffer.putDouble(position + HIGH_PRICE, stock.getHighPrice());
+            buffer.putDouble(position + LOW_PRICE, stock.getLowPrice());
+            buffer.putDouble(position + PREV_PRICE, stock.getPrevPrice());
+            buffer.putDouble(position + CHANGE_PRICE, stock.getChangePrice());
+            buffer.putDouble(position + CHANGE_PRICE_PERCENTAGE, stock.getChangePricePercentage());
+            buffer.putLong(position + VOLUME, stock.getVolume());
+            buffer.putInt(position + LAST_VOLUME, stock.getLastVolume());
+            heads[id] = index;
+            count++;
+        }
+
+        // Publishes appended records. Called once per batch, rather than once
+        // per record.
+        public void flushCount() {
+            header.putLong(COUNT_OFFSET, count);
+        }
+
+        public void read(Code code, long from, long to, List<Stock> stocks) throws IOException {
+            if (code == null) {
+                scan(from, to, stocks);
+                return;
+            }
+            final Integer id = ids.get(code);
+            if (id == null) {
+                return;
+            }
+            final int start = stocks.size();
+            int index = heads[id];
+            while (index >= 0) {
+                final MappedByteBuffer buffer = getChunk(index);
+                final int position = getPosition(index);
+                final long time = buffer.getLong(position + TIME);
+                if (time < from) {
+                    break;
+                }
+                if (time <= to) {
+                    stocks.add(getStock(code, buffer, position));
+                }
+                index = buffer.getInt(position + PREVIOUS);
+            }
+            // Chain is walked backwards.
+            Collections.reverse(stocks.subList(start, stocks.size()));
+        }
+
+        private void scan(long from, long to, List<Stock> stocks) throws IOException {
+            final int size = codes.size();
+            for (int i = 0; i < count; i++) {
+                final MappedByteBuffer buffer = getChunk(i);
+                final int position = getPosition(i);
+                final long time = buffer.getLong(position + TIME);
+                if (time < from || time > to) {
+                    continue;
+                }
+                final int id = buffer.getInt(position + CODE_ID);
+                if (id < 0 || id >= size) {
+                    continue;
+                }
+                stocks.add(getStock(codes.get(id), buffer, position));
+            }
+        }
+
+        private static Stock getStock(Code code, MappedByteBuffer buffer, int position) {
+            final long timestamp = buffer.getLong(position + TIMESTAMP);
+            return new Stock(
+                code,
+                buffer.getDouble(position + PREV_PRICE),
+                buffer.getDouble(position + OPEN_PRICE),
+                buffer.getDouble(position + LAST_PRICE),
+                buffer.getDouble(position + HIGH_PRICE),
+                buffer.getDouble(position + LOW_PRICE),
+                buffer.getLong(position + VOLUME),
+                buffer.getDouble(position + CHANGE_PRICE),
+                buffer.getDouble(position + CHANGE_PRICE_PERCENTAGE),
+                buffer.getInt(position + LAST_VOLUME),
+                0.0, 0, 0.0, 0, 0.0, 0, 0.0, 0, 0.0, 0, 0.0, 0,
+                timestamp == 0 ? buffer.getLong(position + TIME) : timestamp
+            );
+        }
+
+        public void close() throws IOException {
+            try {
+                if (writable) {
+                    flushCount();
+                    header.force();
+                    for (MappedByteBuffer chunk : chunks) {
+                        chunk.force();
+                    }
+                    if (codesWriter != null) {
+                        codesWriter.close();
+                    }
+                    writeIndex();
+                }
+            } finally {
+                channel.close();
+                file.close();
+            }
+        }
+
+        private MappedByteBuffer getChunk(int index) throws IOException {
+            final int chunk = index / CHUNK_RECORDS;
+            while (chunks.size() <= chunk) {
+                final long position = HEADER_SIZE + (long)chunks.size() * CHUNK_SIZE;
+                if (writable) {
+                    // Mapping beyond the end grows the file.
+                    chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE));
+                } else {
+                    // Read only mapping can't go beyond the end.
+                    final long size = Math.min(CHUNK_SIZE, channel.size() - position);
+                    chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+                }
+            }
+            return chunks.get(chunk);
+        }
+
+        private static int getPosition(int index) {
+            return (index % CHUNK_RECORDS) * RECORD_SIZE;
+        }
+
+        private int addCode(Code code) throws IOException {
+            if (codesWriter == null) {
+                codesWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(codesFile, true), "UTF-8"));
+            }
+            // Code must be durable before any record refers to its id.
+            codesWriter.write(code.toString());
+            codesWriter.write('\n');
+            codesWriter.flush();
+
+            final int id = codes.size();
+            codes.add(code);
+            ids.put(code, id);
+            if (id >= heads.length) {
+                heads = Arrays.copyOf(heads, heads.length << 1);
+            }
+            heads[id] = -1;
+            return id;
+        }
+
+        private void readCodes() throws IOException {
+            Arrays.fill(heads, -1);
+            if (codesFile.exists() == false) {
+                return;
+            }
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(codesFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() == 0) {
+                        continue;
+                    }
+                    final Code code = Code.newInstance(line);
+                    final int id = codes.size();
+                    codes.add(code);
+                    ids.put(code, id);
+                    if (id >= heads.length) {
+                        final int length = heads.length;
+                        heads = Arrays.copyOf(heads, length << 1);
+                        Arrays.fill(heads, length, heads.length, -1);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // Returns false if the index is missing, or doesn't match the segment.
+        private boolean readIndex() throws IOException {
+            if (indexFile.exists() == false) {
+                return false;
+            }
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                final long indexCount = input.readLong();
+                final int size = input.readInt();
+                if (indexCount != count || size != codes.size()) {
+                    return false;
+                }
+                for (int i = 0; i < size; i++) {
+                    heads[i] = input.readInt();
+                }
+                return true;
+            } catch (IOException exp) {
+                log.error(null, exp);
+                return false;
+            } finally {
+                input.close();
+            }
+        }
+
+        private void rebuildIndex() throws IOException {
+            Arrays.fill(heads, -1);
+            final int size = codes.size();
+            for (int i = 0; i < count; i++) {
+                final int id = getChunk(i).getInt(getPosition(i) + CODE_ID);
+                if (id >= 0 && id < size) {
+                    heads[id] = i;
+                }
+            }
+        }
+
+        private void writeIndex() throws IOException {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+            try {
+                output.writeLong(count);
+                output.writeInt(codes.size());
+                for (int i = 0, size = codes.size(); i < size; i++) {
+                    output.writeInt(heads[i]);
+                }
+            } finally {
+                output.close();
+            }
+        }
+
+        public final String day;
+        private final boolean writable;
+        private final File tickFile;
+        private final File codesFile;
+        private final File indexFile;
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private MappedByteBuffer header;
+        private final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+        private int count;
+        private final List<Code> codes = new ArrayList<Code>();
+        private final Map<Code, Integer> ids = new HashMap<Code, Integer>();
+        // Last record of every code id, or -1.
+        private int[] heads = new int[64];
+        private Writer codesWriter = null;
+    }
+
+    private final File directory;
+    private Segment segment = null;
+    private boolean closed = false;
+    private int retentionDays = 0;
+    private final Calendar calendar = Calendar.getInstance();
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private static final String TICK_EXTENSION = ".tick";
+    private static final String CODES_EXTENSION = ".codes";
+    private static final String INDEX_EXTENSION = ".idx";
+
+    // Header.
+    private static final int MAGIC = 0x4A544B31;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int RECORD_SIZE_OFFSET = 8;
+    private static final int COUNT_OFFSET = 16;
+
+    // Record.
+    private static final int TIME = 0;
+    private static final int TIMESTAMP = 8;
+    private static final int CODE_ID = 16;
+    private static final int PREVIOUS = 20;
+    private static final int LAST_PRICE = 24;
+    private static final int OPEN_PRICE = 32;
+    private static final int HIGH_PRICE = 40;
+    private static final int LOW_PRICE = 48;
+    private static final int PREV_PRICE = 56;
+    private static final int CHANGE_PRICE = 64;
+    private static final int CHANGE_PRICE_PERCENTAGE = 72;
+    private static final int VOLUME = 80;
+    private static final int LAST_VOLUME = 88;
+    private static final int RECORD_SIZE = 96;
+
+    // 6MB per chunk.
+    private static final int CHUNK_RECORDS = 65536;
+    private static final long CHUNK_SIZE = (long)CHUNK_RECORDS * RECORD_SIZE;
+
+    private static final Log log = LogFactory.getLog(TickRecorder.class);
+}
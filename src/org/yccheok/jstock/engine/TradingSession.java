@@ -0,0 +1,283 @@
+/*
+ * JStock - Free Stock Market Software
+ * Copyright (C) 2012 Yan Cheng CHEOK <yccheok@yahoo.com>
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Regular trading session of a stock exchange. It is being used by monitors,
+ * to slow down to a heartbeat when the exchange is closed, and to resume at
+ * the next open. Lunch breaks are ignored. Only fixed date holidays are known
+ * by default. Other holidays can be added through addHoliday.
+ *
+ * @author yccheok
+ */
+public class TradingSession {
+
+    /**
+     * Creates a new instance of TradingSession.
+     *
+     * @param timeZone time zone of the exchange
+     * @param open open time, in minutes after midnight. Negative if the
+     * session of a trading day opens on the evening before
+     * @param close close time, in minutes after midnight
+     * @param weekend days of week (Calendar.SUNDAY...) which are not trading
+     * days
+     */
+    public TradingSession(TimeZone timeZone, int open, int close, int... weekend) {
+        // Sessions opening on the evening before are shifted forward, so that
+        // every session lies within a single day.
+        final int offset = Math.max(0, -open);
+        if (open <= -MINUTES_PER_DAY || close + offset > MINUTES_PER_DAY || open >= close) {
+            throw new IllegalArgumentException("open=" + open + ", close=" + close);
+        }
+        this.timeZone = timeZone;
+        this.open = open + offset;
+        this.close = close + offset;
+        this.shift = offset * 60L * 1000L;
+        int mask = 0;
+        for (int day : weekend) {
+            mask |= (1 << day);
+        }
+        this.weekendMask = mask;
+    }
+
+    /**
+     * Returns trading session of the given country's main exchange.
+     *
+     * @param country the country
+     * @return trading session of the given country's main exchange
+     */
+    public static TradingSession get(Country country) {
+        return tradingSessions.get(country);
+    }
+
+    /**
+     * Marks the given date as a holiday, which has no trading session.
+     *
+     * @param year the year
+     * @param month the month, 1 for January
+     * @param date the day of month
+     */
+    public void addHoliday(int year, int month, int date) {
+        holidays.add(year * 10000 + month * 100 + date);
+    }
+
+    /**
+     * Marks the given date as a holiday, which has no trading session, in
+     * every year.
+     *
+     * @param month the month, 1 for January
+     * @param date the day of month
+     */
+    public void addAnnualHoliday(int month, int date) {
+        holidays.add(month * 100 + date);
+    }
+
+    /**
+     * Returns true if the exchange is open at the given time. A short grace
+     * period after close is treated as open, so that delayed quotes and
+     * closing prices can still be picked up.
+     *
+     * @param time the time in ms
+     * @return true if the exchange is open at the given time
+     */
+    public boolean isOpen(long time) {
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(time + shift);
+        final int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        if (isTradingDay(calendar) && minute >= open && minute < close + CLOSE_GRACE) {
+            return true;
+        }
+        // Grace period of the day before might go past midnight.
+        if (minute + MINUTES_PER_DAY < close + CLOSE_GRACE) {
+            calendar.add(Calendar.DATE, -1);
+            return isTradingDay(calendar);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next open time, after the given time.
+     *
+     * @param time the time in ms
+     * @return the next open time in ms, or Long.MAX_VALUE if there is no
+     * trading day in the near future
+     */
+    public long getNextOpen(long time) {
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(time + shift);
+        for (int i = 0; i < MAX_LOOK_AHEAD_DAYS; i++) {
+            if (isTradingDay(calendar)) {
+                final Calendar o = (Calendar)calendar.clone();
+                o.set(Calendar.HOUR_OF_DAY, open / 60);
+                o.set(Calendar.MINUTE, open % 60);
+                o.set(Calendar.SECOND, 0);
+                o.set(Calendar.MILLISECOND, 0);
+                final long openTime = o.getTimeInMillis() - shift;
+                if (openTime > time) {
+                    return openTime;
+                }
+            }
+            calendar.add(Calendar.DATE, 1);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the next close time, after the given time. The grace period
+     * after close is included, so that closing prices are already settled.
+     *
+     * @param time the time in ms
+     * @return the next close time in ms, or Long.MAX_VALUE if there is no
+     * trading day in the near future
+     */
+    public long getNextClose(long time) {
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(time + shift);
+        // Grace period of the day before might go past midnight.
+        calendar.add(Calendar.DATE, -1);
+        for (int i = 0; i <= MAX_LOOK_AHEAD_DAYS; i++) {
+            if (isTradingDay(calendar)) {
+                final int minute = close + CLOSE_GRACE;
+                final Calendar c = (Calendar)calendar.clone();
+                c.set(Calendar.HOUR_OF_DAY, 0);
+                c.set(Calendar.MINUTE, 0);
+                c.set(Calendar.SECOND, 0);
+                c.set(Calendar.MILLISECOND, 0);
+                c.add(Calendar.MINUTE, minute);
+                final long closeTime = c.getTimeInMillis() - shift;
+                if (closeTime > time) {
+                    return closeTime;
+                }
+            }
+            calendar.add(Calendar.DATE, 1);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the delay before next poll. If the exchange is open, the given
+     * delay is returned. Else, a heartbeat delay is returned, which is cut
+     * short at the next open.
+     *
+     * @param time current time in ms
+     * @param delay delay in ms, while the exchange is open
+     * @return the delay in ms before next poll
+     */
+    public long getDelay(long time, long delay) {
+        if (isOpen(time)) {
+            return delay;
+        }
+        final long nextOpen = getNextOpen(time);
+        final long heartbeat = Math.max(delay, HEARTBEAT);
+        if (nextOpen == Long.MAX_VALUE) {
+            return heartbeat;
+        }
+        return Math.max(delay, Math.min(heartbeat, nextOpen - time));
+    }
+
+    private boolean isTradingDay(Calendar calendar) {
+        if ((weekendMask & (1 << calendar.get(Calendar.DAY_OF_WEEK))) != 0) {
+            return false;
+        }
+        final int year = calendar.get(Calendar.YEAR);
+        final int monthDate = (calendar.get(Calendar.MONTH) + 1) * 100 + calendar.get(Calendar.DATE);
+        return holidays.contains(monthDate) == false && holidays.contains(year * 10000 + monthDate) == false;
+    }
+
+    private static TradingSession newTradingSession(String timeZone, int openHour, int openMinute, int closeHour, int closeMinute) {
+        return new TradingSession(TimeZone.getTimeZone(timeZone), openHour * 60 + openMinute, closeHour * 60 + closeMinute, Calendar.SATURDAY, Calendar.SUNDAY);
+    }
+
+    private static void put(Country country, TradingSession tradingSession, boolean isChristmasHoliday) {
+        tradingSession.addAnnualHoliday(1, 1);
+        if (isChristmasHoliday) {
+            tradingSession.addAnnualHoliday(12, 25);
+        }
+        tradingSessions.put(country, tradingSession);
+    }
+
+    /**
+     * Currency exchange market, which trades around the clock from Sunday
+     * 17:00 to Friday 17:00, New York time. The session of every weekday
+     * opens at 17:00 of the day before.
+     */
+    public static final TradingSession FOREX = new TradingSession(TimeZone.getTimeZone("America/New_York"), -7 * 60, 17 * 60, Calendar.SATURDAY, Calendar.SUNDAY);
+
+    private final TimeZone timeZone;
+    // In minutes after midnight, exchange local time, after being shifted.
+    private final int open;
+    private final int close;
+    // In ms. Added to time before looking up its day and minute.
+    private final long shift;
+    private final int weekendMask;
+    // MMdd for annual holidays, yyyyMMdd for one off holidays.
+    private final Set<Integer> holidays = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int MAX_LOOK_AHEAD_DAYS = 14;
+    // Delayed quotes from free servers may lag behind by 20 minutes.
+    private static final int CLOSE_GRACE = 30;
+    // 15 minutes.
+    private static final long HEARTBEAT = 15 * 60 * 1000;
+
+    private static final Map<Country, TradingSession> tradingSessions = new EnumMap<Country, TradingSession>(Country.class);
+
+    static {
+        put(Country.Australia, newTradingSession("Australia/Sydney", 10, 0, 16, 0), true);
+        put(Country.Austria, newTradingSession("Europe/Vienna", 9, 0, 17, 30), true);
+        put(Country.Belgium, newTradingSession("Europe/Brussels", 9, 0, 17, 30), true);
+        put(Country.Brazil, newTradingSession("America/Sao_Paulo", 10, 0, 17, 0), true);
+        put(Country.Canada, newTradingSession("America/Toronto", 9, 30, 16, 0), true);
+        put(Country.China, newTradingSession("Asia/Shanghai", 9, 30, 15, 0), false);
+        put(Country.Czech, newTradingSession("Europe/Prague", 9, 0, 16, 20), true);
+        put(Country.Denmark, newTradingSession("Europe/Copenhagen", 9, 0, 17, 0), true);
+        put(Country.France, newTradingSession("Europe/Paris", 9, 0, 17, 30), true);
+        // Floor trading in Frankfurt runs longer than Xetra.
+        put(Country.Germany, newTradingSession("Europe/Berlin", 8, 0, 20, 0), true);
+        put(Country.HongKong, newTradingSession("Asia/Hong_Kong", 9, 30, 16, 0), true);
+        put(Country.India, newTradingSession("Asia/Kolkata", 9, 15, 15, 30), true);
+        put(Country.Indonesia, newTradingSession("Asia/Jakarta", 9, 0, 16, 0), true);
+        // Tel Aviv trades from Sunday to Thursday.
+        final TradingSession israel = new TradingSession(TimeZone.getTimeZone("Asia/Jerusalem"), 9 * 60 + 45, 17 * 60 + 25, Calendar.FRIDAY, Calendar.SATURDAY);
+        tradingSessions.put(Country.Israel, israel);
+        put(Country.Italy, newTradingSession("Europe/Rome", 9, 0, 17, 30), true);
+        put(Country.Korea, newTradingSession("Asia/Seoul", 9, 0, 15, 30), true);
+        put(Country.Malaysia, newTradingSession("Asia/Kuala_Lumpur", 9, 0, 17, 0), true);
+        put(Country.Netherlands, newTradingSession("Europe/Amsterdam", 9, 0, 17, 30), true);
+        put(Country.NewZealand, newTradingSession("Pacific/Auckland", 10, 0, 16, 45), true);
+        put(Country.Norway, newTradingSession("Europe/Oslo", 9, 0, 16, 20), true);
+        put(Country.Portugal, newTradingSession("Europe/Lisbon", 8, 0, 16, 30), true);
+        put(Country.Singapore, newTradingSession("Asia/Singapore", 9, 0, 17, 0), true);
+        put(Country.Spain, newTradingSession("Europe/Madrid", 9, 0, 17, 30), true);
+        put(Country.Sweden, newTradingSession("Europe/Stockholm", 9, 0, 17, 30), true);
+        put(Country.Switzerland, newTradingSession("Europe/Zurich", 9, 0, 17, 30), true);
+        put(Country.Taiwan, newTradingSession("Asia/Taipei", 9, 0, 13, 30), false);
+        put(Country.UnitedKingdom, newTradingSession("Europe/London", 8, 0, 16, 30), true);
+        put(Country.UnitedState, newTradingSession("America/New_York", 9, 30, 16, 0), true);
+    }
+}
@@ -19,12 +19,11 @@
 
 package org.yccheok.jstock.engine;
 
-import au.com.bytecode.opencsv.CSVParser;
 import java.io.IOException;
-import java.text.ParseException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -139,43 +138,47 @@ public class YahooStockFormat implements StockFormat {
     // "MAERSKB.CO","AP MOELLER-MAERS-","Copenhagen",32500.00,33700.00,34200.00,33400.00,660,"+1200.00","N/A - +3.69%",33,33500.00,54,33700.00,96,"11/10/2008","10:53am"    
     @Override
     public List<Stock> parse(String source) {
-        List<Stock> stocks = new ArrayList<Stock>();
-        
         if (source == null) {
-            return stocks;
-        }                         
-        
-        final String[] strings = source.split("\r\n|\r|\n");
-        
-        for (String string : strings) {
-            // ",123,456,"   -> ",123456,"
-            // ","abc,def"," -> ","abcdef","
-            // Please refer http://stackoverflow.com/questions/15692458/different-regular-expression-result-in-java-se-and-android-platform for more details.
-            //
-            // The idea is : If a comma doesn't have double quote on its left AND on its right, replace it with empty string.
-            // http://www.regular-expressions.info/lookaround.html
-            final String stringDigitWithoutComma = commaNotBetweenQuotes.matcher(string).replaceAll("");
+            return new ArrayList<Stock>();
+        }
 
-            // Do not use String.split although it might be faster.
-            // This is because after stringDigitWithoutComma regular expression, we have an edge case
-            //
-            // ","abcdef,","   -> ","abcdef","  <-- This is our expectation
-            // ","abcdef,","   -> ","abcdef,"," <-- This is what we get
-            //
-            // I think it is difficult to solve this through regular expression.
-            // We will use CSVParser to handle this.
-            final CSVParser csvParser = new CSVParser();
-            String[] fields;
-            try {
-                fields = csvParser.parseLine(stringDigitWithoutComma);
-            } catch (IOException ex) {
-                log.error(null, ex);
-                continue;
-            }
-            final int length = fields.length;
+        try {
+            return parse(new StringReader(source));
+        } catch (IOException ex) {
+            // Impossible.
+            log.error(null, ex);
+            return new ArrayList<Stock>();
+        }
+    }
+
+    @Override
+    public List<Stock> parse(Reader reader) throws IOException {
+        List<Stock> stocks = new ArrayList<Stock>();
+
+        // Quotes are stripped, and commas which are not next to any double
+        // quote are removed by the tokenizer, as lines are read.
+        //
+        // ",123,456,"   -> ",123456,"
+        // ","abc,def"," -> ","abcdef","
+        // ","abcdef,"," -> ","abcdef,","  <-- Comma within quotes is kept.
+        final CSVTokenizer tokenizer = csvTokenizerThreadLocal.get();
+        tokenizer.reset(reader);
+
+        try {
+            parse(tokenizer, stocks);
+        } finally {
+            // Do not hold the reader.
+            tokenizer.reset(null);
+        }
+
+        return stocks;
+    }
+
+    private void parse(CSVTokenizer tokenizer, List<Stock> stocks) throws IOException {
+        while (tokenizer.next()) {
+            final int length = tokenizer.size();
             
             Code code = null;
-            String name = null;
             double prevPrice = 0.0;
             double openPrice = 0.0;
             double lastPrice = 0.0;    
@@ -201,65 +204,56 @@ public class YahooStockFormat implements StockFormat {
             long timestamp = 0;
             
             do {
-                if (length < 1) break; code = Code.newInstance(quotePattern.matcher(fields[0]).replaceAll("").trim());
+                if (length < 1) break; code = Code.newInstance(tokenizer.get(0).trim());
                 
-                if (length < 2) break; name = quotePattern.matcher(fields[1]).replaceAll("").trim();
+                // Name is not being used. Do not bother to create a string.
+                if (length < 2) break;
 
                 if (length < 3) break;
                 
                 if (length < 5) break;
-                try { prevPrice = Double.parseDouble(fields[4]); } catch (NumberFormatException exp) {}
+                prevPrice = tokenizer.getDouble(4, prevPrice);
                 
                 if (length < 7) break;
-                try { openPrice = Double.parseDouble(fields[6]); } catch (NumberFormatException exp) {}
+                openPrice = tokenizer.getDouble(6, openPrice);
                 
                 if (length < 9) break;
-                try { lastPrice = Double.parseDouble(fields[8]); } catch (NumberFormatException exp) {}
+                lastPrice = tokenizer.getDouble(8, lastPrice);
 
                 if (length < 11) break;
-                try { highPrice = Double.parseDouble(fields[10]); } catch (NumberFormatException exp) {}
+                highPrice = tokenizer.getDouble(10, highPrice);
 
                 if (length < 13) break;
-                try { lowPrice = Double.parseDouble(fields[12]); } catch (NumberFormatException exp) {}
+                lowPrice = tokenizer.getDouble(12, lowPrice);
 
                 if (length < 15) break;
                 // TODO: CRITICAL LONG BUG REVISED NEEDED.
-                try { volume = Long.parseLong(fields[14]); } catch (NumberFormatException exp) {}
+                volume = tokenizer.getLong(14, volume);
 
                 if (length < 17) break;
-                try { changePrice = Double.parseDouble(quotePattern.matcher(fields[16]).replaceAll("").trim()); } catch (NumberFormatException exp) {}
+                changePrice = tokenizer.getDouble(16, changePrice);
 
                 if (length < 19) break;
-                String _changePricePercentage = quotePattern.matcher(fields[18]).replaceAll("");
-                _changePricePercentage = percentagePattern.matcher(_changePricePercentage).replaceAll("");
-                try { changePricePercentage = Double.parseDouble(_changePricePercentage); } catch (NumberFormatException exp) {}
+                changePricePercentage = tokenizer.getPercentage(18, changePricePercentage);
 
                 if (length < 21) break;
-                try { lastVolume = Integer.parseInt(fields[20]); } catch (NumberFormatException exp) {}
+                lastVolume = tokenizer.getInt(20, lastVolume);
                 
                 if (length < 23) break;
-                try { buyPrice = Double.parseDouble(fields[22]); } catch (NumberFormatException exp) {}
+                buyPrice = tokenizer.getDouble(22, buyPrice);
                 
                 if (length < 25) break;
-                try { buyQuantity = Integer.parseInt(fields[24]); } catch (NumberFormatException exp) {}
+                buyQuantity = tokenizer.getInt(24, buyQuantity);
                 
                 if (length < 27) break;
-                try { sellPrice = Double.parseDouble(fields[26]); } catch (NumberFormatException exp) {}
+                sellPrice = tokenizer.getDouble(26, sellPrice);
                 
                 if (length < 29) break;
-                try { sellQuantity = Integer.parseInt(fields[28]); } catch (NumberFormatException exp) {}
+                sellQuantity = tokenizer.getInt(28, sellQuantity);
                 
                 if (length < 32) break;
-                java.text.SimpleDateFormat dateFormat = new java.text.SimpleDateFormat("MM/dd/yyyy hh:mmaa");
-                String date_and_time = quotePattern.matcher(fields[30]).replaceAll("").trim() + " " + quotePattern.matcher(fields[31]).replaceAll("").trim();
-                java.util.Date serverDate;
-                try {
-                    serverDate = dateFormat.parse(date_and_time);
-                    timestamp = serverDate.getTime();
-                } catch (ParseException exp) {
-                    // Most of the time, we just obtain "N/A"
-                    // log.error(fields[23] + ", " + fields[24] + ", " + data_and_time, exp);
-                }
+                // Most of the time, we just obtain "N/A", which gives 0.
+                timestamp = tokenizer.getTimestamp(30, 31);
                 
                 break;
             } while(true);
@@ -279,19 +273,19 @@ public class YahooStockFormat implements StockFormat {
 
             if (length > 28) {
                 if (
-                    fields[28].equalsIgnoreCase("N/A") &&
-                    fields[26].equalsIgnoreCase("N/A") &&
+                    tokenizer.equalsIgnoreCase(28, "N/A") &&
+                    tokenizer.equalsIgnoreCase(26, "N/A") &&
                     org.yccheok.jstock.portfolio.Utils.essentiallyEqual(lastPrice, 0.0) &&
-                    fields[24].equalsIgnoreCase("N/A") &&
-                    fields[22].equalsIgnoreCase("N/A") &&
-                    fields[20].equalsIgnoreCase("N/A") &&
-                    fields[18].equalsIgnoreCase("N/A") &&
-                    fields[16].equalsIgnoreCase("N/A") &&
-                    fields[14].equalsIgnoreCase("N/A") &&
-                    fields[12].equalsIgnoreCase("N/A") &&
-                    fields[10].equalsIgnoreCase("N/A") &&
-                    fields[6].equalsIgnoreCase("N/A") &&
-                    fields[4].equalsIgnoreCase("N/A")
+                    tokenizer.equalsIgnoreCase(24, "N/A") &&
+                    tokenizer.equalsIgnoreCase(22, "N/A") &&
+                    tokenizer.equalsIgnoreCase(20, "N/A") &&
+                    tokenizer.equalsIgnoreCase(18, "N/A") &&
+                    tokenizer.equalsIgnoreCase(16, "N/A") &&
+                    tokenizer.equalsIgnoreCase(14, "N/A") &&
+                    tokenizer.equalsIgnoreCase(12, "N/A") &&
+                    tokenizer.equalsIgnoreCase(10, "N/A") &&
+                    tokenizer.equalsIgnoreCase(6, "N/A") &&
+                    tokenizer.equalsIgnoreCase(4, "N/A")
                 ) {
                     continue;
                 }
@@ -327,8 +321,6 @@ public class YahooStockFormat implements StockFormat {
 
             stocks.add(stock);            
         }
-        
-        return stocks;
     }
 
     public static StockFormat getInstance() {
@@ -337,16 +329,13 @@ public class YahooStockFormat implements StockFormat {
     
     private static final StockFormat stockFormat = new YahooStockFormat();
     
-    // ",123,456,"   -> ",123456,"
-    // ","abc,def"," -> ","abcdef","
-    // Please refer http://stackoverflow.com/questions/15692458/different-regular-expression-result-in-java-se-and-android-platform for more details.
-    //
-    // The idea is : If a comma doesn't have double quote on its left AND on its right, replace it with empty string.
-    // http://www.regular-expressions.info/lookaround.html    
-    private static final Pattern commaNotBetweenQuotes = Pattern.compile("(?<!\"),(?!\")");
-
-    private static final Pattern quotePattern = Pattern.compile("\"");
-    private static final Pattern percentagePattern = Pattern.compile("%");
+    // Tokenizer, together with its buffers, is reused by every parse within
+    // the same thread.
+    private static final ThreadLocal<CSVTokenizer> csvTokenizerThreadLocal = new ThreadLocal<CSVTokenizer>() {
+        @Override protected CSVTokenizer initialValue() {
+            return new CSVTokenizer(true);
+        }
+    };
     
     private static final Log log = LogFactory.getLog(YahooStockFormat.class);
 }
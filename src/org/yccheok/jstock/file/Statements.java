@@ -210,7 +210,7 @@ public class Statements {
         Stock stock = null;
         for (int i = 0; i < size; i++) {
             final long timestamp = server.getTimestamp(i);
-            stock = server.getStock(timestamp);
+            stock = server.getStockAt(i);
             assert (timestamp != 0 && stock != null);
             final List<Atom> atoms = new ArrayList<Atom>();
             final Atom atom0 = new Atom(dateFormat.format(timestamp), guiBundleWrapper.getString("StockHistory_Date"));
@@ -1741,7 +1741,8 @@ public class IndicatorPanel extends JPanel {
 
         this.stockHistoryMonitor = new StockHistoryMonitor(HISTORY_MONITOR_MAX_THREAD);
         stockHistoryMonitor.setStockServerFactories(stockServerFactories);
-        stockHistoryMonitor.setStockHistorySerializer(new StockHistorySerializer(Utils.getHistoryDirectory()));
+        stockHistoryMonitor.setHedger(Utils.newHedger(MainFrame.getInstance().getJStockOptions()));
+        stockHistoryMonitor.setStockHistoryService(Utils.getStockHistoryService());
     }
 
     private JList getCurrentActiveJList() {
@@ -157,6 +157,12 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
 
         final WizardModel wizardModel = wizard.getModel();
 
+        // Scanning is network intensive. Let it have all the bandwidth.
+        final StockHistoryPrefetcher stockHistoryPrefetcher = m.getStockHistoryPrefetcher();
+        if (stockHistoryPrefetcher != null) {
+            stockHistoryPrefetcher.pause();
+        }
+
         this.startScanThread = getStartScanThread(wizardModel);
         this.startScanThread.start();
 
@@ -312,9 +318,7 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
             if (done)
             {
                 // Perform real time monitoring, for the code with history information.
-                realTimeStockMonitor.addStockCode(code);
-                realTimeStockMonitor.startNewThreadsIfNecessary();
-                realTimeStockMonitor.refresh();
+                addStockCodeToRealTimeStockMonitor(code);
             }
             else
             {
@@ -579,11 +583,20 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
                     log.error(null, ex);
                 }
             }
+            // Codes of this scan shouldn't go to the next scan's monitor.
+            synchronized (pendingRealTimeStockCodes) {
+                pendingRealTimeStockCodes.clear();
+            }
             final MainFrame m = MainFrame.getInstance();
             this.initRealTimeStockMonitor(m.getStockServerFactories());
             this.initStockHistoryMonitor(m.getStockServerFactories());
             this.initAlertDataStructures();
             this.initCompleteProgressDataStructures();
+
+            final StockHistoryPrefetcher stockHistoryPrefetcher = m.getStockHistoryPrefetcher();
+            if (stockHistoryPrefetcher != null) {
+                stockHistoryPrefetcher.resume();
+            }
         } finally {
             writer.unlock();
         }
@@ -644,9 +657,10 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
 
         this.stockHistoryMonitor = new StockHistoryMonitor(HISTORY_MONITOR_MAX_THREAD);
         stockHistoryMonitor.setStockServerFactories(stockServerFactories);
+        stockHistoryMonitor.setHedger(Utils.newHedger(MainFrame.getInstance().getJStockOptions()));
 
         stockHistoryMonitor.attach(stockHistoryMonitorObserver);
-        stockHistoryMonitor.setStockHistorySerializer(new StockHistorySerializer(Utils.getHistoryDirectory()));
+        stockHistoryMonitor.setStockHistoryService(Utils.getStockHistoryService());
     }
 
     private void processHistory(Code code, StockHistoryServer stockHistoryServer) {
@@ -654,7 +668,6 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
         // initialized variables after stop(). The code should be placed before
         // "if (this.stop_button_pressed)" check.
         Set<Code> _failedCodes = null;
-        RealTimeStockMonitor _realTimeStockMonitor = null;
 
         // There are 2 reasons why we are applying lock right here.
         // 1) Ensure visibility, as we do not apply volatile in all member
@@ -663,7 +676,6 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
         reader.lock();
         try {
             _failedCodes = this.failedCodes;
-            _realTimeStockMonitor = this.realTimeStockMonitor;
             if (this.stop_button_pressed) {
                 return;
             }
@@ -706,7 +718,50 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
         }
 
         // Perform real time monitoring, for the code with history information.
-        _realTimeStockMonitor.addStockCode(code);
+        addStockCodeToRealTimeStockMonitor(code);
+    }
+
+    // Codes which are queued within a short period, are added to real time
+    // stock monitor in a single batch, followed by a single refresh. Hence,
+    // scanning hundreds of codes doesn't refresh hundreds of times.
+    private void addStockCodeToRealTimeStockMonitor(Code code) {
+        synchronized (pendingRealTimeStockCodes) {
+            pendingRealTimeStockCodes.add(code);
+            if (pendingRealTimeStockCodes.size() > 1) {
+                // The batch is already scheduled.
+                return;
+            }
+        }
+        batchScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushStockCodesToRealTimeStockMonitor();
+            }
+        }, REAL_TIME_STOCK_MONITOR_BATCH_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushStockCodesToRealTimeStockMonitor() {
+        final List<Code> codes;
+        synchronized (pendingRealTimeStockCodes) {
+            if (pendingRealTimeStockCodes.isEmpty()) {
+                return;
+            }
+            codes = new java.util.ArrayList<Code>(pendingRealTimeStockCodes);
+            pendingRealTimeStockCodes.clear();
+        }
+
+        RealTimeStockMonitor _realTimeStockMonitor = null;
+        reader.lock();
+        try {
+            _realTimeStockMonitor = this.realTimeStockMonitor;
+            if (this.stop_button_pressed) {
+                return;
+            }
+        } finally {
+            reader.unlock();
+        }
+
+        _realTimeStockMonitor.addStockCodes(codes);
         _realTimeStockMonitor.startNewThreadsIfNecessary();
         _realTimeStockMonitor.refresh();
     }
@@ -826,7 +881,7 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
             });
         }
         
-        this.realTimeStockMonitor = new RealTimeStockMonitor(4, 20, MainFrame.getInstance().getJStockOptions().getScanningSpeed());
+        this.realTimeStockMonitor = Utils.newRealTimeStockMonitor(MainFrame.getInstance().getJStockOptions());
         this.realTimeStockMonitor.setStockServerFactories(stockServerFactories);
         
         this.realTimeStockMonitor.attach(this.realTimeStockMonitorObserver);
@@ -1153,6 +1208,18 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
     
     private Wizard wizard;
     private RealTimeStockMonitor realTimeStockMonitor;
+    // Codes waiting to be added to real time stock monitor.
+    private final java.util.List<Code> pendingRealTimeStockCodes = new java.util.ArrayList<Code>();
+    // Own timer of the batches. Real time stock monitor scheduler is created
+    // only when scheduler mode is being used, and runs the scan tasks.
+    private final ScheduledExecutorService batchScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "IndicatorScannerBatchScheduler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     private final org.yccheok.jstock.engine.Observer<RealTimeStockMonitor, java.util.List<Stock>> realTimeStockMonitorObserver = this.getRealTimeStockMonitorObserver();
     private final java.util.Map<Code, java.util.List<OperatorIndicator>> operatorIndicators = new java.util.concurrent.ConcurrentHashMap<Code, java.util.List<OperatorIndicator>>();
 
@@ -1191,6 +1258,8 @@ public class IndicatorScannerJPanel extends javax.swing.JPanel implements Change
     private static final Log log = LogFactory.getLog(IndicatorScannerJPanel.class);
 
     private static final int HISTORY_MONITOR_MAX_THREAD = 4;
+    // In ms. Codes queued within this period are added in a single batch.
+    private static final long REAL_TIME_STOCK_MONITOR_BATCH_DELAY = 500;
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton jButton1;
@@ -110,6 +110,7 @@ public class JStockOptions {
     private static final StockInputSuggestionListOption DEFAULT_STOCK_INPUT_SUGGESTION_LIST_OPTION = StockInputSuggestionListOption.OneColumn;
 
     private static final int DEFAULT_HISTORY_DURATION =  10;
+    private static final int DEFAULT_HEDGED_REQUEST_PERCENTILE = 95;
 
     /** Creates a new instance of JStockOptions */
     public JStockOptions() {
@@ -302,6 +303,20 @@ public class JStockOptions {
         
     private boolean isDynamicChartVisible = false;
     
+    private boolean isRealTimeStockMonitorSchedulerEnabled = false;
+    
+    private boolean isRealTimeStockMonitorDeltaEnabled = false;
+    
+    private boolean isHedgedRequestEnabled = false;
+    
+    // Percentile of recent latency, after which the next stock server is
+    // tried.
+    private int hedgedRequestPercentile = DEFAULT_HEDGED_REQUEST_PERCENTILE;
+    
+    // By default, monitors slow down to a heartbeat outside trading hours.
+    private boolean isPollingOutsideTradingHours = false;
+    private boolean isTickRecorderEnabled = false;
+    
     public boolean isAutoBrokerFeeCalculationEnabled() {
         return this.isAutoBrokerFeeCalculationEnabled;
     }
@@ -430,6 +445,13 @@ public class JStockOptions {
         this.isFeeCalculationEnabled = jStockOptions.isFeeCalculationEnabled;
         
         this.isDynamicChartVisible = jStockOptions.isDynamicChartVisible;
+        
+        this.isRealTimeStockMonitorSchedulerEnabled = jStockOptions.isRealTimeStockMonitorSchedulerEnabled;
+        this.isRealTimeStockMonitorDeltaEnabled = jStockOptions.isRealTimeStockMonitorDeltaEnabled;
+        this.isHedgedRequestEnabled = jStockOptions.isHedgedRequestEnabled;
+        this.hedgedRequestPercentile = jStockOptions.hedgedRequestPercentile;
+        this.isPollingOutsideTradingHours = jStockOptions.isPollingOutsideTradingHours;
+        this.isTickRecorderEnabled = jStockOptions.isTickRecorderEnabled;
     }
 
     // User may not trust us to store their password in cloud server. To avoid
@@ -557,6 +579,13 @@ public class JStockOptions {
         
         jStockOptions.isDynamicChartVisible = this.isDynamicChartVisible;
         
+        jStockOptions.isRealTimeStockMonitorSchedulerEnabled = this.isRealTimeStockMonitorSchedulerEnabled;
+        jStockOptions.isRealTimeStockMonitorDeltaEnabled = this.isRealTimeStockMonitorDeltaEnabled;
+        jStockOptions.isHedgedRequestEnabled = this.isHedgedRequestEnabled;
+        jStockOptions.hedgedRequestPercentile = this.hedgedRequestPercentile;
+        jStockOptions.isPollingOutsideTradingHours = this.isPollingOutsideTradingHours;
+        jStockOptions.isTickRecorderEnabled = this.isTickRecorderEnabled;
+        
         return jStockOptions;
     }
 
@@ -736,6 +765,10 @@ public class JStockOptions {
             this.chartTheme = ChartTheme.Light;
         }
         
+        if (this.hedgedRequestPercentile <= 0 || this.hedgedRequestPercentile > 100) {
+            this.hedgedRequestPercentile = DEFAULT_HEDGED_REQUEST_PERCENTILE;
+        }
+        
         if (this.scanningSpeed <= 1000) {
             // In previous version, it is possible for scanningSpeed <= 1000.
             // This is some how wasting CPU and network resource. Let's go green.
@@ -1663,4 +1696,88 @@ public class JStockOptions {
     public void setDynamicChartVisible(boolean isDynamicChartVisible) {
         this.isDynamicChartVisible = isDynamicChartVisible;
     }
+
+    /**
+     * @return the isRealTimeStockMonitorSchedulerEnabled
+     */
+    public boolean isRealTimeStockMonitorSchedulerEnabled() {
+        return isRealTimeStockMonitorSchedulerEnabled;
+    }
+
+    /**
+     * @param isRealTimeStockMonitorSchedulerEnabled the isRealTimeStockMonitorSchedulerEnabled to set
+     */
+    public void setRealTimeStockMonitorSchedulerEnabled(boolean isRealTimeStockMonitorSchedulerEnabled) {
+        this.isRealTimeStockMonitorSchedulerEnabled = isRealTimeStockMonitorSchedulerEnabled;
+    }
+
+    /**
+     * @return the isRealTimeStockMonitorDeltaEnabled
+     */
+    public boolean isRealTimeStockMonitorDeltaEnabled() {
+        return isRealTimeStockMonitorDeltaEnabled;
+    }
+
+    /**
+     * @param isRealTimeStockMonitorDeltaEnabled the isRealTimeStockMonitorDeltaEnabled to set
+     */
+    public void setRealTimeStockMonitorDeltaEnabled(boolean isRealTimeStockMonitorDeltaEnabled) {
+        this.isRealTimeStockMonitorDeltaEnabled = isRealTimeStockMonitorDeltaEnabled;
+    }
+
+    /**
+     * @return the isHedgedRequestEnabled
+     */
+    public boolean isHedgedRequestEnabled() {
+        return isHedgedRequestEnabled;
+    }
+
+    /**
+     * @param isHedgedRequestEnabled the isHedgedRequestEnabled to set
+     */
+    public void setHedgedRequestEnabled(boolean isHedgedRequestEnabled) {
+        this.isHedgedRequestEnabled = isHedgedRequestEnabled;
+    }
+
+    /**
+     * @return the hedgedRequestPercentile
+     */
+    public int getHedgedRequestPercentile() {
+        return hedgedRequestPercentile;
+    }
+
+    /**
+     * @param hedgedRequestPercentile the hedgedRequestPercentile to set
+     */
+    public void setHedgedRequestPercentile(int hedgedRequestPercentile) {
+        this.hedgedRequestPercentile = hedgedRequestPercentile;
+    }
+
+    /**
+     * @return the isPollingOutsideTradingHours
+     */
+    public boolean isPollingOutsideTradingHours() {
+        return isPollingOutsideTradingHours;
+    }
+
+    /**
+     * @param isPollingOutsideTradingHours the isPollingOutsideTradingHours to set
+     */
+    public void setPollingOutsideTradingHours(boolean isPollingOutsideTradingHours) {
+        this.isPollingOutsideTradingHours = isPollingOutsideTradingHours;
+    }
+
+    /**
+     * @return the isTickRecorderEnabled
+     */
+    public boolean isTickRecorderEnabled() {
+        return isTickRecorderEnabled;
+    }
+
+    /**
+     * @param isTickRecorderEnabled the isTickRecorderEnabled to set
+     */
+    public void setTickRecorderEnabled(boolean isTickRecorderEnabled) {
+        this.isTickRecorderEnabled = isTickRecorderEnabled;
+    }
 }
@@ -132,6 +132,7 @@ public class MainFrame extends javax.swing.JFrame {
         this.initStatusBar();
         this.initMarketJPanel();
         this.initTableHeaderToolTips();
+        this.initTableViewportListener();
         this.initMyJXStatusBarExchangeRateLabelMouseAdapter();
         this.initMyJXStatusBarCountryLabelMouseAdapter();
         this.initMyJXStatusBarImageLabelMouseAdapter();
@@ -813,6 +814,7 @@ public class MainFrame extends javax.swing.JFrame {
 
         if (statements.getType() == Statement.Type.RealtimeInfo) {
             final int size = statements.size();
+            final java.util.List<Code> codes = new java.util.ArrayList<Code>(size);
             for (int i = 0; i < size; i++) {
                 final org.yccheok.jstock.file.Statement statement = statements.get(i);
                 final String codeStr = statement.getValueAsString(guiBundleWrapper.getString("MainFrame_Code"));
@@ -822,24 +824,29 @@ public class MainFrame extends javax.swing.JFrame {
                     final Stock stock = Utils.getEmptyStock(Code.newInstance(codeStr));
                     final StockAlert stockAlert = new StockAlert().setFallBelow(fallBelowDouble).setRiseAbove(riseAboveDouble);
                     this.addStockToTable(stock, stockAlert);
-                    realTimeStockMonitor.addStockCode(Code.newInstance(codeStr));
+                    codes.add(stock.code);
                 }
             }
+            // Add in bulk, instead of one by one.
+            realTimeStockMonitor.addStockCodes(codes);
             realTimeStockMonitor.startNewThreadsIfNecessary();
             realTimeStockMonitor.refresh();
         } else if (statements.getType() == Statement.Type.StockIndicatorScanner) {
             // Some users request of having Stock Watchlist able to load stocks
             // saved from Stock Indicators Scanner.
             final int size = statements.size();
+            final java.util.List<Code> codes = new java.util.ArrayList<Code>(size);
             for (int i = 0; i < size; i++) {
                 final org.yccheok.jstock.file.Statement statement = statements.get(i);
                 final String codeStr = statement.getValueAsString(guiBundleWrapper.getString("MainFrame_Code"));
                 if (codeStr.length() > 0) {
                     final Stock stock = Utils.getEmptyStock(Code.newInstance(codeStr));
                     this.addStockToTable(stock);
-                    realTimeStockMonitor.addStockCode(Code.newInstance(codeStr));
+                    codes.add(stock.code);
                 }
             }
+            // Add in bulk, instead of one by one.
+            realTimeStockMonitor.addStockCodes(codes);
             realTimeStockMonitor.startNewThreadsIfNecessary();
             realTimeStockMonitor.refresh();
         } else if (statements.getType() == Statement.Type.PortfolioManagementBuy || statements.getType() == Statement.Type.PortfolioManagementSell || statements.getType() == Statement.Type.PortfolioManagementDeposit || statements.getType() == Statement.Type.PortfolioManagementDividend) {
@@ -1037,6 +1044,13 @@ public class MainFrame extends javax.swing.JFrame {
             dettachAllAndStopAutoCompleteJComboBox();
             this.indicatorPanel.dettachAllAndStopAutoCompleteJComboBox();
 
+            // Seal today's tick segment, so that its index needn't be rebuilt
+            // during next read.
+            final TickRecorder tickRecorder = Utils.getTickRecorder();
+            if (tickRecorder != null) {
+                tickRecorder.close();
+            }
+
             log.info("latestNewsTask stop...");
 
             if (this.latestNewsTask != null) {
@@ -1644,6 +1658,72 @@ public class MainFrame extends javax.swing.JFrame {
         return jStockOptions;
     }
 
+    /**
+     * Replaces stock servers with recorded quotes, if -replay=path is given.
+     * Path is either a tick recorder directory, a CSV file, or a directory of
+     * CSV files. -replaySpeed=n gives replay speed, where 1 is real time and 0
+     * is max speed. -replayLoop=true restarts replay once it ends.
+     */
+    private static void initReplayStockServerFactory(String args[]) {
+        String path = null;
+        double speed = 1.0;
+        boolean isLooping = false;
+
+        for (String arg : args) {
+            final String[] tokens = arg.split("=");
+            if (tokens.length != 2) {
+                continue;
+            }
+            final String compare = tokens[0].trim();
+            final String value = tokens[1].trim();
+            if (compare.equalsIgnoreCase("-replay")) {
+                path = value;
+            } else if (compare.equalsIgnoreCase("-replaySpeed")) {
+                try {
+                    speed = Double.parseDouble(value);
+                } catch (NumberFormatException ex) {
+                    log.error(null, ex);
+                }
+            } else if (compare.equalsIgnoreCase("-replayLoop")) {
+                isLooping = Boolean.parseBoolean(value);
+            }
+        }
+
+        if (path == null) {
+            return;
+        }
+
+        final File file = new File(path);
+        final java.util.List<Stock> stocks;
+        final File[] tickFiles = file.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".tick");
+            }
+        });
+        if (tickFiles != null && tickFiles.length > 0) {
+            stocks = new TickRecorder(file).read(0, Long.MAX_VALUE);
+        } else {
+            final java.util.List<File> files = new ArrayList<File>();
+            final File[] csvFiles = file.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.toLowerCase().endsWith(".csv");
+                }
+            });
+            if (csvFiles != null) {
+                Arrays.sort(csvFiles);
+                files.addAll(Arrays.asList(csvFiles));
+            } else {
+                files.add(file);
+            }
+            stocks = ReplayStockServer.readCSVFiles(files);
+        }
+
+        log.info("Replaying " + stocks.size() + " quote(s) from " + path);
+        Factories.INSTANCE.setReplayStockServerFactory(ReplayStockServerFactory.newInstance(stocks, speed, isLooping));
+    }
+
     /**
      * @param args the command line arguments
      */
@@ -1687,6 +1767,8 @@ public class MainFrame extends javax.swing.JFrame {
 
         Utils.setDefaultLookAndFeel();
 
+        initReplayStockServerFactory(args);
+
         final String[] _args = args;
 
         java.awt.EventQueue.invokeLater(new Runnable() {
@@ -2038,9 +2120,15 @@ public class MainFrame extends javax.swing.JFrame {
 
                 switch (e.getType()) {
                     case javax.swing.event.TableModelEvent.INSERT:
+                        updateRealTimeStockMonitorPriorities(firstRow, lastRow);
                         break;
 
                     case javax.swing.event.TableModelEvent.UPDATE:
+                        final int columnCount = jTable1.getModel().getColumnCount();
+                        // Fall below or rise above alert is being edited.
+                        if (mColIndex == columnCount - 1 || mColIndex == columnCount - 2) {
+                            updateRealTimeStockMonitorPriorities(firstRow, lastRow);
+                        }
                         break;
 
                     case javax.swing.event.TableModelEvent.DELETE:
@@ -2050,6 +2138,91 @@ public class MainFrame extends javax.swing.JFrame {
         };
     }
 
+    // Rows which are visible, or selected, are refreshed more frequently.
+    private void initTableViewportListener() {
+        jScrollPane1.getViewport().addChangeListener(new javax.swing.event.ChangeListener() {
+            @Override
+            public void stateChanged(javax.swing.event.ChangeEvent e) {
+                updateVisibleRealTimeStockMonitorPriorities();
+            }
+        });
+
+        jTable1.getSelectionModel().addListSelectionListener(new javax.swing.event.ListSelectionListener() {
+            @Override
+            public void valueChanged(javax.swing.event.ListSelectionEvent e) {
+                if (e.getValueIsAdjusting() == false) {
+                    updateVisibleRealTimeStockMonitorPriorities();
+                }
+            }
+        });
+    }
+
+    // Priority of code which is not visible. null for default priority.
+    private RealTimeStockMonitor.Priority getInvisiblePriority(Code code) {
+        final StockTableModel tableModel = (StockTableModel) jTable1.getModel();
+        return tableModel.hasAlert(code) ? RealTimeStockMonitor.Priority.Alerting : null;
+    }
+
+    // Updates priorities of stocks at the given model rows, whose alerts may
+    // have changed.
+    private void updateRealTimeStockMonitorPriorities(int firstRow, int lastRow) {
+        if (realTimeStockMonitor == null || firstRow < 0) {
+            return;
+        }
+        final StockTableModel tableModel = (StockTableModel) jTable1.getModel();
+        final int last = Math.min(lastRow, tableModel.getRowCount() - 1);
+        for (int i = firstRow; i <= last; i++) {
+            final Code code = tableModel.getCode(i);
+            if (visibleCodes.contains(code) == false) {
+                realTimeStockMonitor.setPriority(code, getInvisiblePriority(code));
+            }
+        }
+    }
+
+    // Updates priorities of stocks, as the viewport scrolls, or the selection
+    // changes.
+    private void updateVisibleRealTimeStockMonitorPriorities() {
+        assert (java.awt.EventQueue.isDispatchThread());
+
+        if (realTimeStockMonitor == null) {
+            return;
+        }
+
+        final StockTableModel tableModel = (StockTableModel) jTable1.getModel();
+        final Set<Code> codes = new HashSet<Code>();
+        final int rowCount = jTable1.getRowCount();
+        if (rowCount > 0) {
+            final Rectangle rect = jScrollPane1.getViewport().getViewRect();
+            int first = jTable1.rowAtPoint(new Point(0, rect.y));
+            int last = jTable1.rowAtPoint(new Point(0, rect.y + rect.height - 1));
+            if (first < 0) {
+                first = 0;
+            }
+            if (last < 0) {
+                // Table is shorter than viewport.
+                last = rowCount - 1;
+            }
+            for (int i = first; i <= last; i++) {
+                codes.add(tableModel.getCode(jTable1.convertRowIndexToModel(i)));
+            }
+            for (int row : jTable1.getSelectedRows()) {
+                codes.add(tableModel.getCode(jTable1.convertRowIndexToModel(row)));
+            }
+        }
+
+        for (Code code : visibleCodes) {
+            if (codes.contains(code) == false) {
+                realTimeStockMonitor.setPriority(code, getInvisiblePriority(code));
+            }
+        }
+        for (Code code : codes) {
+            if (visibleCodes.contains(code) == false) {
+                realTimeStockMonitor.setPriority(code, RealTimeStockMonitor.Priority.Visible);
+            }
+        }
+        visibleCodes = codes;
+    }
+
     private Image getMyIconImage() {
         if (Utils.isWindows7() || Utils.isWindows8()) {
             return new javax.swing.ImageIcon(getClass().getResource("/images/128x128/chart.png")).getImage();
@@ -2625,7 +2798,7 @@ public class MainFrame extends javax.swing.JFrame {
             final int row = rows[0];
             final StockTableModel tableModel = (StockTableModel) jTable1.getModel();
             final int modelIndex = jTable1.convertRowIndexToModel(row);
-            if (stock.code.equals(tableModel.getStock(modelIndex).code)) {
+            if (stock.code.equals(tableModel.getCode(modelIndex))) {
                 return true;
             }
         }
@@ -2648,11 +2821,6 @@ public class MainFrame extends javax.swing.JFrame {
         return null;
     }
 
-    private void updateStockToTable(final Stock stock) {
-        StockTableModel tableModel = (StockTableModel) jTable1.getModel();
-        tableModel.updateStock(stock);
-    }
-
     private void update(final Indicator indicator, Boolean result) {
         final boolean flag = result;
 
@@ -3014,6 +3182,14 @@ public class MainFrame extends javax.swing.JFrame {
         public MarketRunnable() {
         }
 
+        private long getDelay(TradingSession tradingSession) {
+            final long delay = jStockOptions.getScanningSpeed();
+            if (tradingSession == null) {
+                return delay;
+            }
+            return tradingSession.getDelay(System.currentTimeMillis(), delay);
+        }
+
         @Override
         public void run() {
             final Thread currentThread = Thread.currentThread();
@@ -3021,6 +3197,8 @@ public class MainFrame extends javax.swing.JFrame {
             final java.util.List<StockServerFactory> stockServerFactories = getStockServerFactories();
             final java.util.List<Index> is = org.yccheok.jstock.engine.Utils.getStockIndices(jStockOptions.getCountry());
             final int is_size = is.size();
+            // Slow down outside trading hours.
+            final TradingSession tradingSession = Utils.getTradingSession(jStockOptions);
 
             // Do not rely on isInterrupted flag only. The flag can be cleared by 3rd party easily.
             // Check for current thread as well.
@@ -3028,14 +3206,17 @@ public class MainFrame extends javax.swing.JFrame {
 
                 int fail = is_size;
 
-                for (StockServerFactory factory : stockServerFactories) {
+                for (StockServerFactory factory : ServerHealth.INSTANCE.rank(stockServerFactories, ServerHealth.Type.MarketServer)) {
                     MarketServer marketServer = factory.getMarketServer();
 
                     if (marketServer == null) {
                         continue;
                     }
 
+                    final long transportFailureCount = HttpTransport.INSTANCE.getTransportFailureCount();
+                    final long start = System.currentTimeMillis();
                     java.util.List<Market> markets = marketServer.getMarkets(is);
+                    final long latency = System.currentTimeMillis() - start;
 
                     if (marketThread != currentThread) {
                         break;
@@ -3045,9 +3226,12 @@ public class MainFrame extends javax.swing.JFrame {
 
                     // Very strict rule.
                     if (market_size != is_size) {
+                        ServerHealth.INSTANCE.failure(factory, ServerHealth.Type.MarketServer, latency, transportFailureCount);
                         continue;
                     }
 
+                    ServerHealth.INSTANCE.success(factory, ServerHealth.Type.MarketServer, latency);
+
                     fail -= market_size;
 
                     // Notify all the interested parties.
@@ -3058,7 +3242,7 @@ public class MainFrame extends javax.swing.JFrame {
 
                 try {
                     if (fail == 0) {
-                        Thread.sleep(jStockOptions.getScanningSpeed());
+                        Thread.sleep(getDelay(tradingSession));
                     } else {
                         if (minDelayCounter < MIN_DELAY_COUNTER) {
                             // Sleep as little as possible, to get the 1st reading
@@ -3067,7 +3251,7 @@ public class MainFrame extends javax.swing.JFrame {
                             minDelayCounter++;
                             Thread.sleep(MIN_DELAY);
                         } else {
-                            Thread.sleep(jStockOptions.getScanningSpeed());
+                            Thread.sleep(getDelay(tradingSession));
                         }
                     }
                 } catch (java.lang.InterruptedException exp) {
@@ -3344,13 +3528,34 @@ public class MainFrame extends javax.swing.JFrame {
             });
         }
 
-        realTimeStockMonitor = new RealTimeStockMonitor(4, 20, jStockOptions.getScanningSpeed());
+        realTimeStockMonitor = Utils.newRealTimeStockMonitor(jStockOptions);
+        // Priorities will be registered again, as rows are being added.
+        visibleCodes = new HashSet<Code>();
+        // Quiet stocks need not to be updated to table, nor evaluated by alert.
+        realTimeStockMonitor.setDeltaEnabled(jStockOptions.isRealTimeStockMonitorDeltaEnabled());
+        // The hub is shared by all monitors. Follow the current country's
+        // trading hours.
+        realTimeStockMonitor.setTradingSession(Utils.getTradingSession(jStockOptions));
 
         final java.util.List<StockServerFactory> stockServerFactories = getStockServerFactories();
         realTimeStockMonitor.setStockServerFactories(stockServerFactories);
 
         realTimeStockMonitor.attach(this.realTimeStockMonitorObserver);
 
+        // The table reads quotes from where the monitor writes them.
+        final QuoteBook quoteBook = realTimeStockMonitor.getQuoteBook();
+        final JTable _jTable1 = this.jTable1;
+        if (java.awt.EventQueue.isDispatchThread()) {
+            ((StockTableModel) _jTable1.getModel()).setQuoteBook(quoteBook);
+        } else {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    ((StockTableModel) _jTable1.getModel()).setQuoteBook(quoteBook);
+                }
+            });
+        }
+
         this.indicatorScannerJPanel.initRealTimeStockMonitor(stockServerFactories);
         this.portfolioManagementJPanel.initRealTimeStockMonitor(stockServerFactories);
     }
@@ -3459,6 +3664,8 @@ public class MainFrame extends javax.swing.JFrame {
             System.getProperties().remove("http.proxyPort");
         }
 
+        Utils.updateHttpTransportProxy(this.jStockOptions);
+
         for (Country country : Country.values()) {
             final Class c = this.jStockOptions.getPrimaryStockServerFactoryClass(country);
             if (c == null) {
@@ -3479,6 +3686,7 @@ public class MainFrame extends javax.swing.JFrame {
 
         realTimeStockMonitor.setStockServerFactories(this.getStockServerFactories());
         stockHistoryMonitor.setStockServerFactories(this.getStockServerFactories());
+        stockHistoryPrefetcher.setStockServerFactories(this.getStockServerFactories());
 
         this.indicatorScannerJPanel.updatePrimaryStockServerFactory(Collections.unmodifiableList(this.getStockServerFactories()));
         this.portfolioManagementJPanel.updatePrimaryStockServerFactory(Collections.unmodifiableList(this.getStockServerFactories()));
@@ -3636,8 +3844,9 @@ public class MainFrame extends javax.swing.JFrame {
     }
 
     private void removeOldHistoryData(Country country) {
-        // We do not want "yesterday" history record. We will remove 1 day old files.
-        org.yccheok.jstock.gui.Utils.deleteAllOldFiles(new File(Utils.getHistoryDirectory(country)), 1);
+        // History files are topped up with missing days, whenever they are
+        // used. We will only remove files which are not used for a month.
+        org.yccheok.jstock.gui.Utils.deleteAllOldFiles(new File(Utils.getHistoryDirectory(country)), 30);
     }
 
     private void initAlertStateManager() {
@@ -3674,6 +3883,7 @@ public class MainFrame extends javax.swing.JFrame {
 
         final java.util.List<StockServerFactory> stockServerFactories = getStockServerFactories();
         stockHistoryMonitor.setStockServerFactories(stockServerFactories);
+        stockHistoryMonitor.setHedger(Utils.newHedger(jStockOptions));
 
         stockHistoryMonitor.attach(this.stockHistoryMonitorObserver);
 
@@ -3681,11 +3891,77 @@ public class MainFrame extends javax.swing.JFrame {
 
         removeOldHistoryData(country);
 
-        StockHistorySerializer stockHistorySerializer = new StockHistorySerializer(Utils.getHistoryDirectory());
-
-        stockHistoryMonitor.setStockHistorySerializer(stockHistorySerializer);
+        // Shared with other monitors, so that the same code is never
+        // downloaded twice at the same time.
+        stockHistoryMonitor.setStockHistoryService(Utils.getStockHistoryService());
 
         stockHistoryMonitor.setDuration(Duration.getTodayDurationByYears(jStockOptions.getHistoryDuration()));
+
+        initStockHistoryPrefetcher();
+    }
+
+    // Warms history cache of watchlist and portfolio codes, so that the first
+    // chart needn't wait for a cold download.
+    private void initStockHistoryPrefetcher() {
+        final StockHistoryPrefetcher oldStockHistoryPrefetcher = stockHistoryPrefetcher;
+        final boolean isPaused = oldStockHistoryPrefetcher != null && oldStockHistoryPrefetcher.isPaused();
+        if (oldStockHistoryPrefetcher != null) {
+            oldStockHistoryPrefetcher.stop();
+        }
+
+        this.stockHistoryPrefetcher = new StockHistoryPrefetcher(Utils.getStockHistoryService(), new StockHistoryPrefetcher.Source() {
+            @Override
+            public java.util.List<Code> getCodes() {
+                return getStockHistoryPrefetcherCodes();
+            }
+        }, HISTORY_PREFETCHER_INTERVAL);
+        stockHistoryPrefetcher.setStockServerFactories(getStockServerFactories());
+        stockHistoryPrefetcher.setHedger(Utils.newHedger(jStockOptions));
+        stockHistoryPrefetcher.setTradingSession(TradingSession.get(jStockOptions.getCountry()));
+        stockHistoryPrefetcher.setHistoryDuration(jStockOptions.getHistoryDuration());
+        if (isPaused) {
+            stockHistoryPrefetcher.pause();
+        }
+        stockHistoryPrefetcher.start(HISTORY_PREFETCHER_DELAY);
+    }
+
+    // Codes of watchlist, followed by codes of portfolios. Called by
+    // prefetcher's thread.
+    private java.util.List<Code> getStockHistoryPrefetcherCodes() {
+        final Set<Code> codes = new LinkedHashSet<Code>();
+        try {
+            // Table models are only safe to be accessed by event dispatch
+            // thread.
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    for (Stock stock : getStocks()) {
+                        codes.add(stock.code);
+                    }
+                    if (portfolioManagementJPanel == null) {
+                        return;
+                    }
+                    for (StockInfo stockInfo : portfolioManagementJPanel.getStockInfosFromPortfolios()) {
+                        codes.add(stockInfo.code);
+                    }
+                }
+            });
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+        } catch (java.lang.reflect.InvocationTargetException exp) {
+            log.error(null, exp);
+        }
+        return new ArrayList<Code>(codes);
+    }
+
+    /**
+     * Returns the background prefetcher of stock histories. It should be
+     * paused, while network intensive tasks are running.
+     *
+     * @return the background prefetcher of stock histories
+     */
+    public StockHistoryPrefetcher getStockHistoryPrefetcher() {
+        return stockHistoryPrefetcher;
     }
 
     // Determine whether we should make use of KLSEInfoStockServerFactory.
@@ -3789,6 +4065,20 @@ public class MainFrame extends javax.swing.JFrame {
         System.gc();
     }
 
+    // Creates a dynamic chart, which is pre-filled with recorded ticks, so
+    // that it doesn't start empty after restart.
+    private DynamicChart newDynamicChart(Code code) {
+        final DynamicChart dynamicChart = new DynamicChart();
+        final TickRecorder tickRecorder = Utils.getTickRecorder();
+        if (tickRecorder != null) {
+            final long now = System.currentTimeMillis();
+            for (Stock stock : tickRecorder.read(code, now - DYNAMIC_CHART_MAXIMUM_ITEM_AGE, now)) {
+                dynamicChart.addPriceObservation(stock.getTimestamp(), stock.getLastPrice());
+            }
+        }
+        return dynamicChart;
+    }
+
     private void update(RealTimeStockMonitor monitor, final java.util.List<Stock> stocks) {
 
         // Update status bar with current time string.
@@ -3805,8 +4095,10 @@ public class MainFrame extends javax.swing.JFrame {
         javax.swing.SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
+                // Only rows updated in quote book since the previous refresh
+                // are read.
+                ((StockTableModel) jTable1.getModel()).refresh();
                 for (Stock stock : stocks) {
-                    updateStockToTable(stock);
                     if (isStockBeingSelected(stock)) {
                         MainFrame.this.updateDynamicChart(stock);
                     }
@@ -3821,7 +4113,7 @@ public class MainFrame extends javax.swing.JFrame {
             if (dynamicChart == null) {
                 // Not found. Try to create a new dynamic chart.
                 if (this.dynamicCharts.size() <= MainFrame.MAX_DYNAMIC_CHART_SIZE) {
-                    dynamicChart = new DynamicChart();
+                    dynamicChart = newDynamicChart(code);
                     this.dynamicCharts.put(code, dynamicChart);
                 } else {
                     // Full already. Shall we remove?
@@ -3835,7 +4127,7 @@ public class MainFrame extends javax.swing.JFrame {
                                 break;
                             }
                         }
-                        dynamicChart = new DynamicChart();
+                        dynamicChart = newDynamicChart(code);
                         this.dynamicCharts.put(code, dynamicChart);
                     }
                 }
@@ -3870,12 +4162,20 @@ public class MainFrame extends javax.swing.JFrame {
         }
 
         final StockTableModel stockTableModel = (StockTableModel) jTable1.getModel();
+        final QuoteBook quoteBook = monitor.getQuoteBook();
 
         for (Stock stock : stocks) {
+            // Evaluate against the latest quote, which may be newer than the
+            // notified one. Indicators are only built when they will be
+            // triggered. Else, clearing the state is all alert state manager
+            // would do, as its observer ignores the un-triggered notification.
+            final int index = quoteBook.indexOf(stock.code);
+            final double lastPrice = index < 0 ? stock.getLastPrice() : quoteBook.getLastPrice(index);
+            
             final Double fallBelow = stockTableModel.getFallBelow(stock);
-            if (fallBelow != null) {
+            if (fallBelow != null && lastPrice <= fallBelow) {
                 final Indicator indicator = Utils.getLastPriceFallBelowIndicator(fallBelow);
-                indicator.setStock(stock);
+                indicator.setStock(index < 0 ? stock : quoteBook.getStock(index));
                 alertStateManager.alert(indicator);
             } else {
                 /*
@@ -3894,9 +4194,9 @@ public class MainFrame extends javax.swing.JFrame {
             }
 
             final Double riseAbove = stockTableModel.getRiseAbove(stock);
-            if (riseAbove != null) {
+            if (riseAbove != null && lastPrice >= riseAbove) {
                 final Indicator indicator = Utils.getLastPriceRiseAboveIndicator(riseAbove);
-                indicator.setStock(stock);
+                indicator.setStock(index < 0 ? stock : quoteBook.getStock(index));
                 alertStateManager.alert(indicator);
             } else {
                 /*
@@ -4135,18 +4435,12 @@ public class MainFrame extends javax.swing.JFrame {
 
         if (oldDuration.isContains(historyDuration)) {
             this.stockHistoryMonitor.setDuration(historyDuration);
+            this.stockHistoryPrefetcher.setHistoryDuration(jStockOptions.getHistoryDuration());
             return;
         }
 
-        // The history files that we are going to read, their duration are
-        // too short compared to historyDuration. The easiest way to overcome
-        // this problem is to remove them all.
-        log.info("We are going to remove all history files, due to new duration " + historyDuration + " is not within old duration " + oldDuration);
-
-        Country[] countries = Country.values();
-        for (Country country : countries) {
-            Utils.deleteDir(Utils.getHistoryDirectory(country), false);
-        }
+        // History files will be topped up with the missing days, once they are
+        // read again. No need to remove them.
 
         // Avoid from using old history monitor. History monitor contains their own memory data.
         // Since their duration are no longer valid, the memory data are no longer valid too.
@@ -4384,7 +4678,11 @@ public class MainFrame extends javax.swing.JFrame {
     private volatile StockInfoDatabase stockInfoDatabase = null;
 
     private RealTimeStockMonitor realTimeStockMonitor = null;
+    // Codes of rows which are visible or selected in jTable1. Only being
+    // accessed by event dispatch thread.
+    private Set<Code> visibleCodes = new HashSet<Code>();
     private StockHistoryMonitor stockHistoryMonitor = null;
+    private StockHistoryPrefetcher stockHistoryPrefetcher = null;
 
     private DatabaseTask databaseTask = null;
     private final Object databaseTaskMonitor = new Object();
@@ -4421,10 +4719,16 @@ public class MainFrame extends javax.swing.JFrame {
     // We have 720 (6 * 60 * 2) points per chart, based on 10 seconds per points, with maximum 2 hours.
     // By having maximum 10 charts, we shall not face any memory problem.
     private static final int MAX_DYNAMIC_CHART_SIZE = 10;
+    // Same as the maximum item age of dynamic chart. 2 hours.
+    private static final long DYNAMIC_CHART_MAXIMUM_ITEM_AGE = 2 * 60 * 60 * 1000;
     private static final DynamicChart EMPTY_DYNAMIC_CHART = new DynamicChart();
     private final MouseAdapter dynamicChartMouseAdapter = getDynamicChartMouseAdapter();
 
     private static final int HISTORY_MONITOR_MAX_THREAD = 4;
+    // Let startup finish first.
+    private static final long HISTORY_PREFETCHER_DELAY = 60 * 1000;
+    // Between two history requests to the same server.
+    private static final long HISTORY_PREFETCHER_INTERVAL = 2 * 1000;
 
     /*
      * Having FALL_BELOW_INDICATOR and RISE_ABOVE_INDICATOR, is to enable us
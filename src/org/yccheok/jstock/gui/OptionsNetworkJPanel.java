@@ -74,6 +74,8 @@ public class OptionsNetworkJPanel extends javax.swing.JPanel implements JStockOp
                     System.getProperties().remove("http.proxyPort");
                 }
 
+                Utils.updateHttpTransportProxy(MainFrame.getInstance().getJStockOptions());
+
                 try {
                     final String request = "http://www.google.com";
                     // We are not interested at the returned content at all. We just want
@@ -105,6 +107,8 @@ public class OptionsNetworkJPanel extends javax.swing.JPanel implements JStockOp
                     else {
                         System.getProperties().remove("http.proxyPort");
                     }
+
+                    Utils.updateHttpTransportProxy(MainFrame.getInstance().getJStockOptions());
                 }
                 return false;
             }
@@ -543,6 +547,8 @@ public class OptionsNetworkJPanel extends javax.swing.JPanel implements JStockOp
         jStockOptions.setProxyAuthUserName(jTextField2.getText());
         jStockOptions.setProxyAuthPassword(Utils.encrypt(new String(jPasswordField1.getPassword())));
 
+        Utils.updateHttpTransportProxy(jStockOptions);
+
         JRadioButton tmp = org.yccheok.jstock.gui.Utils.getSelection(this.buttonGroup1);
         // Impossible. Just to be paranoid.
         if (tmp != null) {
@@ -1780,6 +1780,7 @@ public class PortfolioManagementJPanel extends javax.swing.JPanel {
             
             Portfolio portfolio = (Portfolio)portfolioTreeTableModel.getRoot();
             final int count = portfolio.getChildCount();
+            final List<Code> codes = new ArrayList<Code>(count);
             
             for (int i = 0; i < count; i++) {
                 TransactionSummary transactionSummary = (TransactionSummary)portfolio.getChildAt(i);
@@ -1788,8 +1789,9 @@ public class PortfolioManagementJPanel extends javax.swing.JPanel {
                 
                 final Transaction transaction = (Transaction)transactionSummary.getChildAt(0);
 
-                this.realTimeStockMonitor.addStockCode(transaction.getContract().getCode());
+                codes.add(transaction.getContract().getCode());
             }
+            this.realTimeStockMonitor.addStockCodes(codes);
             this.realTimeStockMonitor.startNewThreadsIfNecessary();
             this.realTimeStockMonitor.refresh();
         }
@@ -2311,7 +2313,13 @@ public class PortfolioManagementJPanel extends javax.swing.JPanel {
             });
         }
         
-        realTimeStockMonitor = new RealTimeStockMonitor(4, 20, MainFrame.getInstance().getJStockOptions().getScanningSpeed());
+        realTimeStockMonitor = Utils.newRealTimeStockMonitor(MainFrame.getInstance().getJStockOptions());
+        // Portfolio is only interested in last price, and previous price as
+        // fall back.
+        realTimeStockMonitor.setDeltaEnabled(MainFrame.getInstance().getJStockOptions().isRealTimeStockMonitorDeltaEnabled());
+        realTimeStockMonitor.setDeltaMask(StockDelta.LAST_PRICE | StockDelta.PREV_PRICE);
+        // Owned stocks are refreshed more frequently than background stocks.
+        realTimeStockMonitor.setDefaultPriority(RealTimeStockMonitor.Priority.Portfolio);
         realTimeStockMonitor.setStockServerFactories(stockServerFactories);
         
         realTimeStockMonitor.attach(this.realTimeStockMonitorObserver);
@@ -2344,11 +2352,15 @@ public class PortfolioManagementJPanel extends javax.swing.JPanel {
     private void update(RealTimeStockMonitor monitor, final java.util.List<Stock> stocks) {
         final BuyPortfolioTreeTableModelEx portfolioTreeTableModel = (BuyPortfolioTreeTableModelEx)buyTreeTable.getTreeTableModel();
  
+        final List<Code> codes = new ArrayList<Code>();
         for (Stock stock : stocks) {
             if (false == portfolioTreeTableModel.updateStockLastPrice(stock)) {
-                this.realTimeStockMonitor.removeStockCode(stock.code);
+                codes.add(stock.code);
             }
         }
+        if (codes.isEmpty() == false) {
+            this.realTimeStockMonitor.removeStockCodes(codes);
+        }
         
         updateWealthHeader();
         
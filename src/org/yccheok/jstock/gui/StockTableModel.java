@@ -45,30 +45,67 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
 
     @Override
     public Object getOldValueAt(int rowIndex, int columnIndex) {
-        List<Object> stockInfo = oldTableModel.get(rowIndex);
+        final Row row = rows.get(rowIndex);
 
-        if (null == stockInfo) {
+        if ((row.oldColumns & (1 << columnIndex)) == 0) {
             return null;
         }
 
-        return stockInfo.get(columnIndex);
+        return getValueAt(row, row.oldQuote, row.oldFallBelow, row.oldRiseAbove, columnIndex);
     }
 
     @Override
     public void clearOldValueAt(int rowIndex, int columnIndex) {
-        List<Object> stockInfo = oldTableModel.get(rowIndex);
-
-        if (null == stockInfo) {
-            return;
-        }
-
-        stockInfo.set(columnIndex, null);
+        final Row row = rows.get(rowIndex);
+        row.oldColumns &= ~(1 << columnIndex);
     }
 
     @Override
     public Object getValueAt(int rowIndex, int columnIndex) {
-        List<Object> stockInfo = tableModel.get(rowIndex);
-        return stockInfo.get(columnIndex);
+        final Row row = rows.get(rowIndex);
+        final StockAlert alert = alerts.get(row.code);
+        return getValueAt(row, row.quote, alert.fallBelow, alert.riseAbove, columnIndex);
+    }
+
+    private static Object getValueAt(Row row, QuoteBook.Quote quote, Double fallBelow, Double riseAbove, int columnIndex) {
+        switch (columnIndex) {
+            case 0:
+                return row.code;
+            case 1:
+                return row.name;
+            case 2:
+                return quote.prevPrice;
+            case 3:
+                return quote.openPrice;
+            case 4:
+                return quote.lastPrice;
+            case 5:
+                return quote.highPrice;
+            case 6:
+                return quote.lowPrice;
+            case 7:
+                return quote.volume;
+            case 8:
+                return quote.changePrice;
+            case 9:
+                return quote.changePricePercentage;
+            case 10:
+                return quote.lastVolume;
+            case 11:
+                return quote.buyPrice;
+            case 12:
+                return quote.buyQuantity;
+            case 13:
+                return quote.sellPrice;
+            case 14:
+                return quote.sellQuantity;
+            case 15:
+                return fallBelow;
+            case 16:
+                return riseAbove;
+            default:
+                throw new IndexOutOfBoundsException("columnIndex : " + columnIndex);
+        }
     }
 
     @Override
@@ -78,7 +115,7 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
 
     @Override
     public int getRowCount() {
-        return tableModel.size();
+        return rows.size();
     }
 
     @Override
@@ -100,24 +137,24 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
     public void setValueAt(Object value, int row, int col) {
         if (col == (columnClasses.length - 1)) {
             final Double riseAbove = (Double) value;
-            final Code code = stocks.get(row).code;
-            alerts.put(code, alerts.get(code).setRiseAbove(riseAbove));
-            List<Object> oldInfos = oldTableModel.get(row);
-            if (oldInfos != null) {
-                oldInfos.set(col, tableModel.get(row).get(col));
+            final Row r = rows.get(row);
+            final StockAlert alert = alerts.get(r.code);
+            if (r.hasOldQuote) {
+                r.oldRiseAbove = alert.riseAbove;
+                r.oldColumns |= (1 << col);
             }
-            tableModel.get(row).set(col, riseAbove);
+            alerts.put(r.code, alert.setRiseAbove(riseAbove));
             fireTableCellUpdated(row, col);
             return;
         } else if (col == (columnClasses.length - 2)) {
             final Double fallBelow = (Double) value;
-            final Code code = stocks.get(row).code;
-            alerts.put(code, alerts.get(code).setFallBelow(fallBelow));
-            List<Object> oldInfos = oldTableModel.get(row);
-            if (oldInfos != null) {
-                oldInfos.set(col, tableModel.get(row).get(col));
+            final Row r = rows.get(row);
+            final StockAlert alert = alerts.get(r.code);
+            if (r.hasOldQuote) {
+                r.oldFallBelow = alert.fallBelow;
+                r.oldColumns |= (1 << col);
             }
-            tableModel.get(row).set(col, fallBelow);
+            alerts.put(r.code, alert.setFallBelow(fallBelow));
             fireTableCellUpdated(row, col);
             return;
         }
@@ -125,17 +162,90 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
         throw new java.lang.UnsupportedOperationException();
     }
 
+    /**
+     * Sets the quote book, which this table reads quotes from. Usually, it is
+     * the quote book of the real time stock monitor, which monitors this
+     * table's stocks. Quotes of codes, which are not in the quote book yet,
+     * are copied into it.
+     *
+     * @param quoteBook the quote book
+     */
+    public void setQuoteBook(QuoteBook quoteBook) {
+        assert (SwingUtilities.isEventDispatchThread());
+
+        if (this.quoteBook == quoteBook) {
+            return;
+        }
+
+        for (Row row : rows) {
+            row.index = quoteBook.add(row.quote.toStock());
+            quoteBook.read(row.index, row.quote);
+            row.oldColumns = 0;
+        }
+        this.quoteBook = quoteBook;
+        this.version = 0;
+
+        if (rows.isEmpty() == false) {
+            this.fireTableRowsUpdated(0, rows.size() - 1);
+        }
+    }
+
+    public QuoteBook getQuoteBook() {
+        return quoteBook;
+    }
+
+    /**
+     * Reads rows again, whose quotes have been updated in quote book since
+     * they are previously read. Previous quotes are kept as old values.
+     */
+    public void refresh() {
+        assert (SwingUtilities.isEventDispatchThread());
+
+        final long latestVersion = quoteBook.getVersion();
+        if (latestVersion == version) {
+            return;
+        }
+
+        for (int index : quoteBook.getIndicesUpdatedSince(version)) {
+            final Integer row = codeToRow.get(quoteBook.getCode(index));
+            if (row != null) {
+                refresh(row);
+            }
+        }
+        // Rows updated after latestVersion will be visited again, but are
+        // only read once, as their quote's version is checked.
+        version = latestVersion;
+    }
+
+    private void refresh(int row) {
+        final Row r = rows.get(row);
+        if (quoteBook.getVersion(r.index) == r.quote.version) {
+            return;
+        }
+
+        // Swap, so that no quote is allocated.
+        final QuoteBook.Quote oldQuote = r.oldQuote;
+        r.oldQuote = r.quote;
+        r.quote = oldQuote;
+        quoteBook.read(r.index, r.quote);
+
+        final StockAlert alert = alerts.get(r.code);
+        r.name = getName(r.code);
+        r.oldFallBelow = alert.fallBelow;
+        r.oldRiseAbove = alert.riseAbove;
+        r.oldColumns = ~0;
+        r.hasOldQuote = true;
+        this.fireTableRowsUpdated(row, row);
+    }
+
     public void updateStock(Stock stock) {
         assert (SwingUtilities.isEventDispatchThread());
 
         final Integer row = codeToRow.get(stock.code);
 
         if (row != null) {
-            oldTableModel.set(row, tableModel.get(row));
-            final StockAlert alert = alerts.get(stock.code);
-            tableModel.set(row, stockToList(stock, alert));
-            stocks.set(row, stock);
-            this.fireTableRowsUpdated(row, row);
+            quoteBook.update(stock);
+            refresh(row);
         }
     }
 
@@ -144,11 +254,14 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
 
         Integer row = codeToRow.get(stock.code);
         if (row == null) {
-            tableModel.add(stockToList(stock, alert));
-            oldTableModel.add(null);
-            stocks.add(stock);
+            // A quote which is already in quote book is never overwritten,
+            // as it is probably newer.
+            final Row r = new Row(stock.code, quoteBook.add(stock));
+            quoteBook.read(r.index, r.quote);
+            r.name = getName(stock.code);
+            rows.add(r);
             alerts.put(stock.code, alert);
-            final int rowIndex = tableModel.size() - 1;
+            final int rowIndex = rows.size() - 1;
             codeToRow.put(stock.code, rowIndex);
             fireTableRowsInserted(rowIndex, rowIndex);
         }
@@ -163,15 +276,13 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
     public void clearAllStocks() {
         assert (SwingUtilities.isEventDispatchThread());
 
-        final int size = stocks.size();
+        final int size = rows.size();
 
         if (size == 0) {
             return;
         }
 
-        tableModel.clear();
-        oldTableModel.clear();
-        stocks.clear();
+        rows.clear();
         alerts.clear();
         codeToRow.clear();
 
@@ -185,7 +296,18 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
      * @return Stock based on the row index.
      */
     public Stock getStock(int row) {
-        return stocks.get(row);
+        return rows.get(row).quote.toStock();
+    }
+
+    /**
+     * Returns stock code based on the row index. Unlike getStock, no stock
+     * is created.
+     *
+     * @param row The row index
+     * @return Stock code based on the row index.
+     */
+    public Code getCode(int row) {
+        return rows.get(row).code;
     }
 
     public Double getRiseAbove(Stock stock) {
@@ -204,54 +326,49 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
         return stockAlert.fallBelow;
     }
 
+    /**
+     * Returns true if the stock of the given code has rise above or fall
+     * below alert.
+     *
+     * @param code the code
+     * @return true if the stock of the given code has alert
+     */
+    public boolean hasAlert(Code code) {
+        StockAlert stockAlert = this.alerts.get(code);
+        if (stockAlert == null) {
+            return false;
+        }
+        return stockAlert.riseAbove != null || stockAlert.fallBelow != null;
+    }
+
     public List<Stock> getStocks() {
+        final List<Stock> stocks = new ArrayList<Stock>(rows.size());
+        for (Row row : rows) {
+            stocks.add(row.quote.toStock());
+        }
         return Collections.unmodifiableList(stocks);
     }
 
     public void removeRow(int row) {
         assert (SwingUtilities.isEventDispatchThread());
 
-        oldTableModel.remove(row);
-        List<Object> list = tableModel.remove(row);
-        stocks.remove(row);
-        final Code code = (Code) list.get(0);
+        final Code code = rows.remove(row).code;
         alerts.remove(code);
-        // 0 is stock code.
         codeToRow.remove(code);
 
-        int size = stocks.size();
+        int size = rows.size();
         for (int i = row; i < size; i++) {
-            Stock s = stocks.get(i);
-            codeToRow.put(s.code, i);
+            codeToRow.put(rows.get(i).code, i);
         }
 
         this.fireTableRowsDeleted(row, row);
     }
 
-    private List<Object> stockToList(Stock stock, StockAlert alert) {
-        List<Object> list = new ArrayList<Object>();
-        list.add(stock.code);
+    private static String getName(Code code) {
         if (MainFrame.getInstance().getStockInfoDatabase() != null) {
-            list.add(MainFrame.getInstance().getStockInfoDatabase().codeToName(stock.code));
-        } else {
-            list.add("");
+            return MainFrame.getInstance().getStockInfoDatabase().codeToName(code);
         }
-        list.add(stock.getPrevPrice());
-        list.add(stock.getOpenPrice());
-        list.add(stock.getLastPrice());
-        list.add(stock.getHighPrice());
-        list.add(stock.getLowPrice());
-        list.add(stock.getVolume());
-        list.add(stock.getChangePrice());
-        list.add(stock.getChangePricePercentage());
-        list.add(stock.getLastVolume());
-        list.add(stock.getBuyPrice());
-        list.add(stock.getBuyQuantity());
-        list.add(stock.getSellPrice());
-        list.add(stock.getSellQuantity());
-        list.add(alert.fallBelow);
-        list.add(alert.riseAbove);
-        return list;
+        return "";
     }
 
     @Override
@@ -285,9 +402,32 @@ public class StockTableModel extends AbstractTableModelWithMemory implements CSV
 
     private long timestamp = 0;
 
-    private final List<List<Object>> tableModel = new ArrayList<List<Object>>();
-    private final List<List<Object>> oldTableModel = new ArrayList<List<Object>>();
-    private final List<Stock> stocks = new ArrayList<Stock>();
+    // A row of this table. Quotes are copied out of quote book, so that
+    // painting never holds quote book's lock, and the previous quote is kept
+    // for cell blinking.
+    private static class Row {
+        public Row(Code code, int index) {
+            this.code = code;
+            this.index = index;
+        }
+        public final Code code;
+        // Index of the code in quote book.
+        public int index;
+        public String name = "";
+        public QuoteBook.Quote quote = new QuoteBook.Quote();
+        public QuoteBook.Quote oldQuote = new QuoteBook.Quote();
+        public Double oldFallBelow = null;
+        public Double oldRiseAbove = null;
+        // Bit n is set, if column n still has its old value.
+        public int oldColumns = 0;
+        // false till the row is read again, after being added.
+        public boolean hasOldQuote = false;
+    }
+
+    private QuoteBook quoteBook = new QuoteBook();
+    // Version of quote book, when rows are previously read.
+    private long version = 0;
+    private final List<Row> rows = new ArrayList<Row>();
     private final Map<Code, StockAlert> alerts = new ConcurrentHashMap<Code, StockAlert>();
     // Used to get column by Name in fast way.
     private final Map<String, Integer> columnNameMapping = new ConcurrentHashMap<String, Integer>();
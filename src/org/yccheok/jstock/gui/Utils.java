@@ -85,7 +85,10 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -115,6 +118,7 @@ import net.sourceforge.pinyin4j.format.HanyuPinyinCaseType;
 import net.sourceforge.pinyin4j.format.HanyuPinyinOutputFormat;
 import net.sourceforge.pinyin4j.format.HanyuPinyinToneType;
 import net.sourceforge.pinyin4j.format.HanyuPinyinVCharType;
+import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
@@ -131,7 +135,6 @@ import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
 import org.apache.commons.httpclient.methods.multipart.StringPart;
-import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.lang.CharUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -1087,6 +1090,171 @@ public class Utils {
         return zombiePool;
     }
 
+    /**
+     * Returns the scheduler shared by all real time stock monitors, which are
+     * running in scheduler mode.
+     *
+     * @return the scheduler shared by all real time stock monitors
+     */
+    public static synchronized ScheduledExecutorService getRealTimeStockMonitorScheduler()
+    {
+        if (realTimeStockMonitorScheduler == null) {
+            // Created only when scheduler mode is being used.
+            realTimeStockMonitorScheduler = Executors.newScheduledThreadPool(Utils.NUM_OF_THREADS_REAL_TIME_STOCK_MONITOR_SCHEDULER, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "RealTimeStockMonitorScheduler-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return realTimeStockMonitorScheduler;
+    }
+
+    /**
+     * Creates a new real time stock monitor. All the monitors created by this
+     * method share the same process wide hub. Hence, a code which is being
+     * monitored by several monitors will only be fetched once per scan.
+     *
+     * @param jStockOptions the options
+     * @return a new real time stock monitor
+     */
+    public static RealTimeStockMonitor newRealTimeStockMonitor(JStockOptions jStockOptions)
+    {
+        return getRealTimeStockMonitorHub(jStockOptions).newRealTimeStockMonitor();
+    }
+
+    /**
+     * Returns the trading session of the options' country, which is used by
+     * monitors to slow down outside trading hours.
+     *
+     * @param jStockOptions the options
+     * @return the trading session, or null if polling outside trading hours
+     * is enabled, or recorded quotes are being replayed
+     */
+    public static TradingSession getTradingSession(JStockOptions jStockOptions)
+    {
+        if (jStockOptions.isPollingOutsideTradingHours() || Factories.INSTANCE.isReplaying()) {
+            return null;
+        }
+        return TradingSession.get(jStockOptions.getCountry());
+    }
+
+    /**
+     * Creates a new hedger, based on the given options.
+     *
+     * @param jStockOptions the options
+     * @return a new hedger, or null if hedged request is disabled
+     */
+    public static Hedger newHedger(JStockOptions jStockOptions)
+    {
+        if (jStockOptions.isHedgedRequestEnabled() == false) {
+            return null;
+        }
+        return new Hedger(jStockOptions.getHedgedRequestPercentile());
+    }
+
+    /**
+     * Returns the process wide real time stock monitor hub. It will be created
+     * based on the given options, during the first call. Later calls apply
+     * the given options to the existing hub. If scheduler mode is enabled, the
+     * hub will run its batches on the shared scheduler. Else, it will run on
+     * its own dedicated threads.
+     *
+     * @param jStockOptions the options
+     * @return the process wide real time stock monitor hub
+     */
+    public static synchronized RealTimeStockMonitorHub getRealTimeStockMonitorHub(JStockOptions jStockOptions)
+    {
+        final boolean isSchedulerEnabled = jStockOptions.isRealTimeStockMonitorSchedulerEnabled();
+        if (realTimeStockMonitorHub == null) {
+            final RealTimeStockMonitor realTimeStockMonitor = newPollingRealTimeStockMonitor(jStockOptions);
+            realTimeStockMonitor.setTradingSession(getTradingSession(jStockOptions));
+            realTimeStockMonitorHub = new RealTimeStockMonitorHub(realTimeStockMonitor);
+            isRealTimeStockMonitorHubSchedulerEnabled = isSchedulerEnabled;
+        } else if (isRealTimeStockMonitorHubSchedulerEnabled != isSchedulerEnabled) {
+            final RealTimeStockMonitor oldRealTimeStockMonitor = realTimeStockMonitorHub.setRealTimeStockMonitor(newPollingRealTimeStockMonitor(jStockOptions));
+            isRealTimeStockMonitorHubSchedulerEnabled = isSchedulerEnabled;
+            zombiePool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    log.info("Prepare to shut down " + oldRealTimeStockMonitor + "...");
+                    oldRealTimeStockMonitor.clearStockCodes();
+                    oldRealTimeStockMonitor.dettachAll();
+                    oldRealTimeStockMonitor.stop();
+                    log.info("Shut down " + oldRealTimeStockMonitor + " peacefully.");
+                }
+            });
+        }
+
+        realTimeStockMonitorHub.setDefaultDelay(jStockOptions.getScanningSpeed());
+
+        // Keep the latency statistic of the current hedger, unless hedging
+        // options have changed.
+        final Hedger hedger = realTimeStockMonitorHub.getHedger();
+        if (jStockOptions.isHedgedRequestEnabled() != (hedger != null) || (hedger != null && hedger.getPercentile() != jStockOptions.getHedgedRequestPercentile())) {
+            realTimeStockMonitorHub.setHedger(newHedger(jStockOptions));
+        }
+
+        // Replayed quotes are not recorded. They are not live quotes, and may
+        // even come from the ticks directory itself.
+        if (jStockOptions.isTickRecorderEnabled() && Factories.INSTANCE.isReplaying() == false) {
+            if (tickRecorder == null) {
+                // Underlying monitor is not in delta mode. Hence, the
+                // recorder sees every received quote.
+                tickRecorder = new TickRecorder(new File(getUserDataDirectory() + "ticks"));
+                tickRecorder.setRetentionDays(TICK_RECORDER_RETENTION_DAYS);
+                realTimeStockMonitorHub.attach(tickRecorder);
+            }
+        } else if (tickRecorder != null) {
+            realTimeStockMonitorHub.dettach(tickRecorder);
+            tickRecorder.close();
+            tickRecorder = null;
+        }
+
+        return realTimeStockMonitorHub;
+    }
+
+    private static RealTimeStockMonitor newPollingRealTimeStockMonitor(JStockOptions jStockOptions)
+    {
+        if (jStockOptions.isRealTimeStockMonitorSchedulerEnabled()) {
+            return new RealTimeStockMonitor(getRealTimeStockMonitorScheduler(), REAL_TIME_STOCK_MONITOR_MAX_STOCK_SIZE_PER_SCAN, jStockOptions.getScanningSpeed());
+        }
+        return new RealTimeStockMonitor(REAL_TIME_STOCK_MONITOR_MAX_THREAD, REAL_TIME_STOCK_MONITOR_MAX_STOCK_SIZE_PER_SCAN, jStockOptions.getScanningSpeed());
+    }
+
+    /**
+     * Returns the process wide stock history service, of the current
+     * country's history directory. Stock history monitors, which share this
+     * service, never fetch the same code at the same time.
+     *
+     * @return the process wide stock history service
+     */
+    public static synchronized StockHistoryService getStockHistoryService()
+    {
+        final String directory = getHistoryDirectory();
+        if (stockHistoryService == null || stockHistoryService.getStockHistorySerializer().getDirectory().equals(directory) == false) {
+            // Country has changed.
+            stockHistoryService = new StockHistoryService(new StockHistorySerializer(directory));
+        }
+        return stockHistoryService;
+    }
+
+    /**
+     * Returns the process wide tick recorder, which records every quote
+     * received by the real time stock monitor hub.
+     *
+     * @return the process wide tick recorder, or null if tick recorder is
+     * disabled, or the hub is not created yet
+     */
+    public static synchronized TickRecorder getTickRecorder()
+    {
+        return tickRecorder;
+    }
+
     public static Indicator getLastPriceRiseAboveIndicator(double lastPrice)
     {
         final StockOperator stockOperator = new StockOperator();
@@ -1834,7 +2002,7 @@ public class Utils {
      * @return server response. null if fail.
      */
     public static String getResponseBodyAsStringBasedOnProxyAuthOption(String request) {
-        return _getResponseBodyAsStringBasedOnProxyAuthOption(httpClient, request);
+        return HttpTransport.INSTANCE.getResponseBodyAsString(request);
     }
     
     /**
@@ -1844,76 +2012,20 @@ public class Utils {
      * @return server response. null if fail.
      */
     public static String getResponseBodyAsStringBasedOnProxyAuthOptionWithAgentInfo(String request) {
-        return _getResponseBodyAsStringBasedOnProxyAuthOption(httpClientWithAgentInfo, request);        
+        return HttpTransport.INSTANCE.getResponseBodyAsStringWithAgentInfo(request);
     }
-    
+
+    /**
+     * Resolves proxy settings, from system properties and JStockOptions, into
+     * HttpTransport. This must be called whenever proxy settings are changed.
+     *
+     * @param jStockOptions the JStockOptions
+     */
     // We prefer to have this method in gui package instead of engine. This is because it requires
     // access to JStockOptions.
-    // Returns null if fail.
-    private static String _getResponseBodyAsStringBasedOnProxyAuthOption(HttpClient client, String request) {
-        org.yccheok.jstock.engine.Utils.setHttpClientProxyFromSystemProperties(client);
-        org.yccheok.jstock.gui.Utils.setHttpClientProxyCredentialsFromJStockOptions(client);
-
-        final HttpMethod method = new GetMethod(request);
-        final JStockOptions jStockOptions = MainFrame.getInstance().getJStockOptions();
-        String respond = null;
-        try {
-            if (jStockOptions.isProxyAuthEnabled()) {
-                method.setFollowRedirects(false);
-                client.executeMethod(method);
-
-                int statuscode = method.getStatusCode();
-                if ((statuscode == HttpStatus.SC_MOVED_TEMPORARILY) ||
-                    (statuscode == HttpStatus.SC_MOVED_PERMANENTLY) ||
-                    (statuscode == HttpStatus.SC_SEE_OTHER) ||
-                    (statuscode == HttpStatus.SC_TEMPORARY_REDIRECT)) {
-                    //Make new Request with new URL
-                    Header header = method.getResponseHeader("location");
-                    HttpMethod RedirectMethod = new GetMethod(header.getValue());
-                    // I assume it is OK to release method for twice. (The second
-                    // release will happen in finally block). We shouldn't have an
-                    // unreleased method, before executing another new method.
-                    method.releaseConnection();
-                    // Do RedirectMethod within try-catch-finally, so that we can have a
-                    // exception free way to release RedirectMethod connection.
-                    // #2836422
-                    try {
-                        client.executeMethod(RedirectMethod);
-                        respond = RedirectMethod.getResponseBodyAsString();
-                    }
-                    catch (HttpException exp) {
-                        log.error(null, exp);
-                        return null;
-                    }
-                    catch (IOException exp) {
-                        log.error(null, exp);
-                        return null;
-                    }
-                    finally {
-                        RedirectMethod.releaseConnection();
-                    }
-                }
-                else {
-                    respond = method.getResponseBodyAsString();
-                } // if statuscode = Redirect
-            }
-            else {
-                client.executeMethod(method);
-                respond = method.getResponseBodyAsString();
-            } //  if jStockOptions.isProxyAuthEnabled()
-        }
-        catch (HttpException exp) {
-            log.error(null, exp);
-            return null;
-        }
-        catch (IOException exp) {
-            log.error(null, exp);
-            return null;
-        }
-        finally {
-            method.releaseConnection();
-        }
-        return respond;
+    public static void updateHttpTransportProxy(JStockOptions jStockOptions) {
+        final Credentials credentials = jStockOptions.isProxyAuthEnabled() ? jStockOptions.getCredentials() : null;
+        HttpTransport.INSTANCE.setProxyFromSystemProperties(credentials);
     }
 
     public static class InputStreamAndMethod {
@@ -2934,8 +3046,28 @@ public class Utils {
 
     private static final int NUM_OF_THREADS_ZOMBIE_POOL = 4;
 
+    private static final int NUM_OF_THREADS_REAL_TIME_STOCK_MONITOR_SCHEDULER = 8;
+
+    private static ScheduledExecutorService realTimeStockMonitorScheduler = null;
+
+    private static final int REAL_TIME_STOCK_MONITOR_MAX_THREAD = 4;
+
+    private static final int REAL_TIME_STOCK_MONITOR_MAX_STOCK_SIZE_PER_SCAN = 20;
+
+    // Same as history files, ticks which are older than a month are removed.
+    private static final int TICK_RECORDER_RETENTION_DAYS = 30;
+
+    private static RealTimeStockMonitorHub realTimeStockMonitorHub = null;
+
+    private static boolean isRealTimeStockMonitorHubSchedulerEnabled = false;
+
+    private static StockHistoryService stockHistoryService = null;
+
+    private static TickRecorder tickRecorder = null;
+
+    // Used by cloud, POST and download requests. Stock server requests go
+    // through HttpTransport.
     private static final HttpClient httpClient;
-    private static final HttpClient httpClientWithAgentInfo;
     
     /** Maximum loop count when creating temp directories. */
     private static final int TEMP_DIR_ATTEMPTS = 10000;
@@ -2951,18 +3083,6 @@ public class Utils {
         multiThreadedHttpConnectionManager.getParams().setMaxConnectionsPerHost(httpClient.getHostConfiguration(), 128);
 
     }
-    static {
-        MultiThreadedHttpConnectionManager multiThreadedHttpConnectionManager = new MultiThreadedHttpConnectionManager();
-        multiThreadedHttpConnectionManager.getParams().setMaxTotalConnections(128);
-        multiThreadedHttpConnectionManager.getParams().setDefaultMaxConnectionsPerHost(128);
-        httpClientWithAgentInfo = new HttpClient(multiThreadedHttpConnectionManager);
-        // Provide agent information, as requested by KLSEInfo owner.
-        httpClientWithAgentInfo.getParams().setParameter(HttpMethodParams.USER_AGENT, "JStock-1.0.6o");
-        // To prevent cookie warnings.
-        httpClientWithAgentInfo.getParams().setParameter("http.protocol.single-cookie-header", true);
-        httpClientWithAgentInfo.getParams().setCookiePolicy(org.apache.commons.httpclient.cookie.CookiePolicy.BROWSER_COMPATIBILITY);
-        multiThreadedHttpConnectionManager.getParams().setMaxConnectionsPerHost(httpClientWithAgentInfo.getHostConfiguration(), 128);    
-    }
     
     // http://stackoverflow.com/questions/1360113/is-java-regex-thread-safe
     private static final Pattern googleDocTitlePattern = Pattern.compile("jstock-" + getJStockUUID() +  "-checksum=([0-9]+)-date=([0-9]+)-version=([0-9]+)\\.zip", Pattern.CASE_INSENSITIVE);
@@ -809,7 +809,7 @@ public class ChartJDialog extends javax.swing.JDialog {
 
     private void jMenuItem1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem1ActionPerformed
         assert(this.stockHistoryServer.size() > 0);
-        final Stock stock = this.stockHistoryServer.getStock(this.stockHistoryServer.getTimestamp(0));
+        final Stock stock = this.stockHistoryServer.getStockAt(0);
         final File file = org.yccheok.jstock.gui.Utils.promptSaveCSVAndExcelJFileChooser(stock.code.toString());
 
         if (file != null) {
@@ -1308,7 +1308,7 @@ public class ChartJDialog extends javax.swing.JDialog {
     
     private String getBestStockName() {
         final int num = stockHistoryServer.size();
-        final Stock stock = stockHistoryServer.getStock(stockHistoryServer.getTimestamp(num - 1));
+        final Stock stock = stockHistoryServer.getStockAt(num - 1);
 
         // We just get this from the offline database.
         final StockInfoDatabase stockInfoDatabase = MainFrame.getInstance().getStockInfoDatabase();
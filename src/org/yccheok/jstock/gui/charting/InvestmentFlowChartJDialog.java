@@ -555,7 +555,7 @@ public class InvestmentFlowChartJDialog extends javax.swing.JDialog implements O
             });
         }
 
-        this.realTimeStockMonitor = new RealTimeStockMonitor(4, 20, MainFrame.getInstance().getJStockOptions().getScanningSpeed());
+        this.realTimeStockMonitor = org.yccheok.jstock.gui.Utils.newRealTimeStockMonitor(MainFrame.getInstance().getJStockOptions());
         this.realTimeStockMonitor.setStockServerFactories(MainFrame.getInstance().getStockServerFactories());
 
         this.realTimeStockMonitor.attach(this);
@@ -0,0 +1,299 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.analysis;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.yccheok.jstock.charting.TechnicalAnalysis;
+import org.yccheok.jstock.engine.ArrayStockHistoryServer;
+import org.yccheok.jstock.engine.Code;
+import org.yccheok.jstock.engine.Stock;
+import org.yccheok.jstock.engine.StockHistoryServer;
+
+/**
+ *
+ * @author yccheok
+ */
+public class StockHistoryOperatorTest extends TestCase {
+
+    public StockHistoryOperatorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    // Daily history of week days till today, with a missing day every 20
+    // days, as public holidays.
+    private static StockHistoryServer newStockHistoryServer(int days) {
+        final Random random = new Random(0);
+        final Calendar calendar = Calendar.getInstance();
+        org.yccheok.jstock.engine.Utils.resetCalendarTime(calendar);
+        final List<Long> timestamps = new ArrayList<Long>();
+        for (int i = 0; timestamps.size() < days; i++) {
+            final int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+            if (dayOfWeek != Calendar.SATURDAY && dayOfWeek != Calendar.SUNDAY && i % 20 != 7) {
+                timestamps.add(0, calendar.getTimeInMillis());
+            }
+            calendar.add(Calendar.DATE, -1);
+        }
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(Code.newInstance("TEST"));
+        double prev = 10.0;
+        for (Long timestamp : timestamps) {
+            final double open = Math.max(0.01, prev + random.nextGaussian() * 0.1);
+            final double last = Math.max(0.01, open + random.nextGaussian() * 0.2);
+            final double high = Math.max(open, last) + random.nextDouble() * 0.1;
+            final double low = Math.max(0.01, Math.min(open, last) - random.nextDouble() * 0.1);
+            builder.add(timestamp, open, high, low, last, random.nextInt(10000000));
+            prev = last;
+        }
+        return builder.sharesIssued(1000000L).marketCapital(20000000L).build();
+    }
+
+    private static double getValue(Stock stock, StockHistoryOperator.Type type) {
+        switch (type) {
+            case PrevPrice:
+                return stock.getPrevPrice();
+            case OpenPrice:
+                return stock.getOpenPrice();
+            case HighPrice:
+                return stock.getHighPrice();
+            case LowPrice:
+                return stock.getLowPrice();
+            case LastPrice:
+                return stock.getLastPrice();
+            case TypicalPrice:
+                return TechnicalAnalysis.getTypicalPrice(stock);
+            case Volume:
+                return stock.getVolume();
+            default:
+                throw new IllegalArgumentException(type.toString());
+        }
+    }
+
+    // The previous way of StockHistoryOperator, which looks up the history
+    // day by day, from start date to end date, and backward for look back.
+    private static Double oldCalculate(StockHistoryOperator operator, StockHistoryServer stockHistoryServer) {
+        final Calendar startCalendar = Calendar.getInstance();
+        final Calendar endCalendar = Calendar.getInstance();
+        startCalendar.setTime(operator.getStartDate());
+        endCalendar.setTime(operator.getEndDate());
+        org.yccheok.jstock.engine.Utils.resetCalendarTime(startCalendar);
+        org.yccheok.jstock.engine.Utils.resetCalendarTime(endCalendar);
+
+        final List<Stock> tmpStocks = new ArrayList<Stock>();
+        while (true) {
+            final Stock stock = stockHistoryServer.getStock(startCalendar.getTimeInMillis());
+            if (stock != null) {
+                tmpStocks.add(stock);
+            }
+            if (startCalendar.get(Calendar.YEAR) == endCalendar.get(Calendar.YEAR) &&
+                    startCalendar.get(Calendar.MONTH) == endCalendar.get(Calendar.MONTH) &&
+                    startCalendar.get(Calendar.DATE) == endCalendar.get(Calendar.DATE)) {
+                break;
+            }
+            startCalendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        final int day = tmpStocks.size();
+        if (day == 0) {
+            return null;
+        }
+
+        startCalendar.setTime(operator.getStartDate());
+        org.yccheok.jstock.engine.Utils.resetCalendarTime(startCalendar);
+        int remainingHistorySize = Math.max(0, operator.getRequiredHistorySize(day) - day);
+        final Calendar oldestHistoryCalendar = Calendar.getInstance();
+        oldestHistoryCalendar.setTimeInMillis(stockHistoryServer.getTimestamp(0));
+        final List<Stock> stocks = new ArrayList<Stock>();
+        while (remainingHistorySize > 0) {
+            startCalendar.add(Calendar.DAY_OF_MONTH, -1);
+            if (startCalendar.before(oldestHistoryCalendar)) {
+                break;
+            }
+            final Stock stock = stockHistoryServer.getStock(startCalendar.getTimeInMillis());
+            if (stock != null) {
+                stocks.add(stock);
+                remainingHistorySize--;
+            }
+        }
+        Collections.reverse(stocks);
+        stocks.addAll(tmpStocks);
+
+        final List<Double> values = new ArrayList<Double>();
+        final List<Double> highs = new ArrayList<Double>();
+        final List<Double> lows = new ArrayList<Double>();
+        final List<Double> closes = new ArrayList<Double>();
+        final List<Long> volumes = new ArrayList<Long>();
+        final StockHistoryOperator.Type type = operator.getType();
+        if (operator.getFunction() == StockHistoryOperator.Function.MFI) {
+            for (Stock stock : stocks) {
+                values.add(TechnicalAnalysis.getTypicalPrice(stock));
+                highs.add(stock.getHighPrice());
+                lows.add(stock.getLowPrice());
+                closes.add(stock.getLastPrice());
+                volumes.add(stock.getVolume());
+            }
+        } else if (type == StockHistoryOperator.Type.MarketCapital) {
+            values.add((double)stockHistoryServer.getMarketCapital());
+        } else if (type == StockHistoryOperator.Type.SharesIssued) {
+            values.add((double)stockHistoryServer.getSharesIssued());
+        } else {
+            for (Stock stock : stocks) {
+                values.add(getValue(stock, type));
+            }
+        }
+
+        switch (operator.getFunction()) {
+            case Max: {
+                double v = 0.0;
+                for (Double value : values) {
+                    v = Math.max(v, value);
+                }
+                return v;
+            }
+            case Min: {
+                double v = Double.MAX_VALUE;
+                for (Double value : values) {
+                    v = Math.min(v, value);
+                }
+                return v;
+            }
+            case Average: {
+                double sum = 0.0;
+                for (Double value : values) {
+                    sum = sum + value;
+                }
+                return sum / values.size();
+            }
+            case MeanDeviation: {
+                double average = 0.0;
+                for (Double value : values) {
+                    average = average + value;
+                }
+                average = average / (double)values.size();
+                double v = 0.0;
+                for (Double value : values) {
+                    v = v + Math.abs(value - average);
+                }
+                return v / (double)values.size();
+            }
+            case RSI:
+                return TechnicalAnalysis.createRSI(values, day);
+            case EMA:
+                return TechnicalAnalysis.createEMA(values, day);
+            case MFI:
+                return TechnicalAnalysis.createMFI(highs, lows, closes, volumes, day);
+            case MACD:
+                return TechnicalAnalysis.createMACDFix(values, day).outMACD;
+            case MACDSignal:
+                return TechnicalAnalysis.createMACDFix(values, day).outMACDSignal;
+            case MACDHist:
+                return TechnicalAnalysis.createMACDFix(values, day).outMACDHist;
+            default:
+                throw new IllegalArgumentException(operator.getFunction().toString());
+        }
+    }
+
+    private static void assertSameValue(String message, Double expected, Object actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertNotNull(message, actual);
+        final double a = (Double)actual;
+        // Summation order is the same. Only last bits may differ, as arrays
+        // are unboxed.
+        assertEquals(message, expected, a, 1e-9 * Math.max(1.0, Math.abs(expected)));
+    }
+
+    /**
+     * Test of calculate method, of class StockHistoryOperator, against the
+     * previous day by day look up, on random date ranges.
+     */
+    public void testCalculate() {
+        System.out.println("calculate");
+        final StockHistoryServer stockHistoryServer = newStockHistoryServer(400);
+        final Random random = new Random(1);
+        for (StockHistoryOperator.Function function : StockHistoryOperator.Function.values()) {
+            for (StockHistoryOperator.Type type : StockHistoryOperator.Type.values()) {
+                for (int i = 0; i < 20; i++) {
+                    // End date has time information, as it comes from GUI.
+                    final long end = stockHistoryServer.getTimestamp(random.nextInt(stockHistoryServer.size())) + random.nextInt(3) * 5L * 60 * 60 * 1000;
+                    final long start = end - random.nextInt(60) * 24L * 60 * 60 * 1000;
+                    final StockHistoryOperator operator = new StockHistoryOperator();
+                    operator.setFunction(function);
+                    operator.setType(type);
+                    operator.setStartDate(new Date(start));
+                    operator.setEndDate(new Date(end));
+                    final String message = function + " " + type + " " + new Date(start) + " " + new Date(end);
+                    // Some combinations, like RSI of market capital, fail
+                    // within TechnicalAnalysis. They must fail the same way.
+                    Class<?> expectedException = null;
+                    Double expected = null;
+                    try {
+                        expected = oldCalculate(operator, stockHistoryServer);
+                    } catch (RuntimeException exp) {
+                        expectedException = exp.getClass();
+                    }
+                    try {
+                        operator.calculate(stockHistoryServer);
+                        assertNull(message, expectedException);
+                        assertSameValue(message, expected, operator.calculate());
+                    } catch (RuntimeException exp) {
+                        assertEquals(message, expectedException, exp.getClass());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Test of calculate method, of class StockHistoryOperator, with ranges
+     * outside the history, and start date after end date.
+     */
+    public void testCalculateOutside() {
+        System.out.println("calculateOutside");
+        final StockHistoryServer stockHistoryServer = newStockHistoryServer(50);
+        final StockHistoryOperator operator = new StockHistoryOperator();
+        operator.setFunction(StockHistoryOperator.Function.Average);
+        operator.setType(StockHistoryOperator.Type.LastPrice);
+
+        final long first = stockHistoryServer.getTimestamp(0);
+        operator.setStartDate(new Date(first - 30L * 24 * 60 * 60 * 1000));
+        operator.setEndDate(new Date(first - 24L * 60 * 60 * 1000));
+        operator.calculate(stockHistoryServer);
+        assertNull(operator.calculate());
+
+        final long last = stockHistoryServer.getTimestamp(stockHistoryServer.size() - 1);
+        operator.setStartDate(new Date(last + 24L * 60 * 60 * 1000));
+        operator.setEndDate(new Date(last + 30L * 24 * 60 * 60 * 1000));
+        operator.calculate(stockHistoryServer);
+        assertNull(operator.calculate());
+
+        // Back to a valid range.
+        operator.setStartDate(new Date(first));
+        operator.setEndDate(new Date(first));
+        operator.calculate(stockHistoryServer);
+        assertEquals(stockHistoryServer.getStockAt(0).getLastPrice(), (Double)operator.calculate());
+
+        operator.setStartDate(new Date(last));
+        operator.setEndDate(new Date(first));
+        operator.calculate(stockHistoryServer);
+        assertNull(operator.calculate());
+    }
+}
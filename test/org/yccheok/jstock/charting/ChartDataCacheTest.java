@@ -0,0 +1,210 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.charting;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.yccheok.jstock.engine.ArrayStockHistoryServer;
+import org.yccheok.jstock.engine.Code;
+import org.yccheok.jstock.engine.StockHistoryServer;
+
+/**
+ *
+ * @author yccheok
+ */
+public class ChartDataCacheTest extends TestCase {
+
+    public ChartDataCacheTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ChartDataCache.INSTANCE.clear();
+        final Random random = new Random(0);
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2025, Calendar.DECEMBER, 1);
+        while (timestamps.size() < DAYS) {
+            final int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+            if (dayOfWeek != Calendar.SATURDAY && dayOfWeek != Calendar.SUNDAY) {
+                timestamps.add(calendar.getTimeInMillis());
+                closes.add(10.0 + random.nextDouble());
+                volumes.add((long)random.nextInt(1000000));
+            }
+            calendar.add(Calendar.DATE, 1);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ChartDataCache.INSTANCE.clear();
+        super.tearDown();
+    }
+
+    // Days from index from, inclusive, to index size, exclusive. The last day
+    // is still in progress, with a price which will be revised later.
+    private StockHistoryServer newStockHistoryServer(int from, int size, double revision) {
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(CODE);
+        for (int i = from; i < size; i++) {
+            final double close = i == size - 1 ? closes.get(i) + revision : closes.get(i);
+            builder.add(timestamps.get(i), close - 0.1, close + 0.2, close - 0.2, close, volumes.get(i));
+        }
+        return builder.build();
+    }
+
+    private static void assertSameChartDatas(String message, List<ChartData> expected, List<ChartData> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final ChartData e = expected.get(i);
+            final ChartData a = actual.get(i);
+            assertEquals(message, e.prevPrice, a.prevPrice);
+            assertEquals(message, e.openPrice, a.openPrice);
+            assertEquals(message, e.lastPrice, a.lastPrice);
+            assertEquals(message, e.highPrice, a.highPrice);
+            assertEquals(message, e.lowPrice, a.lowPrice);
+            assertEquals(message, e.volume, a.volume);
+            assertEquals(message, e.timestamp, a.timestamp);
+        }
+    }
+
+    /**
+     * Test of getWeeklyChartData and getMonthlyChartData method, of class
+     * ChartDataCache. Chart data of a stock history, with days appended one
+     * by one, is the same as the full rebuild.
+     */
+    public void testAppend() {
+        System.out.println("append");
+        final ChartDataCache cache = ChartDataCache.INSTANCE;
+        for (int size = 1; size <= DAYS; size++) {
+            final StockHistoryServer stockHistoryServer = newStockHistoryServer(0, size, 0.5);
+            // Rebuilt from the previous size's chart data.
+            final List<ChartData> weekly = cache.getWeeklyChartData(stockHistoryServer);
+            final List<ChartData> monthly = cache.getMonthlyChartData(stockHistoryServer);
+
+            cache.clear();
+            assertSameChartDatas("weekly " + size, cache.getWeeklyChartData(stockHistoryServer), weekly);
+            assertSameChartDatas("monthly " + size, cache.getMonthlyChartData(stockHistoryServer), monthly);
+        }
+    }
+
+    /**
+     * Test of getWeeklyChartData and getMonthlyChartData method, of class
+     * ChartDataCache. Chart data of a stock history, with many days appended
+     * at once, is the same as the full rebuild.
+     */
+    public void testAppendMany() {
+        System.out.println("appendMany");
+        final ChartDataCache cache = ChartDataCache.INSTANCE;
+        final int[] sizes = { 3, 4, 27, 60, 61, 200, DAYS };
+        for (int size : sizes) {
+            final StockHistoryServer stockHistoryServer = newStockHistoryServer(0, size, -0.3);
+            final List<ChartData> weekly = cache.getWeeklyChartData(stockHistoryServer);
+            final List<ChartData> monthly = cache.getMonthlyChartData(stockHistoryServer);
+
+            cache.clear();
+            assertSameChartDatas("weekly " + size, cache.getWeeklyChartData(stockHistoryServer), weekly);
+            assertSameChartDatas("monthly " + size, cache.getMonthlyChartData(stockHistoryServer), monthly);
+        }
+    }
+
+    /**
+     * Test of getWeeklyChartData and getMonthlyChartData method, of class
+     * ChartDataCache. Chart data of a stock history, with days dropped from
+     * the start and appended at the end, as a duration view which moves on
+     * day by day, is the same as the full rebuild.
+     */
+    public void testSlide() {
+        System.out.println("slide");
+        final ChartDataCache cache = ChartDataCache.INSTANCE;
+        final int[] steps = { 1, 3, 7, 40 };
+        for (int step : steps) {
+            cache.clear();
+            for (int from = 0; from + 100 <= DAYS; from += step) {
+                final StockHistoryServer stockHistoryServer = newStockHistoryServer(from, from + 100, 0.5);
+                final List<ChartData> weekly = cache.getWeeklyChartData(stockHistoryServer);
+                final List<ChartData> monthly = cache.getMonthlyChartData(stockHistoryServer);
+
+                final String message = "step " + step + " from " + from;
+                cache.clear();
+                assertSameChartDatas("weekly " + message, cache.getWeeklyChartData(stockHistoryServer), weekly);
+                assertSameChartDatas("monthly " + message, cache.getMonthlyChartData(stockHistoryServer), monthly);
+            }
+        }
+
+        // Fresh copy of the same days, with some days dropped, and more days
+        // appended at once.
+        cache.clear();
+        cache.getWeeklyChartData(newStockHistoryServer(0, 150, 0.0));
+        final StockHistoryServer stockHistoryServer = newStockHistoryServer(60, DAYS, 0.0);
+        final List<ChartData> weekly = cache.getWeeklyChartData(stockHistoryServer);
+        final List<ChartData> monthly = cache.getMonthlyChartData(stockHistoryServer);
+        cache.clear();
+        assertSameChartDatas("weekly", cache.getWeeklyChartData(stockHistoryServer), weekly);
+        assertSameChartDatas("monthly", cache.getMonthlyChartData(stockHistoryServer), monthly);
+    }
+
+    /**
+     * Test of getWeeklyChartData and getMonthlyChartData method, of class
+     * ChartDataCache. Chart data of a stock history, which is not an appended
+     * version of the cached one, is fully rebuilt.
+     */
+    public void testNotAppended() {
+        System.out.println("notAppended");
+        final ChartDataCache cache = ChartDataCache.INSTANCE;
+        final StockHistoryServer full = newStockHistoryServer(0, DAYS, 0.0);
+        cache.clear();
+        final List<ChartData> expectedWeekly = cache.getWeeklyChartData(full);
+        final List<ChartData> expectedMonthly = cache.getMonthlyChartData(full);
+
+        // Starts later.
+        cache.getWeeklyChartData(newStockHistoryServer(5, 100, 0.0));
+        // Same first day, but different days.
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(CODE);
+        for (int i = 0; i < 100; i += 2) {
+            builder.add(timestamps.get(i), 1.0, 1.0, 1.0, 1.0, 1);
+        }
+        cache.getWeeklyChartData(builder.build());
+        assertSameChartDatas("weekly", expectedWeekly, cache.getWeeklyChartData(full));
+        assertSameChartDatas("monthly", expectedMonthly, cache.getMonthlyChartData(full));
+    }
+
+    /**
+     * Test of getWeeklyChartData and getMonthlyChartData method, of class
+     * ChartDataCache, against Calendar week and month.
+     */
+    public void testPeriods() {
+        System.out.println("periods");
+        final StockHistoryServer stockHistoryServer = newStockHistoryServer(0, DAYS, 0.0);
+        int weeks = 0;
+        int months = 0;
+        Calendar prev = null;
+        for (int i = 0; i < stockHistoryServer.size(); i++) {
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(stockHistoryServer.getTimestamp(i));
+            if (prev == null || calendar.get(Calendar.WEEK_OF_YEAR) != prev.get(Calendar.WEEK_OF_YEAR)) {
+                weeks++;
+            }
+            if (prev == null || calendar.get(Calendar.MONTH) != prev.get(Calendar.MONTH)) {
+                months++;
+            }
+            prev = calendar;
+        }
+        assertEquals(weeks, ChartDataCache.INSTANCE.getWeeklyChartData(stockHistoryServer).size());
+        assertEquals(months, ChartDataCache.INSTANCE.getMonthlyChartData(stockHistoryServer).size());
+    }
+
+    private final List<Long> timestamps = new ArrayList<Long>();
+    private final List<Double> closes = new ArrayList<Double>();
+    private final List<Long> volumes = new ArrayList<Long>();
+
+    private static final int DAYS = 300;
+    private static final Code CODE = Code.newInstance("CHART");
+}
@@ -0,0 +1,149 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class ArrayStockHistoryServerTest extends TestCase {
+
+    public ArrayStockHistoryServerTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    // Close price of every row is its timestamp / 10.
+    private static ArrayStockHistoryServer newStockHistoryServer(long... timestamps) {
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(CODE);
+        for (long timestamp : timestamps) {
+            final double close = timestamp / 10;
+            builder.add(timestamp, close - 0.5, close + 1.0, close - 1.0, close, timestamp * 100);
+        }
+        return builder.build();
+    }
+
+    private static void assertAscending(StockHistoryServer stockHistoryServer, long... timestamps) {
+        assertEquals(timestamps.length, stockHistoryServer.size());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertEquals(timestamps[i], stockHistoryServer.getTimestamp(i));
+            assertEquals(timestamps[i], stockHistoryServer.getStockAt(i).getTimestamp());
+        }
+    }
+
+    /**
+     * Test of build method, of class ArrayStockHistoryServer.Builder. Rows
+     * are sorted oldest first, whatever order they are added in.
+     */
+    public void testBuild() {
+        System.out.println("build");
+        assertAscending(newStockHistoryServer(10, 20, 30, 40, 50), 10, 20, 30, 40, 50);
+        assertAscending(newStockHistoryServer(50, 40, 30, 20, 10), 10, 20, 30, 40, 50);
+        assertAscending(newStockHistoryServer(30, 10, 50, 20, 40), 10, 20, 30, 40, 50);
+        assertEquals(0, newStockHistoryServer().size());
+
+        // Last added row wins among rows with same timestamp.
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(CODE);
+        builder.add(20, 1.0, 1.0, 1.0, 1.0, 1);
+        builder.add(10, 1.0, 1.0, 1.0, 1.0, 1);
+        builder.add(20, 2.0, 2.0, 2.0, 2.0, 2);
+        final ArrayStockHistoryServer stockHistoryServer = builder.build();
+        assertAscending(stockHistoryServer, 10, 20);
+        assertEquals(2.0, stockHistoryServer.getStockAt(1).getLastPrice());
+        assertEquals(2L, stockHistoryServer.getStockAt(1).getVolume());
+    }
+
+    /**
+     * Test of getStockAt method, of class ArrayStockHistoryServer. Previous
+     * and change are derived from the previous close.
+     */
+    public void testGetStockAt() {
+        System.out.println("getStockAt");
+        final ArrayStockHistoryServer stockHistoryServer = newStockHistoryServer(40, 10, 20);
+        final Stock first = stockHistoryServer.getStockAt(0);
+        assertEquals(CODE, first.code);
+        assertEquals(1.0, first.getLastPrice());
+        assertEquals(0.5, first.getOpenPrice());
+        assertEquals(2.0, first.getHighPrice());
+        assertEquals(0.0, first.getLowPrice());
+        assertEquals(1000L, first.getVolume());
+        assertEquals(0.0, first.getPrevPrice());
+        assertEquals(0.0, first.getChangePrice());
+        assertEquals(0.0, first.getChangePricePercentage());
+
+        final Stock last = stockHistoryServer.getStockAt(2);
+        assertEquals(2.0, last.getPrevPrice());
+        assertEquals(2.0, last.getChangePrice());
+        assertEquals(100.0, last.getChangePricePercentage());
+
+        assertEquals(2.0, stockHistoryServer.getStock(20).getLastPrice());
+        assertNull(stockHistoryServer.getStock(30));
+        try {
+            stockHistoryServer.getStockAt(3);
+            fail("IndexOutOfBoundsException is expected");
+        } catch (IndexOutOfBoundsException exp) {
+        }
+    }
+
+    /**
+     * Test of floorIndex and ceilingIndex method, of class
+     * ArrayStockHistoryServer.
+     */
+    public void testFloorCeilingIndex() {
+        System.out.println("floorCeilingIndex");
+        final ArrayStockHistoryServer stockHistoryServer = newStockHistoryServer(10, 20, 30, 40, 50);
+        assertEquals(-1, stockHistoryServer.floorIndex(9));
+        assertEquals(0, stockHistoryServer.floorIndex(10));
+        assertEquals(0, stockHistoryServer.floorIndex(19));
+        assertEquals(4, stockHistoryServer.floorIndex(50));
+        assertEquals(4, stockHistoryServer.floorIndex(Long.MAX_VALUE));
+
+        assertEquals(0, stockHistoryServer.ceilingIndex(Long.MIN_VALUE));
+        assertEquals(0, stockHistoryServer.ceilingIndex(10));
+        assertEquals(1, stockHistoryServer.ceilingIndex(11));
+        assertEquals(4, stockHistoryServer.ceilingIndex(50));
+        assertEquals(-1, stockHistoryServer.ceilingIndex(51));
+
+        final ArrayStockHistoryServer empty = newStockHistoryServer();
+        assertEquals(-1, empty.floorIndex(10));
+        assertEquals(-1, empty.ceilingIndex(10));
+    }
+
+    /**
+     * Test of closes method, of class ArrayStockHistoryServer.
+     */
+    public void testCloses() {
+        System.out.println("closes");
+        final ArrayStockHistoryServer stockHistoryServer = newStockHistoryServer(50, 40, 30, 20, 10);
+        assertTrue(Arrays.equals(new double[] {1.0, 2.0, 3.0, 4.0, 5.0}, stockHistoryServer.closes(0, 5)));
+        assertTrue(Arrays.equals(new double[] {2.0, 3.0}, stockHistoryServer.closes(1, 3)));
+        assertEquals(0, stockHistoryServer.closes(2, 2).length);
+        try {
+            stockHistoryServer.closes(3, 6);
+            fail("IndexOutOfBoundsException is expected");
+        } catch (IndexOutOfBoundsException exp) {
+        }
+        try {
+            stockHistoryServer.closes(3, 2);
+            fail("IndexOutOfBoundsException is expected");
+        } catch (IndexOutOfBoundsException exp) {
+        }
+    }
+
+    private static final Code CODE = Code.newInstance("TEST");
+}
@@ -0,0 +1,132 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class CSVStockHistoryParserTest extends TestCase {
+
+    public CSVStockHistoryParserTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    // Daily history of the given number of days, in random order, with some
+    // lines which are not valid, and some days which are repeated.
+    private static String newCSV(int days) {
+        final Random random = new Random(days);
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(1990, Calendar.JANUARY, 1);
+        final List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < days; i++) {
+            final double close = 1.0 + random.nextInt(10000) / 100.0;
+            final String date = String.format("%04d-%02d-%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DATE));
+            lines.add(date + "," + (close - 0.1) + "," + (close + 0.2) + "," + (close - 0.2) + "," + close + "," + random.nextInt(10000000) + "," + close);
+            if (i % 97 == 0) {
+                lines.add(date + "," + close + "," + close + "," + close + "," + close + ",1," + close);
+            }
+            if (i % 997 == 0) {
+                lines.add("Not a date,1.0,1.0,1.0,1.0,1,1.0");
+                lines.add("1.0,1.0");
+            }
+            calendar.add(Calendar.DATE, 1);
+        }
+        Collections.shuffle(lines, random);
+
+        final StringBuilder builder = new StringBuilder("Date,Open,High,Low,Close,Volume,Adj Close\n");
+        for (int i = 0; i < lines.size(); i++) {
+            builder.append(lines.get(i)).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        return builder.toString();
+    }
+
+    private static ArrayStockHistoryServer parse(String csv, int numOfChunks, int[] count) throws IOException {
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(CODE);
+        count[0] = CSVStockHistoryParser.parse(csv.toCharArray(), csv.length(), builder, numOfChunks);
+        assertEquals(count[0], builder.size());
+        return builder.build();
+    }
+
+    private static void assertSameStocks(String message, StockHistoryServer expected, StockHistoryServer actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final Stock e = expected.getStockAt(i);
+            final Stock a = actual.getStockAt(i);
+            assertEquals(message, expected.getTimestamp(i), actual.getTimestamp(i));
+            assertEquals(message, e.getOpenPrice(), a.getOpenPrice());
+            assertEquals(message, e.getHighPrice(), a.getHighPrice());
+            assertEquals(message, e.getLowPrice(), a.getLowPrice());
+            assertEquals(message, e.getLastPrice(), a.getLastPrice());
+            assertEquals(message, e.getPrevPrice(), a.getPrevPrice());
+            assertEquals(message, e.getChangePrice(), a.getChangePrice());
+            assertEquals(message, e.getVolume(), a.getVolume());
+        }
+    }
+
+    /**
+     * Test of parse method, of class CSVStockHistoryParser, in chunks against
+     * the serial result.
+     */
+    public void testParseChunks() throws IOException {
+        System.out.println("parseChunks");
+        final String csv = newCSV(5000);
+        final int[] expectedCount = new int[1];
+        final ArrayStockHistoryServer expected = parse(csv, 1, expectedCount);
+        assertEquals(5000, expected.size());
+
+        final int[] numOfChunks = { 2, 3, 4, 7, 64 };
+        for (int n : numOfChunks) {
+            final int[] count = new int[1];
+            final ArrayStockHistoryServer actual = parse(csv, n, count);
+            assertEquals("chunks " + n, expectedCount[0], count[0]);
+            assertSameStocks("chunks " + n, expected, actual);
+        }
+    }
+
+    /**
+     * Test of parse method, of class CSVStockHistoryParser, from a reader,
+     * below and above the chunked parse threshold.
+     */
+    public void testParseReader() throws IOException {
+        System.out.println("parseReader");
+        final int[] days = { 0, 1, 30, 5000 };
+        for (int n : days) {
+            final String csv = newCSV(n);
+            final int[] expectedCount = new int[1];
+            final ArrayStockHistoryServer expected = parse(csv, 1, expectedCount);
+            final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(CODE);
+            assertEquals("days " + n, expectedCount[0], CSVStockHistoryParser.parse(new StringReader(csv), builder));
+            assertSameStocks("days " + n, expected, builder.build());
+        }
+
+        // Header only, and nothing at all.
+        assertEquals(0, CSVStockHistoryParser.parse(new StringReader("Date,Open,High,Low,Close,Volume,Adj Close"), new ArrayStockHistoryServer.Builder(CODE)));
+        assertEquals(0, CSVStockHistoryParser.parse(new StringReader(""), new ArrayStockHistoryServer.Builder(CODE)));
+    }
+
+    private static final Code CODE = Code.newInstance("TEST");
+}
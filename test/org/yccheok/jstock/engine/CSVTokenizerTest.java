@@ -0,0 +1,165 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import au.com.bytecode.opencsv.CSVParser;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class CSVTokenizerTest extends TestCase {
+
+    public CSVTokenizerTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    private static final String[] LINES = {
+        "\"MAERSKB.CO\",\"AP MOELLER-MAERS-\",\"Copenhagen\",32500.00,33700.00,34200.00,33400.00,660,\"+1200.00\",\"N/A - +3.69%\",33,33500.00,54,33700.00,96,\"11/10/2008\",\"10:53am\"",
+        "\"4707.KL\",\"NESTLE\",\"KLSE\",\"1,234,567\",\"abc,def\",\"abcdef,\",\"N/A\",\"\"",
+        "\"GOOG\",\"Google Inc.\",\"NasdaqNM\",\"-0.05\",\"N/A\",\"1.5E3\",\"+12\""
+    };
+
+    // The previous way of YahooStockFormat, which removes digit grouping
+    // commas by regular expression, and splits by CSVParser, line by line.
+    private static List<String[]> oldParse(String source, boolean isDigitGroupingCommaRemoved) throws IOException {
+        final List<String[]> result = new ArrayList<String[]>();
+        for (String string : source.split("\r\n|\r|\n")) {
+            if (string.length() == 0) {
+                continue;
+            }
+            final String line = isDigitGroupingCommaRemoved ? commaNotBetweenQuotes.matcher(string).replaceAll("") : string;
+            result.add(new CSVParser().parseLine(line));
+        }
+        return result;
+    }
+
+    private static List<String[]> newParse(CSVTokenizer tokenizer, String source) throws IOException {
+        final List<String[]> result = new ArrayList<String[]>();
+        tokenizer.reset(new StringReader(source));
+        while (tokenizer.next()) {
+            final String[] fields = new String[tokenizer.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = tokenizer.get(i);
+            }
+            result.add(fields);
+        }
+        tokenizer.reset(null);
+        return result;
+    }
+
+    private static void assertSameFields(List<String[]> expected, List<String[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(java.util.Arrays.asList(expected.get(i)), java.util.Arrays.asList(actual.get(i)));
+        }
+    }
+
+    /**
+     * Test of next and get method, of class CSVTokenizer, against the previous
+     * regular expression and CSVParser way.
+     */
+    public void testFields() throws IOException {
+        System.out.println("fields");
+        final CSVTokenizer tokenizer = new CSVTokenizer(true);
+        for (String line : LINES) {
+            assertSameFields(oldParse(line, true), newParse(tokenizer, line));
+        }
+    }
+
+    /**
+     * Test of next method, of class CSVTokenizer, on every kind of line
+     * terminator and blank lines.
+     */
+    public void testLineTerminators() throws IOException {
+        System.out.println("lineTerminators");
+        final CSVTokenizer tokenizer = new CSVTokenizer(true);
+        final String source = LINES[0] + "\r\n" + LINES[1] + "\n\n" + LINES[2] + "\r" + LINES[0] + "\r\n";
+        final List<String[]> fields = newParse(tokenizer, source);
+        assertEquals(4, fields.size());
+        assertSameFields(oldParse(source, true), fields);
+    }
+
+    /**
+     * Test of next method, of class CSVTokenizer, with a line longer than its
+     * buffers.
+     */
+    public void testLongLine() throws IOException {
+        System.out.println("longLine");
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append("field").append(i).append('"');
+        }
+        final String source = builder.toString() + "\n" + builder.toString();
+        final CSVTokenizer tokenizer = new CSVTokenizer(true);
+        final List<String[]> fields = newParse(tokenizer, source);
+        assertEquals(2, fields.size());
+        assertEquals(2000, fields.get(1).length);
+        assertSameFields(oldParse(source, true), fields);
+    }
+
+    /**
+     * Test of getDouble, getPercentage, getLong and getInt method, of class
+     * CSVTokenizer, against the previous Double.parseDouble and Long.parseLong
+     * way.
+     */
+    public void testNumbers() throws IOException {
+        System.out.println("numbers");
+        final CSVTokenizer tokenizer = new CSVTokenizer(true);
+        final String source = "\"1,234,567\",\"+1200.00\",\"-0.05\",\"1.5E3\",\"N/A\",\"\",\"+3.69%\"";
+        tokenizer.reset(new StringReader(source));
+        assertTrue(tokenizer.next());
+        assertEquals(1234567L, tokenizer.getLong(0, 0));
+        assertEquals(1234567, tokenizer.getInt(0, 0));
+        assertEquals(Double.parseDouble("+1200.00"), tokenizer.getDouble(1, 0.0));
+        assertEquals(Double.parseDouble("-0.05"), tokenizer.getDouble(2, 0.0));
+        assertEquals(Double.parseDouble("1.5E3"), tokenizer.getDouble(3, 0.0));
+        assertEquals(-1.0, tokenizer.getDouble(4, -1.0));
+        assertEquals(-1L, tokenizer.getLong(4, -1));
+        assertEquals(-1.0, tokenizer.getDouble(5, -1.0));
+        assertEquals(3.69, tokenizer.getPercentage(6, 0.0));
+        assertFalse(tokenizer.next());
+    }
+
+    /**
+     * Test of getDate and getTimestamp method, of class CSVTokenizer, against
+     * the previous SimpleDateFormat way.
+     */
+    public void testDates() throws Exception {
+        System.out.println("dates");
+        final CSVTokenizer tokenizer = new CSVTokenizer(false);
+        tokenizer.reset(new StringReader("2008-11-07,\"11/10/2008\",\"10:53am\",\"12:05pm\",N/A,\"N/A\"\n"));
+        assertTrue(tokenizer.next());
+        assertEquals(new SimpleDateFormat("yyyy-MM-dd").parse("2008-11-07").getTime(), tokenizer.getDate(0));
+        final SimpleDateFormat timestampFormat = new SimpleDateFormat("MM/dd/yyyy hh:mmaa");
+        assertEquals(timestampFormat.parse("11/10/2008 10:53am").getTime(), tokenizer.getTimestamp(1, 2));
+        assertEquals(timestampFormat.parse("11/10/2008 12:05pm").getTime(), tokenizer.getTimestamp(1, 3));
+        assertEquals(Long.MIN_VALUE, tokenizer.getDate(4));
+        assertEquals(0, tokenizer.getTimestamp(5, 5));
+    }
+
+    private static final Pattern commaNotBetweenQuotes = Pattern.compile("(?<!\"),(?!\")");
+}
@@ -0,0 +1,129 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class CharParserTest extends TestCase {
+
+    public CharParserTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    private static double parseDouble(String string, double defaultValue) {
+        // Surrounded by other chars, to make sure the range is respected.
+        final char[] chars = ("x," + string + ",y").toCharArray();
+        return CharParser.parseDouble(chars, 2, 2 + string.length(), defaultValue);
+    }
+
+    private static long parseLong(String string, long defaultValue) {
+        final char[] chars = ("x," + string + ",y").toCharArray();
+        return CharParser.parseLong(chars, 2, 2 + string.length(), defaultValue);
+    }
+
+    private static double oldParseDouble(String string, double defaultValue) {
+        try {
+            return Double.parseDouble(string);
+        } catch (NumberFormatException exp) {
+            return defaultValue;
+        }
+    }
+
+    private static long oldParseLong(String string, long defaultValue) {
+        try {
+            return Long.parseLong(string);
+        } catch (NumberFormatException exp) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Test of parseDouble method, of class CharParser, against
+     * Double.parseDouble.
+     */
+    public void testParseDouble() {
+        System.out.println("parseDouble");
+        final String[] strings = {
+            "0", "-0", "1", "+1", "-1", "1.", ".5", "0.1", "8.20", "-0.05", " 12.5 ", "33700.00",
+            "123456789012345", "1234567890123456789", "0.000000000000000000000001", "1.5E3", "1e-7",
+            "NaN", "Infinity", "-Infinity", "0x1p3", "1.5f", "", " ", "N/A", "-", ".", "1.2.3", "+-1", "12a"
+        };
+        for (String string : strings) {
+            assertEquals(string, oldParseDouble(string, -99.0), parseDouble(string, -99.0));
+        }
+    }
+
+    /**
+     * Test of parseDouble method, of class CharParser, against
+     * Double.parseDouble on random prices. Results must be bit for bit the
+     * same.
+     */
+    public void testParseDoubleRandom() {
+        System.out.println("parseDoubleRandom");
+        final Random random = new Random(0);
+        for (int i = 0; i < 100000; i++) {
+            final long mantissa = random.nextLong() % 100000000000L;
+            final int scale = random.nextInt(8);
+            final StringBuilder builder = new StringBuilder(Long.toString(Math.abs(mantissa)));
+            while (builder.length() <= scale) {
+                builder.insert(0, '0');
+            }
+            builder.insert(builder.length() - scale, '.');
+            if (mantissa < 0) {
+                builder.insert(0, '-');
+            }
+            final String string = builder.toString();
+            assertEquals(string, Double.doubleToLongBits(Double.parseDouble(string)), Double.doubleToLongBits(parseDouble(string, 0.0)));
+        }
+    }
+
+    /**
+     * Test of parseLong method, of class CharParser, against Long.parseLong.
+     */
+    public void testParseLong() {
+        System.out.println("parseLong");
+        final String[] strings = {
+            "0", "-0", "1", "+1", "-1", "10882100", "9223372036854775807", "-9223372036854775808",
+            "9223372036854775808", "99999999999999999999", "", "-", "+", "N/A", "1.0", " 1", "1,234"
+        };
+        for (String string : strings) {
+            assertEquals(string, oldParseLong(string, -99), parseLong(string, -99));
+        }
+    }
+
+    /**
+     * Test of parseInt method, of class CharParser, against Integer.parseInt.
+     */
+    public void testParseInt() {
+        System.out.println("parseInt");
+        final String[] strings = { "0", "-1", "2147483647", "-2147483648", "2147483648", "N/A", "" };
+        for (String string : strings) {
+            int expected;
+            try {
+                expected = Integer.parseInt(string);
+            } catch (NumberFormatException exp) {
+                expected = -99;
+            }
+            final char[] chars = string.toCharArray();
+            assertEquals(string, expected, CharParser.parseInt(chars, 0, chars.length, -99));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.HashSet;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class CodeTest extends TestCase {
+
+    public CodeTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    /**
+     * Test of newInstance method, of class Code. The same string gives the
+     * same instance.
+     */
+    public void testNewInstance() {
+        System.out.println("newInstance");
+        final Code code0 = Code.newInstance("MAYBANK.KL");
+        // A different string instance, with the same content.
+        final Code code1 = Code.newInstance(new String("MAYBANK.KL"));
+        assertSame(code0, code1);
+        assertNotSame(code0, Code.newInstance("maybank.kl"));
+        assertEquals("MAYBANK.KL", code0.toString());
+    }
+
+    /**
+     * Test of newInstance method, of class Code, with null.
+     */
+    public void testNewInstanceNull() {
+        System.out.println("newInstanceNull");
+        try {
+            Code.newInstance(null);
+            fail("IllegalArgumentException is expected");
+        } catch (IllegalArgumentException exp) {
+        }
+    }
+
+    /**
+     * Test of equals and hashCode method, of class Code. Results are the same
+     * as before interning.
+     */
+    public void testEqualsAndHashCode() {
+        System.out.println("equalsAndHashCode");
+        final Code code0 = Code.newInstance("1295.KL");
+        final Code code1 = Code.newInstance("1295.KL");
+        final Code code2 = Code.newInstance("1296.KL");
+        assertEquals(code0, code1);
+        assertEquals(code0.hashCode(), code1.hashCode());
+        assertFalse(code0.equals(code2));
+        assertFalse(code0.equals("1295.KL"));
+        assertFalse(code0.equals(null));
+        assertEquals(31 * 17 + "1295.KL".hashCode(), code0.hashCode());
+
+        final Set<Code> codes = new HashSet<Code>();
+        codes.add(code0);
+        codes.add(code1);
+        codes.add(code2);
+        assertEquals(2, codes.size());
+        assertTrue(codes.contains(Code.newInstance("1296.KL")));
+    }
+
+    /**
+     * Test of readResolve method, of class Code. Code which is deserialized,
+     * for instance by XStream, is replaced by the canonical instance.
+     */
+    public void testReadResolve() throws Exception {
+        System.out.println("readResolve");
+        final Code code = Code.newInstance("GOOG");
+        // Constructed the way a deserializer would, bypassing the pool.
+        final java.lang.reflect.Constructor<Code> constructor = Code.class.getDeclaredConstructor(String.class);
+        constructor.setAccessible(true);
+        final Code deserialized = constructor.newInstance("GOOG");
+        assertNotSame(code, deserialized);
+        assertEquals(code, deserialized);
+        assertEquals(code.hashCode(), deserialized.hashCode());
+
+        final java.lang.reflect.Method readResolve = Code.class.getDeclaredMethod("readResolve");
+        readResolve.setAccessible(true);
+        assertSame(code, readResolve.invoke(deserialized));
+    }
+
+    /**
+     * Test of newInstance method, of class Code, from several threads at the
+     * same time. Every thread must get the same instance.
+     */
+    public void testNewInstanceConcurrently() throws InterruptedException {
+        System.out.println("newInstanceConcurrently");
+        final int size = 8;
+        final Code[][] results = new Code[size][1000];
+        final Thread[] threads = new Thread[size];
+        for (int i = 0; i < size; i++) {
+            final Code[] result = results[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < result.length; j++) {
+                        result[j] = Code.newInstance("CONCURRENT" + j);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 1; i < size; i++) {
+            for (int j = 0; j < 1000; j++) {
+                assertSame(results[0][j], results[i][j]);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.yccheok.jstock.engine.RealTimeStockMonitor.Priority;
+
+/**
+ *
+ * @author yccheok
+ */
+public class PrioritySelectorTest extends TestCase {
+
+    public PrioritySelectorTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    private static Map<Code, Integer> count(PrioritySelector selector, int rounds, int size) {
+        final Map<Code, Integer> counts = new HashMap<Code, Integer>();
+        for (int i = 0; i < rounds; i++) {
+            final List<Code> codes = selector.next(size);
+            // Codes within a single request are distinct.
+            assertEquals(codes.size(), new HashSet<Code>(codes).size());
+            for (Code code : codes) {
+                final Integer c = counts.get(code);
+                counts.put(code, c == null ? 1 : c + 1);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Test of next method, of class PrioritySelector. Every code gets fetch
+     * slots in proportion to its tier's weight.
+     */
+    public void testNextWeights() {
+        System.out.println("nextWeights");
+        final PrioritySelector selector = new PrioritySelector();
+        final Code visible = Code.newInstance("VISIBLE");
+        final Code alerting = Code.newInstance("ALERTING");
+        final Code portfolio = Code.newInstance("PORTFOLIO");
+        final Code background = Code.newInstance("BACKGROUND");
+        selector.put(visible, Priority.Visible);
+        selector.put(alerting, Priority.Alerting);
+        selector.put(portfolio, Priority.Portfolio);
+        selector.put(background, Priority.Background);
+        assertTrue(selector.isWeighted());
+
+        // 8 + 4 + 2 + 1 slots per cycle.
+        final Map<Code, Integer> counts = count(selector, 1500, 1);
+        assertEquals(800, (int)counts.get(visible));
+        assertEquals(400, (int)counts.get(alerting));
+        assertEquals(200, (int)counts.get(portfolio));
+        assertEquals(100, (int)counts.get(background));
+    }
+
+    /**
+     * Test of next method, of class PrioritySelector. Codes within a tier are
+     * visited in round robin.
+     */
+    public void testNextRoundRobin() {
+        System.out.println("nextRoundRobin");
+        final PrioritySelector selector = new PrioritySelector();
+        for (int i = 0; i < 10; i++) {
+            selector.put(Code.newInstance("B" + i), Priority.Background);
+        }
+        assertFalse(selector.isWeighted());
+
+        final Map<Code, Integer> counts = count(selector, 30, 3);
+        assertEquals(10, counts.size());
+        for (Integer c : counts.values()) {
+            assertEquals(9, (int)c);
+        }
+    }
+
+    /**
+     * Test of next method, of class PrioritySelector. A tier never
+     * contributes more than its size to a single request.
+     */
+    public void testNextDistinct() {
+        System.out.println("nextDistinct");
+        final PrioritySelector selector = new PrioritySelector();
+        selector.put(Code.newInstance("V"), Priority.Visible);
+        selector.put(Code.newInstance("B0"), Priority.Background);
+        selector.put(Code.newInstance("B1"), Priority.Background);
+        assertEquals(3, selector.next(10).size());
+        count(selector, 100, 2);
+    }
+
+    /**
+     * Test of put and remove method, of class PrioritySelector.
+     */
+    public void testPutRemove() {
+        System.out.println("putRemove");
+        final PrioritySelector selector = new PrioritySelector();
+        final Code code0 = Code.newInstance("C0");
+        final Code code1 = Code.newInstance("C1");
+        final Code code2 = Code.newInstance("C2");
+        selector.put(code0, Priority.Background);
+        selector.put(code1, Priority.Background);
+        selector.put(code2, Priority.Background);
+
+        // Moved to another tier.
+        selector.put(code0, Priority.Visible);
+        assertTrue(selector.isWeighted());
+        final Map<Code, Integer> counts = count(selector, 100, 1);
+        assertEquals(80, (int)counts.get(code0));
+        assertEquals(10, (int)counts.get(code1));
+        assertEquals(10, (int)counts.get(code2));
+
+        selector.remove(code0);
+        selector.remove(code1);
+        assertFalse(selector.isWeighted());
+        final List<Code> codes = selector.next(3);
+        assertEquals(1, codes.size());
+        assertEquals(code2, codes.get(0));
+
+        selector.clear();
+        assertTrue(selector.next(3).isEmpty());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class QuoteBookTest extends TestCase {
+
+    public QuoteBookTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    private static Stock.Builder newBuilder(String code) {
+        return new Stock.Builder(Code.newInstance(code)).
+                prevPrice(8.0).openPrice(8.1).lastPrice(8.2).highPrice(8.3).lowPrice(7.9).
+                volume(1000).changePrice(0.2).changePricePercentage(2.5).lastVolume(10).
+                buyPrice(8.19).buyQuantity(100).sellPrice(8.21).sellQuantity(200).
+                secondBuyPrice(8.18).secondBuyQuantity(300).thirdSellPrice(8.23).thirdSellQuantity(400).
+                timestamp(1000L);
+    }
+
+    private static void assertSameStock(Stock expected, Stock actual) {
+        assertEquals(expected.code, actual.code);
+        assertEquals(0, StockDelta.getChangeMask(expected, actual));
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+
+    /**
+     * Test of update method, of class QuoteBook.
+     */
+    public void testUpdate() {
+        System.out.println("update");
+        final QuoteBook quoteBook = new QuoteBook();
+        final Stock stock = newBuilder("MAYBANK").build();
+        assertEquals(-1, quoteBook.indexOf(stock.code));
+        assertEquals(StockDelta.ALL, quoteBook.update(stock));
+        final int index = quoteBook.indexOf(stock.code);
+        assertEquals(0, index);
+        assertEquals(1, quoteBook.size());
+        assertSameStock(stock, quoteBook.getStock(index));
+        assertSameStock(stock, quoteBook.getStock(stock.code));
+
+        // Row is overwritten in place.
+        final Stock newStock = newBuilder("MAYBANK").lastPrice(8.4).volume(1500).timestamp(2000L).build();
+        assertEquals(StockDelta.LAST_PRICE | StockDelta.VOLUME, quoteBook.update(newStock));
+        assertEquals(index, quoteBook.indexOf(stock.code));
+        assertEquals(1, quoteBook.size());
+        assertEquals(8.4, quoteBook.getLastPrice(index));
+        assertEquals(1500L, quoteBook.getVolume(index));
+        assertEquals(2000L, quoteBook.getTimestamp(index));
+        assertEquals(StockDelta.LAST_PRICE | StockDelta.VOLUME, quoteBook.getChangeMask(index));
+        assertSameStock(newStock, quoteBook.getStock(index));
+        assertNull(quoteBook.getStock(Code.newInstance("UNKNOWN")));
+    }
+
+    /**
+     * Test of getVersion and getIndicesUpdatedSince method, of class
+     * QuoteBook. Version is only bumped by changes.
+     */
+    public void testVersion() {
+        System.out.println("version");
+        final QuoteBook quoteBook = new QuoteBook();
+        assertEquals(0L, quoteBook.getVersion());
+        quoteBook.update(newBuilder("A").build());
+        quoteBook.update(newBuilder("B").build());
+        quoteBook.update(newBuilder("C").build());
+        final long version = quoteBook.getVersion();
+        assertEquals(3L, version);
+        assertEquals(0, quoteBook.getIndicesUpdatedSince(version).length);
+
+        // Only timestamp has changed.
+        assertEquals(0, quoteBook.update(newBuilder("B").timestamp(2000L).build()));
+        assertEquals(version, quoteBook.getVersion());
+        assertEquals(2000L, quoteBook.getTimestamp(quoteBook.indexOf(Code.newInstance("B"))));
+
+        quoteBook.update(newBuilder("C").lastPrice(9.0).build());
+        quoteBook.update(newBuilder("A").lastPrice(9.0).build());
+        assertEquals(version + 2, quoteBook.getVersion());
+        assertTrue(Arrays.equals(new int[] {0, 2}, quoteBook.getIndicesUpdatedSince(version)));
+        assertTrue(Arrays.equals(new int[] {0}, quoteBook.getIndicesUpdatedSince(version + 1)));
+        assertEquals(version + 2, quoteBook.getVersion(0));
+        assertEquals(2L, quoteBook.getVersion(1));
+        assertEquals(version + 1, quoteBook.getVersion(2));
+    }
+
+    /**
+     * Test of add method, of class QuoteBook. Existing row is never
+     * overwritten.
+     */
+    public void testAdd() {
+        System.out.println("add");
+        final QuoteBook quoteBook = new QuoteBook();
+        final Stock stock = newBuilder("MAYBANK").build();
+        assertEquals(0, quoteBook.add(stock));
+        assertSameStock(stock, quoteBook.getStock(0));
+        final long version = quoteBook.getVersion();
+
+        assertEquals(0, quoteBook.add(newBuilder("MAYBANK").lastPrice(0.0).build()));
+        assertSameStock(stock, quoteBook.getStock(0));
+        assertEquals(version, quoteBook.getVersion());
+        assertEquals(1, quoteBook.add(newBuilder("PBBANK").build()));
+    }
+
+    /**
+     * Test of read method, of class QuoteBook, with a reused quote.
+     */
+    public void testRead() {
+        System.out.println("read");
+        final QuoteBook quoteBook = new QuoteBook();
+        final Stock a = newBuilder("A").build();
+        final Stock b = newBuilder("B").lastPrice(3.0).sellQuantity(7).build();
+        quoteBook.update(a);
+        quoteBook.update(b);
+
+        final QuoteBook.Quote quote = new QuoteBook.Quote();
+        quoteBook.read(0, quote);
+        assertEquals(a.code, quote.code);
+        assertEquals(1L, quote.version);
+        assertSameStock(a, quote.toStock());
+        quoteBook.read(1, quote);
+        assertEquals(b.code, quote.code);
+        assertEquals(2L, quote.version);
+        assertEquals(3.0, quote.lastPrice);
+        assertEquals(7, quote.sellQuantity);
+        assertSameStock(b, quote.toStock());
+    }
+
+    /**
+     * Test of update method, of class QuoteBook, beyond the initial capacity.
+     * Indices stay the same, as columns grow.
+     */
+    public void testGrow() {
+        System.out.println("grow");
+        final QuoteBook quoteBook = new QuoteBook();
+        final int size = 1000;
+        for (int i = 0; i < size; i++) {
+            assertEquals(StockDelta.ALL, quoteBook.update(newBuilder("S" + i).lastPrice(i).volume(i * 10L).build()));
+        }
+        assertEquals(size, quoteBook.size());
+        for (int i = 0; i < size; i++) {
+            final int index = quoteBook.indexOf(Code.newInstance("S" + i));
+            assertEquals(i, index);
+            assertEquals((double)i, quoteBook.getLastPrice(index));
+            assertEquals(i * 10L, quoteBook.getVolume(index));
+        }
+    }
+
+    /**
+     * Test of getQuoteBook method, of class RealTimeStockMonitor, in hub
+     * mode. Hub's underlying monitor writes into the hub's quote book, which
+     * is shared by every subscriber, and survives replacement of the
+     * underlying monitor.
+     */
+    public void testHubQuoteBook() {
+        System.out.println("hubQuoteBook");
+        final RealTimeStockMonitor underlying = new RealTimeStockMonitor(1, 10, 1000);
+        final RealTimeStockMonitorHub hub = new RealTimeStockMonitorHub(underlying);
+        try {
+            final RealTimeStockMonitor subscriber0 = hub.newRealTimeStockMonitor();
+            final RealTimeStockMonitor subscriber1 = hub.newRealTimeStockMonitor();
+            final QuoteBook quoteBook = hub.getQuoteBook();
+            assertSame(quoteBook, underlying.getQuoteBook());
+            assertSame(quoteBook, subscriber0.getQuoteBook());
+            assertSame(quoteBook, subscriber1.getQuoteBook());
+
+            final Stock stock = newBuilder("MAYBANK").build();
+            underlying.notify(underlying, java.util.Collections.singletonList(stock));
+            assertSameStock(stock, quoteBook.getStock(stock.code));
+
+            final RealTimeStockMonitor replacement = new RealTimeStockMonitor(1, 10, 1000);
+            hub.setRealTimeStockMonitor(replacement);
+            assertSame(quoteBook, subscriber0.getQuoteBook());
+            final Stock newStock = newBuilder("MAYBANK").lastPrice(9.0).build();
+            replacement.notify(replacement, java.util.Collections.singletonList(newStock));
+            assertSameStock(newStock, quoteBook.getStock(stock.code));
+            underlying.stop();
+        } finally {
+            hub.stop();
+        }
+    }
+}
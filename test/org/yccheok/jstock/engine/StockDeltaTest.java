@@ -0,0 +1,111 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class StockDeltaTest extends TestCase {
+
+    public StockDeltaTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    private static Stock.Builder newBuilder() {
+        return new Stock.Builder(Code.newInstance("MAYBANK")).
+                prevPrice(8.0).openPrice(8.1).lastPrice(8.2).highPrice(8.3).lowPrice(7.9).
+                volume(1000).changePrice(0.2).changePricePercentage(2.5).lastVolume(10).
+                buyPrice(8.19).buyQuantity(100).sellPrice(8.21).sellQuantity(200).
+                timestamp(1000L);
+    }
+
+    /**
+     * Test of getChangeMask method, of class StockDelta, when there is no
+     * old stock.
+     */
+    public void testGetChangeMaskWithoutOldStock() {
+        System.out.println("getChangeMaskWithoutOldStock");
+        assertEquals(StockDelta.ALL, StockDelta.getChangeMask(null, newBuilder().build()));
+    }
+
+    /**
+     * Test of getChangeMask method, of class StockDelta, when nothing but
+     * timestamp has changed.
+     */
+    public void testGetChangeMaskIgnoresTimestamp() {
+        System.out.println("getChangeMaskIgnoresTimestamp");
+        final Stock oldStock = newBuilder().build();
+        final Stock newStock = newBuilder().timestamp(2000L).build();
+        assertEquals(0, StockDelta.getChangeMask(oldStock, newStock));
+    }
+
+    /**
+     * Test of getChangeMask method, of class StockDelta, on a single field.
+     */
+    public void testGetChangeMaskSingleField() {
+        System.out.println("getChangeMaskSingleField");
+        final Stock oldStock = newBuilder().build();
+        assertEquals(StockDelta.LAST_PRICE, StockDelta.getChangeMask(oldStock, newBuilder().lastPrice(8.25).build()));
+        assertEquals(StockDelta.VOLUME, StockDelta.getChangeMask(oldStock, newBuilder().volume(1001).build()));
+        assertEquals(StockDelta.LAST_VOLUME, StockDelta.getChangeMask(oldStock, newBuilder().lastVolume(11).build()));
+        assertEquals(StockDelta.BUY_QUANTITY, StockDelta.getChangeMask(oldStock, newBuilder().buyQuantity(101).build()));
+        assertEquals(StockDelta.THIRD_SELL_PRICE, StockDelta.getChangeMask(oldStock, newBuilder().thirdSellPrice(8.3).build()));
+    }
+
+    /**
+     * Test of getChangeMask method, of class StockDelta, on several fields.
+     */
+    public void testGetChangeMaskSeveralFields() {
+        System.out.println("getChangeMaskSeveralFields");
+        final Stock oldStock = newBuilder().build();
+        final Stock newStock = newBuilder().lastPrice(8.4).highPrice(8.4).changePrice(0.4).changePricePercentage(5.0).volume(1500).build();
+        final int mask = StockDelta.getChangeMask(oldStock, newStock);
+        assertEquals(StockDelta.LAST_PRICE | StockDelta.HIGH_PRICE | StockDelta.CHANGE_PRICE | StockDelta.CHANGE_PRICE_PERCENTAGE | StockDelta.VOLUME, mask);
+        assertTrue((mask & StockDelta.PRICE) != 0);
+        assertTrue((mask & StockDelta.VOLUME_ALL) != 0);
+        assertEquals(0, mask & StockDelta.DEPTH);
+    }
+
+    /**
+     * Test of field masks, of class StockDelta. Every field has its own bit,
+     * and the groups cover all of them.
+     */
+    public void testMasks() {
+        System.out.println("masks");
+        final int[] masks = {
+            StockDelta.PREV_PRICE, StockDelta.OPEN_PRICE, StockDelta.LAST_PRICE, StockDelta.HIGH_PRICE,
+            StockDelta.LOW_PRICE, StockDelta.VOLUME, StockDelta.CHANGE_PRICE, StockDelta.CHANGE_PRICE_PERCENTAGE,
+            StockDelta.LAST_VOLUME, StockDelta.BUY_PRICE, StockDelta.BUY_QUANTITY, StockDelta.SELL_PRICE,
+            StockDelta.SELL_QUANTITY, StockDelta.SECOND_BUY_PRICE, StockDelta.SECOND_BUY_QUANTITY,
+            StockDelta.SECOND_SELL_PRICE, StockDelta.SECOND_SELL_QUANTITY, StockDelta.THIRD_BUY_PRICE,
+            StockDelta.THIRD_BUY_QUANTITY, StockDelta.THIRD_SELL_PRICE, StockDelta.THIRD_SELL_QUANTITY
+        };
+        int all = 0;
+        for (int mask : masks) {
+            assertEquals(1, Integer.bitCount(mask));
+            assertEquals(0, all & mask);
+            all |= mask;
+        }
+        assertEquals(StockDelta.ALL, all);
+        assertEquals(StockDelta.ALL, StockDelta.PRICE | StockDelta.VOLUME_ALL | StockDelta.DEPTH);
+        assertEquals(0, StockDelta.PRICE & StockDelta.VOLUME_ALL);
+        assertEquals(0, StockDelta.PRICE & StockDelta.DEPTH);
+        assertEquals(0, StockDelta.VOLUME_ALL & StockDelta.DEPTH);
+    }
+}
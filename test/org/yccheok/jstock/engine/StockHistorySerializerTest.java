@@ -0,0 +1,227 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class StockHistorySerializerTest extends TestCase {
+
+    public StockHistorySerializerTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("history", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    private static long getTimestamp(SimpleDate simpleDate) {
+        return simpleDate.getCalendar().getTimeInMillis();
+    }
+
+    // Trading days, Monday to Friday, from start to end inclusive. Close
+    // price of a day is base plus its day of month.
+    private static StockHistoryServer newStockHistoryServer(Code code, SimpleDate start, SimpleDate end, double base) {
+        final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(code);
+        final java.util.Calendar calendar = start.getCalendar();
+        final long endTimestamp = getTimestamp(end);
+        while (calendar.getTimeInMillis() <= endTimestamp) {
+            final int dayOfWeek = calendar.get(java.util.Calendar.DAY_OF_WEEK);
+            if (dayOfWeek != java.util.Calendar.SATURDAY && dayOfWeek != java.util.Calendar.SUNDAY) {
+                final double close = base + calendar.get(java.util.Calendar.DATE);
+                builder.add(calendar.getTimeInMillis(), close - 0.5, close + 1.0, close - 1.0, close, 1000L * calendar.get(java.util.Calendar.DATE));
+            }
+            calendar.add(java.util.Calendar.DATE, 1);
+        }
+        return builder.sharesIssued(123456789L).marketCapital(987654321L).build();
+    }
+
+    private static void assertSameStocks(StockHistoryServer expected, StockHistoryServer actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final Stock e = expected.getStockAt(i);
+            final Stock a = actual.getStockAt(i);
+            assertEquals(expected.getTimestamp(i), actual.getTimestamp(i));
+            assertEquals(e.code, a.code);
+            assertEquals(e.getOpenPrice(), a.getOpenPrice());
+            assertEquals(e.getHighPrice(), a.getHighPrice());
+            assertEquals(e.getLowPrice(), a.getLowPrice());
+            assertEquals(e.getLastPrice(), a.getLastPrice());
+            assertEquals(e.getVolume(), a.getVolume());
+        }
+    }
+
+    /**
+     * Test of save and load method, of class StockHistorySerializer.
+     */
+    public void testSaveLoad() {
+        System.out.println("saveLoad");
+        final Code code = Code.newInstance("4707.KL");
+        final Duration duration = new Duration(new SimpleDate(2026, 0, 1), new SimpleDate(2026, 2, 31));
+        final StockHistoryServer stockHistoryServer = newStockHistoryServer(code, duration.getStartDate(), duration.getEndDate(), 10.0);
+        final StockHistorySerializer serializer = new StockHistorySerializer(directory.getPath());
+        assertTrue(serializer.save(stockHistoryServer, duration));
+        assertTrue(new File(directory, "4707.KL.hist").exists());
+
+        final MappedStockHistoryServer loaded = serializer.load(code);
+        assertNotNull(loaded);
+        assertEquals(duration, loaded.getDuration());
+        assertEquals(123456789L, loaded.getSharesIssued());
+        assertEquals(987654321L, loaded.getMarketCapital());
+        assertSameStocks(stockHistoryServer, loaded);
+
+        // Previous and change are derived from the previous close.
+        assertEquals(0.0, loaded.getStockAt(0).getPrevPrice());
+        assertEquals(0.0, loaded.getStockAt(0).getChangePrice());
+        final Stock stock = loaded.getStockAt(1);
+        final double previous = loaded.getStockAt(0).getLastPrice();
+        assertEquals(previous, stock.getPrevPrice());
+        assertEquals(stock.getLastPrice() - previous, stock.getChangePrice());
+        assertEquals((stock.getLastPrice() - previous) / previous * 100.0, stock.getChangePricePercentage());
+
+        assertNull(serializer.load(Code.newInstance("UNKNOWN")));
+    }
+
+    /**
+     * Test of load method, of class StockHistorySerializer, within a
+     * duration.
+     */
+    public void testLoadDuration() {
+        System.out.println("loadDuration");
+        final Code code = Code.newInstance("GOOG");
+        final Duration duration = new Duration(new SimpleDate(2026, 0, 1), new SimpleDate(2026, 2, 31));
+        final StockHistorySerializer serializer = new StockHistorySerializer(directory.getPath());
+        assertTrue(serializer.save(newStockHistoryServer(code, duration.getStartDate(), duration.getEndDate(), 10.0), duration));
+
+        final StockHistoryServer view = serializer.load(code, new Duration(new SimpleDate(2026, 1, 1), new SimpleDate(2026, 1, 28)));
+        assertNotNull(view);
+        // February 2026 has 20 week days.
+        assertEquals(20, view.size());
+        assertEquals(getTimestamp(new SimpleDate(2026, 1, 2)), view.getTimestamp(0));
+        assertEquals(getTimestamp(new SimpleDate(2026, 1, 27)), view.getTimestamp(19));
+
+        assertNull(serializer.load(code, new Duration(new SimpleDate(2025, 0, 1), new SimpleDate(2025, 11, 31))));
+    }
+
+    /**
+     * Test of merge method, of class StockHistorySerializer, with overlapping
+     * durations. Fetched stocks take precedence.
+     */
+    public void testMerge() {
+        System.out.println("merge");
+        final Code code = Code.newInstance("MAYBANK.KL");
+        final Duration cachedDuration = new Duration(new SimpleDate(2026, 0, 1), new SimpleDate(2026, 1, 28));
+        final Duration fetchedDuration = new Duration(new SimpleDate(2026, 1, 16), new SimpleDate(2026, 2, 31));
+        final StockHistorySerializer serializer = new StockHistorySerializer(directory.getPath());
+        assertTrue(serializer.save(newStockHistoryServer(code, cachedDuration.getStartDate(), cachedDuration.getEndDate(), 10.0), cachedDuration));
+
+        final StockHistoryServer fetched = newStockHistoryServer(code, fetchedDuration.getStartDate(), fetchedDuration.getEndDate(), 20.0);
+        final MappedStockHistoryServer merged = serializer.merge(fetched, fetchedDuration);
+        assertNotNull(merged);
+        assertEquals(new Duration(new SimpleDate(2026, 0, 1), new SimpleDate(2026, 2, 31)), merged.getDuration());
+
+        final StockHistoryServer expected = newStockHistoryServer(code, new SimpleDate(2026, 0, 1), new SimpleDate(2026, 2, 31), 0.0);
+        assertEquals(expected.size(), merged.size());
+        final long fetchedStart = getTimestamp(fetchedDuration.getStartDate());
+        for (int i = 0; i < merged.size(); i++) {
+            assertEquals(expected.getTimestamp(i), merged.getTimestamp(i));
+            final double base = merged.getTimestamp(i) < fetchedStart ? 10.0 : 20.0;
+            assertEquals(expected.getStockAt(i).getLastPrice() + base, merged.getStockAt(i).getLastPrice());
+        }
+
+        // Merged result is what is cached.
+        assertSameStocks(merged, serializer.load(code));
+    }
+
+    /**
+     * Test of merge method, of class StockHistorySerializer, with disjoint
+     * durations. Cached stocks are replaced, as there would be a gap in
+     * between.
+     */
+    public void testMergeDisjoint() {
+        System.out.println("mergeDisjoint");
+        final Code code = Code.newInstance("PBBANK.KL");
+        final Duration cachedDuration = new Duration(new SimpleDate(2026, 0, 1), new SimpleDate(2026, 0, 31));
+        final Duration fetchedDuration = new Duration(new SimpleDate(2026, 2, 1), new SimpleDate(2026, 2, 31));
+        final StockHistorySerializer serializer = new StockHistorySerializer(directory.getPath());
+        assertTrue(serializer.save(newStockHistoryServer(code, cachedDuration.getStartDate(), cachedDuration.getEndDate(), 10.0), cachedDuration));
+
+        final StockHistoryServer fetched = newStockHistoryServer(code, fetchedDuration.getStartDate(), fetchedDuration.getEndDate(), 20.0);
+        final MappedStockHistoryServer merged = serializer.merge(fetched, fetchedDuration);
+        assertNotNull(merged);
+        assertEquals(fetchedDuration, merged.getDuration());
+        assertSameStocks(fetched, merged);
+    }
+
+    /**
+     * Test of merge method, of class StockHistorySerializer, in memory. It is
+     * the same as what is cached by merge.
+     */
+    public void testMergeInMemory() {
+        System.out.println("mergeInMemory");
+        final Code code = Code.newInstance("TENAGA.KL");
+        final Duration cachedDuration = new Duration(new SimpleDate(2026, 0, 1), new SimpleDate(2026, 1, 28));
+        final Duration fetchedDuration = new Duration(new SimpleDate(2026, 1, 27), new SimpleDate(2026, 2, 13));
+        final StockHistorySerializer serializer = new StockHistorySerializer(directory.getPath());
+        assertTrue(serializer.save(newStockHistoryServer(code, cachedDuration.getStartDate(), cachedDuration.getEndDate(), 10.0), cachedDuration));
+
+        final StockHistoryServer fetched = newStockHistoryServer(code, fetchedDuration.getStartDate(), fetchedDuration.getEndDate(), 20.0);
+        final StockHistoryServer merged = StockHistorySerializer.merge(serializer.load(code), fetched, fetchedDuration);
+        assertEquals(123456789L, merged.getSharesIssued());
+        assertSameStocks(serializer.merge(fetched, fetchedDuration), merged);
+    }
+
+    /**
+     * Test of newInstance method, of class MappedStockHistoryServer, with
+     * files which are not valid.
+     */
+    public void testCorrupted() throws IOException {
+        System.out.println("corrupted");
+        final Code code = Code.newInstance("CORRUPTED");
+        final Duration duration = new Duration(new SimpleDate(2026, 0, 1), new SimpleDate(2026, 0, 31));
+        final StockHistorySerializer serializer = new StockHistorySerializer(directory.getPath());
+        assertTrue(serializer.save(newStockHistoryServer(code, duration.getStartDate(), duration.getEndDate(), 10.0), duration));
+        final File file = new File(directory, "CORRUPTED.hist");
+        final long length = file.length();
+
+        // Truncated.
+        final FileOutputStream output = new FileOutputStream(file, true);
+        output.getChannel().truncate(length - 8);
+        output.close();
+        assertNull(serializer.load(code));
+
+        // Not a history file at all.
+        final FileOutputStream garbage = new FileOutputStream(file);
+        garbage.write("Date,Open,High,Low,Close,Volume\n".getBytes("UTF-8"));
+        garbage.write(new byte[64]);
+        garbage.close();
+        assertNull(serializer.load(code));
+    }
+
+    private File directory;
+}
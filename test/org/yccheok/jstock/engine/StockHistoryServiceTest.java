@@ -0,0 +1,93 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.File;
+import java.util.Calendar;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class StockHistoryServiceTest extends TestCase {
+
+    public StockHistoryServiceTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    /**
+     * Test of isTailMissing method, of class StockHistoryService.
+     */
+    public void testIsTailMissing() {
+        System.out.println("isTailMissing");
+        // Friday 9 January 2026.
+        final Duration cached = new Duration(new SimpleDate(2025, 0, 1), new SimpleDate(2026, 0, 9));
+        assertFalse(StockHistoryService.isTailMissing(cached, new Duration(new SimpleDate(2025, 0, 1), new SimpleDate(2026, 0, 9))));
+        assertFalse(StockHistoryService.isTailMissing(cached, new Duration(new SimpleDate(2025, 0, 1), new SimpleDate(2026, 0, 5))));
+        // Only weekend is missing.
+        assertFalse(StockHistoryService.isTailMissing(cached, new Duration(new SimpleDate(2025, 0, 1), new SimpleDate(2026, 0, 11))));
+        // Monday is missing.
+        assertTrue(StockHistoryService.isTailMissing(cached, new Duration(new SimpleDate(2025, 0, 1), new SimpleDate(2026, 0, 12))));
+
+        // Days after today are never missing.
+        final SimpleDate today = new SimpleDate();
+        final Calendar calendar = today.getCalendar();
+        calendar.add(Calendar.DATE, 30);
+        final Duration upToToday = new Duration(new SimpleDate(2025, 0, 1), today);
+        assertFalse(StockHistoryService.isTailMissing(upToToday, new Duration(new SimpleDate(2025, 0, 1), new SimpleDate(calendar))));
+    }
+
+    /**
+     * Test of getMissingDuration method, of class StockHistoryService.
+     */
+    public void testGetMissingDuration() throws Exception {
+        System.out.println("getMissingDuration");
+        final File directory = File.createTempFile("history", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+        final File file = new File(directory, "GOOG.hist");
+        try {
+            // Cached from Monday 5 January to Friday 9 January 2026.
+            final Duration cachedDuration = new Duration(new SimpleDate(2026, 0, 5), new SimpleDate(2026, 0, 9));
+            final ArrayStockHistoryServer.Builder builder = new ArrayStockHistoryServer.Builder(Code.newInstance("GOOG"));
+            for (int date = 5; date <= 9; date++) {
+                builder.add(new SimpleDate(2026, 0, date).getCalendar().getTimeInMillis(), 1.0, 1.0, 1.0, 1.0, 100);
+            }
+            assertTrue(MappedStockHistoryServer.save(builder.build(), cachedDuration, file));
+            final MappedStockHistoryServer cached = MappedStockHistoryServer.newInstance(file);
+
+            final Duration other = new Duration(new SimpleDate(2025, 0, 1), new SimpleDate(2025, 0, 31));
+            assertEquals(other, StockHistoryService.getMissingDuration(null, other));
+            assertEquals(other, StockHistoryService.getMissingDuration(cached, other));
+            assertNull(StockHistoryService.getMissingDuration(cached, cachedDuration));
+
+            // Weekends around the cached duration are not fetched.
+            assertNull(StockHistoryService.getMissingDuration(cached, new Duration(new SimpleDate(2026, 0, 3), new SimpleDate(2026, 0, 11))));
+
+            // Last cached day is fetched again, along with the missing tail.
+            assertEquals(new Duration(new SimpleDate(2026, 0, 9), new SimpleDate(2026, 0, 13)),
+                    StockHistoryService.getMissingDuration(cached, new Duration(new SimpleDate(2026, 0, 5), new SimpleDate(2026, 0, 13))));
+            assertEquals(new Duration(new SimpleDate(2026, 0, 2), new SimpleDate(2026, 0, 5)),
+                    StockHistoryService.getMissingDuration(cached, new Duration(new SimpleDate(2026, 0, 2), new SimpleDate(2026, 0, 9))));
+            final Duration wider = new Duration(new SimpleDate(2026, 0, 2), new SimpleDate(2026, 0, 12));
+            assertEquals(wider, StockHistoryService.getMissingDuration(cached, wider));
+        } finally {
+            file.delete();
+            directory.delete();
+        }
+    }
+}
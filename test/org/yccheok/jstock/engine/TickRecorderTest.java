@@ -0,0 +1,182 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.yccheok.jstock.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author yccheok
+ */
+public class TickRecorderTest extends TestCase {
+
+    public TickRecorderTest(String testName) {
+        super(testName);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("ticks", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    private static long getTime(int year, int month, int date, int hour, int minute) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, date, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    private static Stock newStock(String code, double lastPrice, long volume, long timestamp) {
+        return new Stock.Builder(Code.newInstance(code)).lastPrice(lastPrice).openPrice(lastPrice - 0.1).volume(volume).timestamp(timestamp).build();
+    }
+
+    private static void assertStock(Stock expected, Stock actual) {
+        assertEquals(expected.code, actual.code);
+        assertEquals(expected.getLastPrice(), actual.getLastPrice());
+        assertEquals(expected.getOpenPrice(), actual.getOpenPrice());
+        assertEquals(expected.getVolume(), actual.getVolume());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+    }
+
+    /**
+     * Test of record and read method, of class TickRecorder.
+     */
+    public void testRecordRead() {
+        System.out.println("recordRead");
+        final TickRecorder recorder = new TickRecorder(directory);
+        final long time = getTime(2026, Calendar.JANUARY, 5, 10, 0);
+        final Stock a0 = newStock("A", 1.0, 100, time);
+        final Stock b0 = newStock("B", 2.0, 200, time);
+        final Stock a1 = newStock("A", 1.1, 150, time + 60000);
+        recorder.record(Arrays.asList(a0, b0), time);
+        recorder.record(Arrays.asList(a1), time + 60000);
+
+        List<Stock> stocks = recorder.read(Code.newInstance("A"), time, time + 60000);
+        assertEquals(2, stocks.size());
+        assertStock(a0, stocks.get(0));
+        assertStock(a1, stocks.get(1));
+
+        // Range is respected.
+        stocks = recorder.read(Code.newInstance("A"), time + 1, time + 60000);
+        assertEquals(1, stocks.size());
+        assertStock(a1, stocks.get(0));
+
+        assertTrue(recorder.read(Code.newInstance("C"), time, time + 60000).isEmpty());
+        recorder.close();
+
+        // Readable after close, by another instance.
+        stocks = new TickRecorder(directory).read(Code.newInstance("B"), time, time + 60000);
+        assertEquals(1, stocks.size());
+        assertStock(b0, stocks.get(0));
+    }
+
+    /**
+     * Test of record method, of class TickRecorder. Unchanged repeats are not
+     * recorded.
+     */
+    public void testRecordUnchanged() {
+        System.out.println("recordUnchanged");
+        final TickRecorder recorder = new TickRecorder(directory);
+        final long time = getTime(2026, Calendar.JANUARY, 5, 10, 0);
+        recorder.record(Arrays.asList(newStock("A", 1.0, 100, time)), time);
+        recorder.record(Arrays.asList(newStock("A", 1.0, 100, time)), time + 1000);
+        recorder.record(Arrays.asList(newStock("A", 1.0, 100, time)), time + 2000);
+        recorder.record(Arrays.asList(newStock("A", 1.0, 120, time)), time + 3000);
+        recorder.record(Arrays.asList(newStock("A", 1.0, 120, time)), time + 4000);
+        assertEquals(2, recorder.read(Code.newInstance("A"), time, time + 4000).size());
+        recorder.close();
+    }
+
+    /**
+     * Test of read method, of class TickRecorder, across several codes and
+     * days.
+     */
+    public void testReadAll() {
+        System.out.println("readAll");
+        final TickRecorder recorder = new TickRecorder(directory);
+        final long day0 = getTime(2026, Calendar.JANUARY, 5, 10, 0);
+        final long day1 = getTime(2026, Calendar.JANUARY, 6, 10, 0);
+        recorder.record(Arrays.asList(newStock("A", 1.0, 100, day0), newStock("B", 2.0, 200, day0)), day0);
+        recorder.record(Arrays.asList(newStock("A", 1.1, 110, day1)), day1);
+        recorder.record(Arrays.asList(newStock("B", 2.1, 210, day1 + 1000)), day1 + 1000);
+
+        final List<Stock> stocks = recorder.read(day0, day1 + 1000);
+        assertEquals(4, stocks.size());
+        assertEquals(2.1, stocks.get(3).getLastPrice());
+        assertEquals(2, recorder.read(day0 + 1, day1 + 1000).size());
+        recorder.close();
+    }
+
+    /**
+     * Test of read method, of class TickRecorder, with a missing or stale
+     * index file. The index is rebuilt from the tick file.
+     */
+    public void testRebuildIndex() throws IOException {
+        System.out.println("rebuildIndex");
+        final long time = getTime(2026, Calendar.JANUARY, 5, 10, 0);
+        TickRecorder recorder = new TickRecorder(directory);
+        recorder.record(Arrays.asList(newStock("A", 1.0, 100, time), newStock("B", 2.0, 200, time)), time);
+        recorder.record(Arrays.asList(newStock("A", 1.1, 110, time)), time + 1000);
+        recorder.close();
+
+        final File indexFile = new File(directory, "20260105.idx");
+        assertTrue(indexFile.exists());
+        assertTrue(indexFile.delete());
+        assertEquals(2, new TickRecorder(directory).read(Code.newInstance("A"), time, time + 1000).size());
+
+        // Appended without close, as after a crash. Index on disk is stale.
+        recorder = new TickRecorder(directory);
+        recorder.record(Arrays.asList(newStock("A", 1.2, 120, time)), time + 2000);
+        assertEquals(3, new TickRecorder(directory).read(Code.newInstance("A"), time, time + 2000).size());
+        recorder.close();
+    }
+
+    /**
+     * Test of setRetentionDays method, of class TickRecorder. Files of old
+     * days are deleted, when a new day's segment is started.
+     */
+    public void testRetentionDays() {
+        System.out.println("retentionDays");
+        final long day0 = getTime(2026, Calendar.JANUARY, 5, 10, 0);
+        final long day1 = getTime(2026, Calendar.JANUARY, 20, 10, 0);
+        final long day2 = getTime(2026, Calendar.FEBRUARY, 10, 10, 0);
+        final TickRecorder recorder = new TickRecorder(directory);
+        recorder.setRetentionDays(30);
+        recorder.record(Arrays.asList(newStock("A", 1.0, 100, day0)), day0);
+        recorder.record(Arrays.asList(newStock("A", 1.1, 110, day1)), day1);
+        assertTrue(new File(directory, "20260105.tick").exists());
+        recorder.record(Arrays.asList(newStock("A", 1.2, 120, day2)), day2);
+        recorder.close();
+
+        assertFalse(new File(directory, "20260105.tick").exists());
+        assertFalse(new File(directory, "20260105.codes").exists());
+        assertFalse(new File(directory, "20260105.idx").exists());
+        assertTrue(new File(directory, "20260120.tick").exists());
+        assertEquals(2, new TickRecorder(directory).read(day0, day2).size());
+    }
+
+    private File directory;
+}